@@ -3,6 +3,7 @@ package com.assistant.root.ai;
 import android.content.Context;
 import android.util.Log;
 
+import com.assistant.root.shell.PriorityScheduler;
 import com.google.ai.client.generativeai.GenerativeModel;
 import com.google.ai.client.generativeai.java.GenerativeModelFutures;
 import com.google.ai.client.generativeai.type.Content;
@@ -128,7 +129,9 @@ public class AICommandGenerator {
                 .addText(prompt)
                 .build();
 
-        ListenableFuture<GenerateContentResponse> response = model.generateContent(content);
+        // Runs in the caller's scheduler lane, so warmups queue behind user commands
+        ListenableFuture<GenerateContentResponse> response = PriorityScheduler.submitAsync(
+                PriorityScheduler.currentLane(), () -> model.generateContent(content));
 
         Futures.addCallback(response, new FutureCallback<GenerateContentResponse>() {
             @Override
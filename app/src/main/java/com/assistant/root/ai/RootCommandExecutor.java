@@ -2,9 +2,16 @@ package com.assistant.root.ai;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
+import com.assistant.root.shell.AsyncRootShell;
+import com.assistant.root.shell.RootCapabilities;
+import com.assistant.root.shell.RootScript;
+import com.assistant.root.shell.RootShell;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.TimeoutException;
 
 public class RootCommandExecutor {
     private static final String TAG = "RootCommandExecutor";
@@ -16,196 +23,92 @@ public class RootCommandExecutor {
     }
 
     /**
-     * Check if device has root access
+     * Check if device has root access (cached capability probe)
      */
     public static boolean hasRootAccess() {
-        Process process = null;
-        try {
-            process = Runtime.getRuntime().exec("su");
-            DataOutputStream os = new DataOutputStream(process.getOutputStream());
-            os.writeBytes("exit\n");
-            os.flush();
-
-            int exitCode = process.waitFor();
-            return exitCode == 0;
-        } catch (Exception e) {
-            return false;
-        } finally {
-            if (process != null) {
-                process.destroy();
-            }
-        }
+        return RootCapabilities.isRooted();
     }
 
     /**
-     * Execute single root command
+     * Execute single root command. The returned future can be cancelled to kill
+     * the command.
      */
-    public static void executeCommand(String command, ExecutionCallback callback) {
-        if (command == null || command.trim().isEmpty()) {
-            callback.onError("Empty command");
-            return;
-        }
-
-        new Thread(() -> {
-            Process process = null;
-            DataOutputStream os = null;
-            BufferedReader reader = null;
-            BufferedReader errorReader = null;
-
-            try {
-                Log.d(TAG, "Executing: " + command);
-
-                process = Runtime.getRuntime().exec("su");
-                os = new DataOutputStream(process.getOutputStream());
-                reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-
-                // Write command
-                os.writeBytes(command + "\n");
-                os.writeBytes("exit\n");
-                os.flush();
-
-                // Read output
-                StringBuilder output = new StringBuilder();
-                StringBuilder error = new StringBuilder();
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-
-                while ((line = errorReader.readLine()) != null) {
-                    error.append(line).append("\n");
-                }
-
-                int exitCode = process.waitFor();
-
-                if (exitCode == 0) {
-                    Log.d(TAG, "Command executed successfully");
-                    callback.onSuccess(output.toString());
-                } else {
-                    String errorMsg = error.toString();
-                    if (errorMsg.isEmpty())
-                        errorMsg = "Command failed with exit code: " + exitCode;
-                    Log.e(TAG, "Command failed: " + errorMsg);
-                    callback.onError(errorMsg);
-                }
-
-            } catch (Exception e) {
-                Log.e(TAG, "Execution error: " + e.getMessage());
-                callback.onError("Execution error: " + e.getMessage());
-            } finally {
-                try {
-                    if (os != null)
-                        os.close();
-                    if (reader != null)
-                        reader.close();
-                    if (errorReader != null)
-                        errorReader.close();
-                    if (process != null)
-                        process.destroy();
-                } catch (Exception e) {
-                    Log.e(TAG, "Cleanup error: " + e.getMessage());
-                }
-            }
-        }).start();
+    public static ListenableFuture<RootShell.Result> executeCommand(String command, ExecutionCallback callback) {
+        return executeCommandWithTimeout(command, RootShell.DEFAULT_TIMEOUT_MS, callback);
     }
 
     /**
-     * Execute multiple commands (multi-line)
+     * Execute multiple commands (multi-line). Each line runs as its own step and
+     * the script stops at the first step that fails.
      */
-    public static void executeMultipleCommands(String commands, ExecutionCallback callback) {
+    public static ListenableFuture<RootScript.Result> executeMultipleCommands(String commands,
+            ExecutionCallback callback) {
         if (commands == null || commands.trim().isEmpty()) {
             callback.onError("Empty commands");
-            return;
+            return Futures.immediateFailedFuture(new IllegalArgumentException("Empty commands"));
         }
 
-        new Thread(() -> {
-            Process process = null;
-            DataOutputStream os = null;
-            BufferedReader reader = null;
-
-            try {
-                Log.d(TAG, "Executing multiple commands:\n" + commands);
-
-                process = Runtime.getRuntime().exec("su");
-                os = new DataOutputStream(process.getOutputStream());
-                reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                // Write all commands
-                String[] commandLines = commands.split("\n");
-                for (String cmd : commandLines) {
-                    cmd = cmd.trim();
-                    if (!cmd.isEmpty()) {
-                        Log.d(TAG, "-> " + cmd);
-                        os.writeBytes(cmd + "\n");
-                        os.flush();
-
-                        // Add delay for sleep commands
-                        if (cmd.startsWith("sleep ")) {
-                            try {
-                                int seconds = Integer.parseInt(cmd.replace("sleep ", "").trim());
-                                Thread.sleep(seconds * 1000L);
-                            } catch (Exception ignored) {
-                            }
-                        }
-                    }
-                }
-
-                os.writeBytes("exit\n");
-                os.flush();
-
-                // Read output
-                StringBuilder output = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-
-                int exitCode = process.waitFor();
-
-                if (exitCode == 0) {
-                    Log.d(TAG, "Commands executed successfully");
-                    callback.onSuccess(output.toString());
+        Log.d(TAG, "Executing multiple commands:\n" + commands);
+
+        ListenableFuture<RootScript.Result> future = AsyncRootShell.submitScript(commands,
+                RootShell.DEFAULT_TIMEOUT_MS, (step, total, cmd) -> Log.d(TAG, "-> " + cmd));
+        Futures.addCallback(future, new FutureCallback<RootScript.Result>() {
+            @Override
+            public void onSuccess(RootScript.Result result) {
+                Log.d(TAG, "Step timings:\n" + result.getTimings());
+                if (result.isSuccess()) {
+                    Log.d(TAG, "Commands executed successfully in " + result.durationMs + "ms");
+                    callback.onSuccess(result.getOutput());
                 } else {
-                    callback.onError("Commands failed with exit code: " + exitCode);
+                    callback.onError(result.getError());
                 }
+            }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Execution error: " + e.getMessage());
-                callback.onError("Execution error: " + e.getMessage());
-            } finally {
-                try {
-                    if (os != null)
-                        os.close();
-                    if (reader != null)
-                        reader.close();
-                    if (process != null)
-                        process.destroy();
-                } catch (Exception e) {
-                    Log.e(TAG, "Cleanup error: " + e.getMessage());
-                }
+            @Override
+            public void onFailure(Throwable t) {
+                Log.e(TAG, "Execution error: " + AsyncRootShell.describe(t));
+                callback.onError("Execution error: " + AsyncRootShell.describe(t));
             }
-        }).start();
+        }, MoreExecutors.directExecutor());
+        return future;
     }
 
     /**
-     * Execute command with timeout
+     * Execute command with timeout. The shell running the command is killed when
+     * the deadline passes.
      */
-    public static void executeCommandWithTimeout(String command, long timeoutMs, ExecutionCallback callback) {
-        Thread executionThread = new Thread(() -> executeCommand(command, callback));
-        executionThread.start();
+    public static ListenableFuture<RootShell.Result> executeCommandWithTimeout(String command, long timeoutMs,
+            ExecutionCallback callback) {
+        if (command == null || command.trim().isEmpty()) {
+            callback.onError("Empty command");
+            return Futures.immediateFailedFuture(new IllegalArgumentException("Empty command"));
+        }
 
-        new Thread(() -> {
-            try {
-                executionThread.join(timeoutMs);
-                if (executionThread.isAlive()) {
-                    executionThread.interrupt();
+        Log.d(TAG, "Executing: " + command);
+        ListenableFuture<RootShell.Result> future = AsyncRootShell.submit(command, timeoutMs);
+        Futures.addCallback(future, new FutureCallback<RootShell.Result>() {
+            @Override
+            public void onSuccess(RootShell.Result result) {
+                if (result.isSuccess()) {
+                    Log.d(TAG, "Command executed successfully in " + result.durationMs + "ms");
+                    callback.onSuccess(result.stdout);
+                } else {
+                    String errorMsg = result.getError();
+                    Log.e(TAG, "Command failed: " + errorMsg);
+                    callback.onError(errorMsg);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof TimeoutException) {
                     callback.onError("Command execution timeout");
+                } else {
+                    Log.e(TAG, "Execution error: " + AsyncRootShell.describe(t));
+                    callback.onError("Execution error: " + AsyncRootShell.describe(t));
                 }
-            } catch (InterruptedException e) {
-                callback.onError("Timeout check interrupted");
             }
-        }).start();
+        }, MoreExecutors.directExecutor());
+        return future;
     }
 }
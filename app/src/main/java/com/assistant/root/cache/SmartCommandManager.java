@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 
 import com.assistant.root.ai.AICommandGenerator;
+import com.assistant.root.shell.PriorityScheduler;
 
 /**
  * Smart Command Manager with caching and predictive AI fallback
@@ -11,6 +12,9 @@ import com.assistant.root.ai.AICommandGenerator;
  */
 public class SmartCommandManager {
     private static final String TAG = "SmartCommandManager";
+    // Pauses between AI calls made ahead of time
+    private static final long WARMUP_GAP_MS = 1000;
+    private static final long PRELOAD_GAP_MS = 2000;
 
     private HybridCommandCache cache;
     private AICommandGenerator aiGenerator;
@@ -65,33 +69,39 @@ public class SmartCommandManager {
      * Reduces perceived latency
      */
     public void preloadPredictedCommands(String currentContext) {
-        new Thread(() -> {
-            // Based on current context, predict next actions
-            String[] predictions = predictNextCommands(currentContext);
-
-            for (String prediction : predictions) {
-                if (cache.get(prediction) == null) {
-                    Log.d(TAG, "Preloading: " + prediction);
-                    aiGenerator.generateCommand(prediction, new AICommandGenerator.CommandCallback() {
-                        @Override
-                        public void onCommandGenerated(String command) {
-                            cache.put(prediction, command);
-                        }
-
-                        @Override
-                        public void onError(String error) {
-                            // Ignore errors for predictions
-                        }
-                    });
-
-                    try {
-                        Thread.sleep(2000); // Throttle API calls
-                    } catch (InterruptedException e) {
-                        break;
+        // Based on current context, predict next actions
+        preloadFrom(predictNextCommands(currentContext), 0, 0);
+    }
+
+    /**
+     * Preload the first uncached prediction from index from on, then the
+     * rest after a pause; each step is a job of its own, so the background
+     * lane is free while the API calls are throttled
+     */
+    private void preloadFrom(String[] predictions, int from, long delayMs) {
+        PriorityScheduler.submitDelayed(PriorityScheduler.Lane.BACKGROUND, delayMs, () -> {
+            for (int i = from; i < predictions.length; i++) {
+                String prediction = predictions[i];
+                if (cache.get(prediction) != null)
+                    continue;
+                PriorityScheduler.yieldIfBusy();
+                Log.d(TAG, "Preloading: " + prediction);
+                aiGenerator.generateCommand(prediction, new AICommandGenerator.CommandCallback() {
+                    @Override
+                    public void onCommandGenerated(String command) {
+                        cache.put(prediction, command);
                     }
-                }
+
+                    @Override
+                    public void onError(String error) {
+                        // Ignore errors for predictions
+                    }
+                });
+                preloadFrom(predictions, i + 1, PRELOAD_GAP_MS); // Throttle API calls
+                return null;
             }
-        }).start();
+            return null;
+        });
     }
 
     /**
@@ -157,30 +167,39 @@ public class SmartCommandManager {
                 "search google for weather"
         };
 
-        new Thread(() -> {
-            for (String cmd : commonCommands) {
-                if (cache.get(cmd) == null) {
-                    try {
-                        Thread.sleep(1000); // Throttle
-                        // Generate and cache
-                        getCommand(cmd, new CommandCallback() {
-                            @Override
-                            public void onCommandReady(String command, boolean fromCache) {
-                                Log.d(TAG, "Warmed up: " + cmd);
-                            }
-
-                            @Override
-                            public void onError(String error) {
-                                Log.w(TAG, "Warmup failed for: " + cmd);
-                            }
-                        });
-                    } catch (InterruptedException e) {
-                        break;
+        warmupFrom(commonCommands, 0);
+    }
+
+    /**
+     * Generate the first uncached command from index from on after a pause,
+     * then carry on with the rest the same way; each step is a job of its
+     * own, so the background lane is free between them
+     */
+    private void warmupFrom(String[] commands, int from) {
+        PriorityScheduler.submitDelayed(PriorityScheduler.Lane.BACKGROUND, WARMUP_GAP_MS, () -> { // Throttle
+            for (int i = from; i < commands.length; i++) {
+                String cmd = commands[i];
+                if (cache.get(cmd) != null)
+                    continue;
+                // Generate and cache
+                PriorityScheduler.yieldIfBusy();
+                getCommand(cmd, new CommandCallback() {
+                    @Override
+                    public void onCommandReady(String command, boolean fromCache) {
+                        Log.d(TAG, "Warmed up: " + cmd);
                     }
-                }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.w(TAG, "Warmup failed for: " + cmd);
+                    }
+                });
+                warmupFrom(commands, i + 1);
+                return null;
             }
             Log.d(TAG, "Cache warmup complete!");
-        }).start();
+            return null;
+        });
     }
 
     /**
@@ -0,0 +1,211 @@
+package com.assistant.root.context;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.assistant.root.services.AssistantAccessibilityService;
+import com.assistant.root.shell.RootMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the screen's element list by walking the active window's
+ * accessibility tree inside the app process: no root shell, no uiautomator
+ * process and no XML. Produces the same nodes and elements as a
+ * UIHierarchyParser run over a full (uncompressed) dump.
+ *
+ * Snapshot times are recorded in RootMetrics as "a11y:snapshot", next to
+ * the "uiautomator" verb, so the two sources can be compared.
+ */
+public class AccessibilitySnapshot {
+    private static final String TAG = "A11ySnapshot";
+    public static final String METRICS_VERB = "a11y:snapshot";
+
+    // Deeper than any real layout; guards against cycles in a broken tree
+    private static final int MAX_DEPTH = 128;
+
+    private static final AtomicLong snapshots = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong totalMs = new AtomicLong();
+    private static volatile long lastMs = -1;
+
+    /**
+     * Whether the accessibility service is connected and can read windows
+     */
+    public static boolean isAvailable() {
+        AssistantAccessibilityService service = AssistantAccessibilityService.getInstance();
+        return service != null && service.isConnected();
+    }
+
+    /**
+     * The active window as a CompactScreen, or null when the service is not
+     * connected or has no window to read
+     */
+    public static CompactScreen capture() {
+        AssistantAccessibilityService service = AssistantAccessibilityService.getInstance();
+        if (service == null || !service.isConnected())
+            return null;
+
+        long start = SystemClock.elapsedRealtime();
+        CompactScreen screen = null;
+        try {
+            AccessibilityNodeInfo root = service.getRootInActiveWindow();
+            if (root != null) {
+                CompactScreen.Builder builder = new CompactScreen.Builder();
+                new Walk().visitCompact(root, builder, -1, 0, 0);
+                screen = builder.build();
+            }
+        } catch (RuntimeException e) {
+            // Windows can go away mid-walk
+            Log.w(TAG, "⚠️ Snapshot failed: " + e.getMessage());
+        }
+
+        long duration = SystemClock.elapsedRealtime() - start;
+        RootMetrics.record(METRICS_VERB, duration, 0, 0, screen != null, false);
+        if (screen == null) {
+            failures.incrementAndGet();
+            return null;
+        }
+        snapshots.incrementAndGet();
+        totalMs.addAndGet(duration);
+        lastMs = duration;
+        Log.d(TAG, "📸 " + screen.elementCount() + " elements in " + duration + "ms");
+        return screen;
+    }
+
+    public static String getStats() {
+        long count = snapshots.get();
+        return "A11y snapshots: " + (isAvailable() ? "available" : "unavailable") + " (" + count + " taken, "
+                + failures.get() + " failed" + (count > 0
+                        ? ", avg " + (totalMs.get() / count) + "ms, last " + lastMs + "ms" : "")
+                + ")";
+    }
+
+    /**
+     * One depth-first pass, in the same document order uiautomator dumps in.
+     * Stops creating nodes once the budget is spent.
+     */
+    static class Walk {
+        final Rect bounds = new Rect();
+        int nextId;
+        int budget;
+        private UIHierarchyParser.Node scratch;
+        boolean truncated;
+
+        Walk() {
+            this(Integer.MAX_VALUE);
+        }
+
+        Walk(int budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * Build the node for info and its visible descendants. Returns null
+         * when the budget was already spent.
+         */
+        UIHierarchyParser.Node visit(AccessibilityNodeInfo info, UIHierarchyParser.Node parent, int index,
+                int depth) {
+            if (budget <= 0) {
+                truncated = true;
+                info.recycle();
+                return null;
+            }
+            budget--;
+
+            UIHierarchyParser.Node node = new UIHierarchyParser.Node();
+            node.id = nextId++;
+            node.index = index;
+            node.depth = depth;
+            node.parent = parent;
+            if (parent != null)
+                parent.addChild(node);
+            read(info, node);
+
+            int childCount = depth < MAX_DEPTH ? info.getChildCount() : 0;
+            for (int i = 0; i < childCount; i++) {
+                AccessibilityNodeInfo child = info.getChild(i);
+                if (child == null)
+                    continue;
+                // uiautomator leaves out children the user can't see
+                if (child.isVisibleToUser())
+                    visit(child, node, i, depth + 1);
+                else
+                    child.recycle();
+            }
+            retain(info, node);
+            return node;
+        }
+
+        /**
+         * Append info and its visible descendants to a CompactScreen, reading
+         * each into one reused Node
+         */
+        void visitCompact(AccessibilityNodeInfo info, CompactScreen.Builder builder, int parent, int index,
+                int depth) {
+            if (budget <= 0) {
+                truncated = true;
+                info.recycle();
+                return;
+            }
+            budget--;
+
+            if (scratch == null)
+                scratch = new UIHierarchyParser.Node();
+            scratch.index = index;
+            scratch.depth = depth;
+            read(info, scratch);
+            int position = builder.add(scratch, parent);
+
+            int childCount = depth < MAX_DEPTH ? info.getChildCount() : 0;
+            for (int i = 0; i < childCount; i++) {
+                AccessibilityNodeInfo child = info.getChild(i);
+                if (child == null)
+                    continue;
+                if (child.isVisibleToUser())
+                    visitCompact(child, builder, position, i, depth + 1);
+                else
+                    child.recycle();
+            }
+            info.recycle();
+        }
+
+        private void read(AccessibilityNodeInfo info, UIHierarchyParser.Node node) {
+            node.resourceId = StringTable.internOrEmpty(info.getViewIdResourceName());
+            node.className = StringTable.internOrEmpty(info.getClassName());
+            node.packageName = StringTable.internOrEmpty(info.getPackageName());
+            node.text = string(info.getText());
+            node.contentDesc = string(info.getContentDescription());
+            node.checkable = info.isCheckable();
+            node.checked = info.isChecked();
+            node.clickable = info.isClickable();
+            node.enabled = info.isEnabled();
+            node.focusable = info.isFocusable();
+            node.focused = info.isFocused();
+            node.scrollable = info.isScrollable();
+            node.longClickable = info.isLongClickable();
+            node.password = info.isPassword();
+            node.selected = info.isSelected();
+
+            info.getBoundsInScreen(bounds);
+            node.left = bounds.left;
+            node.top = bounds.top;
+            node.right = bounds.right;
+            node.bottom = bounds.bottom;
+            node.hasBounds = true;
+        }
+
+        /**
+         * Called once a node is built; by default the info is done with
+         */
+        void retain(AccessibilityNodeInfo info, UIHierarchyParser.Node node) {
+            info.recycle();
+        }
+
+        private static String string(CharSequence s) {
+            return s == null || s.length() == 0 ? "" : s.toString();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.assistant.root.context;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A screen's hierarchy stored as parallel primitive arrays, one slot per
+ * node, instead of a Node object per node and a UIElement per clickable.
+ * Resource ids, class names and package names are dictionary-encoded
+ * against canonical Strings from StringTable; empty text is stored as null.
+ *
+ * Nodes are addressed by position (document order). elements() is a
+ * UIElement list view over the clickable nodes that creates each UIElement
+ * the first time it is read, so callers that only use a few elements, or
+ * only go through ElementIndex, never create the rest.
+ */
+public class CompactScreen {
+    public static final int CHECKABLE = 1;
+    public static final int CHECKED = 1 << 1;
+    public static final int CLICKABLE = 1 << 2;
+    public static final int ENABLED = 1 << 3;
+    public static final int FOCUSABLE = 1 << 4;
+    public static final int FOCUSED = 1 << 5;
+    public static final int SCROLLABLE = 1 << 6;
+    public static final int LONG_CLICKABLE = 1 << 7;
+    public static final int PASSWORD = 1 << 8;
+    public static final int SELECTED = 1 << 9;
+    public static final int HAS_BOUNDS = 1 << 10;
+
+    private final int count;
+    private final int[] parents;
+    private final int[] depths;
+    private final int[] indexes;
+    private final int[] flags;
+    // left, top, right, bottom for each node
+    private final int[] bounds;
+    // Codes into names; 0 is ""
+    private final int[] resourceIds;
+    private final int[] classNames;
+    private final int[] packageNames;
+    private final String[] names;
+    private final String[] texts;
+    private final String[] descs;
+    // Nodes that are clickable and have bounds, in document order
+    private final int[] elementNodes;
+
+    private final UIElementParser.UIElement[] materialized;
+    private final List<UIElementParser.UIElement> elementList = new ElementList();
+
+    private CompactScreen(Builder b) {
+        count = b.count;
+        parents = Arrays.copyOf(b.parents, count);
+        depths = Arrays.copyOf(b.depths, count);
+        indexes = Arrays.copyOf(b.indexes, count);
+        flags = Arrays.copyOf(b.flags, count);
+        bounds = Arrays.copyOf(b.bounds, count * 4);
+        resourceIds = Arrays.copyOf(b.resourceIds, count);
+        classNames = Arrays.copyOf(b.classNames, count);
+        packageNames = Arrays.copyOf(b.packageNames, count);
+        names = b.names.toArray(new String[0]);
+        texts = Arrays.copyOf(b.texts, count);
+        descs = Arrays.copyOf(b.descs, count);
+        elementNodes = Arrays.copyOf(b.elementNodes, b.elementCount);
+        materialized = new UIElementParser.UIElement[elementNodes.length];
+    }
+
+    public int nodeCount() {
+        return count;
+    }
+
+    public int elementCount() {
+        return elementNodes.length;
+    }
+
+    /**
+     * Node position of the given element
+     */
+    public int elementNode(int element) {
+        return elementNodes[element];
+    }
+
+    /**
+     * Parent's position, or -1 for the root
+     */
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    public int depth(int node) {
+        return depths[node];
+    }
+
+    /**
+     * The node's position among its siblings
+     */
+    public int index(int node) {
+        return indexes[node];
+    }
+
+    public boolean is(int node, int flag) {
+        return (flags[node] & flag) != 0;
+    }
+
+    public int flags(int node) {
+        return flags[node];
+    }
+
+    public int left(int node) {
+        return bounds[node * 4];
+    }
+
+    public int top(int node) {
+        return bounds[node * 4 + 1];
+    }
+
+    public int right(int node) {
+        return bounds[node * 4 + 2];
+    }
+
+    public int bottom(int node) {
+        return bounds[node * 4 + 3];
+    }
+
+    public int centerX(int node) {
+        return (bounds[node * 4] + bounds[node * 4 + 2]) / 2;
+    }
+
+    public int centerY(int node) {
+        return (bounds[node * 4 + 1] + bounds[node * 4 + 3]) / 2;
+    }
+
+    public String resourceId(int node) {
+        return names[resourceIds[node]];
+    }
+
+    public String className(int node) {
+        return names[classNames[node]];
+    }
+
+    public String packageName(int node) {
+        return names[packageNames[node]];
+    }
+
+    public String text(int node) {
+        String s = texts[node];
+        return s != null ? s : "";
+    }
+
+    public String contentDesc(int node) {
+        String s = descs[node];
+        return s != null ? s : "";
+    }
+
+    /**
+     * Clickable elements in document order; each UIElement is created on
+     * first read and the same instance returned after that
+     */
+    public List<UIElementParser.UIElement> elements() {
+        return elementList;
+    }
+
+    public UIElementParser.UIElement element(int element) {
+        synchronized (materialized) {
+            UIElementParser.UIElement el = materialized[element];
+            if (el == null) {
+                int node = elementNodes[element];
+                el = new UIElementParser.UIElement(resourceId(node), text(node), contentDesc(node), true,
+                        centerX(node), centerY(node));
+                el.className = className(node);
+                el.depth = depths[node];
+                el.index = indexes[node];
+                materialized[element] = el;
+            }
+            return el;
+        }
+    }
+
+    /**
+     * Approximate heap held by the arrays, not counting the shared names
+     * or any materialized elements
+     */
+    public long estimatedBytes() {
+        long ints = (long) count * 11 + elementNodes.length;
+        long refs = (long) count * 2 + names.length + materialized.length;
+        long strings = 0;
+        for (int i = 0; i < count; i++) {
+            strings += texts[i] != null ? 40 + texts[i].length() * 2L : 0;
+            strings += descs[i] != null ? 40 + descs[i].length() * 2L : 0;
+        }
+        return ints * 4 + refs * 4 + strings + 16 * 14;
+    }
+
+    private class ElementList extends AbstractList<UIElementParser.UIElement> implements RandomAccess {
+        @Override
+        public UIElementParser.UIElement get(int i) {
+            return element(i);
+        }
+
+        @Override
+        public int size() {
+            return elementNodes.length;
+        }
+    }
+
+    /**
+     * Appends nodes in document order; parents before their children
+     */
+    public static class Builder {
+        private int count;
+        private int[] parents = new int[256];
+        private int[] depths = new int[256];
+        private int[] indexes = new int[256];
+        private int[] flags = new int[256];
+        private int[] bounds = new int[1024];
+        private int[] resourceIds = new int[256];
+        private int[] classNames = new int[256];
+        private int[] packageNames = new int[256];
+        private String[] texts = new String[256];
+        private String[] descs = new String[256];
+        private int[] elementNodes = new int[64];
+        private int elementCount;
+
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        public Builder() {
+            names.add("");
+            codes.put("", 0);
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Append a node read into the given (possibly reused) Node; returns
+         * its position
+         */
+        public int add(UIHierarchyParser.Node node, int parent) {
+            if (count == parents.length)
+                grow();
+            int i = count++;
+            parents[i] = parent;
+            depths[i] = node.depth;
+            indexes[i] = node.index;
+            int f = 0;
+            if (node.checkable)
+                f |= CHECKABLE;
+            if (node.checked)
+                f |= CHECKED;
+            if (node.clickable)
+                f |= CLICKABLE;
+            if (node.enabled)
+                f |= ENABLED;
+            if (node.focusable)
+                f |= FOCUSABLE;
+            if (node.focused)
+                f |= FOCUSED;
+            if (node.scrollable)
+                f |= SCROLLABLE;
+            if (node.longClickable)
+                f |= LONG_CLICKABLE;
+            if (node.password)
+                f |= PASSWORD;
+            if (node.selected)
+                f |= SELECTED;
+            if (node.hasBounds)
+                f |= HAS_BOUNDS;
+            flags[i] = f;
+            bounds[i * 4] = node.left;
+            bounds[i * 4 + 1] = node.top;
+            bounds[i * 4 + 2] = node.right;
+            bounds[i * 4 + 3] = node.bottom;
+            resourceIds[i] = code(node.resourceId);
+            classNames[i] = code(node.className);
+            packageNames[i] = code(node.packageName);
+            texts[i] = node.text == null || node.text.isEmpty() ? null : node.text;
+            descs[i] = node.contentDesc == null || node.contentDesc.isEmpty() ? null : node.contentDesc;
+
+            if (node.clickable && node.hasBounds) {
+                if (elementCount == elementNodes.length)
+                    elementNodes = Arrays.copyOf(elementNodes, elementCount * 2);
+                elementNodes[elementCount++] = i;
+            }
+            return i;
+        }
+
+        public CompactScreen build() {
+            return new CompactScreen(this);
+        }
+
+        private int code(String name) {
+            if (name == null || name.isEmpty())
+                return 0;
+            Integer code = codes.get(name);
+            if (code == null) {
+                code = names.size();
+                names.add(StringTable.intern(name));
+                codes.put(name, code);
+            }
+            return code;
+        }
+
+        private void grow() {
+            int capacity = parents.length * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+            resourceIds = Arrays.copyOf(resourceIds, capacity);
+            classNames = Arrays.copyOf(classNames, capacity);
+            packageNames = Arrays.copyOf(packageNames, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            descs = Arrays.copyOf(descs, capacity);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.assistant.root.context;
 import android.content.Context;
 import android.util.Log;
 
+import com.assistant.root.shell.PriorityScheduler;
 import com.google.ai.client.generativeai.GenerativeModel;
 import com.google.ai.client.generativeai.java.GenerativeModelFutures;
 import com.google.ai.client.generativeai.type.Content;
@@ -20,9 +21,15 @@ import java.util.concurrent.Executors;
  */
 public class ContextAwareAIGenerator {
     private static final String TAG = "ContextAwareAI";
+    // A command this soon after the last one is treated as its follow-up
+    private static final long FOLLOW_UP_MS = 60000;
+    // Least share of the element budget a follow-up keeps for unchanged elements
+    private static final int FOLLOW_UP_MIN_SHARE = 4;
     private GenerativeModelFutures model;
     private Context context;
     private Executor executor;
+    // The screen the last prompt described
+    private volatile ScreenSnapshot lastPrompted;
 
     public interface CommandCallback {
         void onCommandGenerated(String command);
@@ -77,55 +84,103 @@ public class ContextAwareAIGenerator {
      * Generate context-aware command
      */
     public void generateContextAwareCommand(String userInput, CommandCallback callback) {
+        Futures.addCallback(generateContextAwareCommandAsync(userInput), new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String command) {
+                callback.onCommandGenerated(command);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                callback.onError(t.getMessage());
+            }
+        }, executor);
+    }
+
+    /**
+     * Generate context-aware command as a future so it can be chained with
+     * other pipeline stages
+     */
+    public ListenableFuture<String> generateContextAwareCommandAsync(String userInput) {
+        return generateContextAwareCommandAsync(userInput, ScreenSnapshot.current());
+    }
+
+    /**
+     * Generate from a screen snapshot the caller already holds
+     */
+    public ListenableFuture<String> generateContextAwareCommandAsync(String userInput, ScreenSnapshot screen) {
         if (model == null) {
-            callback.onError("AI model not initialized");
-            return;
+            return Futures.immediateFailedFuture(new IllegalStateException("AI model not initialized"));
         }
 
         // Get current context
         String contextSummary = ContextDetector.getContextSummary();
-        String elementsSummary = UIElementParser.getElementsSummary();
+        String changesSummary = followUpChanges(screen);
+        lastPrompted = screen;
+        // A follow-up leads with what changed; the rest of the screen only
+        // gets what is left of the budget, so the prompt doesn't grow
+        int budget = ElementSummarizer.getTokenBudget();
+        if (changesSummary != null) {
+            budget = Math.max(budget / FOLLOW_UP_MIN_SHARE, budget - (changesSummary.length() + 3) / 4);
+        }
+        String elementsSummary = ElementSummarizer.summarize(screen.elements, userInput, budget);
 
         // Build enhanced prompt
-        String prompt = buildContextAwarePrompt(userInput, contextSummary, elementsSummary);
+        String prompt = buildContextAwarePrompt(userInput, contextSummary, elementsSummary, changesSummary);
 
         Content content = new Content.Builder()
                 .addText(prompt)
                 .build();
 
-        ListenableFuture<GenerateContentResponse> response = model.generateContent(content);
-
-        Futures.addCallback(response, new FutureCallback<GenerateContentResponse>() {
-            @Override
-            public void onSuccess(GenerateContentResponse result) {
-                try {
-                    String generatedCommand = result.getText().trim();
-                    Log.d(TAG, "Generated context-aware command: " + generatedCommand);
-
-                    generatedCommand = cleanCommand(generatedCommand);
-
-                    if (isSafeCommand(generatedCommand)) {
-                        callback.onCommandGenerated(generatedCommand);
-                    } else {
-                        callback.onError("Generated command failed safety check");
-                    }
-                } catch (Exception e) {
-                    callback.onError("Error processing AI response: " + e.getMessage());
-                }
+        ListenableFuture<GenerateContentResponse> response = Futures.catchingAsync(
+                PriorityScheduler.submitAsync(PriorityScheduler.currentLane(), () -> model.generateContent(content)),
+                Exception.class, e -> {
+                    Log.e(TAG, "AI generation failed: " + e.getMessage());
+                    return Futures.immediateFailedFuture(
+                            new IllegalStateException("AI generation failed: " + e.getMessage(), e));
+                }, executor);
+
+        return Futures.transformAsync(response, result -> {
+            String generatedCommand;
+            try {
+                generatedCommand = result.getText().trim();
+            } catch (Exception e) {
+                throw new IllegalStateException("Error processing AI response: " + e.getMessage());
             }
+            Log.d(TAG, "Generated context-aware command: " + generatedCommand);
 
-            @Override
-            public void onFailure(Throwable t) {
-                Log.e(TAG, "AI generation failed: " + t.getMessage());
-                callback.onError("AI generation failed: " + t.getMessage());
+            generatedCommand = cleanCommand(generatedCommand);
+
+            if (isSafeCommand(generatedCommand)) {
+                return Futures.immediateFuture(generatedCommand);
             }
+            return Futures.immediateFailedFuture(
+                    new IllegalStateException("Generated command failed safety check"));
         }, executor);
     }
 
+    /**
+     * What changed since the screen the last prompt described, when this
+     * command follows up on that one; null for a fresh start or a different
+     * screen
+     */
+    private String followUpChanges(ScreenSnapshot screen) {
+        ScreenSnapshot last = lastPrompted;
+        if (last == null || last.generation == screen.generation
+                || screen.capturedAt - last.capturedAt > FOLLOW_UP_MS)
+            return null;
+        ScreenDiff diff = ScreenDiff.between(last, screen);
+        // Mostly new elements means a new screen, which the full list covers
+        if (diff.added.size() + diff.removed.size() > screen.elements.size() / 2)
+            return null;
+        Log.d(TAG, "Follow-up on the last command's screen: " + diff);
+        return diff.formatForAI();
+    }
+
     /**
      * Build context-aware prompt for AI
      */
-    private String buildContextAwarePrompt(String userInput, String context, String elements) {
+    private String buildContextAwarePrompt(String userInput, String context, String elements, String changes) {
         return "You are a context-aware Android automation assistant. Generate shell commands based on the CURRENT screen context.\n\n"
                 +
 
@@ -135,6 +190,8 @@ public class ContextAwareAIGenerator {
                 "═══ AVAILABLE ELEMENTS ═══\n" +
                 elements + "\n\n" +
 
+                (changes != null ? "═══ CHANGED SINCE YOUR LAST COMMAND ═══\n" + changes + "\n\n" : "") +
+
                 "═══ USER REQUEST ═══\n" +
                 userInput + "\n\n" +
 
@@ -158,7 +215,9 @@ public class ContextAwareAIGenerator {
 
                 "═══ EXAMPLE 1 ═══\n" +
                 "Context: WhatsApp - Chats List\n" +
-                "Elements: Search button at (950,150)\n" +
+                "Elements:\n" +
+                "1. Search [btn] 950,150\n" +
+                "2. New chat [btn] 950,2200\n" +
                 "User: message John saying hello\n" +
                 "Commands:\n" +
                 "input tap 950 150\n" +
@@ -173,7 +232,8 @@ public class ContextAwareAIGenerator {
 
                 "═══ EXAMPLE 2 ═══\n" +
                 "Context: Google Maps - Map View\n" +
-                "Elements: Search box at (540,200)\n" +
+                "Elements:\n" +
+                "1. Search here [input] 540,200\n" +
                 "User: search restaurants near me\n" +
                 "Commands:\n" +
                 "input tap 540 200\n" +
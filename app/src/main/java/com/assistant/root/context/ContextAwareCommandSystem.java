@@ -4,6 +4,13 @@ import android.content.Context;
 import android.util.Log;
 
 import com.assistant.root.cache.HybridCommandCache;
+import com.assistant.root.shell.AsyncRootShell;
+import com.assistant.root.shell.PriorityScheduler;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Main Context-Aware Command System
@@ -11,6 +18,10 @@ import com.assistant.root.cache.HybridCommandCache;
  */
 public class ContextAwareCommandSystem {
     private static final String TAG = "ContextAwareSystem";
+    // Pause between AI calls made ahead of time
+    private static final long WARMUP_GAP_MS = 2000;
+    private static final long CONTEXT_TIMEOUT_MS = 10000;
+    private static final long AI_TIMEOUT_MS = 30000;
 
     private Context context;
     private ContextAwareAIGenerator aiGenerator;
@@ -32,65 +43,105 @@ public class ContextAwareCommandSystem {
         this.cache = new HybridCommandCache(context);
     }
 
+    /**
+     * Command produced by the pipeline, ready to execute
+     */
+    public static class PreparedCommand {
+        public final String command;
+        public final boolean fromCache;
+        public final String contextInfo;
+
+        public PreparedCommand(String command, boolean fromCache, String contextInfo) {
+            this.command = command;
+            this.fromCache = fromCache;
+            this.contextInfo = contextInfo;
+        }
+    }
+
     /**
      * Main entry point - Process user input with full context awareness
      */
     public void processCommand(String userInput, SystemCallback callback) {
-        new Thread(() -> {
-            try {
-                // Step 1: Detect current context
-                ContextDetector.AppContext appContext = ContextDetector.getCurrentContext();
+        processCommand(userInput, ScreenSnapshot.forCommand(), callback);
+    }
+
+    /**
+     * Process user input against the snapshot of the command it belongs to
+     */
+    public void processCommand(String userInput, Supplier<ScreenSnapshot> screen, SystemCallback callback) {
+        Futures.addCallback(prepareCommand(userInput, screen), new FutureCallback<PreparedCommand>() {
+            @Override
+            public void onSuccess(PreparedCommand prepared) {
+                callback.onCommandReady(prepared.command, prepared.fromCache, prepared.contextInfo);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                callback.onError(AsyncRootShell.describe(t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Detect context, then resolve the command from cache or AI. Each stage
+     * runs when the previous one completes; no thread waits in between.
+     */
+    public ListenableFuture<PreparedCommand> prepareCommand(String userInput) {
+        return prepareCommand(userInput, ScreenSnapshot.forCommand());
+    }
 
-                if (appContext == null) {
-                    callback.onError("Could not detect current app context");
-                    return;
-                }
+    /**
+     * Prepare a command; every stage that reads the screen uses screen, so
+     * the whole pipeline sees one capture
+     */
+    public ListenableFuture<PreparedCommand> prepareCommand(String userInput, Supplier<ScreenSnapshot> screen) {
+        // Step 1: Detect current context
+        ListenableFuture<ContextDetector.AppContext> contextFuture = AsyncRootShell.call(
+                ContextDetector::getCurrentContext, CONTEXT_TIMEOUT_MS);
 
-                String contextInfo = appContext.toString();
-                Log.d(TAG, "Context: " + contextInfo);
+        return Futures.transformAsync(contextFuture, appContext -> {
+            if (appContext == null) {
+                throw new IllegalStateException("Could not detect current app context");
+            }
+            return prepareWithContext(userInput, appContext, screen);
+        }, AsyncRootShell.blockingExecutor());
+    }
 
-                // Step 2: Build cache key with context
-                String cacheKey = buildContextualCacheKey(userInput, appContext);
+    private ListenableFuture<PreparedCommand> prepareWithContext(String userInput,
+            ContextDetector.AppContext appContext, Supplier<ScreenSnapshot> screen) {
+        String contextInfo = appContext.toString();
+        Log.d(TAG, "Context: " + contextInfo);
 
-                // Step 3: Check cache first
-                HybridCommandCache.CachedCommand cached = cache.get(cacheKey);
+        // Step 2: Build cache key with context
+        String cacheKey = buildContextualCacheKey(userInput, appContext);
 
-                if (cached != null) {
-                    Log.d(TAG, "✓ Cache HIT for context-aware command");
-                    callback.onCommandReady(cached.command, true, contextInfo);
-                    return;
-                }
+        // Step 3: Check cache first
+        HybridCommandCache.CachedCommand cached = cache.get(cacheKey);
 
-                // Step 4: Generate context-aware command with AI
-                Log.d(TAG, "✗ Cache MISS, generating context-aware command...");
+        if (cached != null) {
+            Log.d(TAG, "✓ Cache HIT for context-aware command");
+            return Futures.immediateFuture(new PreparedCommand(cached.command, true, contextInfo));
+        }
 
-                aiGenerator.generateContextAwareCommand(userInput,
-                        new ContextAwareAIGenerator.CommandCallback() {
-                            @Override
-                            public void onCommandGenerated(String command) {
-                                // Cache the generated command
-                                cache.put(cacheKey, command);
-                                Log.d(TAG, "Command generated and cached");
-                                callback.onCommandReady(command, false, contextInfo);
-                            }
+        // Step 4: Generate context-aware command with AI
+        Log.d(TAG, "✗ Cache MISS, generating context-aware command...");
 
-                            @Override
-                            public void onError(String error) {
-                                callback.onError(error);
-                            }
-                        });
+        ListenableFuture<String> generated = AsyncRootShell.withDeadline(
+                aiGenerator.generateContextAwareCommandAsync(userInput, screen.get()), AI_TIMEOUT_MS);
 
-            } catch (Exception e) {
-                callback.onError("System error: " + e.getMessage());
-            }
-        }).start();
+        return Futures.transform(generated, command -> {
+            // Cache the generated command
+            cache.put(cacheKey, command);
+            Log.d(TAG, "Command generated and cached");
+            return new PreparedCommand(command, false, contextInfo);
+        }, MoreExecutors.directExecutor());
     }
 
     /**
      * Execute command with smart execution
      */
-    public void executeCommand(String command, SystemCallback callback) {
-        SmartCommandExecutor.executeWithProgress(command,
+    public ListenableFuture<String> executeCommand(String command, SystemCallback callback) {
+        return SmartCommandExecutor.executeWithProgress(command,
                 new SmartCommandExecutor.ExecutionCallback() {
                     @Override
                     public void onSuccess(String output) {
@@ -110,32 +161,35 @@ public class ContextAwareCommandSystem {
     }
 
     /**
-     * Quick execute - combines processing and execution
+     * Quick execute - combines processing and execution. Cancelling the returned
+     * future stops whichever stage is running.
      */
-    public void quickExecute(String userInput, SystemCallback callback) {
-        processCommand(userInput, new SystemCallback() {
-            @Override
-            public void onCommandReady(String command, boolean fromCache, String contextInfo) {
-                callback.onCommandReady(command, fromCache, contextInfo);
-                // Auto-execute after command is ready
-                executeCommand(command, callback);
-            }
+    public ListenableFuture<String> quickExecute(String userInput, SystemCallback callback) {
+        return quickExecute(userInput, ScreenSnapshot.forCommand(), callback);
+    }
 
-            @Override
-            public void onExecutionProgress(String step) {
-                callback.onExecutionProgress(step);
-            }
+    /**
+     * Quick execute against the snapshot of the command it belongs to
+     */
+    public ListenableFuture<String> quickExecute(String userInput, Supplier<ScreenSnapshot> screen,
+            SystemCallback callback) {
+        ListenableFuture<PreparedCommand> prepared = prepareCommand(userInput, screen);
 
+        Futures.addCallback(prepared, new FutureCallback<PreparedCommand>() {
             @Override
-            public void onExecutionComplete(String result) {
-                callback.onExecutionComplete(result);
+            public void onSuccess(PreparedCommand result) {
+                callback.onCommandReady(result.command, result.fromCache, result.contextInfo);
             }
 
             @Override
-            public void onError(String error) {
-                callback.onError(error);
+            public void onFailure(Throwable t) {
+                callback.onError(AsyncRootShell.describe(t));
             }
-        });
+        }, MoreExecutors.directExecutor());
+
+        // Auto-execute after command is ready
+        return Futures.transformAsync(prepared, result -> executeCommand(result.command, callback),
+                MoreExecutors.directExecutor());
     }
 
     /**
@@ -153,14 +207,16 @@ public class ContextAwareCommandSystem {
      * Faster for common actions
      */
     public void smartProcess(String userInput, SystemCallback callback) {
-        new Thread(() -> {
-            // Get current context
-            ContextDetector.AppContext appContext = ContextDetector.getCurrentContext();
+        Supplier<ScreenSnapshot> screen = ScreenSnapshot.forCommand();
+
+        // Get current context
+        ListenableFuture<ContextDetector.AppContext> contextFuture = AsyncRootShell.call(
+                ContextDetector::getCurrentContext, CONTEXT_TIMEOUT_MS);
 
+        ListenableFuture<PreparedCommand> prepared = Futures.transformAsync(contextFuture, appContext -> {
             if (appContext == null) {
                 // Fallback to regular processing
-                processCommand(userInput, callback);
-                return;
+                return prepareCommand(userInput, screen);
             }
 
             // Try to get quick template
@@ -168,13 +224,24 @@ public class ContextAwareCommandSystem {
 
             if (template != null) {
                 Log.d(TAG, "✓ Using quick template");
-                callback.onCommandReady(template, true, appContext.toString());
-                return;
+                return Futures.immediateFuture(new PreparedCommand(template, true, appContext.toString()));
             }
 
             // No template, use full AI processing
-            processCommand(userInput, callback);
-        }).start();
+            return prepareWithContext(userInput, appContext, screen);
+        }, AsyncRootShell.blockingExecutor());
+
+        Futures.addCallback(prepared, new FutureCallback<PreparedCommand>() {
+            @Override
+            public void onSuccess(PreparedCommand result) {
+                callback.onCommandReady(result.command, result.fromCache, result.contextInfo);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                callback.onError(AsyncRootShell.describe(t));
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     /**
@@ -188,7 +255,14 @@ public class ContextAwareCommandSystem {
      * Get available actions in current context
      */
     public String getAvailableActions() {
-        return UIElementParser.getElementsSummary();
+        return getAvailableActions(ScreenSnapshot.current());
+    }
+
+    /**
+     * Available actions on a snapshot the caller already holds
+     */
+    public String getAvailableActions(ScreenSnapshot screen) {
+        return screen.getSummary();
     }
 
     /**
@@ -249,39 +323,48 @@ public class ContextAwareCommandSystem {
      * Warm up cache with common commands for current app
      */
     public void warmupCurrentAppCache() {
-        ContextDetector.AppContext context = ContextDetector.getCurrentContext();
-        if (context != null && AppContextHandler.supportsQuickCommands(context.packageName)) {
-            String[] commonActions = AppContextHandler.getCommonActions(context.packageName);
-
-            new Thread(() -> {
-                for (String action : commonActions) {
-                    String cacheKey = buildContextualCacheKey(action, context);
-                    if (cache.get(cacheKey) == null) {
-                        // Generate and cache this command
-                        aiGenerator.generateContextAwareCommand(action,
-                                new ContextAwareAIGenerator.CommandCallback() {
-                                    @Override
-                                    public void onCommandGenerated(String command) {
-                                        cache.put(cacheKey, command);
-                                        Log.d(TAG, "Warmed up cache for: " + action);
-                                    }
-
-                                    @Override
-                                    public void onError(String error) {
-                                        Log.w(TAG, "Failed to warm up cache for: " + action);
-                                    }
-                                });
-
-                        try {
-                            Thread.sleep(2000); // Throttle API calls
-                        } catch (InterruptedException e) {
-                            break;
-                        }
-                    }
-                }
-                Log.d(TAG, "Cache warmup complete for " + context.appName);
-            }).start();
-        }
+        PriorityScheduler.submit(PriorityScheduler.Lane.BACKGROUND, () -> {
+            ContextDetector.AppContext context = ContextDetector.getCurrentContext();
+            if (context != null && AppContextHandler.supportsQuickCommands(context.packageName)) {
+                warmupFrom(context, AppContextHandler.getCommonActions(context.packageName), 0, 0);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Generate the first uncached action from index from on, then the rest
+     * after a pause; each step is a job of its own, so the background lane
+     * is free while the API calls are throttled
+     */
+    private void warmupFrom(ContextDetector.AppContext context, String[] actions, int from, long delayMs) {
+        PriorityScheduler.submitDelayed(PriorityScheduler.Lane.BACKGROUND, delayMs, () -> {
+            for (int i = from; i < actions.length; i++) {
+                String action = actions[i];
+                String cacheKey = buildContextualCacheKey(action, context);
+                if (cache.get(cacheKey) != null)
+                    continue;
+                // Generate and cache this command
+                PriorityScheduler.yieldIfBusy();
+                aiGenerator.generateContextAwareCommand(action,
+                        new ContextAwareAIGenerator.CommandCallback() {
+                            @Override
+                            public void onCommandGenerated(String command) {
+                                cache.put(cacheKey, command);
+                                Log.d(TAG, "Warmed up cache for: " + action);
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                Log.w(TAG, "Failed to warm up cache for: " + action);
+                            }
+                        });
+                warmupFrom(context, actions, i + 1, WARMUP_GAP_MS); // Throttle API calls
+                return null;
+            }
+            Log.d(TAG, "Cache warmup complete for " + context.appName);
+            return null;
+        });
     }
 
     /**
@@ -1,10 +1,18 @@
 package com.assistant.root.context;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
+import com.assistant.root.helper.RootHelperClient;
+import com.assistant.root.shell.AsyncRootShell;
+import com.assistant.root.shell.OutputScanners;
+import com.assistant.root.shell.QueryCache;
+import com.assistant.root.shell.RootShell;
+import com.assistant.root.utils.AppCatalog;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Detects current app context using root commands
@@ -18,6 +26,19 @@ public class ContextDetector {
         public String activityName;
         public String appName;
         public String screenDescription;
+        /** Where this came from: accessibility events or a root detection */
+        public String source;
+        /** SystemClock.elapsedRealtime() when it was detected */
+        public long detectedAt;
+        // The tracked foreground this was built from, if any
+        private ForegroundTracker.Foreground foreground;
+
+        /**
+         * Time since the foreground was last confirmed
+         */
+        public long ageMs() {
+            return foreground != null ? foreground.ageMs() : SystemClock.elapsedRealtime() - detectedAt;
+        }
 
         @Override
         public String toString() {
@@ -27,90 +48,84 @@ public class ContextDetector {
         }
     }
 
+    // Long enough to cover one command pass, short enough to follow app switches
+    private static final long CONTEXT_TTL_MS = 1500;
+
+    // Hard limit on one root detection, including waiting for a shell
+    private static final long DETECT_DEADLINE_MS = 2000;
+    // The focused window, then the resumed activity. One grep each: grep
+    // buffers into a pipe, so the window lines only arrive, and can end the
+    // read, before the activity dump starts if its grep exits first
+    private static final String FOCUS_COMMAND =
+            "dumpsys window windows | grep -E 'mCurrentFocus|mFocusedApp|mInputMethodTarget'; "
+                    + "dumpsys activity activities | grep -E 'mResumedActivity|topResumedActivity'";
+    // A line naming the foreground activity; reading stops at the first
+    private static final int RANK_ACTIVITY = 3;
+
+    // Built once per foreground change
+    private static volatile AppContext tracked;
+
     /**
-     * Get current app context using root commands with timeout
+     * Get current app context: from the foreground tracker while it is
+     * current, which is a field read, otherwise from root commands with a
+     * timeout. Repeated root detections within a command pass share one.
      */
     public static AppContext getCurrentContext() {
-        AppContext context = new AppContext();
-
+        ForegroundTracker.Foreground foreground = ForegroundTracker.current();
+        if (foreground != null && !foreground.isStale())
+            return contextFor(foreground);
         try {
-            Log.d(TAG, "Starting context detection...");
-            Process process = Runtime.getRuntime().exec("su");
-            DataOutputStream os = new DataOutputStream(process.getOutputStream());
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            Log.d(TAG, "Executing dumpsys command...");
-            os.writeBytes("dumpsys window windows | grep -E 'mCurrentFocus|mFocusedApp|mInputMethodTarget'\n");
-            os.flush();
+            return QueryCache.get(QueryCache.FOCUSED_APP, CONTEXT_TTL_MS, ContextDetector::detectContext);
+        } catch (Exception e) {
+            return null;
+        }
+    }
 
-            // Add timeout protection
-            long startTime = System.currentTimeMillis();
-            String line = null;
-            StringBuilder allOutput = new StringBuilder();
+    private static AppContext contextFor(ForegroundTracker.Foreground foreground) {
+        AppContext context = tracked;
+        if (context != null && context.foreground == foreground)
+            return context;
+        context = new AppContext();
+        context.packageName = foreground.packageName;
+        context.activityName = foreground.activityName;
+        context.appName = getAppName(foreground.packageName);
+        context.screenDescription = getScreenDescription(foreground.packageName, foreground.activityName);
+        context.source = foreground.source;
+        context.detectedAt = foreground.since;
+        context.foreground = foreground;
+        tracked = context;
+        return context;
+    }
 
-            // Read with timeout
-            while ((System.currentTimeMillis() - startTime) < 3000) {
-                try {
-                    if (reader.ready()) {
-                        String currentLine = reader.readLine();
-                        if (currentLine != null) {
-                            allOutput.append(currentLine).append("\n");
-                            Log.d(TAG, "Raw line: " + currentLine);
+    private static AppContext detectContext() {
+        AppContext context = new AppContext();
 
-                            // Look for focus information in various formats
-                            if (currentLine.contains("mCurrentFocus") ||
-                                    currentLine.contains("mFocusedApp") ||
-                                    currentLine.contains("mInputMethodTarget") ||
-                                    currentLine.contains("/")) {
-                                line = currentLine;
-                                break;
-                            }
-                        }
-                    }
-                    Thread.sleep(100); // Wait 100ms before checking again
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
+        try {
+            Log.d(TAG, "Starting context detection...");
 
+            // The resident helper answers without a shell round-trip
+            String line = RootHelperClient.get().focusedWindow();
+            if (line == null)
+                line = queryFocusLine();
             Log.d(TAG, "Final line: " + line);
-            Log.d(TAG, "All output: " + allOutput.toString());
-            if (line != null && line.contains("/")) {
-                String[] parts = line.split(" ");
-                for (String part : parts) {
-                    if (part.contains("/")) {
-                        String[] appParts = part.split("/");
-                        context.packageName = appParts[0].trim();
-                        context.activityName = appParts[1].replace("}", "").trim();
-                        Log.d(TAG, "Parsed package: " + context.packageName + ", activity: " + context.activityName);
-                        break;
-                    }
-                }
-            }
-
-            os.writeBytes("exit\n");
-            os.flush();
-
-            // Wait for process with timeout
-            boolean finished = process.waitFor(2, java.util.concurrent.TimeUnit.SECONDS);
-            if (!finished) {
-                Log.w(TAG, "Process didn't finish in time, destroying");
-                process.destroy();
+            OutputScanners.Focus focus = new OutputScanners.Focus();
+            if (line != null && OutputScanners.scanFocus(line, focus)) {
+                context.packageName = focus.packageName();
+                context.activityName = focus.activityName();
+                Log.d(TAG, "Parsed package: " + context.packageName + ", activity: " + context.activityName);
             }
 
-            reader.close();
-            os.close();
-
             if (context.packageName != null) {
                 context.appName = getAppName(context.packageName);
                 context.screenDescription = getScreenDescription(context.packageName, context.activityName);
                 Log.d(TAG, "Detected context: " + context.toString());
             } else {
-                Log.w(TAG, "No package name detected, trying alternative method...");
-                // Try alternative method
-                context = getCurrentContextAlternative();
+                Log.w(TAG, "No package name detected");
             }
 
+            context.source = ForegroundTracker.SOURCE_ROOT;
+            context.detectedAt = SystemClock.elapsedRealtime();
+            ForegroundTracker.report(context.packageName, context.activityName);
             return context;
 
         } catch (Exception e) {
@@ -121,115 +136,55 @@ public class ContextDetector {
     }
 
     /**
-     * Alternative method to get current context using different commands
+     * Ask the system through root. One command greps the focused window and
+     * the resumed activity together, and reading stops at the first line
+     * that names an activity. It runs on a scheduler worker with a hard
+     * deadline; past it the shell is killed and the best line seen so far
+     * is used.
      */
-    private static AppContext getCurrentContextAlternative() {
-        AppContext context = new AppContext();
-
-        try {
-            Log.d(TAG, "Trying alternative context detection...");
-            Process process = Runtime.getRuntime().exec("su");
-            DataOutputStream os = new DataOutputStream(process.getOutputStream());
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            // Try different commands
-            String[] commands = {
-                    "dumpsys activity activities | grep -E 'mResumedActivity|mFocusedActivity'",
-                    "dumpsys activity top | grep -E 'ACTIVITY|TASK'",
-                    "dumpsys window | grep -E 'mCurrentFocus|mFocusedApp'"
-            };
-
-            for (String cmd : commands) {
-                Log.d(TAG, "Trying command: " + cmd);
-                os.writeBytes(cmd + "\n");
-                os.flush();
-
-                long startTime = System.currentTimeMillis();
-                while ((System.currentTimeMillis() - startTime) < 2000) {
-                    if (reader.ready()) {
-                        String line = reader.readLine();
-                        if (line != null) {
-                            Log.d(TAG, "Alt line: " + line);
-                            if (line.contains("/")) {
-                                String[] parts = line.split(" ");
-                                for (String part : parts) {
-                                    if (part.contains("/")) {
-                                        String[] appParts = part.split("/");
-                                        if (appParts.length >= 2) {
-                                            context.packageName = appParts[0].trim();
-                                            context.activityName = appParts[1].replace("}", "").trim();
-                                            Log.d(TAG,
-                                                    "Alt parsed: " + context.packageName + "/" + context.activityName);
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (context.packageName != null)
-                                    break;
-                            }
-                        }
+    private static String queryFocusLine() throws InterruptedException {
+        AtomicReference<String> best = new AtomicReference<>();
+        int[] bestRank = new int[1];
+        OutputScanners.Focus focus = new OutputScanners.Focus();
+        long start = SystemClock.elapsedRealtime();
+        ListenableFuture<RootShell.Result> query = AsyncRootShell.withShell(
+                shell -> shell.stream(FOCUS_COMMAND, DETECT_DEADLINE_MS, (currentLine, stderr) -> {
+                    if (stderr)
+                        return true;
+                    int rank = focusRank(currentLine, focus);
+                    if (rank > bestRank[0]) {
+                        bestRank[0] = rank;
+                        best.set(currentLine);
                     }
-                    Thread.sleep(100);
-                }
-                if (context.packageName != null)
-                    break;
-            }
-
-            os.writeBytes("exit\n");
-            os.flush();
-            process.waitFor();
-            reader.close();
-            os.close();
-
-            if (context.packageName != null) {
-                context.appName = getAppName(context.packageName);
-                context.screenDescription = getScreenDescription(context.packageName, context.activityName);
-                Log.d(TAG, "Alternative context detected: " + context.toString());
-            } else {
-                Log.w(TAG, "Alternative method also failed");
-            }
-
-        } catch (Exception e) {
-            Log.e(TAG, "Alternative context detection failed: " + e.getMessage());
+                    return rank < RANK_ACTIVITY;
+                }), DETECT_DEADLINE_MS);
+        try {
+            query.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "⏱️ Focus query cut short: " + AsyncRootShell.describe(e.getCause()));
         }
+        Log.d(TAG, "Focus query took " + (SystemClock.elapsedRealtime() - start) + "ms");
+        return best.get();
+    }
 
-        return context;
+    /**
+     * How much a focus line says about the foreground activity; 0 if it
+     * names no component, e.g. "mCurrentFocus=Window{9a1 u0 StatusBar}"
+     */
+    private static int focusRank(String line, OutputScanners.Focus focus) {
+        if (!OutputScanners.scanFocus(line, focus))
+            return 0;
+        if (line.contains("ResumedActivity") || line.contains("mCurrentFocus"))
+            return RANK_ACTIVITY;
+        // The focused app token, or the window the keyboard types into
+        return line.contains("mFocusedApp") ? 2 : 1;
     }
 
     /**
      * Get friendly app name from package name
      */
     private static String getAppName(String packageName) {
-        switch (packageName) {
-            case "com.whatsapp":
-                return "WhatsApp";
-            case "com.whatsapp.w4b":
-                return "WhatsApp Business";
-            case "com.google.android.youtube":
-                return "YouTube";
-            case "com.instagram.android":
-                return "Instagram";
-            case "com.facebook.katana":
-                return "Facebook";
-            case "com.twitter.android":
-                return "Twitter";
-            case "org.telegram.messenger":
-                return "Telegram";
-            case "com.google.android.apps.maps":
-                return "Google Maps";
-            case "com.android.chrome":
-                return "Chrome";
-            case "com.google.android.gm":
-                return "Gmail";
-            case "com.spotify.music":
-                return "Spotify";
-            case "com.netflix.mediaclient":
-                return "Netflix";
-            case "com.amazon.mShop.android.shopping":
-                return "Amazon";
-            default:
-                return packageName;
-        }
+        return AppCatalog.label(packageName);
     }
 
     /**
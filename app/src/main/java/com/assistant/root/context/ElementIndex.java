@@ -0,0 +1,370 @@
+package com.assistant.root.context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lookup structures over one screen's elements, so repeated lookups don't
+ * rescan (and re-lowercase) every element. Each structure is built the
+ * first time a lookup needs it and kept for the life of the snapshot.
+ *
+ * The find methods return the same element the linear UIElementParser
+ * helpers would: the first match in document order. Built over a
+ * CompactScreen, the index reads its arrays directly and only creates the
+ * UIElements a lookup returns.
+ */
+public class ElementIndex {
+    // Coarse grid for nearest-element queries
+    private static final int GRID_COLUMNS = 8;
+    private static final int GRID_ROWS = 16;
+
+    private final List<UIElementParser.UIElement> elements;
+    // Set when indexing a CompactScreen; elements is then its lazy view
+    private final CompactScreen screen;
+
+    private Map<String, Integer> exactTexts;
+    private Map<String, Integer> exactDescs;
+    private Grams textGrams;
+    private Grams descGrams;
+    private Grams idGrams;
+    private Map<String, Integer> idSuffixes;
+    // Distinct class names, with the first element of each
+    private Map<String, Integer> classes;
+    private int[][] grid;
+    private int cellWidth, cellHeight;
+
+    public ElementIndex(List<UIElementParser.UIElement> elements) {
+        this.elements = elements;
+        this.screen = null;
+    }
+
+    public ElementIndex(CompactScreen screen) {
+        this.elements = screen.elements();
+        this.screen = screen;
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    /**
+     * First element whose text or content description contains the query,
+     * ignoring case
+     */
+    public UIElementParser.UIElement findByText(String query) {
+        String q = lower(query);
+        int text = texts().first(q);
+        int desc = descs().first(q);
+        return at(text < 0 ? desc : desc < 0 ? text : Math.min(text, desc));
+    }
+
+    /**
+     * First element whose content description contains the query, ignoring case
+     */
+    public UIElementParser.UIElement findByContentDesc(String query) {
+        return at(descs().first(lower(query)));
+    }
+
+    /**
+     * First element whose text or content description is exactly the query,
+     * ignoring case
+     */
+    public synchronized UIElementParser.UIElement findByExactText(String query) {
+        texts();
+        descs();
+        String q = lower(query);
+        Integer text = exactTexts.get(q);
+        Integer desc = exactDescs.get(q);
+        return at(text == null ? desc == null ? -1 : desc : desc == null ? text : Math.min(text, desc));
+    }
+
+    /**
+     * First element whose resource id contains the given part, e.g. "send"
+     * for "com.whatsapp:id/send"
+     */
+    public UIElementParser.UIElement findByResourceId(String part) {
+        return at(ids().first(part));
+    }
+
+    /**
+     * First element whose resource id ends in exactly this name, e.g. "entry"
+     */
+    public synchronized UIElementParser.UIElement findByIdName(String name) {
+        ids();
+        Integer position = idSuffixes.get(name);
+        return position != null ? at(position) : null;
+    }
+
+    /**
+     * First element whose class name contains any of the given parts, e.g.
+     * "EditText"
+     */
+    public synchronized UIElementParser.UIElement findByClass(String... parts) {
+        if (classes == null)
+            buildClasses();
+        int best = -1;
+        for (Map.Entry<String, Integer> entry : classes.entrySet()) {
+            int first = entry.getValue();
+            if (best >= 0 && first >= best)
+                continue;
+            for (String part : parts) {
+                if (entry.getKey().contains(part)) {
+                    best = first;
+                    break;
+                }
+            }
+        }
+        return at(best);
+    }
+
+    /**
+     * Element whose center is nearest to (x, y), or null if there are none
+     */
+    public synchronized UIElementParser.UIElement nearest(int x, int y) {
+        if (elements.isEmpty())
+            return null;
+        if (grid == null)
+            buildGrid();
+
+        int column = clamp(x / cellWidth, GRID_COLUMNS);
+        int row = clamp(y / cellHeight, GRID_ROWS);
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int maxRing = Math.max(GRID_COLUMNS, GRID_ROWS);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Nothing further out can beat what a nearer ring already found
+            long ringGap = (long) Math.max(0, ring - 1) * Math.min(cellWidth, cellHeight);
+            if (best >= 0 && ringGap * ringGap > bestDistance)
+                break;
+            for (int r = row - ring; r <= row + ring; r++) {
+                for (int c = column - ring; c <= column + ring; c++) {
+                    if (r < 0 || c < 0 || r >= GRID_ROWS || c >= GRID_COLUMNS)
+                        continue;
+                    if (Math.max(Math.abs(r - row), Math.abs(c - column)) != ring)
+                        continue;
+                    for (int position : grid[r * GRID_COLUMNS + c]) {
+                        long dx = centerX(position) - x;
+                        long dy = centerY(position) - y;
+                        long distance = dx * dx + dy * dy;
+                        if (distance < bestDistance || (distance == bestDistance && position < best)) {
+                            bestDistance = distance;
+                            best = position;
+                        }
+                    }
+                }
+            }
+        }
+        return at(best);
+    }
+
+    private UIElementParser.UIElement at(int position) {
+        return position >= 0 ? elements.get(position) : null;
+    }
+
+    private String text(int position) {
+        return screen != null ? screen.text(screen.elementNode(position)) : elements.get(position).text;
+    }
+
+    private String contentDesc(int position) {
+        return screen != null ? screen.contentDesc(screen.elementNode(position))
+                : elements.get(position).contentDesc;
+    }
+
+    private String resourceId(int position) {
+        return screen != null ? screen.resourceId(screen.elementNode(position))
+                : elements.get(position).resourceId;
+    }
+
+    private String className(int position) {
+        return screen != null ? screen.className(screen.elementNode(position)) : elements.get(position).className;
+    }
+
+    private int centerX(int position) {
+        return screen != null ? screen.centerX(screen.elementNode(position)) : elements.get(position).centerX;
+    }
+
+    private int centerY(int position) {
+        return screen != null ? screen.centerY(screen.elementNode(position)) : elements.get(position).centerY;
+    }
+
+    private synchronized Grams texts() {
+        if (textGrams == null) {
+            String[] lowerTexts = new String[elements.size()];
+            exactTexts = new HashMap<>();
+            for (int i = 0; i < lowerTexts.length; i++) {
+                lowerTexts[i] = lower(text(i));
+                if (!lowerTexts[i].isEmpty() && !exactTexts.containsKey(lowerTexts[i]))
+                    exactTexts.put(lowerTexts[i], i);
+            }
+            textGrams = new Grams(lowerTexts);
+        }
+        return textGrams;
+    }
+
+    private synchronized Grams descs() {
+        if (descGrams == null) {
+            String[] lowerDescs = new String[elements.size()];
+            exactDescs = new HashMap<>();
+            for (int i = 0; i < lowerDescs.length; i++) {
+                lowerDescs[i] = lower(contentDesc(i));
+                if (!lowerDescs[i].isEmpty() && !exactDescs.containsKey(lowerDescs[i]))
+                    exactDescs.put(lowerDescs[i], i);
+            }
+            descGrams = new Grams(lowerDescs);
+        }
+        return descGrams;
+    }
+
+    private synchronized Grams ids() {
+        if (idGrams == null) {
+            String[] ids = new String[elements.size()];
+            idSuffixes = new HashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                String id = resourceId(i);
+                ids[i] = id != null ? id : "";
+                String name = ids[i].substring(ids[i].lastIndexOf('/') + 1);
+                if (!name.isEmpty() && !idSuffixes.containsKey(name))
+                    idSuffixes.put(name, i);
+            }
+            idGrams = new Grams(ids);
+        }
+        return idGrams;
+    }
+
+    private void buildClasses() {
+        classes = new HashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            String className = className(i);
+            if (className != null && !className.isEmpty() && !classes.containsKey(className))
+                classes.put(className, i);
+        }
+    }
+
+    private void buildGrid() {
+        int maxX = 1;
+        int maxY = 1;
+        for (int i = 0; i < elements.size(); i++) {
+            maxX = Math.max(maxX, centerX(i) + 1);
+            maxY = Math.max(maxY, centerY(i) + 1);
+        }
+        cellWidth = Math.max(1, (maxX + GRID_COLUMNS - 1) / GRID_COLUMNS);
+        cellHeight = Math.max(1, (maxY + GRID_ROWS - 1) / GRID_ROWS);
+
+        List<List<Integer>> cells = new ArrayList<>(GRID_COLUMNS * GRID_ROWS);
+        for (int i = 0; i < GRID_COLUMNS * GRID_ROWS; i++) {
+            cells.add(new ArrayList<>());
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            int cell = clamp(centerY(i) / cellHeight, GRID_ROWS) * GRID_COLUMNS
+                    + clamp(centerX(i) / cellWidth, GRID_COLUMNS);
+            cells.get(cell).add(i);
+        }
+        grid = new int[cells.size()][];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = toArray(cells.get(i));
+        }
+    }
+
+    private static int clamp(int value, int limit) {
+        return value < 0 ? 0 : value >= limit ? limit - 1 : value;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static String lower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Trigram index over one string per element. A query is answered from
+     * the rarest of its trigrams' posting lists, then verified; queries
+     * shorter than a trigram fall back to a scan.
+     */
+    private static class Grams {
+        private static final int[] NONE = new int[0];
+
+        private final String[] values;
+        private final Map<Long, int[]> postings = new HashMap<>();
+
+        Grams(String[] values) {
+            this.values = values;
+            Map<Long, Posting> building = new HashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                String value = values[i];
+                for (int j = 0; j + 3 <= value.length(); j++) {
+                    Long gram = gram(value, j);
+                    Posting posting = building.get(gram);
+                    if (posting == null) {
+                        posting = new Posting();
+                        building.put(gram, posting);
+                    }
+                    posting.add(i);
+                }
+            }
+            for (Map.Entry<Long, Posting> entry : building.entrySet()) {
+                postings.put(entry.getKey(), entry.getValue().toArray());
+            }
+        }
+
+        /**
+         * Position of the first value containing the query, or -1
+         */
+        int first(String query) {
+            if (query.isEmpty())
+                return values.length > 0 ? 0 : -1;
+            if (query.length() < 3) {
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i].contains(query))
+                        return i;
+                }
+                return -1;
+            }
+
+            int[] candidates = null;
+            for (int j = 0; j + 3 <= query.length(); j++) {
+                int[] list = postings.get(gram(query, j));
+                if (list == null)
+                    return -1;
+                if (candidates == null || list.length < candidates.length)
+                    candidates = list;
+            }
+            for (int position : candidates != null ? candidates : NONE) {
+                if (values[position].contains(query))
+                    return position;
+            }
+            return -1;
+        }
+
+        private static class Posting {
+            int[] positions = new int[4];
+            int size;
+
+            // Each element once per gram, in document order
+            void add(int position) {
+                if (size > 0 && positions[size - 1] == position)
+                    return;
+                if (size == positions.length)
+                    positions = Arrays.copyOf(positions, size * 2);
+                positions[size++] = position;
+            }
+
+            int[] toArray() {
+                return Arrays.copyOf(positions, size);
+            }
+        }
+
+        private static Long gram(String s, int at) {
+            return ((long) s.charAt(at) << 32) | ((long) s.charAt(at + 1) << 16) | s.charAt(at + 2);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.assistant.root.context;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Element lists for AI prompts that fit a token budget. Each element is
+ * scored against the words of the request, its role (input, button,
+ * toggle, plain text) and where it sits on screen; the best are written
+ * most relevant first, one short line each ("Send [btn] 950,2250"), until
+ * the budget is spent.
+ *
+ * Tokens are estimated at four characters each, the usual rule of thumb
+ * for English text. Tokens saved are counted against listing every
+ * meaningful element in the old format, and reported in getStats().
+ */
+public class ElementSummarizer {
+    private static final String TAG = "ElementSummarizer";
+
+    public static final int DEFAULT_TOKEN_BUDGET = 150;
+    // Long labels are cut; the start is enough for the model to pick the element
+    private static final int MAX_LABEL = 40;
+    // Share of the screen height counted as the top or bottom bar
+    private static final double BAR_FRACTION = 0.12;
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList("a", "an", "the", "to",
+            "on", "in", "of", "for", "and", "or", "my", "me", "it", "is", "please", "can", "you", "i", "this",
+            "that", "with", "at", "tap", "click", "press", "open", "go"));
+    // Requests with these words are about typing, so inputs rank higher
+    private static final Set<String> TYPING_WORDS = new HashSet<>(Arrays.asList("type", "write",
+            "search", "message", "enter", "text", "say", "saying", "reply", "find"));
+
+    private static volatile int tokenBudget = DEFAULT_TOKEN_BUDGET;
+
+    private static final AtomicLong summaries = new AtomicLong();
+    private static final AtomicLong fullTokens = new AtomicLong();
+    private static final AtomicLong sentTokens = new AtomicLong();
+
+    /**
+     * Tokens a summary may use; at least one element is always listed
+     */
+    public static void setTokenBudget(int tokens) {
+        tokenBudget = Math.max(1, tokens);
+    }
+
+    public static int getTokenBudget() {
+        return tokenBudget;
+    }
+
+    /**
+     * The elements most relevant to the request, within the token budget
+     */
+    public static String summarize(List<UIElementParser.UIElement> elements, String request) {
+        return summarize(elements, request, tokenBudget);
+    }
+
+    public static String summarize(List<UIElementParser.UIElement> elements, String request, int budget) {
+        Set<String> words = words(request);
+        boolean typing = false;
+        for (String word : words) {
+            typing |= TYPING_WORDS.contains(word);
+        }
+
+        int screenHeight = 1;
+        for (UIElementParser.UIElement el : elements) {
+            screenHeight = Math.max(screenHeight, el.centerY + 1);
+        }
+
+        List<Scored> candidates = new ArrayList<>();
+        int full = 0;
+        for (int i = 0; i < elements.size(); i++) {
+            UIElementParser.UIElement el = elements.get(i);
+            if (!UIElementParser.isMeaningful(el))
+                continue;
+            full += tokens(String.format("%d. %s at (%d,%d)\n", candidates.size() + 1, el.getIdentifier(),
+                    el.centerX, el.centerY));
+            candidates.add(new Scored(el, i, score(el, words, typing, screenHeight)));
+        }
+        Collections.sort(candidates);
+
+        StringBuilder sb = new StringBuilder();
+        int used = 0;
+        int listed = 0;
+        for (Scored candidate : candidates) {
+            String line = line(listed + 1, candidate.element);
+            int cost = tokens(line);
+            if (listed > 0 && used + cost > budget)
+                break;
+            sb.append(line);
+            used += cost;
+            listed++;
+        }
+
+        summaries.incrementAndGet();
+        fullTokens.addAndGet(full);
+        sentTokens.addAndGet(used);
+        Log.d(TAG, "📝 " + listed + "/" + candidates.size() + " elements in ~" + used + " tokens (full list ~" + full
+                + ", saved ~" + Math.max(0, full - used) + ")");
+        return sb.toString();
+    }
+
+    public static String getStats() {
+        long count = summaries.get();
+        long full = fullTokens.get();
+        long sent = sentTokens.get();
+        return "Prompt summaries: " + count + " built, budget " + tokenBudget + " tokens" + (count > 0
+                ? ", avg ~" + (sent / count) + " of ~" + (full / count) + " tokens, ~" + Math.max(0, full - sent)
+                        + " saved"
+                : "");
+    }
+
+    private static int score(UIElementParser.UIElement el, Set<String> words, boolean typing, int screenHeight) {
+        int score = 0;
+
+        // Words of the request found in the label or id
+        if (!words.isEmpty()) {
+            Set<String> labelWords = words(orEmpty(el.text) + " " + orEmpty(el.contentDesc) + " "
+                    + idName(el).replace('_', ' '));
+            for (String word : words) {
+                if (labelWords.contains(word)) {
+                    score += 6;
+                    continue;
+                }
+                for (String labelWord : labelWords) {
+                    if (word.length() >= 3 && labelWord.length() >= 3
+                            && (labelWord.startsWith(word) || word.startsWith(labelWord))) {
+                        score += 3;
+                        break;
+                    }
+                }
+            }
+        }
+
+        String role = role(el);
+        if ("input".equals(role))
+            score += typing ? 4 : 2;
+        else if ("btn".equals(role) || "toggle".equals(role))
+            score += 2;
+        else if (role == null)
+            score += 1;
+
+        // A label the user can read beats an id
+        if (!orEmpty(el.text).isEmpty() || !orEmpty(el.contentDesc).isEmpty())
+            score += 1;
+
+        // App and navigation bars hold the actions requests usually name
+        double y = (double) el.centerY / screenHeight;
+        if (y < BAR_FRACTION || y > 1 - BAR_FRACTION)
+            score += 1;
+        if (el.centerX < 0 || el.centerY < 0)
+            score -= 4;
+        return score;
+    }
+
+    /**
+     * Short role tag from the class name, or null for plain views
+     */
+    private static String role(UIElementParser.UIElement el) {
+        String className = el.className != null ? el.className : "";
+        if (className.contains("EditText") || className.contains("AutoCompleteTextView"))
+            return "input";
+        if (className.contains("Switch") || className.contains("CheckBox") || className.contains("RadioButton")
+                || className.contains("ToggleButton"))
+            return "toggle";
+        if (className.contains("Button"))
+            return "btn";
+        return null;
+    }
+
+    private static String line(int number, UIElementParser.UIElement el) {
+        String label = el.getIdentifier();
+        if (label.length() > MAX_LABEL)
+            label = label.substring(0, MAX_LABEL) + "…";
+        label = label.replace('\n', ' ');
+        String role = role(el);
+        return number + ". " + label + (role != null ? " [" + role + "] " : " ") + el.centerX + "," + el.centerY
+                + "\n";
+    }
+
+    private static String orEmpty(String s) {
+        return s != null ? s : "";
+    }
+
+    private static String idName(UIElementParser.UIElement el) {
+        return el.resourceId != null ? el.resourceId.substring(el.resourceId.lastIndexOf('/') + 1) : "";
+    }
+
+    private static Set<String> words(String s) {
+        Set<String> words = new HashSet<>();
+        if (s == null)
+            return words;
+        for (String word : s.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && !STOP_WORDS.contains(word))
+                words.add(word);
+        }
+        return words;
+    }
+
+    private static int tokens(String s) {
+        return (s.length() + 3) / 4;
+    }
+
+    private static class Scored implements Comparable<Scored> {
+        final UIElementParser.UIElement element;
+        final int position;
+        final int score;
+
+        Scored(UIElementParser.UIElement element, int position, int score) {
+            this.element = element;
+            this.position = position;
+            this.score = score;
+        }
+
+        // Highest score first; ties keep document order
+        @Override
+        public int compareTo(Scored other) {
+            return score != other.score ? Integer.compare(other.score, score)
+                    : Integer.compare(position, other.position);
+        }
+    }
+}
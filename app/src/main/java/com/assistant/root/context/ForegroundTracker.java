@@ -0,0 +1,194 @@
+package com.assistant.root.context;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The foreground app and activity, kept in memory from the accessibility
+ * service's window state changes, so reading it costs a field read instead
+ * of a dumpsys.
+ *
+ * Only windows that are activities move the foreground: dialogs, toasts,
+ * the keyboard and the notification shade also raise window state
+ * changes, but their class doesn't resolve to an activity. Each class is
+ * resolved once and remembered. While the service is disconnected the
+ * tracker holds whatever a root detection last reported (see report()),
+ * flagged by source and age so callers can tell how far to trust it.
+ */
+public class ForegroundTracker {
+    private static final String TAG = "ForegroundTracker";
+
+    public static final String SOURCE_ACCESSIBILITY = "accessibility";
+    public static final String SOURCE_ROOT = "root";
+
+    // Root detections older than this are treated as stale
+    private static final long ROOT_FRESH_MS = 1500;
+    // Remembered window classes before the map is cleared
+    private static final int MAX_RESOLVED = 512;
+
+    /**
+     * One foreground app, as last seen
+     */
+    public static class Foreground {
+        public final String packageName;
+        /** Full class name from events, or as dumpsys prints it from root */
+        public final String activityName;
+        public final String source;
+        /** SystemClock.elapsedRealtime() when this app came to the foreground */
+        public final long since;
+        private volatile long seenAt;
+
+        Foreground(String packageName, String activityName, String source) {
+            this.packageName = packageName;
+            this.activityName = activityName;
+            this.source = source;
+            this.since = SystemClock.elapsedRealtime();
+            this.seenAt = since;
+        }
+
+        /**
+         * Time since anything confirmed this is still the foreground
+         */
+        public long ageMs() {
+            return SystemClock.elapsedRealtime() - seenAt;
+        }
+
+        /**
+         * Whether to ask the system again rather than trust this: never while
+         * events are flowing, since any switch would have raised one, and
+         * otherwise once a root detection is more than a moment old
+         */
+        public boolean isStale() {
+            return !(SOURCE_ACCESSIBILITY.equals(source) && tracking) && ageMs() > ROOT_FRESH_MS;
+        }
+
+        @Override
+        public String toString() {
+            return packageName + "/" + activityName + " from " + source + ", " + ageMs() + "ms old";
+        }
+    }
+
+    private static volatile Foreground current;
+    private static volatile boolean tracking;
+    private static Context context;
+
+    // Window class -> whether it is an activity; only touched on the service's thread
+    private static final Map<String, Boolean> activities = new HashMap<>();
+
+    private static final AtomicLong changes = new AtomicLong();
+    private static final AtomicLong ignoredWindows = new AtomicLong();
+
+    /**
+     * Start tracking; called when the accessibility service connects
+     */
+    public static synchronized void start(Context serviceContext) {
+        context = serviceContext.getApplicationContext();
+        tracking = true;
+    }
+
+    /**
+     * Stop tracking; what was last seen stays, but goes stale
+     */
+    public static synchronized void stop() {
+        tracking = false;
+    }
+
+    /**
+     * Note an event; cheap enough to call from onAccessibilityEvent
+     */
+    public static void onEvent(AccessibilityEvent event) {
+        if (!tracking)
+            return;
+        CharSequence packageName = event.getPackageName();
+        if (packageName == null)
+            return;
+
+        Foreground foreground = current;
+        if (event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            // Anything from the foreground app confirms it is still there
+            if (foreground != null && foreground.packageName.contentEquals(packageName))
+                foreground.seenAt = SystemClock.elapsedRealtime();
+            return;
+        }
+
+        CharSequence className = event.getClassName();
+        if (className == null)
+            return;
+        String pkg = packageName.toString();
+        String cls = className.toString();
+        if (foreground != null && foreground.packageName.equals(pkg) && cls.equals(foreground.activityName)
+                && SOURCE_ACCESSIBILITY.equals(foreground.source)) {
+            foreground.seenAt = SystemClock.elapsedRealtime();
+            return;
+        }
+        if (!isActivity(pkg, cls)) {
+            ignoredWindows.incrementAndGet();
+            return;
+        }
+
+        current = new Foreground(pkg, cls, SOURCE_ACCESSIBILITY);
+        changes.incrementAndGet();
+        Log.d(TAG, "📱 Foreground: " + pkg + "/" + cls);
+    }
+
+    /**
+     * Record what a root detection found, for when events aren't available
+     * or haven't shown a window change yet
+     */
+    public static void report(String packageName, String activityName) {
+        if (packageName == null)
+            return;
+        Foreground foreground = current;
+        if (tracking && foreground != null && SOURCE_ACCESSIBILITY.equals(foreground.source))
+            return;
+        current = new Foreground(packageName, activityName, SOURCE_ROOT);
+    }
+
+    /**
+     * The foreground as last seen, or null if nothing has been seen yet
+     */
+    public static Foreground current() {
+        return current;
+    }
+
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    public static String getStats() {
+        Foreground foreground = current;
+        return "Foreground: " + (foreground != null ? foreground + (foreground.isStale() ? " (stale)" : "")
+                : "unknown") + " (" + (tracking ? "tracking" : "not tracking") + ", " + changes.get()
+                + " switches, " + ignoredWindows.get() + " non-activity windows)";
+    }
+
+    private static boolean isActivity(String packageName, String className) {
+        String key = packageName + "/" + className;
+        Boolean known = activities.get(key);
+        if (known != null)
+            return known;
+
+        boolean activity;
+        try {
+            PackageManager pm = context.getPackageManager();
+            activity = pm.getActivityInfo(new ComponentName(packageName, className), 0) != null;
+        } catch (PackageManager.NameNotFoundException e) {
+            activity = false;
+        } catch (RuntimeException e) {
+            // Not resolvable right now; don't remember the answer
+            return false;
+        }
+        if (activities.size() >= MAX_RESOLVED)
+            activities.clear();
+        activities.put(key, activity);
+        return activity;
+    }
+}
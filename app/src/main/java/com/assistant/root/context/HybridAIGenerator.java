@@ -2,6 +2,7 @@ package com.assistant.root.context;
 
 import android.content.Context;
 import android.util.Log;
+import com.assistant.root.shell.PriorityScheduler;
 import com.google.ai.client.generativeai.GenerativeModel;
 import com.google.ai.client.generativeai.java.GenerativeModelFutures;
 import com.google.ai.client.generativeai.type.Content;
@@ -60,31 +61,45 @@ public class HybridAIGenerator {
             ContextDetector.AppContext appContext,
             List<UIElementParser.UIElement> elements,
             AICallback callback) {
+        Futures.addCallback(generateWithContextAsync(userInput, appContext, elements),
+                new FutureCallback<String>() {
+                    @Override
+                    public void onSuccess(String command) {
+                        callback.onGenerated(command);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        callback.onError(t.getMessage());
+                    }
+                }, executor);
+    }
+
+    /**
+     * Future variant of generateWithContext for chaining pipeline stages
+     */
+    public ListenableFuture<String> generateWithContextAsync(String userInput,
+            ContextDetector.AppContext appContext,
+            List<UIElementParser.UIElement> elements) {
         if (model == null) {
-            callback.onError("AI not initialized");
-            return;
+            return Futures.immediateFailedFuture(new IllegalStateException("AI not initialized"));
         }
 
         String prompt = buildPrompt(userInput, appContext, elements);
 
         Content content = new Content.Builder().addText(prompt).build();
-        ListenableFuture<GenerateContentResponse> response = model.generateContent(content);
-
-        Futures.addCallback(response, new FutureCallback<GenerateContentResponse>() {
-            @Override
-            public void onSuccess(GenerateContentResponse result) {
-                String command = cleanCommand(result.getText());
-                if (isValid(command)) {
-                    callback.onGenerated(command);
-                } else {
-                    callback.onError("Invalid command generated");
-                }
-            }
-
-            @Override
-            public void onFailure(Throwable t) {
-                callback.onError("AI failed: " + t.getMessage());
+        ListenableFuture<GenerateContentResponse> response = Futures.catchingAsync(
+                PriorityScheduler.submitAsync(PriorityScheduler.currentLane(), () -> model.generateContent(content)),
+                Exception.class,
+                e -> Futures.immediateFailedFuture(new IllegalStateException("AI failed: " + e.getMessage(), e)),
+                executor);
+
+        return Futures.transformAsync(response, result -> {
+            String command = cleanCommand(result.getText());
+            if (isValid(command)) {
+                return Futures.immediateFuture(command);
             }
+            return Futures.immediateFailedFuture(new IllegalStateException("Invalid command generated"));
         }, executor);
     }
 
@@ -95,7 +110,7 @@ public class HybridAIGenerator {
                 "App: " + ctx.appName + "\n" +
                 "Screen: " + ctx.screenDescription + "\n\n" +
                 "ELEMENTS:\n" +
-                UIElementParser.formatForAI(elements) + "\n" +
+                ElementSummarizer.summarize(elements, userInput) + "\n" +
                 "USER: " + userInput + "\n\n" +
                 "RULES:\n" +
                 "- Return ONLY commands, one per line\n" +
@@ -4,12 +4,20 @@ import android.content.Context;
 import android.util.Log;
 import java.util.List;
 import com.assistant.root.cache.HybridCommandCache;
+import com.assistant.root.shell.AsyncRootShell;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Main Hybrid System - Instant patterns + AI fallback
  */
 public class HybridCommandSystem {
     private static final String TAG = "HybridSystem";
+    private static final long CONTEXT_TIMEOUT_MS = 10000;
+    private static final long AI_TIMEOUT_MS = 30000;
 
     private Context context;
     private HybridAIGenerator aiGenerator;
@@ -27,92 +35,128 @@ public class HybridCommandSystem {
         this.cache = new HybridCommandCache(context);
     }
 
+    /**
+     * Command resolved by one of the hybrid stages
+     */
+    public static class ResolvedCommand {
+        public final String command;
+        public final boolean instant;
+        public final String source;
+
+        public ResolvedCommand(String command, boolean instant, String source) {
+            this.command = command;
+            this.instant = instant;
+            this.source = source;
+        }
+    }
+
     /**
      * MAIN METHOD - Process command with hybrid approach
      */
     public void processCommand(String userInput, SystemCallback callback) {
-        new Thread(() -> {
-            long startTime = System.currentTimeMillis();
-
-            try {
-                Log.d(TAG, "🚀 Starting hybrid command processing for: " + userInput);
-
-                // Special handling for test commands
-                if (userInput.toLowerCase().contains("test hybrid")) {
-                    Log.d(TAG, "🧪 Test command detected - providing test response");
-                    long time = System.currentTimeMillis() - startTime;
-                    callback.onCommandReady("echo 'Hybrid system is working!'", true, "Test (" + time + "ms)");
-                    return;
-                }
-
-                // Step 1: Get context with timeout
-                Log.d(TAG, "📱 Getting app context...");
-                ContextDetector.AppContext appContext = ContextDetector.getCurrentContext();
-                if (appContext == null) {
-                    Log.w(TAG, "⚠️ Context detection failed, using fallback");
-                    callback.onError("Could not detect app context - using fallback");
-                    return;
-                }
-
-                Log.d(TAG, "✅ Context detected: " + appContext.appName);
-
-                // Step 2: Check cache
-                String cacheKey = appContext.packageName + ":" + userInput.toLowerCase();
-                HybridCommandCache.CachedCommand cached = cache.get(cacheKey);
-
-                if (cached != null) {
-                    long time = System.currentTimeMillis() - startTime;
-                    Log.d(TAG, "✓ CACHE HIT - " + time + "ms");
-                    callback.onCommandReady(cached.command, true, "Cache (" + time + "ms)");
-                    return;
-                }
-
-                // Step 3: Get UI elements
-                Log.d(TAG, "🔍 Getting UI elements...");
-                List<UIElementParser.UIElement> elements = UIElementParser.getScreenElements();
-                Log.d(TAG, "✅ Found " + elements.size() + " UI elements");
-
-                // Step 4: Try pattern matching (INSTANT)
-                Log.d(TAG, "🎯 Trying pattern matching...");
-                PatternMatcher.MatchResult match = PatternMatcher.tryMatch(userInput, elements, appContext);
-
-                if (match.matched) {
-                    long time = System.currentTimeMillis() - startTime;
-                    Log.d(TAG, "✓ PATTERN MATCH - " + time + "ms");
-
-                    // Cache for next time
-                    cache.put(cacheKey, match.command);
-
-                    callback.onCommandReady(match.command, true, "Pattern (" + time + "ms)");
-                    return;
-                }
-
-                // Step 5: Fallback to AI (5-10 seconds)
-                Log.d(TAG, "✗ No pattern match, using AI...");
-
-                aiGenerator.generateWithContext(userInput, appContext, elements,
-                        new HybridAIGenerator.AICallback() {
-                            @Override
-                            public void onGenerated(String command) {
-                                long time = System.currentTimeMillis() - startTime;
-                                Log.d(TAG, "✓ AI GENERATED - " + time + "ms");
-
-                                // Cache for next time
-                                cache.put(cacheKey, command);
-
-                                callback.onCommandReady(command, false, "AI (" + time + "ms)");
-                            }
-
-                            @Override
-                            public void onError(String error) {
-                                callback.onError(error);
-                            }
-                        });
-
-            } catch (Exception e) {
-                callback.onError("System error: " + e.getMessage());
+        processCommand(userInput, ScreenSnapshot.forCommand(), callback);
+    }
+
+    /**
+     * Process a command against the snapshot of the command it belongs to
+     */
+    public void processCommand(String userInput, Supplier<ScreenSnapshot> screen, SystemCallback callback) {
+        Futures.addCallback(resolveCommand(userInput, screen), new FutureCallback<ResolvedCommand>() {
+            @Override
+            public void onSuccess(ResolvedCommand resolved) {
+                callback.onCommandReady(resolved.command, resolved.instant, resolved.source);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                callback.onError(AsyncRootShell.describe(t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Resolve a command through context -> cache -> UI elements -> pattern -> AI.
+     * Each stage is chained on the previous one's future, so cancelling the
+     * result stops the pipeline wherever it is.
+     */
+    public ListenableFuture<ResolvedCommand> resolveCommand(String userInput) {
+        return resolveCommand(userInput, ScreenSnapshot.forCommand());
+    }
+
+    /**
+     * Resolve a command; every stage that reads the screen uses screen
+     */
+    public ListenableFuture<ResolvedCommand> resolveCommand(String userInput, Supplier<ScreenSnapshot> commandScreen) {
+        long startTime = System.currentTimeMillis();
+        Log.d(TAG, "🚀 Starting hybrid command processing for: " + userInput);
+
+        // Special handling for test commands
+        if (userInput.toLowerCase().contains("test hybrid")) {
+            Log.d(TAG, "🧪 Test command detected - providing test response");
+            long time = System.currentTimeMillis() - startTime;
+            return Futures.immediateFuture(
+                    new ResolvedCommand("echo 'Hybrid system is working!'", true, "Test (" + time + "ms)"));
+        }
+
+        // Step 1: Get context with timeout
+        Log.d(TAG, "📱 Getting app context...");
+        ListenableFuture<ContextDetector.AppContext> contextFuture = AsyncRootShell.call(
+                ContextDetector::getCurrentContext, CONTEXT_TIMEOUT_MS);
+
+        return Futures.transformAsync(contextFuture, appContext -> {
+            if (appContext == null) {
+                Log.w(TAG, "⚠️ Context detection failed, using fallback");
+                throw new IllegalStateException("Could not detect app context - using fallback");
             }
-        }).start();
+
+            Log.d(TAG, "✅ Context detected: " + appContext.appName);
+
+            // Step 2: Check cache
+            String cacheKey = appContext.packageName + ":" + userInput.toLowerCase();
+            HybridCommandCache.CachedCommand cached = cache.get(cacheKey);
+
+            if (cached != null) {
+                long time = System.currentTimeMillis() - startTime;
+                Log.d(TAG, "✓ CACHE HIT - " + time + "ms");
+                return Futures.immediateFuture(new ResolvedCommand(cached.command, true, "Cache (" + time + "ms)"));
+            }
+
+            // Step 3: Get UI elements, once for every stage below
+            Log.d(TAG, "🔍 Getting UI elements...");
+            ScreenSnapshot screen = commandScreen.get();
+            List<UIElementParser.UIElement> elements = screen.elements;
+            Log.d(TAG, "✅ " + screen);
+
+            // Step 4: Try pattern matching (INSTANT)
+            Log.d(TAG, "🎯 Trying pattern matching...");
+            PatternMatcher.MatchResult match = PatternMatcher.tryMatch(userInput, screen, appContext);
+
+            if (match.matched) {
+                long time = System.currentTimeMillis() - startTime;
+                Log.d(TAG, "✓ PATTERN MATCH - " + time + "ms");
+
+                // Cache for next time
+                cache.put(cacheKey, match.command);
+
+                return Futures.immediateFuture(new ResolvedCommand(match.command, true, "Pattern (" + time + "ms)"));
+            }
+
+            // Step 5: Fallback to AI (5-10 seconds)
+            Log.d(TAG, "✗ No pattern match, using AI...");
+
+            ListenableFuture<String> generated = AsyncRootShell.withDeadline(
+                    aiGenerator.generateWithContextAsync(userInput, appContext, elements), AI_TIMEOUT_MS);
+
+            return Futures.transform(generated, command -> {
+                long time = System.currentTimeMillis() - startTime;
+                Log.d(TAG, "✓ AI GENERATED - " + time + "ms");
+
+                // Cache for next time
+                cache.put(cacheKey, command);
+
+                return new ResolvedCommand(command, false, "AI (" + time + "ms)");
+            }, MoreExecutors.directExecutor());
+        }, AsyncRootShell.blockingExecutor());
     }
 
     public String getCacheStats() {
@@ -0,0 +1,463 @@
+package com.assistant.root.context;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.assistant.root.services.AssistantAccessibilityService;
+import com.assistant.root.shell.RootMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The active window's element tree, kept current from accessibility events
+ * so reading the screen costs no capture at all.
+ *
+ * A window state change rebuilds the whole tree; a content change re-reads
+ * only the subtree under the event's source and splices it in. Events are
+ * only noted on the service's thread. The work is done on a background
+ * thread after a short debounce, and at least every MAX_DELAY_MS while
+ * events keep coming, so a scrolling feed costs a few bounded updates a
+ * second instead of one per frame. Every update that changes the tree
+ * bumps the generation.
+ */
+public class LiveScreenModel {
+    private static final String TAG = "LiveScreenModel";
+    public static final String METRICS_VERB = "a11y:update";
+
+    private static final long DEBOUNCE_MS = 150;
+    private static final long MAX_DELAY_MS = 500;
+    // Nodes read per update; past this the model is dropped until the next rebuild
+    private static final int MAX_NODES_PER_UPDATE = 4000;
+    // Distinct changed subtrees per update before a full rebuild is cheaper
+    private static final int MAX_PENDING_SOURCES = 24;
+    // How often a waiter applies events still inside their debounce
+    private static final long AWAIT_POLL_MS = 50;
+
+    private static final Object pendingLock = new Object();
+    private static final Set<AccessibilityNodeInfo> pendingSources = new LinkedHashSet<>();
+    private static boolean pendingRebuild;
+    private static boolean dirty;
+    private static long firstPendingAt;
+    // Set when the window was too large to track; cleared by the next window change
+    private static boolean suspended;
+
+    // Guarded by treeLock
+    private static final Object treeLock = new Object();
+    private static final Map<AccessibilityNodeInfo, UIHierarchyParser.Node> nodesByInfo = new HashMap<>();
+    private static final Map<UIHierarchyParser.Node, AccessibilityNodeInfo> infoByNode = new IdentityHashMap<>();
+    private static UIHierarchyParser.Node root;
+    private static int windowId = -1;
+
+    private static volatile CompactScreen screen;
+    private static volatile boolean live;
+    private static final AtomicLong generation = new AtomicLong();
+    // Notified whenever the generation moves
+    private static final Object updateLock = new Object();
+
+    private static final AtomicLong rebuilds = new AtomicLong();
+    private static final AtomicLong subtreeUpdates = new AtomicLong();
+    private static final AtomicLong droppedEvents = new AtomicLong();
+
+    private static HandlerThread thread;
+    private static Handler handler;
+    private static final Runnable flushTask = LiveScreenModel::flush;
+
+    /**
+     * Start tracking; called when the accessibility service connects
+     */
+    public static synchronized void start() {
+        if (thread == null) {
+            thread = new HandlerThread("LiveScreenModel");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        synchronized (pendingLock) {
+            markRebuild();
+        }
+    }
+
+    /**
+     * Stop tracking and drop the tree; called when the service goes away
+     */
+    public static synchronized void stop() {
+        if (thread != null) {
+            handler.removeCallbacks(flushTask);
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+        synchronized (pendingLock) {
+            clearPendingSources();
+            pendingRebuild = false;
+            dirty = false;
+        }
+        synchronized (treeLock) {
+            drop();
+        }
+    }
+
+    /**
+     * Note an event; cheap enough to call from onAccessibilityEvent
+     */
+    public static void onEvent(AccessibilityEvent event) {
+        int type = event.getEventType();
+        if (type != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                && type != AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                && type != AccessibilityEvent.TYPE_VIEW_SCROLLED)
+            return;
+
+        synchronized (pendingLock) {
+            if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+                suspended = false;
+                markRebuild();
+            } else if (pendingRebuild) {
+                // Already re-reading everything
+                droppedEvents.incrementAndGet();
+            } else if (suspended || event.getWindowId() != windowId) {
+                // Another window (status bar, keyboard) changed, or this one is too large to follow
+                droppedEvents.incrementAndGet();
+                return;
+            } else if (pendingSources.size() >= MAX_PENDING_SOURCES) {
+                markRebuild();
+            } else {
+                AccessibilityNodeInfo source = event.getSource();
+                if (source == null) {
+                    markRebuild();
+                } else if (!pendingSources.add(source)) {
+                    source.recycle();
+                    droppedEvents.incrementAndGet();
+                }
+            }
+            dirty = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Whether the model currently mirrors the active window
+     */
+    public static boolean isLive() {
+        return live;
+    }
+
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Clickable elements on screen, or null when the model isn't live. Any
+     * update still waiting for its debounce is applied first, on the
+     * caller's thread.
+     */
+    public static List<UIElementParser.UIElement> getElements() {
+        CompactScreen current = getScreen();
+        return current != null ? current.elements() : null;
+    }
+
+    /**
+     * The screen as of the last applied update, or null when the model
+     * isn't live; pending updates are applied first, as for getElements()
+     */
+    public static CompactScreen getScreen() {
+        applyPending();
+        return live ? screen : null;
+    }
+
+    /**
+     * Wait until the generation moves past seen, applying pending updates
+     * without their debounce. False if the model isn't live or nothing
+     * changed within the timeout.
+     */
+    public static boolean awaitUpdate(long seen, long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (true) {
+            applyPending();
+            if (!live)
+                return false;
+            if (generation.get() != seen)
+                return true;
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0)
+                return false;
+            synchronized (updateLock) {
+                if (generation.get() == seen)
+                    updateLock.wait(Math.min(remaining, AWAIT_POLL_MS));
+            }
+        }
+    }
+
+    /**
+     * Apply any update still waiting for its debounce, so the generation
+     * reflects every event seen so far
+     */
+    public static void applyPending() {
+        boolean pending;
+        synchronized (pendingLock) {
+            pending = dirty;
+        }
+        if (pending)
+            flush();
+    }
+
+    public static String getStats() {
+        CompactScreen current = screen;
+        return "Live screen: " + (live ? "live, generation " + generation.get() + ", "
+                + (current != null ? current.elementCount() : 0) + " elements" : "not live")
+                + " (" + rebuilds.get() + " rebuilds, " + subtreeUpdates.get() + " subtree updates, "
+                + droppedEvents.get() + " events coalesced)";
+    }
+
+    // Caller holds pendingLock
+    private static void markRebuild() {
+        pendingRebuild = true;
+        clearPendingSources();
+        dirty = true;
+        schedule();
+    }
+
+    // Caller holds pendingLock
+    private static void schedule() {
+        Handler h = handler;
+        if (h == null)
+            return;
+        long now = SystemClock.uptimeMillis();
+        if (firstPendingAt == 0)
+            firstPendingAt = now;
+        long delay = Math.min(DEBOUNCE_MS, firstPendingAt + MAX_DELAY_MS - now);
+        h.removeCallbacks(flushTask);
+        h.postDelayed(flushTask, Math.max(0, delay));
+    }
+
+    // Caller holds pendingLock
+    private static void clearPendingSources() {
+        for (AccessibilityNodeInfo source : pendingSources) {
+            source.recycle();
+        }
+        pendingSources.clear();
+    }
+
+    /**
+     * Apply everything noted so far
+     */
+    private static void flush() {
+        synchronized (treeLock) {
+            boolean rebuild;
+            List<AccessibilityNodeInfo> sources;
+            synchronized (pendingLock) {
+                if (!dirty)
+                    return;
+                rebuild = pendingRebuild || root == null;
+                sources = new ArrayList<>(pendingSources);
+                pendingSources.clear();
+                pendingRebuild = false;
+                dirty = false;
+                firstPendingAt = 0;
+                if (handler != null)
+                    handler.removeCallbacks(flushTask);
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            boolean ok;
+            try {
+                ok = rebuild ? rebuild(sources) : applySubtrees(sources);
+            } catch (RuntimeException e) {
+                // The window can go away mid-walk
+                Log.w(TAG, "⚠️ Update failed: " + e.getMessage());
+                ok = false;
+            }
+            if (ok) {
+                publish();
+            } else {
+                drop();
+            }
+            RootMetrics.record(METRICS_VERB, SystemClock.elapsedRealtime() - start, 0, 0, ok, false);
+        }
+    }
+
+    private static boolean rebuild(List<AccessibilityNodeInfo> staleSources) {
+        for (AccessibilityNodeInfo source : staleSources) {
+            source.recycle();
+        }
+        drop();
+        AssistantAccessibilityService service = AssistantAccessibilityService.getInstance();
+        AccessibilityNodeInfo window = service != null && service.isConnected()
+                ? service.getRootInActiveWindow() : null;
+        if (window == null)
+            return false;
+
+        int id = window.getWindowId();
+        TrackingWalk walk = new TrackingWalk(MAX_NODES_PER_UPDATE);
+        root = walk.visit(window, null, 0, 0);
+        rebuilds.incrementAndGet();
+        if (walk.truncated || root == null) {
+            Log.w(TAG, "⚠️ Screen too large to track live (over " + MAX_NODES_PER_UPDATE + " nodes)");
+            synchronized (pendingLock) {
+                suspended = true;
+            }
+            return false;
+        }
+        synchronized (pendingLock) {
+            windowId = id;
+        }
+        return true;
+    }
+
+    /**
+     * Re-read the subtrees under each changed source and splice them in
+     */
+    private static boolean applySubtrees(List<AccessibilityNodeInfo> sources) {
+        List<UIHierarchyParser.Node> targets = new ArrayList<>(sources.size());
+        List<AccessibilityNodeInfo> targetInfos = new ArrayList<>(sources.size());
+        boolean known = true;
+        for (AccessibilityNodeInfo source : sources) {
+            UIHierarchyParser.Node node = nodesByInfo.get(source);
+            // The source is a copy from the first event that named it, and the
+            // node may have changed again since (typing, counters, progress);
+            // read it as it is now. One that is gone needs a rebuild.
+            if (node == null || !source.refresh()) {
+                known = false;
+                source.recycle();
+            } else {
+                targets.add(node);
+                targetInfos.add(source);
+            }
+        }
+        if (!known) {
+            // A change under a node we never saw (e.g. one that just became
+            // visible), or one that has since left the window
+            for (AccessibilityNodeInfo info : targetInfos) {
+                info.recycle();
+            }
+            return rebuild(Collections.<AccessibilityNodeInfo>emptyList());
+        }
+
+        // Outermost first, so a subtree refreshed with its ancestor is skipped
+        List<Integer> order = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, (a, b) -> Integer.compare(targets.get(a).depth, targets.get(b).depth));
+
+        TrackingWalk walk = new TrackingWalk(MAX_NODES_PER_UPDATE);
+        Set<UIHierarchyParser.Node> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int k = 0; k < order.size(); k++) {
+            int i = order.get(k);
+            UIHierarchyParser.Node old = targets.get(i);
+            AccessibilityNodeInfo info = targetInfos.get(i);
+            if (hasReplacedAncestor(old, replaced) || infoByNode.get(old) == null) {
+                info.recycle();
+                continue;
+            }
+            forget(old);
+            UIHierarchyParser.Node fresh = walk.visit(info, null, old.index, old.depth);
+            if (walk.truncated || fresh == null) {
+                // The walk took this info; the ones not reached yet are still ours
+                for (int rest = k + 1; rest < order.size(); rest++) {
+                    targetInfos.get(order.get(rest)).recycle();
+                }
+                synchronized (pendingLock) {
+                    suspended = true;
+                }
+                return false;
+            }
+            fresh.parent = old.parent;
+            if (old.parent == null) {
+                root = fresh;
+            } else {
+                List<UIHierarchyParser.Node> siblings = old.parent.children;
+                siblings.set(siblings.indexOf(old), fresh);
+            }
+            replaced.add(old);
+            subtreeUpdates.incrementAndGet();
+        }
+        return true;
+    }
+
+    private static boolean hasReplacedAncestor(UIHierarchyParser.Node node, Set<UIHierarchyParser.Node> replaced) {
+        for (UIHierarchyParser.Node n = node.parent; n != null; n = n.parent) {
+            if (replaced.contains(n))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove a subtree's nodes from the lookup maps and release their infos
+     */
+    private static void forget(UIHierarchyParser.Node node) {
+        AccessibilityNodeInfo info = infoByNode.remove(node);
+        if (info != null) {
+            nodesByInfo.remove(info);
+            info.recycle();
+        }
+        for (UIHierarchyParser.Node child : node.children) {
+            forget(child);
+        }
+    }
+
+    private static void drop() {
+        for (AccessibilityNodeInfo info : infoByNode.values()) {
+            info.recycle();
+        }
+        infoByNode.clear();
+        nodesByInfo.clear();
+        root = null;
+        screen = null;
+        live = false;
+    }
+
+    /**
+     * Renumber the tree in document order and publish a compact copy of it,
+     * so readers never hold on to the tree the next update will splice
+     */
+    private static void publish() {
+        CompactScreen.Builder builder = new CompactScreen.Builder();
+        List<UIHierarchyParser.Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            UIHierarchyParser.Node node = stack.remove(stack.size() - 1);
+            UIHierarchyParser.Node parent = node.parent;
+            node.depth = parent != null ? parent.depth + 1 : 0;
+            // Parents are always numbered before their children
+            node.id = builder.add(node, parent != null ? parent.id : -1);
+            for (int i = node.children.size() - 1; i >= 0; i--) {
+                stack.add(node.children.get(i));
+            }
+        }
+        screen = builder.build();
+        live = true;
+        generation.incrementAndGet();
+        synchronized (updateLock) {
+            updateLock.notifyAll();
+        }
+    }
+
+    /**
+     * A walk that keeps each node's info so later events can be matched to it
+     */
+    private static class TrackingWalk extends AccessibilitySnapshot.Walk {
+        TrackingWalk(int budget) {
+            super(budget);
+        }
+
+        @Override
+        void retain(AccessibilityNodeInfo info, UIHierarchyParser.Node node) {
+            AccessibilityNodeInfo previous = infoByNode.put(node, info);
+            if (previous != null)
+                previous.recycle();
+            nodesByInfo.put(info, node);
+        }
+    }
+}
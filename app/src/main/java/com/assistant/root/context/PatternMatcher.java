@@ -28,8 +28,18 @@ public class PatternMatcher {
      * Try to match user input against known patterns
      * Returns command immediately if matched
      */
+    public static MatchResult tryMatch(String userInput, ScreenSnapshot screen,
+            ContextDetector.AppContext context) {
+        return tryMatch(userInput, screen.index(), context);
+    }
+
     public static MatchResult tryMatch(String userInput, List<UIElementParser.UIElement> elements,
             ContextDetector.AppContext context) {
+        return tryMatch(userInput, new ElementIndex(elements), context);
+    }
+
+    private static MatchResult tryMatch(String userInput, ElementIndex elements,
+            ContextDetector.AppContext context) {
         String lower = userInput.toLowerCase().trim();
 
         // Pattern 1: "type X and send" / "type X and click send"
@@ -74,7 +84,7 @@ public class PatternMatcher {
     /**
      * Pattern: "type hello and send"
      */
-    private static MatchResult matchTypeAndSend(String input, List<UIElementParser.UIElement> elements) {
+    private static MatchResult matchTypeAndSend(String input, ElementIndex elements) {
         Pattern pattern = Pattern.compile("type\\s+(.+?)\\s+and\\s+(send|click send)", Pattern.CASE_INSENSITIVE);
         Matcher matcher = pattern.matcher(input);
 
@@ -104,7 +114,7 @@ public class PatternMatcher {
     /**
      * Pattern: "send message hello" / "message hello"
      */
-    private static MatchResult matchSendMessage(String input, List<UIElementParser.UIElement> elements) {
+    private static MatchResult matchSendMessage(String input, ElementIndex elements) {
         Pattern pattern = Pattern.compile("(send message|message|send)\\s+(.+)", Pattern.CASE_INSENSITIVE);
         Matcher matcher = pattern.matcher(input);
 
@@ -133,14 +143,17 @@ public class PatternMatcher {
     /**
      * Pattern: "click search" / "tap send" / "press back"
      */
-    private static MatchResult matchClick(String input, List<UIElementParser.UIElement> elements) {
+    private static MatchResult matchClick(String input, ElementIndex elements) {
         Pattern pattern = Pattern.compile("(click|tap|press)\\s+(.+)", Pattern.CASE_INSENSITIVE);
         Matcher matcher = pattern.matcher(input);
 
         if (matcher.find()) {
             String elementName = matcher.group(2);
 
-            UIElementParser.UIElement element = UIElementParser.findByText(elements, elementName);
+            // An exact label beats one that merely contains the name
+            UIElementParser.UIElement element = elements.findByExactText(elementName);
+            if (element == null)
+                element = elements.findByText(elementName);
 
             if (element != null) {
                 String command = String.format("input tap %d %d", element.centerX, element.centerY);
@@ -155,7 +168,7 @@ public class PatternMatcher {
     /**
      * Pattern: "search restaurants" / "search for music"
      */
-    private static MatchResult matchSearch(String input, List<UIElementParser.UIElement> elements,
+    private static MatchResult matchSearch(String input, ElementIndex elements,
             ContextDetector.AppContext context) {
         Pattern pattern = Pattern.compile("search\\s+(for\\s+)?(.+)", Pattern.CASE_INSENSITIVE);
         Matcher matcher = pattern.matcher(input);
@@ -205,7 +218,7 @@ public class PatternMatcher {
     /**
      * Pattern: "open settings" (when in an app)
      */
-    private static MatchResult matchOpenInApp(String input, List<UIElementParser.UIElement> elements,
+    private static MatchResult matchOpenInApp(String input, ElementIndex elements,
             ContextDetector.AppContext context) {
         Pattern pattern = Pattern.compile("open\\s+(.+)", Pattern.CASE_INSENSITIVE);
         Matcher matcher = pattern.matcher(input);
@@ -214,7 +227,7 @@ public class PatternMatcher {
             String target = matcher.group(1);
 
             // Try to find element with that name
-            UIElementParser.UIElement element = UIElementParser.findByText(elements, target);
+            UIElementParser.UIElement element = elements.findByText(target);
 
             if (element != null) {
                 String command = String.format("input tap %d %d", element.centerX, element.centerY);
@@ -229,7 +242,7 @@ public class PatternMatcher {
     /**
      * Pattern: "type hello" (just typing, no send)
      */
-    private static MatchResult matchTypeOnly(String input, List<UIElementParser.UIElement> elements) {
+    private static MatchResult matchTypeOnly(String input, ElementIndex elements) {
         Pattern pattern = Pattern.compile("type\\s+(.+)", Pattern.CASE_INSENSITIVE);
         Matcher matcher = pattern.matcher(input);
 
@@ -253,12 +266,12 @@ public class PatternMatcher {
     }
 
     // Helper methods
-    private static UIElementParser.UIElement findInputField(List<UIElementParser.UIElement> elements) {
+    private static UIElementParser.UIElement findInputField(ElementIndex elements) {
         // Try common input field IDs
         String[] inputIds = { "entry", "edit", "input", "text", "message", "search" };
 
         for (String id : inputIds) {
-            UIElementParser.UIElement el = UIElementParser.findByResourceId(elements, id);
+            UIElementParser.UIElement el = elements.findByResourceId(id);
             if (el != null)
                 return el;
         }
@@ -266,20 +279,20 @@ public class PatternMatcher {
         return null;
     }
 
-    private static UIElementParser.UIElement findSendButton(List<UIElementParser.UIElement> elements) {
+    private static UIElementParser.UIElement findSendButton(ElementIndex elements) {
         // Try common send button IDs
-        UIElementParser.UIElement el = UIElementParser.findByResourceId(elements, "send");
+        UIElementParser.UIElement el = elements.findByResourceId("send");
         if (el != null)
             return el;
 
-        return UIElementParser.findByText(elements, "send");
+        return elements.findByText("send");
     }
 
-    private static UIElementParser.UIElement findSearchElement(List<UIElementParser.UIElement> elements) {
-        UIElementParser.UIElement el = UIElementParser.findByResourceId(elements, "search");
+    private static UIElementParser.UIElement findSearchElement(ElementIndex elements) {
+        UIElementParser.UIElement el = elements.findByResourceId("search");
         if (el != null)
             return el;
 
-        return UIElementParser.findByText(elements, "search");
+        return elements.findByText("search");
     }
 }
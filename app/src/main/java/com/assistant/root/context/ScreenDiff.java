@@ -0,0 +1,196 @@
+package com.assistant.root.context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed between two snapshots of the screen: elements added,
+ * removed and changed (same element, different text, description,
+ * position or state).
+ *
+ * Elements are matched by identity, not by position in the list: the
+ * chain of class names and resource ids from the root down to the element.
+ * Elements sharing an identity, such as the rows of a list, are paired by
+ * content first and then by their place among each other. A diff holds
+ * elements, not the snapshots, so keeping one doesn't keep the old screen
+ * alive.
+ */
+public class ScreenDiff {
+    // Flags whose change the user would notice
+    private static final int STATE_FLAGS = CompactScreen.CHECKED | CompactScreen.ENABLED | CompactScreen.FOCUSED
+            | CompactScreen.SELECTED;
+    // Lines in the changed-only view before it is cut short
+    private static final int MAX_LINES = 15;
+
+    public final long beforeGeneration;
+    public final long afterGeneration;
+    /** In the later snapshot, not the earlier */
+    public final List<UIElementParser.UIElement> added;
+    /** In the earlier snapshot, not the later */
+    public final List<UIElementParser.UIElement> removed;
+    /** The later snapshot's version of each element that changed */
+    public final List<UIElementParser.UIElement> changed;
+    /** For each element of the later snapshot, its position in the earlier one, or -1 */
+    final int[] matches;
+
+    private ScreenDiff(long beforeGeneration, long afterGeneration, List<UIElementParser.UIElement> added,
+            List<UIElementParser.UIElement> removed, List<UIElementParser.UIElement> changed, int[] matches) {
+        this.beforeGeneration = beforeGeneration;
+        this.afterGeneration = afterGeneration;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+        this.matches = matches;
+    }
+
+    /**
+     * Diff two snapshots; either may be empty
+     */
+    public static ScreenDiff between(ScreenSnapshot before, ScreenSnapshot after) {
+        CompactScreen from = before.screen;
+        CompactScreen to = after.screen;
+        int fromCount = from != null ? from.elementCount() : 0;
+        int toCount = to != null ? to.elementCount() : 0;
+        int[] matches = new int[toCount];
+        boolean[] taken = new boolean[fromCount];
+
+        // Earlier elements by identity, in document order
+        Map<Long, List<Integer>> candidates = new HashMap<>();
+        long[] fromKeys = fromCount > 0 ? identities(from) : new long[0];
+        for (int i = 0; i < fromCount; i++) {
+            List<Integer> list = candidates.get(fromKeys[i]);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                candidates.put(fromKeys[i], list);
+            }
+            list.add(i);
+        }
+
+        // Same identity and same content first, so shifted list rows find themselves
+        long[] toKeys = toCount > 0 ? identities(to) : new long[0];
+        for (int i = 0; i < toCount; i++) {
+            matches[i] = -1;
+            List<Integer> list = candidates.get(toKeys[i]);
+            if (list == null)
+                continue;
+            for (int candidate : list) {
+                if (!taken[candidate] && sameContent(from, candidate, to, i)) {
+                    matches[i] = candidate;
+                    taken[candidate] = true;
+                    break;
+                }
+            }
+        }
+        // Then an element left over at the same place among those sharing its
+        // identity is taken to have changed; a row scrolled in is new instead
+        Map<Long, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < toCount; i++) {
+            Integer seen = ordinals.get(toKeys[i]);
+            int ordinal = seen != null ? seen : 0;
+            ordinals.put(toKeys[i], ordinal + 1);
+            if (matches[i] >= 0)
+                continue;
+            List<Integer> list = candidates.get(toKeys[i]);
+            if (list != null && ordinal < list.size() && !taken[list.get(ordinal)]) {
+                matches[i] = list.get(ordinal);
+                taken[matches[i]] = true;
+            }
+        }
+
+        List<UIElementParser.UIElement> added = new ArrayList<>();
+        List<UIElementParser.UIElement> changed = new ArrayList<>();
+        for (int i = 0; i < toCount; i++) {
+            if (matches[i] < 0)
+                added.add(to.element(i));
+            else if (!sameContent(from, matches[i], to, i) || !sameState(from, matches[i], to, i))
+                changed.add(to.element(i));
+        }
+        List<UIElementParser.UIElement> removed = new ArrayList<>();
+        for (int i = 0; i < fromCount; i++) {
+            if (!taken[i])
+                removed.add(from.element(i));
+        }
+        return new ScreenDiff(before.generation, after.generation, added, removed, changed, matches);
+    }
+
+    /**
+     * Whether anything was added, removed or changed
+     */
+    public boolean hasChanges() {
+        return !added.isEmpty() || !removed.isEmpty() || !changed.isEmpty();
+    }
+
+    public int size() {
+        return added.size() + removed.size() + changed.size();
+    }
+
+    /**
+     * Only what changed, with coordinates written as in ElementSummarizer's
+     * lines, for prompts that follow up on an earlier command
+     */
+    public String formatForAI() {
+        if (!hasChanges())
+            return "No changes\n";
+        StringBuilder sb = new StringBuilder();
+        int lines = append(sb, "+", added, 0);
+        lines = append(sb, "~", changed, lines);
+        lines = append(sb, "-", removed, lines);
+        int left = size() - lines;
+        if (left > 0)
+            sb.append("(").append(left).append(" more changes)\n");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ScreenDiff #" + beforeGeneration + " -> #" + afterGeneration + " (+" + added.size() + " -"
+                + removed.size() + " ~" + changed.size() + ")";
+    }
+
+    private static int append(StringBuilder sb, String mark, List<UIElementParser.UIElement> elements, int lines) {
+        for (UIElementParser.UIElement el : elements) {
+            if (lines >= MAX_LINES)
+                break;
+            sb.append(String.format("%s %s %d,%d\n", mark, el.getIdentifier(), el.centerX, el.centerY));
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Each element's identity: a hash of the class names and resource ids
+     * on its path from the root. Sibling positions are left out, so an
+     * element keeps its identity when something is inserted before it.
+     */
+    private static long[] identities(CompactScreen screen) {
+        long[] nodeKeys = new long[screen.nodeCount()];
+        for (int n = 0; n < nodeKeys.length; n++) {
+            int parent = screen.parent(n);
+            long key = parent >= 0 ? nodeKeys[parent] : 17;
+            key = key * 31 + screen.className(n).hashCode();
+            key = key * 31 + screen.resourceId(n).hashCode();
+            nodeKeys[n] = key;
+        }
+        long[] keys = new long[screen.elementCount()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = nodeKeys[screen.elementNode(i)];
+        }
+        return keys;
+    }
+
+    private static boolean sameContent(CompactScreen a, int i, CompactScreen b, int j) {
+        int na = a.elementNode(i);
+        int nb = b.elementNode(j);
+        return a.text(na).equals(b.text(nb)) && a.contentDesc(na).equals(b.contentDesc(nb));
+    }
+
+    private static boolean sameState(CompactScreen a, int i, CompactScreen b, int j) {
+        int na = a.elementNode(i);
+        int nb = b.elementNode(j);
+        return a.centerX(na) == b.centerX(nb) && a.centerY(na) == b.centerY(nb)
+                && (a.flags(na) & STATE_FLAGS) == (b.flags(nb) & STATE_FLAGS);
+    }
+}
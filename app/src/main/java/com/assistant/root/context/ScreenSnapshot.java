@@ -0,0 +1,255 @@
+package com.assistant.root.context;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.assistant.root.shell.QueryCache;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One capture of the screen's elements, taken once per command and handed
+ * to every stage that needs it (pattern matching, AI prompts, the context
+ * log, element lookups) instead of each stage dumping the screen again.
+ *
+ * forCommand() gives a command its own snapshot, captured when a stage
+ * first needs it and the same for every later stage however long the
+ * command runs. current() shares the latest snapshot between callers
+ * outside a command until it expires, an input or app launch invalidates
+ * it (see QueryCache.onCommand), or the live screen model moves to a
+ * newer generation.
+ *
+ * Each new snapshot is diffed against the one before it: getChanges()
+ * returns that diff, and elementId() gives every element an id that stays
+ * the same for as long as the element stays on screen.
+ */
+public class ScreenSnapshot {
+    private static final String TAG = "ScreenSnapshot";
+
+    public static final String SOURCE_LIVE = "live";
+    public static final String SOURCE_ACCESSIBILITY = "accessibility";
+    public static final String SOURCE_DUMP = "dump";
+
+    // The screen changes under the user's own hand too, so share snapshots briefly
+    private static final long SHARE_TTL_MS = 1000;
+
+    private static final AtomicLong generations = new AtomicLong();
+    private static final AtomicLong elementIds = new AtomicLong();
+    // The last snapshot captured, for diffing the next one against
+    private static ScreenSnapshot latest;
+    private static final ScreenSnapshot EMPTY = new ScreenSnapshot(null, Collections.emptyList(), "none", -1);
+
+    /** Clickable elements, in document order */
+    public final List<UIElementParser.UIElement> elements;
+    /** System.currentTimeMillis() at capture */
+    public final long capturedAt;
+    /** Increases with every snapshot taken; equal generations mean the same capture */
+    public final long generation;
+    /** Where the elements came from: live, accessibility or dump */
+    public final String source;
+    /** The whole hierarchy the elements were taken from; null only for the empty snapshot */
+    public final CompactScreen screen;
+    // LiveScreenModel generation this was taken at, or -1
+    private final long liveGeneration;
+
+    private volatile String summary;
+    private volatile ElementIndex index;
+    // Set once by link() before the snapshot is shared
+    private long[] ids;
+    private ScreenDiff changes;
+
+    private ScreenSnapshot(CompactScreen screen, String source, long liveGeneration) {
+        this(screen, screen.elements(), source, liveGeneration);
+    }
+
+    private ScreenSnapshot(CompactScreen screen, List<UIElementParser.UIElement> elements, String source,
+            long liveGeneration) {
+        this.screen = screen;
+        this.elements = Collections.unmodifiableList(elements);
+        this.capturedAt = System.currentTimeMillis();
+        this.generation = generations.incrementAndGet();
+        this.source = source;
+        this.liveGeneration = liveGeneration;
+    }
+
+    /**
+     * The shared snapshot, capturing a new one only when the last is stale.
+     * Never null; an empty snapshot stands in when the screen can't be read.
+     */
+    public static ScreenSnapshot current() {
+        try {
+            ScreenSnapshot snapshot = QueryCache.get(QueryCache.SCREEN_ELEMENTS, SHARE_TTL_MS,
+                    ScreenSnapshot::capture);
+            if (snapshot != null && snapshot.liveGeneration >= 0 && !snapshot.isLiveCurrent()) {
+                // The live model has seen the screen change since
+                QueryCache.invalidate(QueryCache.SCREEN_ELEMENTS);
+                snapshot = QueryCache.get(QueryCache.SCREEN_ELEMENTS, SHARE_TTL_MS, ScreenSnapshot::capture);
+            }
+            return snapshot != null ? snapshot : EMPTY;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get elements: " + e.getMessage());
+            return EMPTY;
+        }
+    }
+
+    /**
+     * The snapshot of one command: captured on the first get(), then shared
+     * by every stage the command is handed to. Never null.
+     */
+    public static Supplier<ScreenSnapshot> forCommand() {
+        return Suppliers.memoize(() -> {
+            ScreenSnapshot snapshot;
+            try {
+                snapshot = capture();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to get elements: " + e.getMessage());
+                snapshot = null;
+            }
+            return snapshot != null ? snapshot : EMPTY;
+        });
+    }
+
+    /**
+     * Take a new snapshot from the best source available: the live model,
+     * then an accessibility walk, then a root dump. Null if all fail.
+     */
+    public static ScreenSnapshot capture() {
+        ScreenSnapshot snapshot = null;
+        CompactScreen live = LiveScreenModel.getScreen();
+        if (live != null)
+            snapshot = new ScreenSnapshot(live, SOURCE_LIVE, LiveScreenModel.getGeneration());
+
+        // Walking the accessibility tree in-process needs no root shell at all
+        if (snapshot == null && AccessibilitySnapshot.isAvailable()) {
+            CompactScreen walked = AccessibilitySnapshot.capture();
+            if (walked != null)
+                snapshot = new ScreenSnapshot(walked, SOURCE_ACCESSIBILITY, -1);
+        }
+
+        if (snapshot == null) {
+            CompactScreen dumped = UIElementParser.dumpScreen();
+            if (dumped != null)
+                snapshot = new ScreenSnapshot(dumped, SOURCE_DUMP, -1);
+        }
+        if (snapshot != null)
+            link(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * A snapshot of a screen read elsewhere, e.g. a parsed dump. It isn't
+     * linked to the snapshots captured before it, so its element ids are unset.
+     */
+    static ScreenSnapshot of(CompactScreen screen, String source) {
+        return new ScreenSnapshot(screen, source, -1);
+    }
+
+    /**
+     * Wait for the screen to change from since, e.g. after an input tap,
+     * instead of sleeping a fixed time. Returns what changed as soon as
+     * anything did, or null if nothing had within the timeout. Driven by the
+     * live model's updates; if it stops tracking the screen this sleeps out
+     * the timeout rather than re-reading the screen.
+     */
+    public static ScreenDiff awaitChange(ScreenSnapshot since, long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        long seen = since.liveGeneration >= 0 ? since.liveGeneration : LiveScreenModel.getGeneration();
+        while (true) {
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0)
+                return null;
+            if (!LiveScreenModel.isLive()) {
+                Thread.sleep(remaining);
+                return null;
+            }
+            if (!LiveScreenModel.awaitUpdate(seen, remaining) || !LiveScreenModel.isLive())
+                continue;
+            seen = LiveScreenModel.getGeneration();
+
+            // An update can touch only what isn't clickable, so check for a real change
+            ScreenDiff diff = ScreenDiff.between(since, current());
+            if (diff.hasChanges())
+                return diff;
+        }
+    }
+
+    /**
+     * Diff against the last snapshot and carry its element ids over
+     */
+    private static synchronized void link(ScreenSnapshot snapshot) {
+        ScreenDiff diff = ScreenDiff.between(latest != null ? latest : EMPTY, snapshot);
+        long[] ids = new long[snapshot.elements.size()];
+        for (int i = 0; i < ids.length; i++) {
+            int match = diff.matches[i];
+            ids[i] = match >= 0 ? latest.ids[match] : elementIds.incrementAndGet();
+        }
+        snapshot.ids = ids;
+        snapshot.changes = diff;
+        latest = snapshot;
+    }
+
+    private boolean isLiveCurrent() {
+        LiveScreenModel.applyPending();
+        return LiveScreenModel.isLive() && liveGeneration == LiveScreenModel.getGeneration();
+    }
+
+    public long ageMs() {
+        return System.currentTimeMillis() - capturedAt;
+    }
+
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    /**
+     * Id of the element at this position, the same in every snapshot for as
+     * long as the element stays on screen
+     */
+    public long elementId(int element) {
+        return ids != null ? ids[element] : -1;
+    }
+
+    /**
+     * What changed since the snapshot captured before this one
+     */
+    public ScreenDiff getChanges() {
+        return changes != null ? changes : ScreenDiff.between(EMPTY, this);
+    }
+
+    /**
+     * Lookup indexes over the elements, built on first use
+     */
+    public ElementIndex index() {
+        ElementIndex i = index;
+        if (i == null) {
+            synchronized (this) {
+                if (index == null)
+                    index = screen != null ? new ElementIndex(screen) : new ElementIndex(elements);
+                i = index;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Numbered element list for AI prompts and the context log
+     */
+    public String getSummary() {
+        String s = summary;
+        if (s == null) {
+            s = UIElementParser.formatForAI(elements);
+            summary = s;
+        }
+        return s;
+    }
+
+    @Override
+    public String toString() {
+        return "ScreenSnapshot #" + generation + " (" + elements.size() + " elements from " + source + ", "
+                + ageMs() + "ms old)";
+    }
+}
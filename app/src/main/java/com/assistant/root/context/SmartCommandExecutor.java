@@ -2,9 +2,14 @@ package com.assistant.root.context;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
+import com.assistant.root.shell.AsyncRootShell;
+import com.assistant.root.shell.RootScript;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.TimeoutException;
 
 /**
  * Smart command executor with retry logic and verification
@@ -13,6 +18,10 @@ import java.io.InputStreamReader;
 public class SmartCommandExecutor {
     private static final String TAG = "SmartExecutor";
     private static final int MAX_RETRIES = 3;
+    private static final long SCRIPT_TIMEOUT_MS = 60000;
+    private static final long LOOKUP_TIMEOUT_MS = 15000;
+    // Longest wait for a tapped field to react before typing anyway
+    private static final long FOCUS_WAIT_MS = 500;
 
     public interface ExecutionCallback {
         void onSuccess(String output);
@@ -23,125 +32,94 @@ public class SmartCommandExecutor {
     }
 
     /**
-     * Execute commands with progress reporting
+     * Execute commands with progress reporting. Cancelling the returned future
+     * stops the script and kills the shell running it.
      */
-    public static void executeWithProgress(String commands, ExecutionCallback callback) {
-        new Thread(() -> {
-            Process process = null;
-            DataOutputStream os = null;
-            BufferedReader reader = null;
-
-            try {
-                process = Runtime.getRuntime().exec("su");
-                os = new DataOutputStream(process.getOutputStream());
-                reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                String[] commandLines = commands.split("\n");
-                int totalSteps = commandLines.length;
-                int currentStep = 0;
-
-                for (String cmd : commandLines) {
-                    cmd = cmd.trim();
-                    if (cmd.isEmpty())
-                        continue;
-
-                    currentStep++;
-                    callback.onProgress("Step " + currentStep + "/" + totalSteps + ": " + cmd);
-
-                    Log.d(TAG, "Executing: " + cmd);
-                    os.writeBytes(cmd + "\n");
-                    os.flush();
-
-                    // Handle sleep commands
-                    if (cmd.startsWith("sleep ")) {
-                        try {
-                            double seconds = Double.parseDouble(cmd.replace("sleep ", "").trim());
-                            Thread.sleep((long) (seconds * 1000));
-                        } catch (Exception e) {
-                            Thread.sleep(1000);
-                        }
-                    } else {
-                        // Small delay between commands
-                        Thread.sleep(300);
-                    }
-                }
-
-                os.writeBytes("exit\n");
-                os.flush();
+    public static ListenableFuture<String> executeWithProgress(String commands, ExecutionCallback callback) {
+        return executeWithProgress(commands, SCRIPT_TIMEOUT_MS, callback);
+    }
 
-                StringBuilder output = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
+    /**
+     * Execute commands with progress reporting and an overall deadline
+     */
+    public static ListenableFuture<String> executeWithProgress(String commands, long timeoutMs,
+            ExecutionCallback callback) {
+        ListenableFuture<String> future = AsyncRootShell.withShell(shell -> {
+            // Each step is framed with its own exit status, so the next one starts
+            // as soon as the previous finishes and a failing step ends the script
+            RootScript.Result script = RootScript.run(shell, commands, timeoutMs, (step, total, cmd) -> {
+                Log.d(TAG, "Executing: " + cmd);
+                callback.onProgress("Step " + step + "/" + total + ": " + cmd);
+            });
+            Log.d(TAG, "Step timings:\n" + script.getTimings());
+
+            if (!script.isSuccess()) {
+                throw new RootScript.StepFailedException(script);
+            }
+            return script.getOutput();
+        }, timeoutMs);
 
-                int exitCode = process.waitFor();
+        Futures.addCallback(future, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String output) {
+                callback.onSuccess(output);
+            }
 
-                if (exitCode == 0) {
-                    callback.onSuccess(output.toString());
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof RootScript.StepFailedException) {
+                    callback.onError(t.getMessage());
+                } else if (t instanceof TimeoutException) {
+                    callback.onError("Execution timeout after " + (timeoutMs / 1000) + " seconds");
                 } else {
-                    callback.onError("Command failed with exit code: " + exitCode);
-                }
-
-            } catch (Exception e) {
-                Log.e(TAG, "Execution error: " + e.getMessage());
-                callback.onError("Execution error: " + e.getMessage());
-            } finally {
-                try {
-                    if (os != null)
-                        os.close();
-                    if (reader != null)
-                        reader.close();
-                    if (process != null)
-                        process.destroy();
-                } catch (Exception e) {
-                    Log.e(TAG, "Cleanup error: " + e.getMessage());
+                    Log.e(TAG, "Execution error: " + AsyncRootShell.describe(t));
+                    callback.onError("Execution error: " + AsyncRootShell.describe(t));
                 }
             }
-        }).start();
+        }, MoreExecutors.directExecutor());
+        return future;
     }
 
     /**
      * Execute with element verification
      * Checks if element exists before tapping
      */
-    public static void executeWithVerification(String commands, ExecutionCallback callback) {
-        new Thread(() -> {
-            try {
-                String[] lines = commands.split("\n");
-                StringBuilder verifiedCommands = new StringBuilder();
-
-                for (String line : lines) {
-                    line = line.trim();
-                    if (line.isEmpty())
-                        continue;
-
-                    // If it's a tap command, verify element exists
-                    if (line.startsWith("input tap")) {
-                        String[] parts = line.split(" ");
-                        if (parts.length >= 3) {
-                            int x = Integer.parseInt(parts[2]);
-                            int y = Integer.parseInt(parts[3]);
-
-                            // Check if these coordinates are reasonable
-                            if (x > 0 && y > 0 && x < 1440 && y < 3000) {
-                                verifiedCommands.append(line).append("\n");
-                            } else {
-                                Log.w(TAG, "Skipping invalid tap coordinates: " + line);
-                                callback.onProgress("Warning: Skipped invalid coordinates");
-                            }
+    public static ListenableFuture<String> executeWithVerification(String commands, ExecutionCallback callback) {
+        try {
+            String[] lines = commands.split("\n");
+            StringBuilder verifiedCommands = new StringBuilder();
+
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty())
+                    continue;
+
+                // If it's a tap command, verify element exists
+                if (line.startsWith("input tap")) {
+                    String[] parts = line.split(" ");
+                    if (parts.length >= 4) {
+                        int x = Integer.parseInt(parts[2]);
+                        int y = Integer.parseInt(parts[3]);
+
+                        // Check if these coordinates are reasonable
+                        if (x > 0 && y > 0 && x < 1440 && y < 3000) {
+                            verifiedCommands.append(line).append("\n");
+                        } else {
+                            Log.w(TAG, "Skipping invalid tap coordinates: " + line);
+                            callback.onProgress("Warning: Skipped invalid coordinates");
                         }
-                    } else {
-                        verifiedCommands.append(line).append("\n");
                     }
+                } else {
+                    verifiedCommands.append(line).append("\n");
                 }
+            }
 
-                executeWithProgress(verifiedCommands.toString(), callback);
+            return executeWithProgress(verifiedCommands.toString(), callback);
 
-            } catch (Exception e) {
-                callback.onError("Verification failed: " + e.getMessage());
-            }
-        }).start();
+        } catch (Exception e) {
+            callback.onError("Verification failed: " + e.getMessage());
+            return Futures.immediateFailedFuture(e);
+        }
     }
 
     /**
@@ -186,76 +164,147 @@ public class SmartCommandExecutor {
     /**
      * Execute single tap on element
      */
-    public static void tapElement(UIElementParser.UIElement element, ExecutionCallback callback) {
+    public static ListenableFuture<String> tapElement(UIElementParser.UIElement element,
+            ExecutionCallback callback) {
         if (element == null) {
             callback.onError("Element not found");
-            return;
+            return Futures.immediateFailedFuture(new IllegalArgumentException("Element not found"));
         }
 
         String command = "input tap " + element.centerX + " " + element.centerY;
-        executeWithProgress(command, callback);
+        return executeWithProgress(command, callback);
     }
 
     /**
      * Execute text input on element
      */
-    public static void typeInElement(UIElementParser.UIElement element, String text, ExecutionCallback callback) {
+    public static ListenableFuture<String> typeInElement(UIElementParser.UIElement element, String text,
+            ExecutionCallback callback) {
         if (element == null) {
             callback.onError("Element not found");
-            return;
+            return Futures.immediateFailedFuture(new IllegalArgumentException("Element not found"));
         }
 
         // Replace spaces with %s for input command
         String encodedText = text.replace(" ", "%s");
 
-        String commands = "input tap " + element.centerX + " " + element.centerY + "\n" +
-                "sleep 0.5\n" +
-                "input text '" + encodedText + "'";
+        // While the live model tracks the screen, type as soon as the tap shows
+        // (focus, keyboard). Otherwise watching for it would mean re-dumping the
+        // screen, which costs more than the fixed wait it saves. Without a
+        // snapshot to compare against, the tap falls back to the fixed wait.
+        ListenableFuture<ScreenSnapshot> before = LiveScreenModel.isLive()
+                ? Futures.catching(AsyncRootShell.call(ScreenSnapshot::current, LOOKUP_TIMEOUT_MS),
+                        Exception.class, e -> {
+                            Log.w(TAG, "No snapshot before tap: " + AsyncRootShell.describe(e));
+                            return null;
+                        }, MoreExecutors.directExecutor())
+                : Futures.immediateFuture(null);
+        ListenableFuture<String> tap = Futures.transformAsync(before,
+                screen -> executeWithProgress("input tap " + element.centerX + " " + element.centerY,
+                        withoutSuccess(callback)),
+                MoreExecutors.directExecutor());
+        return Futures.transformAsync(tap, output -> {
+            ScreenSnapshot since = Futures.getDone(before);
+            if (since != null) {
+                ScreenDiff diff = ScreenSnapshot.awaitChange(since, FOCUS_WAIT_MS);
+                Log.d(TAG, diff != null ? "Tap changed the screen: " + diff : "No change after tap, typing anyway");
+            } else {
+                Thread.sleep(FOCUS_WAIT_MS);
+            }
+            return executeWithProgress("input text '" + encodedText + "'", callback);
+        }, AsyncRootShell.blockingExecutor());
+    }
+
+    /**
+     * Forwards progress and errors only, for a step that isn't the last
+     */
+    private static ExecutionCallback withoutSuccess(ExecutionCallback callback) {
+        return new ExecutionCallback() {
+            @Override
+            public void onSuccess(String output) {
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
 
-        executeWithProgress(commands, callback);
+            @Override
+            public void onProgress(String step) {
+                callback.onProgress(step);
+            }
+        };
     }
 
     /**
      * Smart tap - tries to find element first, then taps
      */
-    public static void smartTap(String elementIdentifier, ExecutionCallback callback) {
-        new Thread(() -> {
-            // Try to find element
-            UIElementParser.UIElement element = UIElementParser.findElementByText(elementIdentifier);
+    public static ListenableFuture<String> smartTap(String elementIdentifier, ExecutionCallback callback) {
+        ListenableFuture<UIElementParser.UIElement> lookup = AsyncRootShell.call(() -> {
+            // Try to find element, all three ways on one snapshot
+            ElementIndex elements = ScreenSnapshot.current().index();
+            UIElementParser.UIElement element = elements.findByText(elementIdentifier);
 
             if (element == null) {
-                element = UIElementParser.findElementByContentDesc(elementIdentifier);
+                element = elements.findByContentDesc(elementIdentifier);
             }
 
             if (element == null) {
-                element = UIElementParser.findElementByResourceId(elementIdentifier);
+                element = elements.findByResourceId(elementIdentifier);
             }
+            return element;
+        }, LOOKUP_TIMEOUT_MS);
+        reportLookupFailure(lookup, callback);
 
+        return Futures.transformAsync(lookup, element -> {
             if (element != null) {
-                tapElement(element, callback);
-            } else {
-                callback.onError("Could not find element: " + elementIdentifier);
+                return tapElement(element, callback);
             }
-        }).start();
+            callback.onError("Could not find element: " + elementIdentifier);
+            return Futures.immediateFailedFuture(
+                    new IllegalStateException("Could not find element: " + elementIdentifier));
+        }, MoreExecutors.directExecutor());
     }
 
     /**
      * Smart type - finds input field and types
      */
-    public static void smartType(String text, ExecutionCallback callback) {
-        new Thread(() -> {
-            // Find any input field on screen
-            UIElementParser.UIElement inputField = findInputField();
+    public static ListenableFuture<String> smartType(String text, ExecutionCallback callback) {
+        ListenableFuture<UIElementParser.UIElement> lookup = AsyncRootShell.call(
+                SmartCommandExecutor::findInputField, LOOKUP_TIMEOUT_MS);
+        reportLookupFailure(lookup, callback);
 
+        return Futures.transformAsync(lookup, inputField -> {
             if (inputField != null) {
-                typeInElement(inputField, text, callback);
-            } else {
-                // Fallback: just type at current focus
-                String encodedText = text.replace(" ", "%s");
-                String command = "input text '" + encodedText + "'";
-                executeWithProgress(command, callback);
+                return typeInElement(inputField, text, callback);
+            }
+            // Fallback: just type at current focus
+            String encodedText = text.replace(" ", "%s");
+            String command = "input text '" + encodedText + "'";
+            return executeWithProgress(command, callback);
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * A failed or timed-out lookup never reaches the step that reports back,
+     * so tell the callback here
+     */
+    private static void reportLookupFailure(ListenableFuture<?> lookup, ExecutionCallback callback) {
+        Futures.addCallback(lookup, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
             }
-        }).start();
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof TimeoutException) {
+                    callback.onError("Element lookup timeout after " + (LOOKUP_TIMEOUT_MS / 1000) + " seconds");
+                } else {
+                    Log.e(TAG, "Element lookup error: " + AsyncRootShell.describe(t));
+                    callback.onError("Element lookup error: " + AsyncRootShell.describe(t));
+                }
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     /**
@@ -269,63 +318,40 @@ public class SmartCommandExecutor {
                 "TextInputEditText"
         };
 
-        for (UIElementParser.UIElement element : UIElementParser.getScreenElements()) {
-            for (String inputClass : inputClasses) {
-                if (element.className != null && element.className.contains(inputClass)) {
-                    return element;
-                }
-            }
-        }
-
-        return null;
+        return ScreenSnapshot.current().index().findByClass(inputClasses);
     }
 
     /**
      * Execute with timeout
      */
-    public static void executeWithTimeout(String commands, long timeoutMs, ExecutionCallback callback) {
-        Thread executionThread = new Thread(() -> executeWithProgress(commands, callback));
-        executionThread.start();
-
-        new Thread(() -> {
-            try {
-                executionThread.join(timeoutMs);
-                if (executionThread.isAlive()) {
-                    executionThread.interrupt();
-                    callback.onError("Execution timeout after " + (timeoutMs / 1000) + " seconds");
-                }
-            } catch (InterruptedException e) {
-                callback.onError("Timeout check interrupted");
-            }
-        }).start();
+    public static ListenableFuture<String> executeWithTimeout(String commands, long timeoutMs,
+            ExecutionCallback callback) {
+        return executeWithProgress(commands, timeoutMs, callback);
     }
 
     /**
-     * Batch execute multiple command sets
+     * Batch execute multiple command sets, one after another
      */
-    public static void executeBatch(String[] commandSets, ExecutionCallback callback) {
-        new Thread(() -> {
-            int total = commandSets.length;
-            int completed = 0;
+    public static ListenableFuture<String> executeBatch(String[] commandSets, ExecutionCallback callback) {
+        int total = commandSets.length;
+        ListenableFuture<String> chain = Futures.immediateFuture("");
 
-            for (String commands : commandSets) {
-                final int current = completed + 1;
-                callback.onProgress("Executing batch " + current + "/" + total);
+        for (int i = 0; i < total; i++) {
+            final int current = i + 1;
+            final String commands = commandSets[i];
 
-                // Execute synchronously
-                final boolean[] done = { false };
-                final String[] error = { null };
+            chain = Futures.transformAsync(chain, previous -> {
+                callback.onProgress("Executing batch " + current + "/" + total);
 
-                executeWithProgress(commands, new ExecutionCallback() {
+                // Report only the final outcome through the outer callback
+                return executeWithProgress(commands, new ExecutionCallback() {
                     @Override
                     public void onSuccess(String output) {
-                        done[0] = true;
                     }
 
                     @Override
                     public void onError(String err) {
-                        error[0] = err;
-                        done[0] = true;
+                        callback.onError("Batch " + current + " failed: " + err);
                     }
 
                     @Override
@@ -333,25 +359,22 @@ public class SmartCommandExecutor {
                         callback.onProgress("Batch " + current + ": " + step);
                     }
                 });
+            }, MoreExecutors.directExecutor());
+        }
 
-                // Wait for completion
-                while (!done[0]) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-
-                if (error[0] != null) {
-                    callback.onError("Batch " + current + " failed: " + error[0]);
-                    return;
-                }
-
-                completed++;
+        ListenableFuture<String> result = Futures.transform(chain,
+                output -> "All " + total + " batches completed successfully", MoreExecutors.directExecutor());
+        Futures.addCallback(result, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String message) {
+                callback.onSuccess(message);
             }
 
-            callback.onSuccess("All " + total + " batches completed successfully");
-        }).start();
+            @Override
+            public void onFailure(Throwable t) {
+                // The failing batch already reported its error
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
     }
 }
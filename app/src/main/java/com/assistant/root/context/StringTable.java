@@ -0,0 +1,44 @@
+package com.assistant.root.context;
+
+/**
+ * Process-wide canonical Strings for the names that repeat on every screen
+ * and in every dump: resource ids, class names and package names. A name
+ * seen before is returned as the same String instead of a fresh copy, so
+ * parsing a dump of a familiar screen allocates no names at all and
+ * snapshots held at the same time share them.
+ *
+ * A direct-mapped table: a colliding name replaces the previous one, so it
+ * never grows. Unsynchronized on purpose; Strings are immutable, so a racing
+ * reader sees either slot value, and either is correct.
+ */
+public class StringTable {
+    private static final int SLOTS = 2048;
+    private static final String[] slots = new String[SLOTS];
+
+    /**
+     * The canonical String with these characters
+     */
+    public static String intern(CharSequence s) {
+        int length = s.length();
+        if (length == 0)
+            return "";
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        String cached = slots[slot];
+        if (cached != null && cached.length() == length && cached.contentEquals(s))
+            return cached;
+        String created = s.toString();
+        slots[slot] = created;
+        return created;
+    }
+
+    /**
+     * intern() for a String that may be null
+     */
+    public static String internOrEmpty(CharSequence s) {
+        return s == null ? "" : intern(s);
+    }
+}
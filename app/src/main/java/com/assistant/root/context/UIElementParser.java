@@ -2,16 +2,17 @@ package com.assistant.root.context;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
+import com.assistant.root.helper.RootHelperClient;
+import com.assistant.root.shell.QueryCache;
+import com.assistant.root.shell.RootShell;
+import com.assistant.root.shell.StreamDecoder;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * Parses UI elements from screen using uiautomator dump
+ * Parses UI elements from screen, from the accessibility tree when the
+ * service is connected, else from a uiautomator dump
  * Provides clickable elements with coordinates
  */
 public class UIElementParser {
@@ -25,6 +26,11 @@ public class UIElementParser {
         public boolean clickable;
         public int centerX;
         public int centerY;
+        // Position in the hierarchy
+        public int depth;
+        public int index;
+        // Only set for elements of a Node tree; null for CompactScreen elements
+        public UIHierarchyParser.Node node;
 
         public UIElement(String resourceId, String text, String contentDesc,
                 boolean clickable, int centerX, int centerY) {
@@ -47,96 +53,130 @@ public class UIElementParser {
         }
     }
 
-    public static List<UIElement> getScreenElements() {
-        List<UIElement> elements = new ArrayList<>();
-
-        try {
-            Process process = Runtime.getRuntime().exec("su");
-            DataOutputStream os = new DataOutputStream(process.getOutputStream());
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            // Dump UI
-            os.writeBytes("uiautomator dump /sdcard/window_dump.xml\n");
-            os.flush();
-            Thread.sleep(1000);
-
-            // Read dump
-            os.writeBytes("cat /sdcard/window_dump.xml\n");
-            os.flush();
-
-            StringBuilder uiDump = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                uiDump.append(line);
-                if (line.contains("</hierarchy>"))
-                    break;
-            }
+    // Off /sdcard, so the dump doesn't go through the FUSE layer
+    private static final String DUMP_FILE = "/data/local/tmp/assistant_window_dump.xml";
+    private static final long DUMP_TIMEOUT_MS = 15000;
 
-            // Cleanup
-            os.writeBytes("rm /sdcard/window_dump.xml\n");
-            os.writeBytes("exit\n");
-            os.flush();
-            process.waitFor();
+    private static volatile boolean compressedDumps = false;
+    // Cleared once a device is found that can't dump to stdout
+    private static volatile boolean stdoutDumps = true;
 
-            reader.close();
-            os.close();
+    /**
+     * Clickable elements on screen, from the shared ScreenSnapshot. Callers
+     * that look at the screen more than once should hold on to the snapshot
+     * itself instead.
+     */
+    public static List<UIElement> getScreenElements() {
+        return new ArrayList<>(ScreenSnapshot.current().elements);
+    }
 
-            elements = parseUIXML(uiDump.toString());
+    /**
+     * The screen from a root dump: the resident helper if it's running, else
+     * uiautomator. Null on failure.
+     */
+    static CompactScreen dumpScreen() {
+        // The resident helper keeps UiAutomation connected, so no uiautomator start
+        UIHierarchyParser helperParser = new UIHierarchyParser(true);
+        if (RootHelperClient.get().dumpHierarchy(helperSink(helperParser))) {
+            return helperParser.getScreen();
+        }
 
+        try (RootShell.Lease shell = RootShell.lease()) {
+            return dumpWithUiautomator(shell);
         } catch (Exception e) {
             Log.e(TAG, "Failed to get elements: " + e.getMessage());
+            return null; // Not cached
         }
-
-        return elements;
     }
 
-    private static List<UIElement> parseUIXML(String xml) {
-        List<UIElement> elements = new ArrayList<>();
-        Pattern nodePattern = Pattern.compile("<node([^>]+)/?>");
-        Matcher nodeMatcher = nodePattern.matcher(xml);
-
-        while (nodeMatcher.find()) {
-            String attrs = nodeMatcher.group(1);
+    /**
+     * Run uiautomator and parse its dump as it arrives. The dump is written
+     * to stdout where the device allows it, else to a file under
+     * /data/local/tmp that is read the moment uiautomator exits, in the same
+     * command, instead of after a fixed wait on /sdcard.
+     */
+    private static CompactScreen dumpWithUiautomator(RootShell.Lease shell) throws Exception {
+        String mode = compressedDumps ? "--compressed " : "";
+
+        if (stdoutDumps) {
+            UIHierarchyParser parser = new UIHierarchyParser(true);
+            // uiautomator prints "UI hierchary dumped to: ..." straight after the
+            // XML; the parser ignores everything past </hierarchy>
+            RootShell.Result result = shell.stream("uiautomator dump " + mode + "/dev/stdout",
+                    DUMP_TIMEOUT_MS, dumpConsumer(parser));
+            if (parser.isComplete())
+                return parser.getScreen();
+            if (result.timedOut)
+                throw new Exception(result.getError());
+        }
 
-            String resourceId = extractAttr(attrs, "resource-id");
-            String text = extractAttr(attrs, "text");
-            String contentDesc = extractAttr(attrs, "content-desc");
-            boolean clickable = "true".equals(extractAttr(attrs, "clickable"));
-            String boundsStr = extractAttr(attrs, "bounds");
+        // Let the command run to the end so the file is always removed
+        UIHierarchyParser parser = new UIHierarchyParser(true);
+        RootShell.Result result = shell.stream("uiautomator dump " + mode + DUMP_FILE + " >/dev/null && cat "
+                + DUMP_FILE + "; rm -f " + DUMP_FILE, DUMP_TIMEOUT_MS, dumpConsumer(parser));
+        if (!parser.isComplete())
+            throw new Exception("No hierarchy dumped: " + result.getError());
+        if (stdoutDumps) {
+            // The file worked where stdout didn't, so some builds refuse to write to a pipe
+            Log.w(TAG, "⚠️ uiautomator can't dump to stdout, using " + DUMP_FILE + " from now on");
+            stdoutDumps = false;
+        }
+        return parser.getScreen();
+    }
 
-            if (clickable && boundsStr != null) {
-                int[] coords = parseCenter(boundsStr);
-                if (coords != null) {
-                    elements.add(new UIElement(resourceId, text, contentDesc,
-                            clickable, coords[0], coords[1]));
-                }
+    /**
+     * Feeds a helper dump to the parser as it is read. The XML is usually one
+     * long line, which arrives in pieces.
+     */
+    private static StreamDecoder.FragmentSink helperSink(UIHierarchyParser parser) {
+        return new StreamDecoder.FragmentSink() {
+            @Override
+            public boolean onLine(CharSequence line) {
+                return parser.feedLine(line);
             }
-        }
 
-        return elements;
+            @Override
+            public boolean onFragment(CharSequence fragment) {
+                return parser.feed(fragment);
+            }
+        };
     }
 
-    private static String extractAttr(String attrs, String name) {
-        Pattern pattern = Pattern.compile(name + "=\"([^\"]*)\"");
-        Matcher matcher = pattern.matcher(attrs);
-        return matcher.find() ? matcher.group(1) : "";
-    }
+    /**
+     * Feeds uiautomator's stdout to the parser as it is read, like helperSink
+     */
+    private static RootShell.FragmentConsumer dumpConsumer(UIHierarchyParser parser) {
+        return new RootShell.FragmentConsumer() {
+            @Override
+            public boolean onLine(String line, boolean stderr) {
+                if (!stderr)
+                    parser.feedLine(line);
+                return true;
+            }
 
-    private static int[] parseCenter(String bounds) {
-        try {
-            Pattern p = Pattern.compile("\\[(\\d+),(\\d+)\\]\\[(\\d+),(\\d+)\\]");
-            Matcher m = p.matcher(bounds);
-            if (m.find()) {
-                int x1 = Integer.parseInt(m.group(1));
-                int y1 = Integer.parseInt(m.group(2));
-                int x2 = Integer.parseInt(m.group(3));
-                int y2 = Integer.parseInt(m.group(4));
-                return new int[] { (x1 + x2) / 2, (y1 + y2) / 2 };
+            @Override
+            public boolean onFragment(String fragment, boolean stderr) {
+                if (!stderr)
+                    parser.feed(fragment);
+                return true;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to parse bounds");
+        };
+    }
+
+    /**
+     * Dump with --compressed, which leaves out layout containers that aren't
+     * important for accessibility. Smaller and faster, but element indexes
+     * and depths then refer to the pruned tree.
+     */
+    public static void setCompressedDumps(boolean compressed) {
+        if (compressedDumps != compressed) {
+            compressedDumps = compressed;
+            QueryCache.invalidate(QueryCache.SCREEN_ELEMENTS);
         }
-        return null;
+    }
+
+    public static boolean isCompressedDumps() {
+        return compressedDumps;
     }
 
     public static UIElement findByResourceId(List<UIElement> elements, String id) {
@@ -177,7 +217,7 @@ public class UIElementParser {
         return sb.toString();
     }
 
-    private static boolean isMeaningful(UIElement el) {
+    static boolean isMeaningful(UIElement el) {
         return (el.text != null && !el.text.isEmpty()) ||
                 (el.contentDesc != null && !el.contentDesc.isEmpty()) ||
                 (el.resourceId != null && !el.resourceId.isEmpty() &&
@@ -188,23 +228,24 @@ public class UIElementParser {
      * Get formatted list of clickable elements for AI (legacy method)
      */
     public static String getElementsSummary() {
-        List<UIElement> elements = getScreenElements();
-        return formatForAI(elements);
+        return ScreenSnapshot.current().getSummary();
     }
 
     /**
      * Find element by text (legacy method)
      */
     public static UIElement findElementByText(String text) {
-        List<UIElement> elements = getScreenElements();
-        return findByText(elements, text);
+        return ScreenSnapshot.current().index().findByText(text);
     }
 
     /**
      * Find element by content description (legacy method)
      */
     public static UIElement findElementByContentDesc(String contentDesc) {
-        List<UIElement> elements = getScreenElements();
+        return ScreenSnapshot.current().index().findByContentDesc(contentDesc);
+    }
+
+    public static UIElement findByContentDesc(List<UIElement> elements, String contentDesc) {
         for (UIElement el : elements) {
             if (el.contentDesc != null && el.contentDesc.toLowerCase().contains(contentDesc.toLowerCase())) {
                 return el;
@@ -217,8 +258,7 @@ public class UIElementParser {
      * Find element by resource ID (legacy method)
      */
     public static UIElement findElementByResourceId(String resourceId) {
-        List<UIElement> elements = getScreenElements();
-        return findByResourceId(elements, resourceId);
+        return ScreenSnapshot.current().index().findByResourceId(resourceId);
     }
 
 }
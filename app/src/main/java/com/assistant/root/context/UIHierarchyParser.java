@@ -0,0 +1,564 @@
+package com.assistant.root.context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming parser for `uiautomator dump` hierarchies. Output is fed in
+ * chunks as the shell produces it, so the dump never has to be joined into
+ * one string, and a single character-level pass builds the node tree and
+ * the clickable element list together.
+ *
+ * Only the XML that uiautomator (and the root helper) writes is handled:
+ * elements, double- or single-quoted attributes, the five predefined
+ * entities and numeric character references. Text content, comments and
+ * declarations are skipped.
+ */
+public class UIHierarchyParser {
+
+    /**
+     * One <node> of the hierarchy
+     */
+    public static class Node {
+        /** Position in document order */
+        public int id;
+        /** The node's "index" attribute: its position among its siblings */
+        public int index;
+        public int depth;
+        public Node parent;
+        public List<Node> children = Collections.emptyList();
+
+        public String resourceId = "";
+        public String className = "";
+        public String packageName = "";
+        public String text = "";
+        public String contentDesc = "";
+
+        public boolean checkable, checked, clickable, enabled, focusable, focused;
+        public boolean scrollable, longClickable, password, selected;
+
+        public boolean hasBounds;
+        public int left, top, right, bottom;
+
+        public int centerX() {
+            return (left + right) / 2;
+        }
+
+        public int centerY() {
+            return (top + bottom) / 2;
+        }
+
+        void reset() {
+            id = index = depth = 0;
+            parent = null;
+            children = Collections.emptyList();
+            resourceId = className = packageName = text = contentDesc = "";
+            checkable = checked = clickable = enabled = focusable = focused = false;
+            scrollable = longClickable = password = selected = false;
+            hasBounds = false;
+            left = top = right = bottom = 0;
+        }
+
+        void addChild(Node child) {
+            if (children.isEmpty())
+                children = new ArrayList<>(4);
+            children.add(child);
+        }
+    }
+
+    // Scanner states
+    private static final int TEXT = 0;
+    private static final int TAG_START = 1;
+    private static final int TAG_NAME = 2;
+    private static final int IN_TAG = 3;
+    private static final int ATTR_NAME = 4;
+    private static final int AFTER_ATTR_NAME = 5;
+    private static final int ATTR_VALUE = 6;
+    private static final int SELF_CLOSING = 7;
+    private static final int CLOSE_TAG = 8;
+    private static final int SKIP = 9;
+
+    private int state = TEXT;
+    private char quote;
+    private boolean done;
+
+    private final StringBuilder name = new StringBuilder(16);
+    private final StringBuilder value = new StringBuilder(64);
+    private final StringBuilder closeName = new StringBuilder(16);
+    private boolean valueHasEntity;
+
+    private Node pending; // <node> whose attributes are being read
+    private final ArrayList<Node> open = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<UIElementParser.UIElement> elements = new ArrayList<>();
+    private Node root;
+    private final int[] coords = new int[4];
+
+    // Compact mode: one reused Node, appended to the builder as each start tag ends
+    private final CompactScreen.Builder builder;
+    private final Node scratch;
+    private int[] openPositions;
+    private int openCount;
+    private CompactScreen screen;
+
+    /**
+     * A parser that builds the Node tree and UIElement list
+     */
+    public UIHierarchyParser() {
+        this(false);
+    }
+
+    /**
+     * With compact set, a parser that fills a CompactScreen instead and
+     * creates no Node or UIElement objects; read it with getScreen()
+     */
+    public UIHierarchyParser(boolean compact) {
+        builder = compact ? new CompactScreen.Builder() : null;
+        scratch = compact ? new Node() : null;
+        openPositions = compact ? new int[32] : null;
+    }
+
+    /**
+     * Parse a complete dump
+     */
+    public static UIHierarchyParser parse(CharSequence xml) {
+        UIHierarchyParser parser = new UIHierarchyParser();
+        parser.feed(xml);
+        return parser;
+    }
+
+    /**
+     * Parse a complete dump into a CompactScreen
+     */
+    public static CompactScreen parseCompact(CharSequence xml) {
+        UIHierarchyParser parser = new UIHierarchyParser(true);
+        parser.feed(xml);
+        return parser.getScreen();
+    }
+
+    /**
+     * Feed the next chunk of the dump. Returns false once </hierarchy> has
+     * been seen, so a streaming caller can stop reading.
+     */
+    public boolean feed(CharSequence chunk) {
+        int length = chunk.length();
+        for (int i = 0; i < length && !done; i++) {
+            consume(chunk.charAt(i));
+        }
+        return !done;
+    }
+
+    /**
+     * Feed one line of output that arrived without its line break
+     */
+    public boolean feedLine(CharSequence line) {
+        return feed(line) && feed("\n");
+    }
+
+    public boolean isComplete() {
+        return done;
+    }
+
+    /**
+     * All nodes in document order
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * The parsed screen, for a parser created in compact mode
+     */
+    public CompactScreen getScreen() {
+        if (builder == null)
+            throw new IllegalStateException("Not a compact parser");
+        if (screen == null || screen.nodeCount() != builder.size())
+            screen = builder.build();
+        return screen;
+    }
+
+    /**
+     * Clickable nodes with bounds, in document order
+     */
+    public List<UIElementParser.UIElement> getElements() {
+        return elements;
+    }
+
+    private void consume(char c) {
+        switch (state) {
+            case TEXT:
+                if (c == '<')
+                    state = TAG_START;
+                break;
+
+            case TAG_START:
+                if (c == '/') {
+                    closeName.setLength(0);
+                    state = CLOSE_TAG;
+                } else if (c == '?' || c == '!') {
+                    state = SKIP;
+                } else {
+                    name.setLength(0);
+                    name.append(c);
+                    state = TAG_NAME;
+                }
+                break;
+
+            case TAG_NAME:
+                if (isSpace(c)) {
+                    startElement();
+                    state = IN_TAG;
+                } else if (c == '>') {
+                    startElement();
+                    endStartTag(false);
+                } else if (c == '/') {
+                    startElement();
+                    state = SELF_CLOSING;
+                } else {
+                    name.append(c);
+                }
+                break;
+
+            case IN_TAG:
+                if (c == '>') {
+                    endStartTag(false);
+                } else if (c == '/') {
+                    state = SELF_CLOSING;
+                } else if (!isSpace(c)) {
+                    name.setLength(0);
+                    name.append(c);
+                    state = ATTR_NAME;
+                }
+                break;
+
+            case ATTR_NAME:
+                if (c == '=') {
+                    state = AFTER_ATTR_NAME;
+                } else if (!isSpace(c)) {
+                    name.append(c);
+                }
+                break;
+
+            case AFTER_ATTR_NAME:
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                    value.setLength(0);
+                    valueHasEntity = false;
+                    state = ATTR_VALUE;
+                }
+                break;
+
+            case ATTR_VALUE:
+                if (c == quote) {
+                    attribute();
+                    state = IN_TAG;
+                } else {
+                    if (c == '&')
+                        valueHasEntity = true;
+                    value.append(c);
+                }
+                break;
+
+            case SELF_CLOSING:
+                if (c == '>')
+                    endStartTag(true);
+                break;
+
+            case CLOSE_TAG:
+                if (c == '>') {
+                    endElement();
+                    state = TEXT;
+                } else if (!isSpace(c)) {
+                    closeName.append(c);
+                }
+                break;
+
+            case SKIP:
+                if (c == '>')
+                    state = TEXT;
+                break;
+        }
+    }
+
+    private void startElement() {
+        if (equals(name, "node")) {
+            if (scratch != null) {
+                scratch.reset();
+                pending = scratch;
+            } else {
+                pending = new Node();
+            }
+        }
+    }
+
+    private void endStartTag(boolean selfClosing) {
+        state = TEXT;
+        Node node = pending;
+        pending = null;
+        if (node == null)
+            return;
+
+        if (builder != null) {
+            node.depth = openCount;
+            int position = builder.add(node, openCount > 0 ? openPositions[openCount - 1] : -1);
+            if (!selfClosing) {
+                if (openCount == openPositions.length)
+                    openPositions = Arrays.copyOf(openPositions, openCount * 2);
+                openPositions[openCount++] = position;
+            }
+            return;
+        }
+
+        node.id = nodes.size();
+        node.depth = open.size();
+        if (!open.isEmpty()) {
+            node.parent = open.get(open.size() - 1);
+            node.parent.addChild(node);
+        } else if (root == null) {
+            root = node;
+        }
+        nodes.add(node);
+
+        UIElementParser.UIElement element = elementFor(node);
+        if (element != null)
+            elements.add(element);
+
+        if (!selfClosing)
+            open.add(node);
+    }
+
+    /**
+     * The element for a clickable node with bounds, else null
+     */
+    static UIElementParser.UIElement elementFor(Node node) {
+        if (!node.clickable || !node.hasBounds)
+            return null;
+        UIElementParser.UIElement element = new UIElementParser.UIElement(node.resourceId, node.text,
+                node.contentDesc, true, node.centerX(), node.centerY());
+        element.className = node.className;
+        element.depth = node.depth;
+        element.index = node.index;
+        element.node = node;
+        return element;
+    }
+
+    private void endElement() {
+        if (equals(closeName, "node")) {
+            if (builder != null) {
+                if (openCount > 0)
+                    openCount--;
+            } else if (!open.isEmpty()) {
+                open.remove(open.size() - 1);
+            }
+        } else if (equals(closeName, "hierarchy")) {
+            done = true;
+        }
+    }
+
+    private void attribute() {
+        Node node = pending;
+        if (node == null)
+            return;
+        if (valueHasEntity)
+            decodeEntities(value);
+
+        switch (name.length()) {
+            case 4:
+                if (equals(name, "text"))
+                    node.text = string(value);
+                break;
+            case 5:
+                if (equals(name, "index"))
+                    node.index = parseInt(value, 0, value.length());
+                else if (equals(name, "class"))
+                    node.className = shared(value);
+                break;
+            case 6:
+                if (equals(name, "bounds"))
+                    parseBounds(node);
+                break;
+            case 7:
+                if (equals(name, "package"))
+                    node.packageName = shared(value);
+                else if (equals(name, "checked"))
+                    node.checked = isTrue(value);
+                else if (equals(name, "enabled"))
+                    node.enabled = isTrue(value);
+                else if (equals(name, "focused"))
+                    node.focused = isTrue(value);
+                break;
+            case 8:
+                if (equals(name, "password"))
+                    node.password = isTrue(value);
+                else if (equals(name, "selected"))
+                    node.selected = isTrue(value);
+                break;
+            case 9:
+                if (equals(name, "checkable"))
+                    node.checkable = isTrue(value);
+                else if (equals(name, "clickable"))
+                    node.clickable = isTrue(value);
+                else if (equals(name, "focusable"))
+                    node.focusable = isTrue(value);
+                break;
+            case 10:
+                if (equals(name, "scrollable"))
+                    node.scrollable = isTrue(value);
+                break;
+            case 11:
+                if (equals(name, "resource-id"))
+                    node.resourceId = shared(value);
+                break;
+            case 12:
+                if (equals(name, "content-desc"))
+                    node.contentDesc = string(value);
+                break;
+            case 14:
+                if (equals(name, "long-clickable"))
+                    node.longClickable = isTrue(value);
+                break;
+        }
+    }
+
+    /**
+     * "[left,top][right,bottom]", read in place
+     */
+    private void parseBounds(Node node) {
+        int count = 0;
+        int i = 0;
+        int length = value.length();
+        while (i < length && count < 4) {
+            char c = value.charAt(i);
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                int start = i++;
+                while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9')
+                    i++;
+                coords[count++] = parseInt(value, start, i);
+            } else {
+                i++;
+            }
+        }
+        if (count == 4) {
+            node.left = coords[0];
+            node.top = coords[1];
+            node.right = coords[2];
+            node.bottom = coords[3];
+            node.hasBounds = true;
+        }
+    }
+
+    // Class, package and resource names repeat on every screen; share one String each
+    private static String shared(StringBuilder s) {
+        return StringTable.intern(s);
+    }
+
+    private static String string(StringBuilder s) {
+        return s.length() == 0 ? "" : s.toString();
+    }
+
+    private static boolean isTrue(StringBuilder s) {
+        return equals(s, "true");
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean equals(StringBuilder s, String expected) {
+        int length = expected.length();
+        if (s.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != expected.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int parseInt(CharSequence s, int start, int end) {
+        boolean negative = start < end && s.charAt(start) == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                break;
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Replace entity and character references in place
+     */
+    private static void decodeEntities(StringBuilder s) {
+        int out = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '&') {
+                int semi = -1;
+                for (int j = i + 1; j < length && j - i <= 10; j++) {
+                    if (s.charAt(j) == ';') {
+                        semi = j;
+                        break;
+                    }
+                }
+                int decoded = semi > 0 ? entity(s, i + 1, semi) : -1;
+                if (decoded >= 0) {
+                    if (decoded > 0xFFFF) {
+                        s.setCharAt(out++, Character.highSurrogate(decoded));
+                        s.setCharAt(out++, Character.lowSurrogate(decoded));
+                    } else {
+                        s.setCharAt(out++, (char) decoded);
+                    }
+                    i = semi;
+                    continue;
+                }
+            }
+            s.setCharAt(out++, c);
+        }
+        s.setLength(out);
+    }
+
+    private static int entity(StringBuilder s, int start, int end) {
+        int length = end - start;
+        if (length >= 2 && s.charAt(start) == '#') {
+            boolean hex = s.charAt(start + 1) == 'x' || s.charAt(start + 1) == 'X';
+            int code = 0;
+            for (int i = start + (hex ? 2 : 1); i < end; i++) {
+                int digit = Character.digit(s.charAt(i), hex ? 16 : 10);
+                if (digit < 0 || code > 0x10FFFF)
+                    return -1;
+                code = code * (hex ? 16 : 10) + digit;
+            }
+            return code <= 0x10FFFF ? code : -1;
+        }
+        if (regionIs(s, start, end, "amp"))
+            return '&';
+        if (regionIs(s, start, end, "lt"))
+            return '<';
+        if (regionIs(s, start, end, "gt"))
+            return '>';
+        if (regionIs(s, start, end, "quot"))
+            return '"';
+        if (regionIs(s, start, end, "apos"))
+            return '\'';
+        return -1;
+    }
+
+    private static boolean regionIs(StringBuilder s, int start, int end, String expected) {
+        if (end - start != expected.length())
+            return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (s.charAt(start + i) != expected.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
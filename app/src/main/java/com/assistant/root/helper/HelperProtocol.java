@@ -0,0 +1,255 @@
+package com.assistant.root.helper;
+
+import com.assistant.root.shell.StreamDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format between the app and the resident root helper.
+ *
+ * A request is one line: the verb followed by tab-separated arguments.
+ * A response is a header line, either "OK <length>" followed by exactly
+ * <length> bytes of UTF-8 payload, or "ERR <message>".
+ *
+ * Pure stream code with no Android dependencies, so the client and server
+ * can be exercised over in-memory or piped streams.
+ */
+public class HelperProtocol {
+    public static final String SOCKET_NAME = "assistant_root_helper";
+    public static final int VERSION = 1;
+
+    // Verbs
+    public static final String PING = "PING";
+    public static final String FOCUS = "FOCUS";
+    public static final String DUMP = "DUMP";
+    public static final String TAP = "TAP";
+    public static final String SWIPE = "SWIPE";
+    public static final String KEY = "KEY";
+    public static final String TEXT = "TEXT";
+    public static final String PACKAGES = "PACKAGES";
+    public static final String LAUNCH = "LAUNCH";
+    public static final String QUIT = "QUIT";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_LINE = 64 * 1024;
+
+    /**
+     * A decoded request
+     */
+    public static class Request {
+        public final String verb;
+        public final String[] args;
+
+        public Request(String verb, String... args) {
+            this.verb = verb;
+            this.args = args;
+        }
+
+        public String arg(int i) {
+            return i < args.length ? args[i] : null;
+        }
+    }
+
+    /**
+     * A decoded response
+     */
+    public static class Response {
+        public final boolean ok;
+        public final String payload;
+        public final String error;
+        // Payload length; for a payload streamed to a sink (payload then
+        // empty), the bytes that were sent
+        public final int length;
+
+        private Response(boolean ok, String payload, String error, int length) {
+            this.ok = ok;
+            this.payload = payload;
+            this.error = error;
+            this.length = length;
+        }
+
+        public static Response ok(String payload) {
+            String text = payload != null ? payload : "";
+            return new Response(true, text, null, text.length());
+        }
+
+        static Response streamed(int length) {
+            return new Response(true, "", null, length);
+        }
+
+        public static Response error(String message) {
+            return new Response(false, null, message != null ? message : "error", 0);
+        }
+    }
+
+    public static void writeRequest(OutputStream out, Request request) throws IOException {
+        StringBuilder line = new StringBuilder(request.verb);
+        for (String arg : request.args) {
+            line.append('\t').append(escape(arg));
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(UTF8));
+        out.flush();
+    }
+
+    /**
+     * Read the next request, or null at end of stream
+     */
+    public static Request readRequest(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null)
+            return null;
+        String[] parts = line.split("\t", -1);
+        String[] args = new String[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            args[i - 1] = unescape(parts[i]);
+        }
+        return new Request(parts[0], args);
+    }
+
+    public static void writeResponse(OutputStream out, Response response) throws IOException {
+        if (response.ok) {
+            byte[] payload = response.payload.getBytes(UTF8);
+            out.write(("OK " + payload.length + "\n").getBytes(UTF8));
+            out.write(payload);
+        } else {
+            out.write(("ERR " + escape(response.error) + "\n").getBytes(UTF8));
+        }
+        out.flush();
+    }
+
+    public static Response readResponse(InputStream in) throws IOException {
+        return readResponse(in, null);
+    }
+
+    /**
+     * Read a response, decoding an OK payload into the sink as it arrives
+     * (long lines in pieces, for a FragmentSink) rather than building it as
+     * one string. The payload is read to its end even if the sink stops
+     * early, so the next response stays framed.
+     */
+    public static Response readResponse(InputStream in, StreamDecoder.LineSink sink) throws IOException {
+        String header = readLine(in);
+        if (header == null)
+            throw new EOFException("Helper closed the connection");
+
+        if (header.startsWith("ERR ")) {
+            return Response.error(unescape(header.substring(4)));
+        }
+        if (!header.startsWith("OK "))
+            throw new IOException("Bad response header: " + header);
+
+        int length;
+        try {
+            length = Integer.parseInt(header.substring(3).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad response length: " + header);
+        }
+        if (sink != null) {
+            PayloadStream payload = new PayloadStream(in, length);
+            StreamDecoder.readLines(payload, sink);
+            payload.skipRest();
+            return Response.streamed(length);
+        }
+        byte[] payload = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(payload, read, length - read);
+            if (n < 0)
+                throw new EOFException("Helper closed the connection mid-response");
+            read += n;
+        }
+        return Response.ok(new String(payload, UTF8));
+    }
+
+    /**
+     * Split a newline-separated payload into its non-empty lines
+     */
+    public static List<String> lines(String payload) {
+        List<String> lines = new ArrayList<>();
+        for (String line : payload.split("\n")) {
+            if (!line.isEmpty())
+                lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Read one '\n'-terminated line byte by byte, so payload bytes that follow
+     * stay in the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                return line.size() > 0 ? line.toString("UTF-8") : null;
+            if (line.size() >= MAX_LINE)
+                throw new IOException("Protocol line too long");
+            line.write(b);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * The next length bytes of the connection, as a stream of their own
+     */
+    private static final class PayloadStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        PayloadStream(InputStream in, int length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0)
+                return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0)
+                throw new EOFException("Helper closed the connection mid-response");
+            remaining -= n;
+            return n;
+        }
+
+        void skipRest() throws IOException {
+            byte[] skipped = new byte[4096];
+            while (read(skipped, 0, skipped.length) > 0) {
+                // Discarded
+            }
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,375 @@
+package com.assistant.root.helper;
+
+import android.content.Context;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Process;
+import android.util.Log;
+
+import com.assistant.root.shell.QueryCache;
+import com.assistant.root.shell.RootCapabilities;
+import com.assistant.root.shell.RootMetrics;
+import com.assistant.root.shell.RootShell;
+import com.assistant.root.shell.StreamDecoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * App side of the resident root helper. Every method returns null / false
+ * when the helper isn't running or a request fails, so callers fall back to
+ * the shell.
+ */
+public class RootHelperClient {
+    private static final String TAG = "RootHelperClient";
+    private static final int SOCKET_TIMEOUT_MS = 10000;
+    private static final long START_WAIT_MS = 5000;
+    private static final long RETRY_AFTER_MS = 30000;
+    // Text the shell would pass to `input text` unchanged
+    private static final Pattern PLAIN_TEXT = Pattern.compile("[A-Za-z0-9%@.,:_+=/-]+");
+
+    // Verbs that change what is on screen
+    private static final List<String> MUTATING_VERBS = Arrays.asList(HelperProtocol.TAP, HelperProtocol.SWIPE,
+            HelperProtocol.KEY, HelperProtocol.TEXT, HelperProtocol.LAUNCH);
+
+    /**
+     * An open connection to a helper
+     */
+    public interface Transport extends Closeable {
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+    }
+
+    /**
+     * Opens connections; swapped for an in-process server when testing
+     */
+    public interface TransportFactory {
+        Transport connect() throws IOException;
+    }
+
+    private static volatile RootHelperClient instance = new RootHelperClient(RootHelperClient::connectSocket);
+
+    private final TransportFactory factory;
+    private Transport transport;
+    private InputStream in;
+    private OutputStream out;
+    private volatile boolean available;
+    private volatile long lastFailureAt;
+
+    // Stats
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public RootHelperClient(TransportFactory factory) {
+        this.factory = factory;
+    }
+
+    public static RootHelperClient get() {
+        return instance;
+    }
+
+    /**
+     * Replace the shared client (e.g. with one wired to a stand-in server)
+     */
+    public static void setInstance(RootHelperClient client) {
+        instance = client;
+    }
+
+    private static Transport connectSocket() throws IOException {
+        LocalSocket socket = new LocalSocket();
+        socket.connect(new LocalSocketAddress(HelperProtocol.SOCKET_NAME));
+        // Any app can bind an abstract name; only trust a helper running as root
+        int peerUid;
+        try {
+            peerUid = socket.getPeerCredentials().getUid();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        if (peerUid != 0) {
+            socket.close();
+            throw new IOException("Helper socket owned by uid " + peerUid + ", not root");
+        }
+        socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+        return new Transport() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+
+    /**
+     * Start the helper as root unless one from this APK is already running.
+     * Blocking; call from a background thread.
+     */
+    public boolean start(Context context) {
+        String apk = context.getApplicationInfo().sourceDir;
+        String running = ping();
+        if (running != null) {
+            if (running.endsWith("\n" + apk) && running.startsWith(HelperProtocol.VERSION + "\n")) {
+                Log.d(TAG, "Helper already running");
+                return true;
+            }
+            // Left over from an older install; replace it
+            request(HelperProtocol.QUIT);
+            closeConnection();
+        }
+
+        if (!RootCapabilities.isRooted()) {
+            Log.w(TAG, "No root, helper not started");
+            return false;
+        }
+
+        // The subshell detaches the helper from the pooled shell, so killing
+        // that shell's children never takes the helper down with it
+        String command = "(CLASSPATH=" + apk + " app_process /system/bin --nice-name=assistant_root_helper "
+                + RootHelperServer.class.getName() + " " + Process.myUid() + " " + Process.myPid() + " " + apk
+                + " </dev/null >/dev/null 2>&1 &)";
+        RootShell.Result result = RootShell.run(command, 5000);
+        if (!result.isSuccess()) {
+            Log.w(TAG, "Could not start helper: " + result.getError());
+            return false;
+        }
+
+        long deadline = System.currentTimeMillis() + START_WAIT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            lastFailureAt = 0;
+            if (ping() != null) {
+                Log.d(TAG, "Helper started");
+                return true;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        Log.w(TAG, "Helper did not come up");
+        return false;
+    }
+
+    /**
+     * Ask the helper to exit
+     */
+    public void stop() {
+        if (available) {
+            request(HelperProtocol.QUIT);
+        }
+        closeConnection();
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Helper version and APK path, or null if it isn't reachable
+     */
+    public String ping() {
+        return request(HelperProtocol.PING);
+    }
+
+    /**
+     * "package/activity" of the focused window
+     */
+    public String focusedWindow() {
+        String focus = request(HelperProtocol.FOCUS);
+        return focus == null || focus.isEmpty() ? null : focus;
+    }
+
+    /**
+     * Stream the UI hierarchy XML (`uiautomator dump` format) into the sink
+     * as it is read, so it never has to be held as one string. Returns false if the helper couldn't
+     * dump; the sink may have seen part of the XML by then.
+     */
+    public boolean dumpHierarchy(StreamDecoder.LineSink sink) {
+        return exchange(HelperProtocol.DUMP, sink) != null;
+    }
+
+    public boolean tap(int x, int y) {
+        return request(HelperProtocol.TAP, String.valueOf(x), String.valueOf(y)) != null;
+    }
+
+    public boolean swipe(int x1, int y1, int x2, int y2, int durationMs) {
+        return request(HelperProtocol.SWIPE, String.valueOf(x1), String.valueOf(y1),
+                String.valueOf(x2), String.valueOf(y2), String.valueOf(durationMs)) != null;
+    }
+
+    public boolean key(int keyCode) {
+        return request(HelperProtocol.KEY, String.valueOf(keyCode)) != null;
+    }
+
+    public boolean text(String text) {
+        return request(HelperProtocol.TEXT, text) != null;
+    }
+
+    /**
+     * Perform a one-line `input tap|swipe|keyevent|text` command through the
+     * helper. Returns false, leaving the command to the shell, when it is
+     * anything else or the helper can't do it.
+     */
+    public boolean input(String command) {
+        HelperProtocol.Request request = inputRequest(command);
+        return request != null && request(request.verb, request.args) != null;
+    }
+
+    /**
+     * The helper request for a shell input command, or null if it has no
+     * plain equivalent (key names, quoting beyond one pair of '', several
+     * commands on a line)
+     */
+    static HelperProtocol.Request inputRequest(String command) {
+        if (command == null)
+            return null;
+        String line = command.trim();
+        if (!line.startsWith("input "))
+            return null;
+        String[] parts = line.split("\\s+");
+        if (parts.length < 3)
+            return null;
+
+        switch (parts[1]) {
+            case "tap":
+                return parts.length == 4 && numbers(parts, 2)
+                        ? new HelperProtocol.Request(HelperProtocol.TAP, parts[2], parts[3])
+                        : null;
+            case "swipe":
+                if ((parts.length != 6 && parts.length != 7) || !numbers(parts, 2))
+                    return null;
+                return new HelperProtocol.Request(HelperProtocol.SWIPE, parts[2], parts[3], parts[4], parts[5],
+                        parts.length == 7 ? parts[6] : "300");
+            case "keyevent":
+                return parts.length == 3 && numbers(parts, 2)
+                        ? new HelperProtocol.Request(HelperProtocol.KEY, parts[2])
+                        : null;
+            case "text":
+                String text = line.substring(line.indexOf("text") + 4).trim();
+                if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'"))
+                    text = text.substring(1, text.length() - 1);
+                if (text.isEmpty() || !PLAIN_TEXT.matcher(text).matches())
+                    return null;
+                // `input text` reads %s as a space
+                return new HelperProtocol.Request(HelperProtocol.TEXT, text.replace("%s", " "));
+            default:
+                return null;
+        }
+    }
+
+    private static boolean numbers(String[] parts, int from) {
+        for (int i = from; i < parts.length; i++) {
+            if (!parts[i].matches("\\d{1,6}"))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Installed package names
+     */
+    public List<String> listPackages() {
+        String packages = request(HelperProtocol.PACKAGES);
+        return packages == null ? null : HelperProtocol.lines(packages);
+    }
+
+    /**
+     * Launch an app's launcher activity; returns the started component
+     */
+    public String launch(String packageName) {
+        return request(HelperProtocol.LAUNCH, packageName);
+    }
+
+    /**
+     * Send one request. Returns the payload, or null if the helper is
+     * unreachable or reported an error.
+     */
+    public synchronized String request(String verb, String... args) {
+        return exchange(verb, null, args);
+    }
+
+    /**
+     * Send one request, streaming the payload to the sink if there is one
+     * (and returning it empty)
+     */
+    private synchronized String exchange(String verb, StreamDecoder.LineSink sink, String... args) {
+        // Don't hammer a helper that isn't there
+        if (!available && lastFailureAt > 0 && System.currentTimeMillis() - lastFailureAt < RETRY_AFTER_MS)
+            return null;
+
+        requests.incrementAndGet();
+        long start = System.currentTimeMillis();
+        String metric = "helper:" + verb.toLowerCase();
+        try {
+            if (transport == null) {
+                transport = factory.connect();
+                in = new BufferedInputStream(transport.getInputStream());
+                out = new BufferedOutputStream(transport.getOutputStream());
+            }
+            HelperProtocol.writeRequest(out, new HelperProtocol.Request(verb, args));
+            HelperProtocol.Response response = HelperProtocol.readResponse(in, sink);
+            available = true;
+            if (MUTATING_VERBS.contains(verb)) {
+                QueryCache.invalidateAll();
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            if (!response.ok) {
+                failures.incrementAndGet();
+                RootMetrics.record(metric, elapsed, 0, 0, false, false);
+                Log.w(TAG, verb + " failed: " + response.error);
+                return null;
+            }
+            RootMetrics.record(metric, elapsed, response.length, 2L * response.payload.length(), true, false);
+            return response.payload;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            RootMetrics.record(metric, System.currentTimeMillis() - start, 0, 0, false,
+                    e instanceof SocketTimeoutException);
+            available = false;
+            lastFailureAt = System.currentTimeMillis();
+            closeConnection();
+            return null;
+        }
+    }
+
+    private synchronized void closeConnection() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (IOException ignored) {
+            }
+        }
+        transport = null;
+        in = null;
+        out = null;
+        available = false;
+    }
+
+    /**
+     * Helper statistics
+     */
+    public String getStats() {
+        return "Root Helper: " + (available ? "running" : "not running") +
+                " (" + requests.get() + " requests, " + failures.get() + " failed)";
+    }
+}
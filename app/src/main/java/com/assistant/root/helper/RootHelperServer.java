@@ -0,0 +1,501 @@
+package com.assistant.root.helper;
+
+import android.app.UiAutomation;
+import android.graphics.Rect;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.InputDevice;
+import android.view.InputEvent;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.assistant.root.shell.OutputScanners;
+import com.assistant.root.shell.StreamDecoder;
+import com.assistant.root.shell.TextBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.regex.Pattern;
+
+/**
+ * Resident root helper. Started once as root through app_process with the
+ * app's APK on the classpath:
+ *
+ * CLASSPATH=<apk> app_process /system/bin com.assistant.root.helper.RootHelperServer <uid> <pid> <apk>
+ *
+ * Holds a UiAutomation connection while requests come in, so UI dumps and
+ * input injection don't pay for booting a new VM (uiautomator, input) on
+ * every call. The connection leaves accessibility services running, and is
+ * dropped once idle so `uiautomator dump` can connect again. Only the app's
+ * uid may connect, and the helper exits when the app process is gone.
+ */
+public class RootHelperServer {
+    private static final String TAG = "RootHelper";
+    private static final long PARENT_CHECK_MS = 5000;
+    // Idle time before the UiAutomation connection is released
+    private static final long UI_IDLE_MS = 2000;
+    // Deeper than any real layout; guards against cycles in a broken tree
+    private static final int MAX_DEPTH = 128;
+    // Nodes written per dump; the rest of a runaway tree is left out
+    private static final int MAX_NODES = 10000;
+    private static final Pattern PACKAGE_NAME = Pattern.compile("[A-Za-z0-9_.]+");
+    private static final Pattern COMPONENT = Pattern.compile("[A-Za-z0-9_.]+/[A-Za-z0-9_.$]+");
+
+    private final int allowedUid;
+    private final String apkPath;
+    private final Object uiLock = new Object();
+    private UiAutomation uiAutomation;
+    private HandlerThread uiThread;
+    private Handler uiHandler;
+    private int uiUsers;
+    private final Runnable releaseIdleUi = this::releaseIdleUi;
+    private volatile boolean running = true;
+
+    public RootHelperServer(int allowedUid, String apkPath) {
+        this.allowedUid = allowedUid;
+        this.apkPath = apkPath;
+    }
+
+    public static void main(String[] args) {
+        int uid = Integer.parseInt(args[0]);
+        int parentPid = Integer.parseInt(args[1]);
+        String apk = args.length > 2 ? args[2] : "";
+
+        RootHelperServer server = new RootHelperServer(uid, apk);
+        server.watchParent(parentPid);
+        try {
+            server.listen();
+        } catch (IOException e) {
+            Log.e(TAG, "Helper stopped: " + e.getMessage());
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Exit once the app that started us is gone, so no root daemon is left behind
+     */
+    private void watchParent(int pid) {
+        Thread watcher = new Thread(() -> {
+            File proc = new File("/proc/" + pid);
+            while (running) {
+                SystemClock.sleep(PARENT_CHECK_MS);
+                if (!proc.exists()) {
+                    Log.d(TAG, "App process " + pid + " is gone, exiting");
+                    System.exit(0);
+                }
+            }
+        }, "RootHelper-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void listen() throws IOException {
+        LocalServerSocket server = new LocalServerSocket(HelperProtocol.SOCKET_NAME);
+        Log.d(TAG, "Listening on @" + HelperProtocol.SOCKET_NAME);
+        while (running) {
+            LocalSocket socket = server.accept();
+            int peerUid = socket.getPeerCredentials().getUid();
+            if (peerUid != allowedUid && peerUid != 0) {
+                Log.w(TAG, "Rejected connection from uid " + peerUid);
+                socket.close();
+                continue;
+            }
+            Thread worker = new Thread(() -> {
+                try {
+                    serve(new BufferedInputStream(socket.getInputStream()),
+                            new BufferedOutputStream(socket.getOutputStream()));
+                } catch (IOException e) {
+                    Log.d(TAG, "Connection closed: " + e.getMessage());
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                if (!running) {
+                    Log.d(TAG, "Quit requested");
+                    System.exit(0);
+                }
+            }, "RootHelper-conn");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        server.close();
+    }
+
+    /**
+     * Answer requests on one connection until it closes. Independent of the
+     * socket, so it can be driven over any pair of streams.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        HelperProtocol.Request request;
+        while (running && (request = HelperProtocol.readRequest(in)) != null) {
+            HelperProtocol.Response response;
+            try {
+                response = handle(request);
+            } catch (Exception e) {
+                response = HelperProtocol.Response.error(e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+            HelperProtocol.writeResponse(out, response);
+        }
+    }
+
+    HelperProtocol.Response handle(HelperProtocol.Request request) throws Exception {
+        switch (request.verb) {
+            case HelperProtocol.PING:
+                return HelperProtocol.Response.ok(HelperProtocol.VERSION + "\n" + apkPath);
+            case HelperProtocol.FOCUS:
+                return HelperProtocol.Response.ok(focusedWindow());
+            case HelperProtocol.DUMP:
+                return HelperProtocol.Response.ok(dumpHierarchy());
+            case HelperProtocol.TAP:
+                tap(Integer.parseInt(request.arg(0)), Integer.parseInt(request.arg(1)));
+                return HelperProtocol.Response.ok("");
+            case HelperProtocol.SWIPE:
+                swipe(Integer.parseInt(request.arg(0)), Integer.parseInt(request.arg(1)),
+                        Integer.parseInt(request.arg(2)), Integer.parseInt(request.arg(3)),
+                        request.arg(4) != null ? Integer.parseInt(request.arg(4)) : 300);
+                return HelperProtocol.Response.ok("");
+            case HelperProtocol.KEY:
+                key(Integer.parseInt(request.arg(0)));
+                return HelperProtocol.Response.ok("");
+            case HelperProtocol.TEXT:
+                text(request.arg(0));
+                return HelperProtocol.Response.ok("");
+            case HelperProtocol.PACKAGES:
+                return HelperProtocol.Response.ok(exec("cmd package list packages").replace("package:", ""));
+            case HelperProtocol.LAUNCH:
+                return HelperProtocol.Response.ok(launch(request.arg(0)));
+            case HelperProtocol.QUIT:
+                running = false;
+                return HelperProtocol.Response.ok("");
+            default:
+                return HelperProtocol.Response.error("Unknown verb: " + request.verb);
+        }
+    }
+
+    /**
+     * "package/activity" of the focused window. dumpsys is a native binary,
+     * so this costs a binder dump, not a VM start.
+     */
+    private String focusedWindow() throws IOException {
+        String focus = exec("dumpsys window windows | grep -E 'mCurrentFocus=|mFocusedApp='");
+        if (focus.trim().isEmpty()) {
+            // Newer releases moved the focus lines to the displays section
+            focus = exec("dumpsys window displays | grep -E 'mCurrentFocus=|mFocusedApp='");
+        }
+
+        String fallback = "";
+        for (String line : focus.split("\n")) {
+            if (line.contains("mCurrentFocus=") || line.contains("mFocusedApp=")) {
+                String component = componentIn(line);
+                if (component != null) {
+                    if (line.contains("mCurrentFocus="))
+                        return component;
+                    fallback = component;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    private static String componentIn(String line) {
+        OutputScanners.Focus focus = new OutputScanners.Focus();
+        if (!OutputScanners.scanFocus(line, focus))
+            return null;
+        return focus.packageName() + "/" + focus.activityName();
+    }
+
+    /**
+     * Launch the app's launcher activity through `cmd`, which talks to the
+     * activity manager directly instead of starting `am` in a new VM. The
+     * package name comes off the socket, so it is checked and passed as its
+     * own argument, never as shell text.
+     */
+    private String launch(String packageName) throws IOException {
+        if (packageName == null || !PACKAGE_NAME.matcher(packageName).matches())
+            throw new IOException("Bad package name: " + packageName);
+        String component = null;
+        for (String line : exec("cmd", "package", "resolve-activity", "--brief", "-c",
+                "android.intent.category.LAUNCHER", packageName).split("\n")) {
+            if (line.contains("/"))
+                component = line.trim();
+        }
+        if (component == null || !COMPONENT.matcher(component).matches())
+            throw new IOException("No launcher activity for " + packageName);
+        String output = exec("cmd", "activity", "start-activity", "-W", "-a", "android.intent.action.MAIN",
+                "-c", "android.intent.category.LAUNCHER", "-f", "0x10200000", "-n", component);
+        OutputScanners.AmStart start = new OutputScanners.AmStart();
+        for (String line : output.split("\n")) {
+            OutputScanners.scanAmStartLine(line, start);
+        }
+        if (start.error() != null)
+            throw new IOException(start.error());
+        return component;
+    }
+
+    // UI hierarchy
+
+    private String dumpHierarchy() throws Exception {
+        UiAutomation automation = acquireUi();
+        try {
+            return dumpHierarchy(automation);
+        } finally {
+            releaseUi();
+        }
+    }
+
+    private static String dumpHierarchy(UiAutomation automation) throws Exception {
+        try {
+            automation.waitForIdle(100, 1000);
+        } catch (Exception ignored) {
+            // Busy screens (animations, video) never go idle; dump anyway
+        }
+        AccessibilityNodeInfo root = automation.getRootInActiveWindow();
+        if (root == null)
+            throw new IOException("No active window");
+
+        StringBuilder xml = new StringBuilder(64 * 1024);
+        xml.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?><hierarchy rotation=\"0\">");
+        try {
+            appendNode(xml, root, 0, 0, new Rect(), new int[] { MAX_NODES });
+        } finally {
+            root.recycle();
+        }
+        xml.append("</hierarchy>");
+        return xml.toString();
+    }
+
+    /**
+     * Same attribute layout as `uiautomator dump`, so the app's parser reads
+     * both sources. Every child info is recycled once written; the caller
+     * recycles node.
+     */
+    private static void appendNode(StringBuilder xml, AccessibilityNodeInfo node, int index, int depth,
+            Rect bounds, int[] budget) {
+        budget[0]--;
+        node.getBoundsInScreen(bounds);
+        xml.append("<node index=\"").append(index).append('"');
+        attr(xml, "text", node.getText());
+        attr(xml, "resource-id", node.getViewIdResourceName());
+        attr(xml, "class", node.getClassName());
+        attr(xml, "package", node.getPackageName());
+        attr(xml, "content-desc", node.getContentDescription());
+        attr(xml, "checkable", node.isCheckable());
+        attr(xml, "checked", node.isChecked());
+        attr(xml, "clickable", node.isClickable());
+        attr(xml, "enabled", node.isEnabled());
+        attr(xml, "focusable", node.isFocusable());
+        attr(xml, "focused", node.isFocused());
+        attr(xml, "scrollable", node.isScrollable());
+        attr(xml, "long-clickable", node.isLongClickable());
+        attr(xml, "password", node.isPassword());
+        attr(xml, "selected", node.isSelected());
+        xml.append(" bounds=\"[").append(bounds.left).append(',').append(bounds.top).append("][")
+                .append(bounds.right).append(',').append(bounds.bottom).append("]\"");
+
+        int count = depth < MAX_DEPTH ? node.getChildCount() : 0;
+        if (count == 0) {
+            xml.append(" />");
+            return;
+        }
+        xml.append('>');
+        for (int i = 0; i < count && budget[0] > 0; i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child == null)
+                continue;
+            try {
+                if (child.isVisibleToUser())
+                    appendNode(xml, child, i, depth + 1, bounds, budget);
+            } finally {
+                child.recycle();
+            }
+        }
+        xml.append("</node>");
+    }
+
+    private static void attr(StringBuilder xml, String name, Object value) {
+        xml.append(' ').append(name).append("=\"");
+        if (value != null) {
+            String s = value.toString();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '&': xml.append("&amp;"); break;
+                    case '<': xml.append("&lt;"); break;
+                    case '>': xml.append("&gt;"); break;
+                    case '"': xml.append("&quot;"); break;
+                    case '\n': xml.append("&#10;"); break;
+                    default: xml.append(c);
+                }
+            }
+        }
+        xml.append('"');
+    }
+
+    // Input injection
+
+    private void tap(int x, int y) throws Exception {
+        UiAutomation automation = acquireUi();
+        try {
+            long now = SystemClock.uptimeMillis();
+            inject(automation, touch(now, now, MotionEvent.ACTION_DOWN, x, y));
+            inject(automation, touch(now, SystemClock.uptimeMillis(), MotionEvent.ACTION_UP, x, y));
+        } finally {
+            releaseUi();
+        }
+    }
+
+    private void swipe(int x1, int y1, int x2, int y2, int durationMs) throws Exception {
+        UiAutomation automation = acquireUi();
+        try {
+            long down = SystemClock.uptimeMillis();
+            inject(automation, touch(down, down, MotionEvent.ACTION_DOWN, x1, y1));
+            int steps = Math.max(1, durationMs / 16);
+            for (int i = 1; i <= steps; i++) {
+                float t = (float) i / steps;
+                SystemClock.sleep(durationMs / steps);
+                inject(automation, touch(down, SystemClock.uptimeMillis(), MotionEvent.ACTION_MOVE,
+                        x1 + (x2 - x1) * t, y1 + (y2 - y1) * t));
+            }
+            inject(automation, touch(down, SystemClock.uptimeMillis(), MotionEvent.ACTION_UP, x2, y2));
+        } finally {
+            releaseUi();
+        }
+    }
+
+    private static MotionEvent touch(long downTime, long eventTime, int action, float x, float y) {
+        MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, x, y, 0);
+        event.setSource(InputDevice.SOURCE_TOUCHSCREEN);
+        return event;
+    }
+
+    private void key(int keyCode) throws Exception {
+        UiAutomation automation = acquireUi();
+        try {
+            long now = SystemClock.uptimeMillis();
+            inject(automation, new KeyEvent(now, now, KeyEvent.ACTION_DOWN, keyCode, 0));
+            inject(automation, new KeyEvent(now, SystemClock.uptimeMillis(), KeyEvent.ACTION_UP, keyCode, 0));
+        } finally {
+            releaseUi();
+        }
+    }
+
+    private void text(String text) throws Exception {
+        KeyEvent[] events = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD).getEvents(text.toCharArray());
+        if (events == null)
+            throw new IOException("Text can't be typed with the virtual keyboard map");
+        UiAutomation automation = acquireUi();
+        try {
+            for (KeyEvent event : events) {
+                inject(automation, event);
+            }
+        } finally {
+            releaseUi();
+        }
+    }
+
+    private static void inject(UiAutomation automation, InputEvent event) throws Exception {
+        if (!automation.injectInputEvent(event, true))
+            throw new IOException("Input injection rejected");
+    }
+
+    /**
+     * The UiAutomation connection, connecting it if needed, the way
+     * `uiautomator` does from app_process. The constructor and connect() are
+     * hidden APIs, hence reflection. FLAG_DONT_SUPPRESS_ACCESSIBILITY_SERVICES
+     * keeps the app's accessibility service getting events meanwhile.
+     * Pair every call with releaseUi().
+     */
+    private UiAutomation acquireUi() throws Exception {
+        synchronized (uiLock) {
+            if (uiThread == null) {
+                uiThread = new HandlerThread("RootHelper-ui");
+                uiThread.start();
+                uiHandler = new Handler(uiThread.getLooper());
+            }
+            uiHandler.removeCallbacks(releaseIdleUi);
+            if (uiAutomation == null) {
+                Class<?> connectionClass = Class.forName("android.app.UiAutomationConnection");
+                Class<?> connectionInterface = Class.forName("android.app.IUiAutomationConnection");
+                Constructor<?> connectionCtor = connectionClass.getDeclaredConstructor();
+                connectionCtor.setAccessible(true);
+                Object connection = connectionCtor.newInstance();
+
+                Constructor<UiAutomation> ctor = UiAutomation.class.getDeclaredConstructor(
+                        Looper.class, connectionInterface);
+                ctor.setAccessible(true);
+                UiAutomation automation = ctor.newInstance(uiThread.getLooper(), connection);
+
+                Method connect = UiAutomation.class.getDeclaredMethod("connect", int.class);
+                connect.setAccessible(true);
+                connect.invoke(automation, UiAutomation.FLAG_DONT_SUPPRESS_ACCESSIBILITY_SERVICES);
+
+                uiAutomation = automation;
+                Log.d(TAG, "UiAutomation connected");
+            }
+            uiUsers++;
+            return uiAutomation;
+        }
+    }
+
+    private void releaseUi() {
+        synchronized (uiLock) {
+            if (--uiUsers == 0)
+                uiHandler.postDelayed(releaseIdleUi, UI_IDLE_MS);
+        }
+    }
+
+    /**
+     * Only one UiAutomation may be connected system-wide, so an idle one is
+     * let go for `uiautomator dump` and other tools
+     */
+    private void releaseIdleUi() {
+        synchronized (uiLock) {
+            if (uiUsers > 0 || uiAutomation == null)
+                return;
+            try {
+                Method disconnect = UiAutomation.class.getDeclaredMethod("disconnect");
+                disconnect.setAccessible(true);
+                disconnect.invoke(uiAutomation);
+                Log.d(TAG, "UiAutomation released");
+            } catch (Exception e) {
+                Log.w(TAG, "UiAutomation disconnect failed: " + e.getMessage());
+            }
+            uiAutomation = null;
+        }
+    }
+
+    /**
+     * Run a command line through sh; only for fixed commands
+     */
+    private static String exec(String command) throws IOException {
+        return exec("sh", "-c", command);
+    }
+
+    private static String exec(String... argv) throws IOException {
+        Process process = new ProcessBuilder(argv).redirectErrorStream(true).start();
+        try (TextBuffer out = TextBuffer.obtain()) {
+            StreamDecoder.readAll(process.getInputStream(), out);
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return out.toString();
+        }
+    }
+}
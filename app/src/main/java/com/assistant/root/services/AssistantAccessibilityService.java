@@ -5,6 +5,8 @@ import android.content.Intent;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 
+import com.assistant.root.context.ForegroundTracker;
+import com.assistant.root.context.LiveScreenModel;
 import com.assistant.root.ui.activities.MainActivity;
 
 /**
@@ -16,6 +18,7 @@ public class AssistantAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "AssistantA11yService";
     private static AssistantAccessibilityService instance;
+    private volatile boolean connected;
 
     public static AssistantAccessibilityService getInstance() {
         return instance;
@@ -30,8 +33,10 @@ public class AssistantAccessibilityService extends AccessibilityService {
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        // We don't need to respond to accessibility events for now
-        // This service is mainly used for its system-level permissions
+        // Keeps the foreground app and live screen model current; only notes
+        // the change here
+        ForegroundTracker.onEvent(event);
+        LiveScreenModel.onEvent(event);
     }
 
     @Override
@@ -42,7 +47,10 @@ public class AssistantAccessibilityService extends AccessibilityService {
     @Override
     protected void onServiceConnected() {
         super.onServiceConnected();
+        connected = true;
         Log.i(TAG, "Accessibility Service connected");
+        ForegroundTracker.start(this);
+        LiveScreenModel.start();
 
         // Notify MainActivity if it's active
         if (MainActivity.instance != null) {
@@ -53,10 +61,20 @@ public class AssistantAccessibilityService extends AccessibilityService {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        connected = false;
+        ForegroundTracker.stop();
+        LiveScreenModel.stop();
         instance = null;
         Log.i(TAG, "Accessibility Service destroyed");
     }
 
+    /**
+     * True once the system has bound the service, so window content can be read
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
     /**
      * Utility method to perform global actions like going home, back, etc.
      * Call this from other parts of your app when needed.
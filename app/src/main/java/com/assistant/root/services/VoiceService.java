@@ -19,9 +19,13 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.assistant.root.R;
+import com.assistant.root.helper.RootHelperClient;
+import com.assistant.root.shell.PriorityScheduler;
+import com.assistant.root.shell.RootShell;
 import com.assistant.root.ui.activities.MainActivity;
 import com.assistant.root.ui.overlays.AssistantOverlay;
 import com.assistant.root.ui.overlays.FloatingButton;
+import com.assistant.root.utils.AppCatalog;
 import com.assistant.root.utils.CommandExecutor;
 
 import java.util.ArrayList;
@@ -92,6 +96,15 @@ public class VoiceService extends Service {
         log("✓ Voice Assistant ready!");
         log("Tap the floating button to give commands.");
 
+        // Start the resident root helper so UI dumps and input skip the shell tools;
+        // not in the background lane, where it would queue behind warmups
+        PriorityScheduler.submit(PriorityScheduler.Lane.NORMAL, () -> {
+            if (RootHelperClient.get().start(this)) {
+                log("⚡ Root helper ready");
+            }
+            return null;
+        });
+
         recreateSpeechRecognizer();
 
         // Show floating button
@@ -151,6 +164,15 @@ public class VoiceService extends Service {
 
         handler.removeCallbacksAndMessages(null);
 
+        // Stop the root helper (off the main thread: a dump may hold the
+        // connection) and release pooled root shells
+        PriorityScheduler.submit(PriorityScheduler.Lane.NORMAL, () -> {
+            RootHelperClient.get().stop();
+            return null;
+        });
+        RootShell.shutdown();
+        AppCatalog.stop();
+
         // Clear singleton instance
         instance = null;
     }
@@ -0,0 +1,188 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Future-based front end for RootShell.
+ * Every call has a deadline; cancelling the returned future (or missing the
+ * deadline) kills the shell work instead of leaving it running.
+ */
+public class AsyncRootShell {
+    private static final String TAG = "AsyncRootShell";
+
+    private static final AtomicInteger threadIds = new AtomicInteger();
+    static final ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+            Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "RootShell-async-" + threadIds.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }));
+
+    /**
+     * Work that needs exclusive use of one root shell, e.g. a multi-step script
+     */
+    public interface ShellTask<T> {
+        T run(RootShell.Lease shell) throws Exception;
+    }
+
+    /**
+     * Thrown into a future chain when a command finished with a failure result
+     */
+    public static class RootCommandException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public final RootShell.Result result;
+
+        public RootCommandException(RootShell.Result result) {
+            super(result.getError());
+            this.result = result;
+        }
+    }
+
+    /**
+     * Run a single command with the default deadline
+     */
+    public static ListenableFuture<RootShell.Result> submit(String command) {
+        return submit(command, RootShell.DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Run a single command. The future completes with the result whatever the
+     * exit code; it fails only on deadline, cancellation or missing root.
+     */
+    public static ListenableFuture<RootShell.Result> submit(String command, long timeoutMs) {
+        return withShell(shell -> shell.exec(command, timeoutMs), timeoutMs);
+    }
+
+    /**
+     * Run a multi-line script step by step on one shell. The future completes
+     * with the script result, including the failing step if there was one.
+     */
+    public static ListenableFuture<RootScript.Result> submitScript(String script, long timeoutMs,
+            RootScript.StepListener listener) {
+        return withShell(shell -> RootScript.run(shell, script, timeoutMs, listener), timeoutMs);
+    }
+
+    /**
+     * Run a task against one leased shell. The deadline covers waiting for a
+     * session as well as the work itself.
+     */
+    public static <T> ListenableFuture<T> withShell(ShellTask<T> task, long timeoutMs) {
+        AtomicReference<RootShell.Lease> active = new AtomicReference<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        ListenableFuture<T> future = PriorityScheduler.submit(PriorityScheduler.currentLane(), () -> {
+            try (RootShell.Lease shell = RootShell.lease(timeoutMs)) {
+                active.set(shell);
+                if (cancelled.get())
+                    throw new CancellationException("Cancelled before start");
+                return task.run(shell);
+            } finally {
+                active.set(null);
+            }
+        });
+
+        future.addListener(() -> {
+            if (future.isCancelled()) {
+                cancelled.set(true);
+                RootShell.Lease shell = active.get();
+                if (shell != null) {
+                    shell.abort();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+        return Futures.withTimeout(future, timeoutMs, TimeUnit.MILLISECONDS, RootShell.watchdog);
+    }
+
+    /**
+     * Run any blocking stage (e.g. context detection) off the caller's thread
+     * with a deadline. Cancellation interrupts the worker.
+     */
+    public static <T> ListenableFuture<T> call(Callable<T> stage, long timeoutMs) {
+        return Futures.withTimeout(PriorityScheduler.submit(PriorityScheduler.currentLane(), stage),
+                timeoutMs, TimeUnit.MILLISECONDS, RootShell.watchdog);
+    }
+
+    /**
+     * Bound any future (e.g. an AI call) by a deadline
+     */
+    public static <T> ListenableFuture<T> withDeadline(ListenableFuture<T> future, long timeoutMs) {
+        return Futures.withTimeout(future, timeoutMs, TimeUnit.MILLISECONDS, RootShell.watchdog);
+    }
+
+    /**
+     * Executor for pipeline stages that block (shell round-trips, UI dumps).
+     * Use it instead of directExecutor when chaining such stages. Stages run
+     * in the caller's scheduler lane.
+     */
+    public static Executor blockingExecutor() {
+        return PriorityScheduler.executor(PriorityScheduler.currentLane());
+    }
+
+    /**
+     * Run independent commands concurrently and collect their results in order
+     */
+    public static ListenableFuture<List<RootShell.Result>> runAll(List<String> commands, long timeoutMs) {
+        List<ListenableFuture<RootShell.Result>> futures = new ArrayList<>();
+        for (String command : commands) {
+            futures.add(submit(command, timeoutMs));
+        }
+        return Futures.allAsList(futures);
+    }
+
+    /**
+     * Fail the chain with RootCommandException unless the command succeeded
+     */
+    public static ListenableFuture<RootShell.Result> requireSuccess(ListenableFuture<RootShell.Result> future) {
+        return Futures.transformAsync(future, result -> result.isSuccess()
+                ? Futures.immediateFuture(result)
+                : Futures.immediateFailedFuture(new RootCommandException(result)),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Run the next command only after the previous one succeeded
+     */
+    public static ListenableFuture<RootShell.Result> thenRun(ListenableFuture<RootShell.Result> previous,
+            String command, long timeoutMs) {
+        return Futures.transformAsync(requireSuccess(previous), result -> submit(command, timeoutMs),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Human-readable message for a failed future
+     */
+    public static String describe(Throwable t) {
+        if (t instanceof ExecutionException && t.getCause() != null)
+            t = t.getCause();
+        if (t instanceof TimeoutException)
+            return "Timed out";
+        if (t instanceof CancellationException)
+            return "Cancelled";
+        String message = t.getMessage();
+        if (message == null) {
+            Log.w(TAG, "Failure without message", t);
+            return t.getClass().getSimpleName();
+        }
+        return message;
+    }
+}
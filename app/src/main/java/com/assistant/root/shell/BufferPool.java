@@ -0,0 +1,120 @@
+package com.assistant.root.shell;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable read and text buffers for process output, so the long-running
+ * service doesn't allocate fresh buffers for every command it reads.
+ *
+ * Byte buffers have a fixed size. Char arrays come in whatever size a
+ * caller grew them to; oversized ones are dropped instead of pooled so one
+ * huge dump doesn't pin memory for the life of the process.
+ */
+public class BufferPool {
+    public static final int BYTE_BUFFER_SIZE = 8192;
+    public static final int CHAR_BUFFER_SIZE = 8192;
+
+    private static final int MAX_POOLED = 8;
+    private static final int MAX_POOLED_CHARS = 512 * 1024;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> byteBuffers = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<char[]> charArrays = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBytes = new AtomicInteger();
+    private static final AtomicInteger pooledChars = new AtomicInteger();
+
+    // Stats
+    private static final AtomicLong acquired = new AtomicLong();
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * A cleared heap byte buffer of BYTE_BUFFER_SIZE
+     */
+    public static ByteBuffer acquireBytes() {
+        acquired.incrementAndGet();
+        ByteBuffer buffer = byteBuffers.poll();
+        if (buffer != null) {
+            pooledBytes.decrementAndGet();
+            reused.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        allocatedBytes.addAndGet(BYTE_BUFFER_SIZE);
+        return ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    }
+
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != BYTE_BUFFER_SIZE)
+            return;
+        if (pooledBytes.incrementAndGet() > MAX_POOLED) {
+            pooledBytes.decrementAndGet();
+            return;
+        }
+        byteBuffers.offer(buffer);
+    }
+
+    /**
+     * A char array of at least minSize chars
+     */
+    public static char[] acquireChars(int minSize) {
+        acquired.incrementAndGet();
+        // Pooled arrays are few, so a scan is cheaper than keeping them sorted
+        for (int i = 0; i < MAX_POOLED; i++) {
+            char[] array = charArrays.poll();
+            if (array == null)
+                break;
+            pooledChars.decrementAndGet();
+            if (array.length >= minSize) {
+                reused.incrementAndGet();
+                return array;
+            }
+            release(array);
+        }
+        return allocateChars(Math.max(minSize, CHAR_BUFFER_SIZE));
+    }
+
+    public static void release(char[] array) {
+        if (array == null || array.length > MAX_POOLED_CHARS)
+            return;
+        if (pooledChars.incrementAndGet() > MAX_POOLED) {
+            pooledChars.decrementAndGet();
+            return;
+        }
+        charArrays.offer(array);
+    }
+
+    /**
+     * Allocate a new char array and count it; used when a buffer has to grow
+     */
+    static char[] allocateChars(int size) {
+        allocatedBytes.addAndGet(2L * size);
+        return new char[size];
+    }
+
+    /**
+     * Count memory allocated outside the pool (e.g. line strings)
+     */
+    static void countAllocation(long bytes) {
+        allocatedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Total bytes allocated for process output since start
+     */
+    public static long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Pool statistics
+     */
+    public static String getStats() {
+        long a = acquired.get();
+        long r = reused.get();
+        return String.format("Buffers: %d acquired, %d reused (%.0f%%), %dKB allocated",
+                a, r, a > 0 ? 100.0 * r / a : 0.0, allocatedBytes.get() / 1024);
+    }
+}
@@ -0,0 +1,291 @@
+package com.assistant.root.shell;
+
+/**
+ * Hand-written scanners for the shell output the assistant reads most:
+ * `dumpsys window` / `dumpsys activity` focus lines, `pm list packages [-f]`
+ * and `am start -W`. They walk a CharSequence once without splitting or
+ * regexes and fill caller-owned result objects that can be reused line after
+ * line, so scanning itself allocates nothing. Strings are only created when
+ * a caller asks for a field.
+ *
+ * Focus and PackageEntry point into the scanned line; read their fields
+ * before that line's buffer is reused.
+ */
+public class OutputScanners {
+
+    /**
+     * The component named on a focus line, as offsets into that line
+     */
+    public static class Focus {
+        private CharSequence source;
+        private int packageStart, packageEnd, activityStart, activityEnd;
+
+        public boolean found() {
+            return source != null;
+        }
+
+        public String packageName() {
+            return found() ? source.subSequence(packageStart, packageEnd).toString() : null;
+        }
+
+        /**
+         * Activity as printed, e.g. ".HomeActivity" or "com.foo.Main"
+         */
+        public String activityName() {
+            return found() ? source.subSequence(activityStart, activityEnd).toString() : null;
+        }
+
+        public boolean packageEquals(CharSequence packageName) {
+            return found() && regionEquals(source, packageStart, packageEnd, packageName);
+        }
+
+        void reset() {
+            source = null;
+        }
+    }
+
+    /**
+     * One `pm list packages` entry
+     */
+    public static class PackageEntry {
+        private CharSequence source;
+        private int nameStart, nameEnd, pathStart, pathEnd;
+
+        public boolean found() {
+            return source != null;
+        }
+
+        public String packageName() {
+            return found() ? source.subSequence(nameStart, nameEnd).toString() : null;
+        }
+
+        /**
+         * APK path when listed with -f, else null
+         */
+        public String apkPath() {
+            return found() && pathEnd > pathStart ? source.subSequence(pathStart, pathEnd).toString() : null;
+        }
+
+        public boolean packageEquals(CharSequence packageName) {
+            return found() && regionEquals(source, nameStart, nameEnd, packageName);
+        }
+    }
+
+    /**
+     * Accumulated `am start -W` result; feed it every output line
+     */
+    public static class AmStart {
+        public boolean ok;
+        public boolean coldStart;
+        public long thisTimeMs = -1;
+        public long totalTimeMs = -1;
+        public long waitTimeMs = -1;
+        private String error;
+        private String warning;
+
+        public void reset() {
+            ok = false;
+            coldStart = false;
+            thisTimeMs = totalTimeMs = waitTimeMs = -1;
+            error = null;
+            warning = null;
+        }
+
+        /**
+         * "Error: ..." line, or null
+         */
+        public String error() {
+            return error;
+        }
+
+        /**
+         * "Warning: ..." line, e.g. when the app was already in front; the
+         * start still counts as ok
+         */
+        public String warning() {
+            return warning;
+        }
+
+        /**
+         * Best launch time reported (TotalTime, else ThisTime, else WaitTime)
+         */
+        public long launchTimeMs() {
+            return totalTimeMs >= 0 ? totalTimeMs : thisTimeMs >= 0 ? thisTimeMs : waitTimeMs;
+        }
+    }
+
+    private static final String[] FOCUS_KEYS = { "mCurrentFocus", "mFocusedApp", "mResumedActivity",
+            "mFocusedActivity", "topResumedActivity", "ResumedActivity" };
+
+    /**
+     * Whether the line carries one of the focus keys
+     */
+    public static boolean isFocusLine(CharSequence line) {
+        for (String key : FOCUS_KEYS) {
+            if (indexOf(line, key, 0) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the first "package/activity" token on a line, e.g.
+     * "mCurrentFocus=Window{1c3 u0 com.whatsapp/com.whatsapp.HomeActivity}" or
+     * "mResumedActivity: ActivityRecord{8f2 u0 com.android.chrome/.Main t41}".
+     * Returns false (and clears the result) when there is none, e.g.
+     * "mCurrentFocus=Window{9a1 u0 StatusBar}".
+     */
+    public static boolean scanFocus(CharSequence line, Focus into) {
+        return scanFocus(line, 0, line.length(), into);
+    }
+
+    /**
+     * scanFocus over one line of a larger text, [from, to)
+     */
+    public static boolean scanFocus(CharSequence line, int from, int to, Focus into) {
+        into.reset();
+        int slash = from - 1;
+        while ((slash = indexOf(line, '/', slash + 1)) >= 0 && slash < to) {
+            int start = slash;
+            while (start > from && isNameChar(line.charAt(start - 1)))
+                start--;
+            int end = slash + 1;
+            while (end < to && isNameChar(line.charAt(end)))
+                end++;
+            if (start < slash && end > slash + 1) {
+                into.source = line;
+                into.packageStart = start;
+                into.packageEnd = slash;
+                into.activityStart = slash + 1;
+                into.activityEnd = end;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse "package:com.foo" or, with -f, "package:/data/app/~~x==/com.foo-y==/base.apk=com.foo".
+     * Trailing fields such as " uid:10123" (-U) are ignored.
+     */
+    public static boolean scanPackage(CharSequence line, PackageEntry into) {
+        into.source = null;
+        int length = line.length();
+        int start = 0;
+        while (start < length && line.charAt(start) == ' ')
+            start++;
+        if (!regionStartsWith(line, start, "package:"))
+            return false;
+        start += 8;
+
+        int end = start;
+        while (end < length && line.charAt(end) != ' ')
+            end++;
+
+        // With -f the name follows the last '=' (paths contain '=' too)
+        int equals = -1;
+        for (int i = end - 1; i >= start; i--) {
+            if (line.charAt(i) == '=') {
+                equals = i;
+                break;
+            }
+        }
+        if (equals >= 0 && line.charAt(start) == '/') {
+            into.pathStart = start;
+            into.pathEnd = equals;
+            into.nameStart = equals + 1;
+        } else {
+            into.pathStart = into.pathEnd = 0;
+            into.nameStart = start;
+        }
+        into.nameEnd = end;
+        if (into.nameEnd <= into.nameStart)
+            return false;
+        into.source = line;
+        return true;
+    }
+
+    /**
+     * Fold one line of `am start -W` output into the result. Lines look like
+     * "Status: ok", "LaunchState: COLD", "TotalTime: 412" or
+     * "Error: Activity class {com.foo/.Main} does not exist."
+     */
+    public static void scanAmStartLine(CharSequence line, AmStart into) {
+        int start = 0;
+        int length = line.length();
+        while (start < length && line.charAt(start) == ' ')
+            start++;
+
+        if (regionStartsWith(line, start, "Status: ")) {
+            into.ok = into.error == null && regionStartsWith(line, start + 8, "ok");
+        } else if (regionStartsWith(line, start, "LaunchState: ")) {
+            into.coldStart = regionStartsWith(line, start + 13, "COLD");
+        } else if (regionStartsWith(line, start, "ThisTime: ")) {
+            into.thisTimeMs = parseLong(line, start + 10);
+        } else if (regionStartsWith(line, start, "TotalTime: ")) {
+            into.totalTimeMs = parseLong(line, start + 11);
+        } else if (regionStartsWith(line, start, "WaitTime: ")) {
+            into.waitTimeMs = parseLong(line, start + 10);
+        } else if (regionStartsWith(line, start, "Error: ") || regionStartsWith(line, start, "Error type ")) {
+            // Rare, so copied: the line's buffer may be reused
+            if (into.error == null)
+                into.error = line.subSequence(start, length).toString();
+            into.ok = false;
+        } else if (regionStartsWith(line, start, "Warning: ")) {
+            if (into.warning == null)
+                into.warning = line.subSequence(start, length).toString();
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '_' || c == '$';
+    }
+
+    private static long parseLong(CharSequence s, int from) {
+        long value = 0;
+        int i = from;
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            value = value * 10 + (s.charAt(i) - '0');
+            i++;
+        }
+        return i > from ? value : -1;
+    }
+
+    static int indexOf(CharSequence s, char c, int from) {
+        for (int i = Math.max(0, from); i < s.length(); i++) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    static int indexOf(CharSequence s, String needle, int from) {
+        int last = s.length() - needle.length();
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (regionStartsWith(s, i, needle))
+                return i;
+        }
+        return -1;
+    }
+
+    static boolean regionStartsWith(CharSequence s, int offset, String prefix) {
+        if (offset < 0 || offset + prefix.length() > s.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(offset + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(CharSequence s, int start, int end, CharSequence other) {
+        if (other == null || end - start != other.length())
+            return false;
+        for (int i = 0; i < other.length(); i++) {
+            if (s.charAt(start + i) != other.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
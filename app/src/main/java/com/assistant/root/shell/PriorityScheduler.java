@@ -0,0 +1,282 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules root-shell and AI work in three lanes so the command the user is
+ * waiting for never queues behind warmups and prefetching.
+ *
+ * Interactive work always starts immediately. Normal work is capped.
+ * Background work runs one job at a time and only while no interactive work
+ * is queued or running; long background jobs call yieldIfBusy() between
+ * steps so they pause as soon as the user speaks. Throttled work (warmups,
+ * prefetching) waits between steps with submitDelayed() rather than
+ * sleeping inside a job, so it never holds the background slot while idle.
+ */
+public class PriorityScheduler {
+    private static final String TAG = "PriorityScheduler";
+
+    public enum Lane {
+        INTERACTIVE, NORMAL, BACKGROUND
+    }
+
+    private static final int MAX_NORMAL = 4;
+    private static final int MAX_BACKGROUND = 1;
+
+    private static final ThreadLocal<Lane> currentLane = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> insideJob = new ThreadLocal<>();
+
+    private static final Object lock = new Object();
+    private static final LaneState[] lanes = {
+            new LaneState(), new LaneState(), new LaneState()
+    };
+
+    private static class LaneState {
+        final ArrayDeque<Job<?>> queue = new ArrayDeque<>();
+        int running;
+
+        // Stats
+        long completed;
+        long totalWaitMs;
+        long maxWaitMs;
+    }
+
+    private static class Job<T> {
+        final Lane lane;
+        final boolean nested;
+        final AsyncCallable<T> work;
+        final SettableFuture<T> future = SettableFuture.create();
+        final long queuedAt = System.currentTimeMillis();
+        Thread runner;
+
+        Job(Lane lane, AsyncCallable<T> work) {
+            this.lane = lane;
+            this.work = work;
+            // Only sub-work at the enclosing job's priority or above skips the
+            // queue; lower-priority work started from a job waits its turn
+            Lane enclosing = currentLane.get();
+            this.nested = insideJob.get() != null && enclosing != null && lane.ordinal() <= enclosing.ordinal();
+            // Cancelling a running job interrupts it, as a plain executor would
+            future.addListener(() -> {
+                if (future.isCancelled()) {
+                    synchronized (this) {
+                        if (runner != null)
+                            runner.interrupt();
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * Lane of the calling thread: the lane of the job it is running, or NORMAL
+     */
+    public static Lane currentLane() {
+        Lane lane = currentLane.get();
+        return lane != null ? lane : Lane.NORMAL;
+    }
+
+    /**
+     * Run a blocking job in a lane
+     */
+    public static <T> ListenableFuture<T> submit(Lane lane, Callable<T> work) {
+        return submitAsync(lane, () -> Futures.immediateFuture(work.call()));
+    }
+
+    /**
+     * Run a blocking job in a lane once delayMs has passed. The job is only
+     * queued when the delay is up, so no lane slot is held while waiting.
+     */
+    public static <T> ListenableFuture<T> submitDelayed(Lane lane, long delayMs, Callable<T> work) {
+        SettableFuture<T> result = SettableFuture.create();
+        ScheduledFuture<?> timer = RootShell.watchdog.schedule(() -> {
+            if (!result.isDone())
+                result.setFuture(submit(lane, work));
+        }, delayMs, TimeUnit.MILLISECONDS);
+        result.addListener(() -> {
+            if (result.isCancelled())
+                timer.cancel(false);
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    /**
+     * Run an asynchronous job (e.g. an AI request) in a lane. The lane slot is
+     * held until the returned future completes, not just until it is created.
+     */
+    public static <T> ListenableFuture<T> submitAsync(Lane lane, AsyncCallable<T> work) {
+        Job<T> job = new Job<>(lane, work);
+        synchronized (lock) {
+            LaneState state = lanes[lane.ordinal()];
+            if (job.nested) {
+                // A running job that blocks on its own sub-work in the same or a
+                // higher lane must not wait for a slot, or a full lane would
+                // deadlock on itself
+                state.running++;
+            } else {
+                state.queue.add(job);
+            }
+        }
+        if (job.nested) {
+            start(job);
+        } else {
+            pump();
+        }
+        return job.future;
+    }
+
+    /**
+     * Executor that runs each task as a job in the given lane
+     */
+    public static Executor executor(Lane lane) {
+        return command -> submit(lane, () -> {
+            command.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run code on the calling thread as if it were a job in the given lane, so
+     * that shell and AI work it submits inherits the lane
+     */
+    public static <T> T runAs(Lane lane, Callable<T> work) throws Exception {
+        Lane previous = currentLane.get();
+        currentLane.set(lane);
+        try {
+            return work.call();
+        } finally {
+            currentLane.set(previous);
+        }
+    }
+
+    /**
+     * Called by background jobs between steps: blocks while interactive work is
+     * queued or running. Returns immediately for other lanes.
+     */
+    public static void yieldIfBusy() throws InterruptedException {
+        if (currentLane() != Lane.BACKGROUND)
+            return;
+        synchronized (lock) {
+            boolean yielded = false;
+            while (interactiveBusy()) {
+                if (!yielded) {
+                    Log.d(TAG, "Background job yielding to interactive work");
+                    yielded = true;
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    private static boolean interactiveBusy() {
+        LaneState interactive = lanes[Lane.INTERACTIVE.ordinal()];
+        return interactive.running > 0 || !interactive.queue.isEmpty();
+    }
+
+    private static boolean canStart(Lane lane) {
+        LaneState state = lanes[lane.ordinal()];
+        switch (lane) {
+            case INTERACTIVE:
+                return true;
+            case NORMAL:
+                return state.running < MAX_NORMAL;
+            default:
+                return state.running < MAX_BACKGROUND && !interactiveBusy();
+        }
+    }
+
+    /**
+     * Start every queued job whose lane has room, highest priority first
+     */
+    private static void pump() {
+        while (true) {
+            Job<?> next = null;
+            synchronized (lock) {
+                for (Lane lane : Lane.values()) {
+                    LaneState state = lanes[lane.ordinal()];
+                    // Drop jobs cancelled while they were queued
+                    while (!state.queue.isEmpty() && state.queue.peek().future.isDone()) {
+                        state.queue.poll();
+                    }
+                    if (!state.queue.isEmpty() && canStart(lane)) {
+                        next = state.queue.poll();
+                        state.running++;
+                        long waited = System.currentTimeMillis() - next.queuedAt;
+                        state.totalWaitMs += waited;
+                        state.maxWaitMs = Math.max(state.maxWaitMs, waited);
+                        break;
+                    }
+                }
+                lock.notifyAll();
+            }
+            if (next == null)
+                return;
+            start(next);
+        }
+    }
+
+    private static <T> void start(Job<T> job) {
+        AsyncRootShell.executor.execute(() -> {
+            ListenableFuture<T> result;
+            Lane previous = currentLane.get();
+            currentLane.set(job.lane);
+            insideJob.set(Boolean.TRUE);
+            synchronized (job) {
+                job.runner = Thread.currentThread();
+            }
+            try {
+                result = job.work.call();
+            } catch (Throwable t) {
+                result = Futures.immediateFailedFuture(t);
+            } finally {
+                synchronized (job) {
+                    job.runner = null;
+                }
+                // Don't leak an interrupt meant for this job into the next task
+                Thread.interrupted();
+                insideJob.remove();
+                currentLane.set(previous);
+            }
+            job.future.setFuture(result);
+            result.addListener(() -> finish(job), MoreExecutors.directExecutor());
+        });
+    }
+
+    private static void finish(Job<?> job) {
+        synchronized (lock) {
+            LaneState state = lanes[job.lane.ordinal()];
+            state.running--;
+            state.completed++;
+        }
+        pump();
+    }
+
+    /**
+     * Queue depth, running jobs and wait times per lane
+     */
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (lock) {
+            for (Lane lane : Lane.values()) {
+                LaneState state = lanes[lane.ordinal()];
+                long started = state.completed + state.running;
+                sb.append(String.format("%s: %d queued, %d running, %d done, wait avg %dms max %dms\n",
+                        lane.name().toLowerCase(), state.queue.size(), state.running, state.completed,
+                        started > 0 ? state.totalWaitMs / started : 0, state.maxWaitMs));
+            }
+        }
+        return sb.toString().trim();
+    }
+}
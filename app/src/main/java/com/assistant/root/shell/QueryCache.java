@@ -0,0 +1,162 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Short-lived cache for the results of read-only queries (focused window,
+ * UI dump, package list) so one command pass doesn't run the same query
+ * several times.
+ *
+ * Entries expire after their TTL and are all dropped as soon as a command
+ * that changes device state (input, am, svc, ...) goes through a root shell
+ * or the root helper. Concurrent callers asking for the same key share one
+ * load.
+ */
+public class QueryCache {
+    private static final String TAG = "QueryCache";
+
+    // Keys used by the context and UI code
+    public static final String FOCUSED_APP = "focused_app";
+    public static final String SCREEN_ELEMENTS = "screen_elements";
+    public static final String INSTALLED_PACKAGES = "installed_packages";
+
+    /**
+     * Commands that change what the queries above would return. Matched
+     * against each segment of a command line (split on ; && || | and
+     * newlines), after an optional leading "su -c".
+     */
+    private static final Pattern MUTATING = Pattern.compile(
+            "^(?:su\\s+-c\\s+['\"]?)?(?:input|am|svc|monkey|wm|settings\\s+(?:put|delete)|"
+                    + "pm\\s+(?!list|path|dump)|cmd\\s+(?!package\\s+(?:list|resolve-activity))|"
+                    + "kill|killall|pkill|setprop|reboot|sendevent|service\\s+call|content\\s+(?:insert|update|delete))\\b");
+    private static final Pattern SEGMENTS = Pattern.compile(";|&&|\\|\\||\\||\\n");
+
+    private static final Object lock = new Object();
+    private static final Map<String, Entry> entries = new HashMap<>();
+
+    // Stats
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    private static class Entry {
+        final SettableFuture<Object> value = SettableFuture.create();
+        volatile long expiresAt = Long.MAX_VALUE; // Set once loaded
+    }
+
+    /**
+     * Return the cached value for the key, or run the loader and cache its
+     * result for ttlMs. Null results and exceptions are not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String key, long ttlMs, Callable<T> loader) throws Exception {
+        Entry entry;
+        boolean load = false;
+        synchronized (lock) {
+            entry = entries.get(key);
+            if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+                entry = new Entry();
+                entries.put(key, entry);
+                load = true;
+            }
+        }
+
+        if (!load) {
+            hits.incrementAndGet();
+            try {
+                return (T) entry.value.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            T value = loader.call();
+            entry.value.set(value);
+            if (value == null) {
+                remove(key, entry);
+            } else {
+                entry.expiresAt = System.currentTimeMillis() + ttlMs;
+            }
+            return value;
+        } catch (Exception e) {
+            entry.value.setException(e);
+            remove(key, entry);
+            throw e;
+        }
+    }
+
+    /**
+     * Drop one cached query
+     */
+    public static void invalidate(String key) {
+        synchronized (lock) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Drop every cached query. Loads still in flight finish for their own
+     * callers but are not kept.
+     */
+    public static void invalidateAll() {
+        synchronized (lock) {
+            if (entries.isEmpty())
+                return;
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Called after a command ran; invalidates the cache if it may have
+     * changed device state
+     */
+    public static void onCommand(String command) {
+        if (isMutating(command)) {
+            Log.d(TAG, "Invalidated by: " + command);
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Whether any part of the command line changes device state
+     */
+    public static boolean isMutating(String command) {
+        if (command == null)
+            return false;
+        for (String segment : SEGMENTS.split(command)) {
+            if (MUTATING.matcher(segment.trim()).find())
+                return true;
+        }
+        return false;
+    }
+
+    private static void remove(String key, Entry entry) {
+        synchronized (lock) {
+            if (entries.get(key) == entry)
+                entries.remove(key);
+        }
+    }
+
+    /**
+     * Cache statistics
+     */
+    public static String getStats() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return String.format("Query Cache: %d hits / %d lookups (%.0f%%), %d invalidations",
+                h, total, total > 0 ? 100.0 * h / total : 0.0, invalidations.get());
+    }
+}
@@ -0,0 +1,233 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces root commands from different callers into one shell round-trip.
+ *
+ * A command submitted while the batcher is idle goes out at once, so a lone
+ * caller never waits for a window. Commands submitted while a batch is
+ * running collect for up to the batch window (or until the batch is full)
+ * and are then written to one pooled session in a single write. Each keeps
+ * its own completion marker, so results are split back to the individual
+ * callers in order. Each command is read only until its caller's deadline,
+ * counting the time spent on the commands ahead of it, and one that times
+ * out is killed without failing the rest of the batch.
+ *
+ * Only short queries whose output is collected whole belong here. A batched
+ * command may run after its caller has given up, so commands that change
+ * device state (QueryCache.isMutating) always run on a shell of their own.
+ * Streams that stop early or run long (UI dumps) use RootShell.stream, so
+ * they never hold up the commands batched behind them.
+ */
+public class RootBatcher {
+    private static final String TAG = "RootBatcher";
+
+    public static final long DEFAULT_WINDOW_MS = 15;
+    public static final int DEFAULT_MAX_BATCH = 8;
+
+    private static volatile long windowMs = DEFAULT_WINDOW_MS;
+    private static volatile int maxBatch = DEFAULT_MAX_BATCH;
+
+    private static final Object lock = new Object();
+    private static List<Request> pending = new ArrayList<>();
+    private static ScheduledFuture<?> scheduledFlush;
+    private static int inFlight;
+
+    // Stats
+    private static final AtomicLong batchCount = new AtomicLong();
+    private static final AtomicLong commandCount = new AtomicLong();
+    private static final AtomicLong skippedCount = new AtomicLong();
+    private static int largestBatch;
+
+    private static class Request {
+        final String command;
+        final long deadline;
+        final PriorityScheduler.Lane lane = PriorityScheduler.currentLane();
+        final SettableFuture<RootShell.Result> future = SettableFuture.create();
+
+        Request(String command, long timeoutMs) {
+            this.command = command;
+            this.deadline = System.currentTimeMillis() + timeoutMs;
+        }
+    }
+
+    /**
+     * Set the batch window and the maximum number of commands per batch.
+     * A window of 0 or a max of 1 turns batching off.
+     */
+    public static void configure(long batchWindowMs, int maxBatchSize) {
+        windowMs = Math.max(0, batchWindowMs);
+        maxBatch = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Queue a command for the next batch. The future completes with the
+     * command's own result whatever its exit code, and fails once timeoutMs
+     * has passed. A command that changes device state runs on its own shell.
+     */
+    public static ListenableFuture<RootShell.Result> submit(String command, long timeoutMs) {
+        if (QueryCache.isMutating(command))
+            return AsyncRootShell.submit(command, timeoutMs);
+
+        Request request = new Request(command, timeoutMs);
+        List<Request> ready = null;
+
+        synchronized (lock) {
+            pending.add(request);
+            if (pending.size() >= maxBatch || windowMs == 0 || (inFlight == 0 && scheduledFlush == null)) {
+                ready = takePending();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = RootShell.watchdog.schedule(RootBatcher::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (ready != null) {
+            dispatch(ready);
+        }
+        // Past the deadline (or on cancel) the request's own future is cancelled,
+        // so the batch doesn't wait for it when its turn comes
+        return AsyncRootShell.withDeadline(request.future, timeoutMs);
+    }
+
+    /**
+     * Blocking form of submit; never throws. A command that changes device
+     * state runs on the calling thread, as RootShell.run would.
+     */
+    public static RootShell.Result run(String command, long timeoutMs) {
+        if (QueryCache.isMutating(command))
+            return RootShell.run(command, timeoutMs);
+        try {
+            return submit(command, timeoutMs).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RootShell.Result.failed("Interrupted");
+        } catch (ExecutionException e) {
+            return RootShell.Result.failed(AsyncRootShell.describe(e));
+        }
+    }
+
+    private static void flush() {
+        List<Request> ready;
+        synchronized (lock) {
+            ready = takePending();
+        }
+        if (ready != null) {
+            dispatch(ready);
+        }
+    }
+
+    private static List<Request> takePending() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty())
+            return null;
+        List<Request> ready = pending;
+        pending = new ArrayList<>();
+        inFlight++;
+        largestBatch = Math.max(largestBatch, ready.size());
+        return ready;
+    }
+
+    private static void dispatch(List<Request> batch) {
+        // Not lane-limited: the batch may hold commands of jobs that are blocked on it
+        AsyncRootShell.executor.execute(() -> {
+            try {
+                runBatch(batch);
+            } finally {
+                synchronized (lock) {
+                    inFlight--;
+                }
+            }
+        });
+    }
+
+    private static void runBatch(List<Request> batch) {
+        // Callers that gave up while the batch was forming are left out
+        List<Request> live = new ArrayList<>(batch.size());
+        long now = System.currentTimeMillis();
+        long leaseMs = 0;
+        PriorityScheduler.Lane lane = PriorityScheduler.Lane.BACKGROUND;
+        for (Request request : batch) {
+            if (request.future.isDone() || request.deadline <= now) {
+                skippedCount.incrementAndGet();
+                continue;
+            }
+            live.add(request);
+            leaseMs = Math.max(leaseMs, request.deadline - now);
+            if (request.lane.ordinal() < lane.ordinal())
+                lane = request.lane;
+        }
+        if (live.isEmpty())
+            return;
+
+        List<String> commands = new ArrayList<>(live.size());
+        List<ListenableFuture<RootShell.Result>> callers = new ArrayList<>(live.size());
+        long[] deadlines = new long[live.size()];
+        for (int i = 0; i < deadlines.length; i++) {
+            Request request = live.get(i);
+            commands.add(request.command);
+            callers.add(request.future);
+            deadlines[i] = request.deadline;
+        }
+
+        batchCount.incrementAndGet();
+        commandCount.addAndGet(live.size());
+        if (live.size() > 1) {
+            Log.d(TAG, "Running " + live.size() + " commands in one round-trip");
+        }
+
+        // The batch leases its shell with the priority of its most urgent command
+        long batchLeaseMs = leaseMs;
+        List<RootShell.Result> results;
+        try (RootShell.Lease shell = PriorityScheduler.runAs(lane, () -> RootShell.lease(batchLeaseMs))) {
+            results = shell.execAll(commands, deadlines, callers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(live, "Interrupted");
+            return;
+        } catch (Exception e) {
+            Log.e(TAG, "Batch failed: " + e.getMessage());
+            fail(live, e instanceof IOException ? e.getMessage() : AsyncRootShell.describe(e));
+            return;
+        }
+        for (int i = 0; i < live.size(); i++) {
+            live.get(i).future.set(results.get(i));
+        }
+    }
+
+    private static void fail(List<Request> requests, String error) {
+        for (Request request : requests) {
+            request.future.set(RootShell.Result.failed(error));
+        }
+    }
+
+    /**
+     * Batching statistics
+     */
+    public static String getStats() {
+        long batches = batchCount.get();
+        long commands = commandCount.get();
+        int largest;
+        synchronized (lock) {
+            largest = largestBatch;
+        }
+        return String.format("Batches: %d (%d commands, largest %d, window %dms, max %d)\n" +
+                "Round-trips Saved: %d, Skipped: %d",
+                batches, commands, largest, windowMs, maxBatch, Math.max(0, commands - batches),
+                skippedCount.get());
+    }
+}
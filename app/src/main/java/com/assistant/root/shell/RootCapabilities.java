@@ -0,0 +1,192 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * What the device's root setup can do, probed once in the background and
+ * cached. The probe is redone only after a root call fails.
+ */
+public class RootCapabilities {
+    private static final String TAG = "RootCapabilities";
+    private static final long PROBE_TIMEOUT_MS = 10000;
+
+    private static final String[] TOOLS = { "uiautomator", "cmd", "input", "screencap" };
+
+    private static final AtomicReference<ListenableFuture<Info>> probe = new AtomicReference<>();
+
+    /**
+     * Result of the probe
+     */
+    public static class Info {
+        public final boolean rooted;
+        public final String suImplementation;
+        public final String suVersion;
+        public final String seLinuxMode;
+        public final Set<String> tools;
+        public final long probedAt;
+
+        Info(boolean rooted, String suImplementation, String suVersion, String seLinuxMode, Set<String> tools) {
+            this.rooted = rooted;
+            this.suImplementation = suImplementation;
+            this.suVersion = suVersion;
+            this.seLinuxMode = seLinuxMode;
+            this.tools = Collections.unmodifiableSet(tools);
+            this.probedAt = System.currentTimeMillis();
+        }
+
+        public boolean hasTool(String tool) {
+            return tools.contains(tool);
+        }
+
+        @Override
+        public String toString() {
+            if (!rooted)
+                return "Root: not granted";
+            StringBuilder toolList = new StringBuilder();
+            for (String tool : tools) {
+                if (toolList.length() > 0)
+                    toolList.append(", ");
+                toolList.append(tool);
+            }
+            return "Root: granted (" + suImplementation + " " + suVersion + ")\n" +
+                    "SELinux: " + seLinuxMode + "\n" +
+                    "Tools: " + (tools.isEmpty() ? "none" : toolList);
+        }
+    }
+
+    /**
+     * Start the probe if it hasn't run yet. Cheap to call repeatedly; every
+     * caller shares the same cached future.
+     */
+    public static ListenableFuture<Info> probe() {
+        ListenableFuture<Info> current = probe.get();
+        if (current != null)
+            return current;
+
+        ListenableFuture<Info> started = Futures.catching(
+                PriorityScheduler.submit(PriorityScheduler.Lane.NORMAL, RootCapabilities::runProbe),
+                Exception.class, e -> {
+                    Log.w(TAG, "Root probe failed: " + e.getMessage());
+                    return notRooted();
+                }, MoreExecutors.directExecutor());
+        if (probe.compareAndSet(null, started))
+            return started;
+        started.cancel(false);
+        return probe.get();
+    }
+
+    /**
+     * Cached probe result, waiting for the probe if it is still running. Don't
+     * call on the main thread; use probe() with a callback there.
+     */
+    public static Info get() {
+        try {
+            return probe().get(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return notRooted();
+        } catch (Exception e) {
+            return notRooted();
+        }
+    }
+
+    /**
+     * Cached probe result, or null if the probe hasn't finished yet
+     */
+    public static Info getIfReady() {
+        ListenableFuture<Info> current = probe.get();
+        if (current == null || !current.isDone())
+            return null;
+        return get();
+    }
+
+    /**
+     * Whether root is granted, from the cached probe
+     */
+    public static boolean isRooted() {
+        return get().rooted;
+    }
+
+    /**
+     * Forget the cached result; the next caller probes again. Called when a
+     * root shell could not be obtained.
+     */
+    public static void invalidate() {
+        ListenableFuture<Info> current = probe.get();
+        if (current != null && current.isDone() && probe.compareAndSet(current, null)) {
+            Log.d(TAG, "Root capabilities invalidated");
+        }
+    }
+
+    private static Info notRooted() {
+        return new Info(false, "", "", "", new LinkedHashSet<>());
+    }
+
+    private static Info runProbe() {
+        long start = System.currentTimeMillis();
+
+        List<String> commands = new ArrayList<>(Arrays.asList("id -u", "su -v", "su -V", "getenforce"));
+        for (String tool : TOOLS) {
+            commands.add("command -v " + tool);
+        }
+        // The whole probe in one round-trip on one shell
+        List<RootShell.Result> results;
+        try (RootShell.Lease shell = RootShell.lease(PROBE_TIMEOUT_MS)) {
+            results = shell.execAll(commands, PROBE_TIMEOUT_MS);
+        } catch (IOException e) {
+            Log.w(TAG, "Root not granted: " + e.getMessage());
+            return notRooted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return notRooted();
+        }
+
+        RootShell.Result id = results.get(0);
+        if (!id.isSuccess() || !"0".equals(id.stdout.trim())) {
+            Log.w(TAG, "Root not granted: " + id.getError());
+            return notRooted();
+        }
+
+        // `su -v` prints e.g. "26.1:MAGISK", "v0.9.5:KernelSU" or "3.1:SUPERSU"
+        String implementation = "unknown";
+        String version = results.get(1).stdout.trim();
+        int colon = version.indexOf(':');
+        if (colon >= 0) {
+            implementation = version.substring(colon + 1);
+            version = version.substring(0, colon);
+        }
+        String versionCode = results.get(2).stdout.trim();
+        if (!versionCode.isEmpty() && !versionCode.equals(version)) {
+            version = version.isEmpty() ? versionCode : version + " (" + versionCode + ")";
+        }
+
+        String seLinux = results.get(3).stdout.trim();
+        if (seLinux.isEmpty())
+            seLinux = "unknown";
+
+        Set<String> tools = new LinkedHashSet<>();
+        for (int i = 0; i < TOOLS.length; i++) {
+            RootShell.Result r = results.get(4 + i);
+            if (r.isSuccess() && !r.stdout.trim().isEmpty())
+                tools.add(TOOLS[i]);
+        }
+
+        Info info = new Info(true, implementation, version, seLinux, tools);
+        Log.d(TAG, "Probed in " + (System.currentTimeMillis() - start) + "ms\n" + info);
+        return info;
+    }
+}
@@ -0,0 +1,215 @@
+package com.assistant.root.shell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-verb metrics for root commands: calls, wall time percentiles, output
+ * volume, heap allocated reading that output, timeouts and failures, plus
+ * root shell spawns. Recorded by the shell layer and the root helper
+ * client; read back with getReport().
+ *
+ * A command's verb is the program it starts ("input", "dumpsys", "pm"...);
+ * helper requests are recorded as "helper:<verb>".
+ */
+public class RootMetrics {
+    // Latency percentiles are computed over the most recent samples per verb
+    private static final int SAMPLES = 256;
+
+    private static final Map<String, VerbStats> verbs = new TreeMap<>();
+    private static final VerbStats spawns = new VerbStats();
+
+    /**
+     * Snapshot of one verb's counters
+     */
+    public static class VerbStats {
+        public long calls;
+        public long failures;
+        public long timeouts;
+        public long bytesRead;
+        public long bytesAllocated;
+        public long totalMs;
+        public long maxMs;
+
+        private final long[] samples = new long[SAMPLES];
+        private int sampleCount;
+        private int nextSample;
+
+        void record(long durationMs, long bytes, long allocated, boolean success, boolean timedOut) {
+            calls++;
+            if (!success)
+                failures++;
+            if (timedOut)
+                timeouts++;
+            bytesRead += bytes;
+            bytesAllocated += allocated;
+            totalMs += durationMs;
+            maxMs = Math.max(maxMs, durationMs);
+            samples[nextSample] = durationMs;
+            nextSample = (nextSample + 1) % SAMPLES;
+            sampleCount = Math.min(sampleCount + 1, SAMPLES);
+        }
+
+        /**
+         * Wall time percentile (0-100) over the recent samples
+         */
+        public long percentile(double p) {
+            if (sampleCount == 0)
+                return 0;
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        public long allocatedPerCall() {
+            return calls == 0 ? 0 : bytesAllocated / calls;
+        }
+
+        public long averageMs() {
+            return calls == 0 ? 0 : totalMs / calls;
+        }
+
+        VerbStats copy() {
+            VerbStats copy = new VerbStats();
+            copy.calls = calls;
+            copy.failures = failures;
+            copy.timeouts = timeouts;
+            copy.bytesRead = bytesRead;
+            copy.bytesAllocated = bytesAllocated;
+            copy.totalMs = totalMs;
+            copy.maxMs = maxMs;
+            System.arraycopy(samples, 0, copy.samples, 0, SAMPLES);
+            copy.sampleCount = sampleCount;
+            copy.nextSample = nextSample;
+            return copy;
+        }
+    }
+
+    /**
+     * Record one finished root command
+     */
+    public static void record(String command, RootShell.Result result, long bytesRead, long bytesAllocated) {
+        record(verbOf(command), result.durationMs, bytesRead, bytesAllocated, result.isSuccess(), result.timedOut);
+    }
+
+    /**
+     * Record one finished operation under an explicit verb
+     */
+    public static void record(String verb, long durationMs, long bytesRead, long bytesAllocated, boolean success,
+            boolean timedOut) {
+        synchronized (verbs) {
+            VerbStats stats = verbs.get(verb);
+            if (stats == null) {
+                stats = new VerbStats();
+                verbs.put(verb, stats);
+            }
+            stats.record(durationMs, bytesRead, bytesAllocated, success, timedOut);
+        }
+    }
+
+    /**
+     * Record a root shell process being started
+     */
+    static void recordSpawn(long durationMs, boolean success) {
+        synchronized (verbs) {
+            spawns.record(durationMs, 0, 0, success, false);
+        }
+    }
+
+    /**
+     * Copy of the counters for one verb, or null if it was never recorded
+     */
+    public static VerbStats get(String verb) {
+        synchronized (verbs) {
+            VerbStats stats = verbs.get(verb);
+            return stats != null ? stats.copy() : null;
+        }
+    }
+
+    /**
+     * Verbs recorded so far, sorted
+     */
+    public static List<String> getVerbs() {
+        synchronized (verbs) {
+            return Collections.unmodifiableList(new ArrayList<>(verbs.keySet()));
+        }
+    }
+
+    /**
+     * Clear everything, e.g. before measuring a change
+     */
+    public static void reset() {
+        synchronized (verbs) {
+            verbs.clear();
+            spawns.calls = spawns.failures = spawns.timeouts = spawns.bytesRead = spawns.bytesAllocated = spawns.totalMs = spawns.maxMs = 0;
+            spawns.sampleCount = spawns.nextSample = 0;
+        }
+    }
+
+    /**
+     * The program a command line starts: first word of the first pipeline
+     * segment, without "su -c", env assignments or a directory prefix
+     */
+    public static String verbOf(String command) {
+        if (command == null)
+            return "?";
+        String[] words = command.trim().split("\\s+");
+        for (int w = 0; w < words.length; w++) {
+            words[w] = words[w].replaceAll("^[('\"]+", "");
+        }
+        int i = 0;
+        if (words.length > 2 && words[0].equals("su") && words[1].equals("-c"))
+            i = 2;
+        while (i < words.length && words[i].matches("[A-Za-z_][A-Za-z0-9_]*=.*"))
+            i++;
+        if (i >= words.length || words[i].isEmpty())
+            return "?";
+
+        String verb = words[i].replaceAll("[;|&)'\"]+$", "");
+        int slash = verb.lastIndexOf('/');
+        if (slash >= 0)
+            verb = verb.substring(slash + 1);
+        return verb.isEmpty() ? "?" : verb;
+    }
+
+    /**
+     * Human-readable table of all metrics
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder("📊 Root metrics\n");
+        synchronized (verbs) {
+            report.append(String.format("Spawns: %d (%d failed), avg %dms, p90 %dms, max %dms\n",
+                    spawns.calls, spawns.failures, spawns.averageMs(), spawns.percentile(90), spawns.maxMs));
+            if (verbs.isEmpty()) {
+                report.append("No commands recorded");
+                return report.toString();
+            }
+            for (Map.Entry<String, VerbStats> entry : verbs.entrySet()) {
+                VerbStats s = entry.getValue();
+                report.append(String.format(
+                        "%s: %d calls, p50 %dms, p90 %dms, p99 %dms, max %dms, %s read, %s alloc/call",
+                        entry.getKey(), s.calls, s.percentile(50), s.percentile(90), s.percentile(99), s.maxMs,
+                        formatBytes(s.bytesRead), formatBytes(s.allocatedPerCall())));
+                if (s.failures > 0)
+                    report.append(", ").append(s.failures).append(" failed");
+                if (s.timeouts > 0)
+                    report.append(", ").append(s.timeouts).append(" timed out");
+                report.append('\n');
+            }
+        }
+        return report.toString().trim();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + "B";
+        if (bytes < 1024 * 1024)
+            return String.format("%.1fKB", bytes / 1024.0);
+        return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,406 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import com.assistant.root.helper.RootHelperClient;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Runs a multi-line script one step at a time on a single root shell.
+ * Every step is framed with its own completion marker and exit status, so the
+ * next step starts as soon as the previous one finishes, and the script stops
+ * at the first step that fails. A step is one line, or a construct that spans
+ * lines (a loop, an if or case block, a { } group, a heredoc, a quoted string
+ * or a continued line) kept whole.
+ */
+public class RootScript {
+    private static final String TAG = "RootScript";
+    // Characters that end a shell word
+    private static final String OPERATORS = ";&|()<>";
+
+    /**
+     * Notified before each step is sent to the shell
+     */
+    public interface StepListener {
+        void onStep(int step, int total, String command);
+    }
+
+    /**
+     * One executed step of a script
+     */
+    public static class Step {
+        public final int index;
+        public final String command;
+        public final RootShell.Result result;
+
+        Step(int index, String command, RootShell.Result result) {
+            this.index = index;
+            this.command = command;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Outcome of a script: the steps that ran, and the failing one if any
+     */
+    public static class Result {
+        public final List<Step> steps;
+        public final int totalSteps;
+        public final long durationMs;
+        public final Step failedStep;
+
+        Result(List<Step> steps, int totalSteps, long durationMs, Step failedStep) {
+            this.steps = Collections.unmodifiableList(steps);
+            this.totalSteps = totalSteps;
+            this.durationMs = durationMs;
+            this.failedStep = failedStep;
+        }
+
+        public boolean isSuccess() {
+            return failedStep == null;
+        }
+
+        /**
+         * Combined stdout of all steps that ran
+         */
+        public String getOutput() {
+            StringBuilder out = new StringBuilder();
+            for (Step step : steps) {
+                out.append(step.result.stdout);
+            }
+            return out.toString();
+        }
+
+        /**
+         * Description of the failing step, e.g. "Step 2/4 failed with exit code: 1 (input tap 5 5)"
+         */
+        public String getError() {
+            if (failedStep == null)
+                return null;
+            RootShell.Result r = failedStep.result;
+            String reason = r.timedOut ? "timed out" : "failed with exit code: " + r.exitCode;
+            return "Step " + failedStep.index + "/" + totalSteps + " " + reason + " (" + failedStep.command + ")";
+        }
+
+        /**
+         * Per-step latency and status, one line per step
+         */
+        public String getTimings() {
+            StringBuilder sb = new StringBuilder();
+            for (Step step : steps) {
+                sb.append(step.index).append(". ")
+                        .append(step.result.isSuccess() ? "ok" : "exit " + step.result.exitCode)
+                        .append(" ").append(step.result.durationMs).append("ms  ")
+                        .append(step.command).append("\n");
+            }
+            sb.append("Total: ").append(durationMs).append("ms");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Thrown into a future chain when a script stops at a failing step
+     */
+    public static class StepFailedException extends AsyncRootShell.RootCommandException {
+        private static final long serialVersionUID = 1L;
+
+        public final Result script;
+
+        public StepFailedException(Result script) {
+            super(script.failedStep.result);
+            this.script = script;
+        }
+
+        @Override
+        public String getMessage() {
+            return script.getError();
+        }
+    }
+
+    /**
+     * Split a script into its steps: non-empty, trimmed lines, with the lines
+     * of a multi-line construct joined into one step. Heredoc bodies and
+     * lines inside a quoted string are kept as written.
+     */
+    public static List<String> parse(String script) {
+        List<String> steps = new ArrayList<>();
+        if (script == null)
+            return steps;
+        Block block = new Block();
+        for (String raw : script.split("\n")) {
+            if (raw.endsWith("\r"))
+                raw = raw.substring(0, raw.length() - 1);
+            if (block.isEmpty() && raw.trim().isEmpty())
+                continue;
+            block.add(raw);
+            if (block.isClosed()) {
+                steps.add(block.toString());
+                block = new Block();
+            }
+        }
+        // Left unclosed: the shell reports it, or the step times out
+        if (!block.isEmpty())
+            steps.add(block.toString());
+        return steps;
+    }
+
+    /**
+     * Run a script on a leased shell. The deadline covers the whole script;
+     * each step gets whatever time is left.
+     */
+    public static Result run(RootShell.Lease shell, String script, long timeoutMs, StepListener listener)
+            throws IOException {
+        List<String> lines = parse(script);
+        List<Step> steps = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMs;
+        Step failed = null;
+
+        for (int i = 0; i < lines.size(); i++) {
+            String command = lines.get(i);
+            if (shell.isAborted() || Thread.currentThread().isInterrupted())
+                throw new CancellationException("Script cancelled at step " + (i + 1));
+            if (listener != null)
+                listener.onStep(i + 1, lines.size(), command);
+
+            RootShell.Result result = helperInput(command);
+            if (result == null)
+                result = shell.exec(command, Math.max(1, deadline - System.currentTimeMillis()));
+            Step step = new Step(i + 1, command, result);
+            steps.add(step);
+            Log.d(TAG, "Step " + step.index + "/" + lines.size() + " exit " + result.exitCode
+                    + " in " + result.durationMs + "ms: " + command);
+
+            if (!result.isSuccess()) {
+                failed = step;
+                break;
+            }
+        }
+
+        return new Result(steps, lines.size(), System.currentTimeMillis() - start, failed);
+    }
+
+    /**
+     * Input steps go to the resident helper when it is running, which skips
+     * starting the `input` VM; null leaves the step to the shell
+     */
+    private static RootShell.Result helperInput(String command) {
+        if (!command.startsWith("input ") || command.indexOf('\n') >= 0)
+            return null;
+        long start = System.currentTimeMillis();
+        if (!RootHelperClient.get().input(command))
+            return null;
+        return new RootShell.Result("", "", 0, System.currentTimeMillis() - start, false, false, false);
+    }
+
+    /**
+     * Lines of one step, scanned just far enough to tell whether a construct
+     * is still open: quotes, escapes, comments, heredocs, trailing operators,
+     * and reserved words in command position.
+     */
+    private static final class Block {
+        private final StringBuilder text = new StringBuilder();
+        private int lines;
+        // Open if/case/loop/{ } constructs
+        private int depth;
+        private char quote;
+        // The next line continues this one: a trailing backslash, an open quote, or an operator
+        private boolean continued;
+        // Set when the last thing on a line was | || or &&
+        private boolean continuedByOperator;
+        // Heredocs started on the last scanned line, and the one being read
+        private final ArrayDeque<Heredoc> heredocs = new ArrayDeque<>();
+
+        private static final class Heredoc {
+            final String delimiter;
+            final boolean stripTabs;
+
+            Heredoc(String delimiter, boolean stripTabs) {
+                this.delimiter = delimiter;
+                this.stripTabs = stripTabs;
+            }
+        }
+
+        boolean isEmpty() {
+            return lines == 0;
+        }
+
+        boolean isClosed() {
+            return depth <= 0 && quote == 0 && !continued && heredocs.isEmpty();
+        }
+
+        void add(String raw) {
+            if (lines++ > 0)
+                text.append('\n');
+            if (!heredocs.isEmpty()) {
+                text.append(raw);
+                Heredoc heredoc = heredocs.peek();
+                String end = heredoc.stripTabs ? raw.replaceFirst("^\t+", "") : raw;
+                if (end.equals(heredoc.delimiter))
+                    heredocs.poll();
+                return;
+            }
+            String line = quote != 0 ? raw : raw.trim();
+            text.append(line);
+            scan(line);
+        }
+
+        /**
+         * Track what the line opens and closes. A line that starts inside a
+         * quote or after a trailing backslash continues the last word.
+         */
+        private void scan(String line) {
+            boolean commandPosition = quote == 0 && !continued || continuedByOperator;
+            continued = false;
+            continuedByOperator = false;
+            StringBuilder word = new StringBuilder();
+            boolean quoted = false;
+            int length = line.length();
+
+            for (int i = 0; i < length; i++) {
+                char c = line.charAt(i);
+                if (quote == '\'') {
+                    if (c == '\'')
+                        quote = 0;
+                    continue;
+                }
+                if (quote == '"') {
+                    if (c == '\\')
+                        i++;
+                    else if (c == '"')
+                        quote = 0;
+                    continue;
+                }
+                if (c == '\\') {
+                    if (i == length - 1) {
+                        continued = true;
+                        return;
+                    }
+                    i++;
+                    quoted = true;
+                    continue;
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                    quoted = true;
+                    continue;
+                }
+                if (c == '#' && word.length() == 0 && !quoted)
+                    break;
+                if (!Character.isWhitespace(c) && OPERATORS.indexOf(c) < 0) {
+                    word.append(c);
+                    continuedByOperator = false;
+                    continue;
+                }
+
+                commandPosition = endWord(word, quoted, commandPosition);
+                word.setLength(0);
+                quoted = false;
+                if (Character.isWhitespace(c))
+                    continue;
+
+                continuedByOperator = false;
+                if (line.startsWith("<<<", i)) {
+                    // A here-string, which has no body
+                    i += 2;
+                    commandPosition = false;
+                } else if (line.startsWith("<<", i)) {
+                    i = heredoc(line, i + 2) - 1;
+                    commandPosition = false;
+                } else if (c == '<' || c == '>') {
+                    // A file name follows
+                    commandPosition = false;
+                } else if (c == '|' || c == '&' && i + 1 < length && line.charAt(i + 1) == '&') {
+                    if (c == '&' || i + 1 < length && line.charAt(i + 1) == '|')
+                        i++;
+                    continuedByOperator = true;
+                    commandPosition = true;
+                } else {
+                    // ; & ( )
+                    commandPosition = true;
+                }
+            }
+            if (quote == 0) {
+                endWord(word, quoted, commandPosition);
+                continued = continuedByOperator;
+            } else {
+                continued = true;
+            }
+        }
+
+        /**
+         * Count an unquoted reserved word in command position. Returns
+         * whether the next word is in command position.
+         */
+        private boolean endWord(StringBuilder word, boolean quoted, boolean commandPosition) {
+            if (word.length() == 0)
+                return commandPosition;
+            if (!commandPosition || quoted)
+                return false;
+            switch (word.toString()) {
+                case "if":
+                case "while":
+                case "until":
+                case "{":
+                    depth++;
+                    return true;
+                case "case":
+                case "for":
+                case "select":
+                    depth++;
+                    return false;
+                case "fi":
+                case "done":
+                case "esac":
+                case "}":
+                    depth--;
+                    return false;
+                case "then":
+                case "do":
+                case "else":
+                case "elif":
+                case "!":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Queue the heredoc whose delimiter starts at from (after "<<"), and
+         * return where the delimiter ends
+         */
+        private int heredoc(String line, int from) {
+            int i = from;
+            boolean stripTabs = i < line.length() && line.charAt(i) == '-';
+            if (stripTabs)
+                i++;
+            while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t'))
+                i++;
+            // Quoting the delimiter only changes expansion in the body
+            StringBuilder delimiter = new StringBuilder();
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (Character.isWhitespace(c) || OPERATORS.indexOf(c) >= 0)
+                    break;
+                if (c != '\'' && c != '"' && c != '\\')
+                    delimiter.append(c);
+                i++;
+            }
+            if (delimiter.length() > 0)
+                heredocs.add(new Heredoc(delimiter.toString(), stripTabs));
+            return i;
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
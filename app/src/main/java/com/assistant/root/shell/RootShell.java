@@ -0,0 +1,969 @@
+package com.assistant.root.shell;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of long-lived root shells.
+ * Each command is framed with a unique sentinel carrying its exit code, so
+ * callers share warm `su` sessions instead of forking a new one per call.
+ */
+public class RootShell {
+    private static final String TAG = "RootShell";
+
+    public static final long DEFAULT_TIMEOUT_MS = 30000;
+    private static final int MAX_SESSIONS = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final BlockingQueue<Session> idleSessions = new LinkedBlockingQueue<>();
+    private static final AtomicInteger openSessions = new AtomicInteger();
+    private static final AtomicInteger sessionIds = new AtomicInteger();
+    private static final AtomicLong markerSeq = new AtomicLong();
+
+    private static final AtomicLong spawnCount = new AtomicLong();
+    private static final AtomicLong spawnTimeMs = new AtomicLong();
+    private static final AtomicLong reuseCount = new AtomicLong();
+    private static final AtomicLong deadSessions = new AtomicLong();
+
+    static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "RootShell-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Outcome of a single framed command
+     */
+    public static class Result {
+        public final String stdout;
+        public final String stderr;
+        public final int exitCode;
+        public final long durationMs;
+        public final boolean timedOut;
+        public final boolean shellUnavailable;
+        public final boolean stoppedEarly;
+
+        Result(String stdout, String stderr, int exitCode, long durationMs, boolean timedOut,
+                boolean shellUnavailable, boolean stoppedEarly) {
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.exitCode = exitCode;
+            this.durationMs = durationMs;
+            this.timedOut = timedOut;
+            this.shellUnavailable = shellUnavailable;
+            this.stoppedEarly = stoppedEarly;
+        }
+
+        static Result failed(String error) {
+            return new Result("", error != null ? error : "Root shell unavailable", -1, 0, false, true, false);
+        }
+
+        /**
+         * True when the command finished with exit code 0, or when the caller
+         * stopped it early after getting what it needed
+         */
+        public boolean isSuccess() {
+            return (exitCode == 0 || stoppedEarly) && !timedOut;
+        }
+
+        /**
+         * Error text suitable for callbacks: stderr if present, otherwise the exit code
+         */
+        public String getError() {
+            if (timedOut)
+                return "Command timed out after " + durationMs + "ms";
+            if (stderr != null && !stderr.trim().isEmpty())
+                return stderr.trim();
+            return "Command failed with exit code: " + exitCode;
+        }
+    }
+
+    /**
+     * Run a command in a pooled root shell with the default timeout
+     */
+    public static Result run(String command) {
+        return run(command, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Run a command in a pooled root shell. Never throws; failures to obtain a
+     * shell are reported as a result with exit code -1.
+     */
+    public static Result run(String command, long timeoutMs) {
+        try (Lease lease = lease(timeoutMs)) {
+            return lease.exec(command, timeoutMs);
+        } catch (Exception e) {
+            Log.e(TAG, "Root command failed: " + e.getMessage());
+            return Result.failed(e.getMessage());
+        }
+    }
+
+    /**
+     * Receives output lines as the shell emits them
+     */
+    public interface LineConsumer {
+        /**
+         * Return false to stop reading. The command is cut short and the session
+         * is cleaned up in the background, so the caller returns immediately.
+         */
+        boolean onLine(String line, boolean stderr);
+    }
+
+    /**
+     * A LineConsumer that takes a long line (e.g. a UI dump) in pieces as it
+     * arrives rather than joined into one string. The pieces of a line are
+     * followed by onLine with the rest of it.
+     */
+    public interface FragmentConsumer extends LineConsumer {
+        /**
+         * Return false to stop reading, as for onLine
+         */
+        boolean onFragment(String fragment, boolean stderr);
+    }
+
+    /**
+     * Run a command in a pooled root shell, pushing stdout and stderr lines to
+     * the consumer as they arrive instead of buffering them. The result's
+     * stdout is empty; stderr is still collected for error reporting.
+     */
+    public static Result stream(String command, long timeoutMs, LineConsumer consumer) {
+        try (Lease lease = lease(timeoutMs)) {
+            return lease.stream(command, timeoutMs, consumer);
+        } catch (Exception e) {
+            Log.e(TAG, "Root command failed: " + e.getMessage());
+            return Result.failed(e.getMessage());
+        }
+    }
+
+    /**
+     * Borrow one session for a sequence of commands that must share a shell.
+     * Close the lease to return the session to the pool.
+     */
+    public static Lease lease() throws IOException, InterruptedException {
+        return lease(DEFAULT_TIMEOUT_MS);
+    }
+
+    public static Lease lease(long waitMs) throws IOException, InterruptedException {
+        return new Lease(acquire(System.currentTimeMillis() + waitMs));
+    }
+
+    /**
+     * Exclusive handle on a pooled session
+     */
+    public static class Lease implements Closeable {
+        private volatile Session session;
+        private volatile boolean aborted;
+
+        Lease(Session session) {
+            this.session = session;
+        }
+
+        public Result exec(String command) throws IOException {
+            return exec(command, DEFAULT_TIMEOUT_MS);
+        }
+
+        /**
+         * Execute a command and wait for its sentinel. A session that died while
+         * idle is replaced once before the command is written.
+         */
+        public Result exec(String command, long timeoutMs) throws IOException {
+            return stream(command, timeoutMs, null);
+        }
+
+        /**
+         * Execute independent commands in one round-trip, returning one result
+         * per command in order. The whole batch must finish within timeoutMs.
+         */
+        public List<Result> execAll(List<String> commands, long timeoutMs) throws IOException {
+            long[] deadlines = new long[commands.size()];
+            Arrays.fill(deadlines, System.currentTimeMillis() + timeoutMs);
+            return execAll(commands, deadlines, null);
+        }
+
+        /**
+         * Execute independent commands in one round-trip, each read until its
+         * own absolute deadline, so time spent on the commands before it
+         * counts against it. A command that times out is killed without
+         * ending the shell, so the ones after it still run. A command whose
+         * caller (if given) is already done when its turn comes is not waited
+         * for. The commands are all written up front, so such a command may
+         * still run: only batch commands that don't change device state.
+         */
+        public List<Result> execAll(List<String> commands, long[] deadlines, List<? extends Future<?>> callers)
+                throws IOException {
+            if (session == null)
+                throw new IOException("Lease already closed");
+            if (aborted)
+                throw new IOException("Lease aborted");
+
+            session.takeAllocatedBytes();
+            List<Result> results = null;
+            try {
+                results = session.execAll(commands, deadlines, callers);
+            } catch (StaleSessionException e) {
+                Log.w(TAG, "Session " + session.id + " was dead, respawning");
+                discard(session);
+                session = null;
+                openSessions.incrementAndGet();
+                session = spawnCounted();
+                results = session.execAll(commands, deadlines, callers);
+            } finally {
+                // The batch's allocation is shared out by output size
+                long allocated = session != null ? session.takeAllocatedBytes() : 0;
+                long totalOutput = 0;
+                if (results != null) {
+                    for (Result result : results) {
+                        totalOutput += result.stdout.length() + result.stderr.length();
+                    }
+                }
+                for (int i = 0; i < commands.size(); i++) {
+                    String command = commands.get(i);
+                    QueryCache.onCommand(command);
+                    Result result = results != null ? results.get(i) : Result.failed("Batch failed");
+                    long output = result.stdout.length() + result.stderr.length();
+                    long share = totalOutput > 0 ? allocated * output / totalOutput : allocated / commands.size();
+                    RootMetrics.record(command, result, output, share);
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Execute a command, streaming its lines to the consumer (or collecting
+         * them into the result when the consumer is null)
+         */
+        public Result stream(String command, long timeoutMs, LineConsumer consumer) throws IOException {
+            if (session == null)
+                throw new IOException("Lease already closed");
+            if (aborted)
+                throw new IOException("Lease aborted");
+
+            // Streamed stdout never reaches the result, so count it on the way past
+            long start = System.currentTimeMillis();
+            long[] streamed = new long[1];
+            LineConsumer counting = consumer == null ? null : (line, stderr) -> {
+                if (!stderr)
+                    streamed[0] += line.length() + 1;
+                return consumer.onLine(line, stderr);
+            };
+            if (consumer instanceof FragmentConsumer) {
+                FragmentConsumer pieces = (FragmentConsumer) consumer;
+                LineConsumer lines = counting;
+                counting = new FragmentConsumer() {
+                    @Override
+                    public boolean onLine(String line, boolean stderr) {
+                        return lines.onLine(line, stderr);
+                    }
+
+                    @Override
+                    public boolean onFragment(String fragment, boolean stderr) {
+                        if (!stderr)
+                            streamed[0] += fragment.length();
+                        return pieces.onFragment(fragment, stderr);
+                    }
+                };
+            }
+
+            session.takeAllocatedBytes();
+            Result result = null;
+            try {
+                result = session.exec(command, timeoutMs, counting);
+            } catch (StaleSessionException e) {
+                Log.w(TAG, "Session " + session.id + " was dead, respawning");
+                discard(session);
+                session = null;
+                openSessions.incrementAndGet();
+                session = spawnCounted();
+                result = session.exec(command, timeoutMs, counting);
+            } finally {
+                QueryCache.onCommand(command);
+                long allocated = session != null ? session.takeAllocatedBytes() : 0;
+                if (result != null) {
+                    RootMetrics.record(command, result,
+                            streamed[0] + result.stdout.length() + result.stderr.length(), allocated);
+                } else {
+                    RootMetrics.record(RootMetrics.verbOf(command), System.currentTimeMillis() - start, 0,
+                            allocated, false, false);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Kill the underlying shell from another thread. A command in flight returns
+         * immediately and the session is discarded when the lease is closed.
+         */
+        public void abort() {
+            aborted = true;
+            Session s = session;
+            if (s != null) {
+                Log.w(TAG, "Aborting session " + s.id);
+                s.abort();
+            }
+        }
+
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        @Override
+        public void close() {
+            if (session != null) {
+                release(session);
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * Close all idle sessions (e.g. when the voice service stops)
+     */
+    public static void shutdown() {
+        Session s;
+        while ((s = idleSessions.poll()) != null) {
+            discard(s);
+        }
+        Log.d(TAG, "Idle root sessions closed");
+    }
+
+    /**
+     * Get pool statistics including an estimate of spawn time saved by reuse
+     */
+    public static String getStats() {
+        long spawns = spawnCount.get();
+        long avgSpawn = spawns == 0 ? 0 : spawnTimeMs.get() / spawns;
+        long reused = reuseCount.get();
+
+        return "Root Sessions: " + openSessions.get() + " open, " + idleSessions.size() + " idle\n" +
+                "Spawns: " + spawns + " (avg " + avgSpawn + "ms)\n" +
+                "Reused: " + reused + "\n" +
+                "Dead Sessions Recovered: " + deadSessions.get() + "\n" +
+                "Spawn Time Saved: ~" + (reused * avgSpawn) + "ms";
+    }
+
+    private static Session acquire(long deadline) throws IOException, InterruptedException {
+        while (true) {
+            Session s;
+            while ((s = idleSessions.poll()) != null) {
+                if (s.isAlive()) {
+                    reuseCount.incrementAndGet();
+                    return s;
+                }
+                discard(s);
+            }
+
+            // One extra session is kept in reserve for interactive work, so a
+            // warmup holding the pool never makes the user wait
+            int limit = PriorityScheduler.currentLane() == PriorityScheduler.Lane.INTERACTIVE
+                    ? MAX_SESSIONS + 1 : MAX_SESSIONS;
+            if (openSessions.incrementAndGet() <= limit) {
+                return spawnCounted();
+            }
+            openSessions.decrementAndGet();
+
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                throw new IOException("Timed out waiting for a root shell");
+
+            s = idleSessions.poll(wait, TimeUnit.MILLISECONDS);
+            if (s == null)
+                throw new IOException("Timed out waiting for a root shell");
+            if (s.isAlive()) {
+                reuseCount.incrementAndGet();
+                return s;
+            }
+            discard(s);
+        }
+    }
+
+    /**
+     * Spawn a session for a slot already reserved in openSessions
+     */
+    private static Session spawnCounted() throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            Session s = Session.spawn();
+            RootMetrics.recordSpawn(System.currentTimeMillis() - start, true);
+            return s;
+        } catch (IOException e) {
+            RootMetrics.recordSpawn(System.currentTimeMillis() - start, false);
+            openSessions.decrementAndGet();
+            // Root may have been revoked; make the next capability check re-probe
+            RootCapabilities.invalidate();
+            throw e;
+        }
+    }
+
+    private static void release(Session s) {
+        if (s.hasPendingCommand()) {
+            // A command was stopped early; let it finish off the caller's thread
+            AsyncRootShell.executor.execute(() -> {
+                if (s.finishPendingCommand()) {
+                    idleSessions.offer(s);
+                } else {
+                    discard(s);
+                }
+            });
+        } else if (s.isAlive()) {
+            idleSessions.offer(s);
+        } else {
+            discard(s);
+        }
+    }
+
+    private static void discard(Session s) {
+        if (s.discarded)
+            return;
+        s.discarded = true;
+        if (!s.isAlive())
+            deadSessions.incrementAndGet();
+        s.kill();
+        openSessions.decrementAndGet();
+    }
+
+    private static String nextMarker() {
+        return "__ROOTSHELL_" + Long.toHexString(System.nanoTime()) + "_" + markerSeq.incrementAndGet() + "__";
+    }
+
+    /**
+     * Thrown when a session is found dead before the command was written
+     */
+    static class StaleSessionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleSessionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One `su` process. Both streams are drained by pump threads into a single
+     * queue, so a chatty stderr can never block the shell, lines arrive in the
+     * order they were read, and a deadline never depends on su closing its pipes.
+     */
+    static class Session {
+        private static final long PENDING_DRAIN_MS = 2000;
+        // Longest abort() waits for the running command to be killed
+        private static final long KILL_WAIT_MS = 500;
+        private static final long STDERR_GRACE_MS = 1000;
+        // Rough heap cost of one queued line besides its chars (String, Line, queue node)
+        private static final int LINE_OVERHEAD_BYTES = 64;
+
+        /**
+         * One line from either stream
+         */
+        private static final class Line {
+            // End of one stream; the shell is gone once stdout has ended
+            static final Line STDOUT_EOF = new Line(null, false);
+            static final Line STDERR_EOF = new Line(null, true);
+
+            final String text;
+            final boolean stderr;
+            // A piece of a long line; the line's end follows as a whole Line
+            final boolean partial;
+
+            Line(String text, boolean stderr) {
+                this(text, stderr, false);
+            }
+
+            Line(String text, boolean stderr, boolean partial) {
+                this.text = text;
+                this.stderr = stderr;
+                this.partial = partial;
+            }
+        }
+
+        final int id;
+        private final Process process;
+        private final OutputStream stdin;
+        private final BlockingQueue<Line> lines = new LinkedBlockingQueue<>();
+        // Lines read past a stream's marker, handed on to the next command
+        // (in a pipelined batch, the next command's own output)
+        private ArrayDeque<Line> carried = new ArrayDeque<>();
+        // Heap allocated reading output since last taken; one command runs at a time
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private volatile int shellPid = -1;
+        private volatile boolean closed;
+        private volatile boolean discarded;
+
+        // Framing state of a command that was stopped before its sentinels arrived
+        private String pendingMarker;
+        private boolean pendingStdout;
+        private boolean pendingStderr;
+
+        Session(int id, Process process) {
+            this.id = id;
+            this.process = process;
+            this.stdin = process.getOutputStream();
+            startPump(process.getInputStream(), false, "RootShell-stdout-" + id);
+            startPump(process.getErrorStream(), true, "RootShell-stderr-" + id);
+        }
+
+        private void startPump(InputStream stream, boolean stderr, String name) {
+            Thread pump = new Thread(() -> {
+                try {
+                    // Each line is copied out of the pooled decode buffer exactly once;
+                    // a long one goes out in pieces as it arrives, never joined here
+                    StreamDecoder.readLines(stream, new StreamDecoder.FragmentSink() {
+                        @Override
+                        public boolean onLine(CharSequence view) {
+                            return queue(view, stderr, false);
+                        }
+
+                        @Override
+                        public boolean onFragment(CharSequence view) {
+                            return queue(view, stderr, true);
+                        }
+                    });
+                } catch (IOException ignored) {
+                } finally {
+                    lines.offer(stderr ? Line.STDERR_EOF : Line.STDOUT_EOF);
+                }
+            }, name);
+            pump.setDaemon(true);
+            pump.start();
+        }
+
+        private boolean queue(CharSequence view, boolean stderr, boolean partial) {
+            String text = view.toString();
+            long size = LINE_OVERHEAD_BYTES + 2L * text.length();
+            allocatedBytes.addAndGet(size);
+            BufferPool.countAllocation(size);
+            lines.offer(new Line(text, stderr, partial));
+            return true;
+        }
+
+        static Session spawn() throws IOException {
+            long start = System.currentTimeMillis();
+            Session s = new Session(sessionIds.incrementAndGet(), new ProcessBuilder("su").start());
+
+            // Handshake: a session only counts once su is ready to run commands.
+            // The shell pid lets an abort clean up children that outlive su.
+            Result hello = s.exec("echo $$", 10000, null);
+            if (!hello.isSuccess()) {
+                s.kill();
+                throw new IOException("Root shell unavailable: " + hello.getError());
+            }
+            s.shellPid = parseExitCode(hello.stdout.trim());
+
+            long elapsed = System.currentTimeMillis() - start;
+            spawnCount.incrementAndGet();
+            spawnTimeMs.addAndGet(elapsed);
+            Log.d(TAG, "Spawned root session " + s.id + " in " + elapsed + "ms");
+            return s;
+        }
+
+        boolean isAlive() {
+            if (closed)
+                return false;
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Heap allocated reading output since the last call
+         */
+        long takeAllocatedBytes() {
+            return allocatedBytes.getAndSet(0);
+        }
+
+        boolean hasPendingCommand() {
+            return pendingMarker != null && isAlive();
+        }
+
+        Result exec(String command, long timeoutMs, LineConsumer consumer) throws IOException {
+            String marker = nextMarker();
+            write(frame(command, marker));
+            return await(marker, timeoutMs, consumer, true);
+        }
+
+        /**
+         * Run several commands in one round-trip: all of them are written at once
+         * and the framed results are read back in order, each until its own
+         * deadline. A command that times out, or whose caller has given up, is
+         * skipped over (killing it if it's still running) so the ones after it
+         * still get their results. If one command kills the shell, the
+         * commands after it report a failed result.
+         */
+        List<Result> execAll(List<String> commands, long[] deadlines, List<? extends Future<?>> callers)
+                throws IOException {
+            String[] markers = new String[commands.size()];
+            StringBuilder script = new StringBuilder();
+            for (int i = 0; i < markers.length; i++) {
+                markers[i] = nextMarker();
+                script.append(frame(commands.get(i), markers[i]));
+            }
+            write(script.toString());
+
+            List<Result> results = new ArrayList<>(markers.length);
+            boolean stuck = false;
+            for (int i = 0; i < markers.length; i++) {
+                // The command before this one was left unread; a timed-out one is
+                // killed at once, one nobody waits for gets this one's time to finish
+                if (pendingMarker != null) {
+                    long waitMs = stuck ? 0 : Math.min(PENDING_DRAIN_MS, deadlines[i] - System.currentTimeMillis());
+                    if (!skipPendingOutput(waitMs))
+                        kill();
+                }
+                if (closed) {
+                    results.add(Result.failed("Shell ended before the command ran"));
+                    continue;
+                }
+                long remaining = deadlines[i] - System.currentTimeMillis();
+                Future<?> caller = callers != null ? callers.get(i) : null;
+                if (remaining <= 0 || (caller != null && caller.isDone())) {
+                    pendingMarker = markers[i];
+                    pendingStdout = false;
+                    pendingStderr = false;
+                    stuck = false;
+                    results.add(new Result("", "Caller gave up before the command was read", -1, 0, true,
+                            false, false));
+                    continue;
+                }
+                Result result = await(markers[i], remaining, null, false);
+                stuck = result.timedOut;
+                results.add(result);
+            }
+            if (stuck && pendingMarker != null && !skipPendingOutput(0))
+                kill();
+            return results;
+        }
+
+        private static String frame(String command, String marker) {
+            return command + "\n" +
+                    "echo \"" + marker + " $?\"\n" +
+                    "echo \"" + marker + "\" >&2\n";
+        }
+
+        private void write(String framed) throws IOException {
+            if (pendingMarker != null && !finishPendingCommand())
+                kill();
+            if (!isAlive())
+                throw new StaleSessionException("Session " + id + " is not running");
+
+            try {
+                stdin.write(framed.getBytes(UTF8));
+                stdin.flush();
+            } catch (IOException e) {
+                kill();
+                throw new StaleSessionException("Session " + id + " rejected write: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Read the output of one framed command up to its markers. On timeout
+         * the session is aborted, or with abortOnTimeout false only left with
+         * the command pending so the caller can kill it and move on.
+         */
+        private Result await(String marker, long timeoutMs, LineConsumer consumer, boolean abortOnTimeout) {
+            long start = System.currentTimeMillis();
+            long deadline = start + timeoutMs;
+
+            // The two streams are independent pipes, so output that follows one
+            // stream's marker (e.g. from a backgrounded process) belongs to the next read
+            ArrayDeque<Line> replay = carried;
+            carried = new ArrayDeque<>();
+
+            TextBuffer out = consumer == null ? TextBuffer.obtain() : null;
+            TextBuffer err = TextBuffer.obtain();
+            FragmentConsumer pieces = consumer instanceof FragmentConsumer ? (FragmentConsumer) consumer : null;
+            // Per stream: pieces of a long line, joined for a consumer that wants
+            // whole lines, and whether the current line came in pieces at all
+            StringBuilder[] joined = new StringBuilder[2];
+            boolean[] inPieces = new boolean[2];
+            int exitCode = -1;
+            boolean stdoutDone = false;
+            boolean stderrDone = false;
+            boolean ended = false;
+            boolean timedOut = false;
+            boolean stoppedEarly = false;
+
+            try {
+                while (!(stdoutDone && stderrDone)) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (stdoutDone) {
+                        // The stderr sentinel follows right after; don't wait the full deadline
+                        remaining = Math.min(remaining, STDERR_GRACE_MS);
+                    }
+                    Line line = !replay.isEmpty() ? replay.poll()
+                            : remaining > 0 ? lines.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                    if (line == null) {
+                        timedOut = !stdoutDone;
+                        break;
+                    }
+                    if (line == Line.STDERR_EOF) {
+                        // stdout may still hold the marker
+                        stderrDone = true;
+                        continue;
+                    }
+                    if (line == Line.STDOUT_EOF) {
+                        ended = true;
+                        break;
+                    }
+                    if (line.stderr ? stderrDone : stdoutDone) {
+                        carried.add(line);
+                        continue;
+                    }
+
+                    int stream = line.stderr ? 1 : 0;
+                    if (line.partial) {
+                        // Never holds the marker, which arrives with the line's end
+                        inPieces[stream] = true;
+                        if (line.stderr) {
+                            err.append(line.text);
+                        } else if (out != null) {
+                            out.append(line.text);
+                        }
+                        if (pieces != null) {
+                            if (!stoppedEarly && !pieces.onFragment(line.text, line.stderr)) {
+                                stoppedEarly = true;
+                                if (!stdoutDone)
+                                    break;
+                            }
+                        } else if (consumer != null) {
+                            if (joined[stream] == null)
+                                joined[stream] = new StringBuilder();
+                            joined[stream].append(line.text);
+                        }
+                        continue;
+                    }
+
+                    String text = line.text;
+                    int idx = text.indexOf(marker);
+                    if (idx >= 0) {
+                        // Output without a trailing newline shares the marker's line
+                        text = text.substring(0, idx);
+                        if (line.stderr) {
+                            stderrDone = true;
+                        } else {
+                            exitCode = parseExitCode(line.text.substring(idx + marker.length()).trim());
+                            stdoutDone = true;
+                        }
+                        if (text.isEmpty() && !inPieces[stream])
+                            continue;
+                    }
+                    inPieces[stream] = false;
+
+                    if (line.stderr) {
+                        err.append(text).append('\n');
+                    } else if (out != null) {
+                        out.append(text).append('\n');
+                    }
+                    String whole = text;
+                    if (joined[stream] != null) {
+                        whole = joined[stream].append(text).toString();
+                        joined[stream] = null;
+                    }
+                    if (consumer != null && !stoppedEarly && !consumer.onLine(whole, line.stderr)) {
+                        stoppedEarly = true;
+                        if (!stdoutDone)
+                            break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Unread lines (the rest of a stopped command, or the next one's) stay
+            // ahead of the queue; finishPendingCommand skips the stopped command's share
+            carried.addAll(replay);
+
+            if (timedOut && abortOnTimeout) {
+                Log.w(TAG, "Session " + id + " timed out after " + timeoutMs + "ms, killing");
+                abort();
+            } else if (ended && !stdoutDone) {
+                // Shell ended before the sentinel (e.g. the command ran `exit`)
+                exitCode = closedExitCode();
+                kill();
+            } else if (!stdoutDone || !stderrDone) {
+                if (timedOut)
+                    Log.w(TAG, "Session " + id + " timed out after " + timeoutMs + "ms, skipping the command");
+                // Remember the framing so the rest of the output can be skipped later
+                pendingMarker = marker;
+                pendingStdout = stdoutDone;
+                pendingStderr = stderrDone;
+            }
+
+            String stdout = out != null ? out.toString() : "";
+            String stderr = err.toString();
+            if (out != null)
+                out.close();
+            err.close();
+            long size = 2L * (stdout.length() + stderr.length());
+            allocatedBytes.addAndGet(size);
+            BufferPool.countAllocation(size);
+            return new Result(stdout, stderr, exitCode,
+                    System.currentTimeMillis() - start, timedOut, false, stoppedEarly);
+        }
+
+        /**
+         * Skip the remaining output of a command that was stopped early. If it
+         * doesn't finish on its own, its children are killed so the shell moves on.
+         * Returns false if the session could not be brought back to a clean state.
+         */
+        boolean finishPendingCommand() {
+            return skipPendingOutput(PENDING_DRAIN_MS) && isAlive();
+        }
+
+        /**
+         * Skip the stopped command's output up to its markers, giving it waitMs
+         * to finish on its own. The shell may have exited since with later
+         * output still queued, so this doesn't require it to be alive. Returns
+         * false if the markers never came.
+         */
+        private boolean skipPendingOutput(long waitMs) {
+            String marker = pendingMarker;
+            if (marker == null)
+                return true;
+
+            boolean clean = skipUntil(marker, waitMs);
+            if (!clean && isAlive()) {
+                Log.d(TAG, "Session " + id + " still busy, killing the stopped command");
+                killChildren();
+                clean = skipUntil(marker, PENDING_DRAIN_MS);
+            }
+            pendingMarker = null;
+            return clean;
+        }
+
+        private boolean skipUntil(String marker, long waitMs) {
+            long deadline = System.currentTimeMillis() + waitMs;
+            // Lines on a stream past its marker belong to whatever runs next
+            ArrayDeque<Line> kept = new ArrayDeque<>();
+            try {
+                while (!(pendingStdout && pendingStderr)) {
+                    // The stopped command's unread output was carried over; scan it first
+                    Line line;
+                    if (!carried.isEmpty()) {
+                        line = carried.poll();
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        // Out of time, but what is already queued may still hold the marker
+                        line = remaining > 0 ? lines.poll(remaining, TimeUnit.MILLISECONDS) : lines.poll();
+                    }
+                    if (line == Line.STDERR_EOF) {
+                        // stdout may still hold the marker, as in await
+                        pendingStderr = true;
+                        continue;
+                    }
+                    if (line == null || line.text == null)
+                        return false;
+                    if (line.stderr ? pendingStderr : pendingStdout) {
+                        kept.add(line);
+                        continue;
+                    }
+                    if (!line.partial && line.text.contains(marker)) {
+                        if (line.stderr) {
+                            pendingStderr = true;
+                        } else {
+                            pendingStdout = true;
+                        }
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                kept.addAll(carried);
+                carried = kept;
+            }
+        }
+
+        private int closedExitCode() {
+            try {
+                if (process.waitFor(500, TimeUnit.MILLISECONDS))
+                    return process.exitValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return -1;
+        }
+
+        private static int parseExitCode(String s) {
+            try {
+                return Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Kill the children of the shell (the running command) but keep the
+         * shell itself, which then continues with the next framed line
+         */
+        private void killChildren() {
+            if (shellPid <= 0)
+                return;
+            Process pkill;
+            try {
+                pkill = new ProcessBuilder("su", "-c", "pkill -9 -P " + shellPid).start();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not kill children of session " + id + ": " + e.getMessage());
+                return;
+            }
+            // Wait for it even if interrupted (a cancelled caller usually is): if
+            // the shell is destroyed first, its children are reparented and no
+            // longer match -P
+            boolean interrupted = false;
+            long deadline = System.currentTimeMillis() + KILL_WAIT_MS;
+            try {
+                while (true) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    try {
+                        if (remaining <= 0 || pkill.waitFor(remaining, TimeUnit.MILLISECONDS))
+                            break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                pkill.destroy();
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Kill the session while a command may still be running. Children of the
+         * shell (e.g. a long `sleep` or `uiautomator`) are killed as well, since
+         * destroying su alone can leave them holding the pipes open.
+         */
+        void abort() {
+            if (!closed)
+                killChildren();
+            kill();
+        }
+
+        void kill() {
+            closed = true;
+            try {
+                stdin.close();
+            } catch (IOException ignored) {
+            }
+            process.destroy();
+            // Wake up any reader waiting on this session
+            lines.offer(Line.STDOUT_EOF);
+        }
+    }
+}
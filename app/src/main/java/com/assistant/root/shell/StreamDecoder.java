@@ -0,0 +1,210 @@
+package com.assistant.root.shell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Incremental UTF-8 decoder for process output. Bytes are read straight into
+ * a pooled ByteBuffer and decoded into a pooled char buffer; lines are
+ * handed out as CharSequence views of that buffer instead of new strings.
+ *
+ * A line longer than the buffer (e.g. a whole UI hierarchy on one line)
+ * grows it, unless the sink is a FragmentSink, which gets such a line in
+ * pieces as it arrives instead. Malformed bytes are replaced rather than
+ * failing the read.
+ */
+public class StreamDecoder implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // A partial line this long goes to a FragmentSink rather than being held
+    private static final int FRAGMENT_CHARS = BufferPool.CHAR_BUFFER_SIZE / 2;
+    // Held back from each fragment, so a short token at the end of a line
+    // (a shell command's completion marker) always arrives whole with it
+    private static final int FRAGMENT_TAIL = 256;
+
+    /**
+     * Receives each line without its terminator. The view is only valid
+     * during the call; copy it (toString) to keep it.
+     */
+    public interface LineSink {
+        /**
+         * Return false to stop reading
+         */
+        boolean onLine(CharSequence line);
+    }
+
+    /**
+     * A LineSink that takes long lines in pieces. The pieces of a line are
+     * followed by onLine with the rest of it, which may be empty.
+     */
+    public interface FragmentSink extends LineSink {
+        /**
+         * Return false to stop reading
+         */
+        boolean onFragment(CharSequence fragment);
+    }
+
+    private final InputStream in;
+    private final CharsetDecoder decoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = BufferPool.acquireBytes();
+    private char[] array = BufferPool.acquireChars(BufferPool.CHAR_BUFFER_SIZE);
+    private CharBuffer chars = CharBuffer.wrap(array);
+    private long bytesRead;
+    private long allocatedBytes;
+
+    public StreamDecoder(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the whole stream, splitting it into lines
+     */
+    public static long readLines(InputStream in, LineSink sink) throws IOException {
+        try (StreamDecoder decoder = new StreamDecoder(in)) {
+            decoder.forEachLine(sink);
+            return decoder.bytesRead;
+        }
+    }
+
+    /**
+     * Read the whole stream into a text buffer as-is
+     */
+    public static long readAll(InputStream in, TextBuffer into) throws IOException {
+        try (StreamDecoder decoder = new StreamDecoder(in)) {
+            boolean eof = false;
+            while (!eof) {
+                eof = fill(decoder);
+                decoder.chars.flip();
+                into.append(decoder.array, 0, decoder.chars.limit());
+                decoder.chars.clear();
+            }
+            return decoder.bytesRead;
+        }
+    }
+
+    /**
+     * Read lines until end of stream or until the sink returns false.
+     * Returns false if the sink stopped early.
+     */
+    public boolean forEachLine(LineSink sink) throws IOException {
+        boolean eof = false;
+        while (!eof) {
+            eof = fill(this);
+            if (!emitLines(sink))
+                return false;
+            if (sink instanceof FragmentSink && !emitFragment((FragmentSink) sink))
+                return false;
+        }
+        // Trailing text without a newline
+        if (chars.position() > 0) {
+            chars.flip();
+            CharSequence last = chars.subSequence(0, chars.limit());
+            chars.clear();
+            return sink.onLine(last);
+        }
+        return true;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Bytes allocated because a line outgrew the pooled buffer
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public void close() {
+        if (bytes != null) {
+            BufferPool.release(bytes);
+            BufferPool.release(array);
+            bytes = null;
+            array = null;
+            chars = null;
+        }
+    }
+
+    /**
+     * Read one chunk and decode as much of it as fits, growing the char
+     * buffer when it is full. Returns true at end of stream.
+     */
+    private static boolean fill(StreamDecoder d) throws IOException {
+        ByteBuffer bytes = d.bytes;
+        int n = d.in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        boolean eof = n < 0;
+        if (!eof) {
+            bytes.position(bytes.position() + n);
+            d.bytesRead += n;
+        }
+
+        bytes.flip();
+        CoderResult result;
+        while ((result = d.decoder.decode(bytes, d.chars, eof)).isOverflow()) {
+            d.grow();
+        }
+        if (eof) {
+            while (d.decoder.flush(d.chars).isOverflow()) {
+                d.grow();
+            }
+        }
+        bytes.compact();
+        return eof;
+    }
+
+    /**
+     * Hand out every complete line and keep the partial one at the front
+     */
+    private boolean emitLines(LineSink sink) {
+        int end = chars.position();
+        int start = 0;
+        boolean keepGoing = true;
+        for (int i = 0; i < end && keepGoing; i++) {
+            if (array[i] != '\n')
+                continue;
+            int lineEnd = i > start && array[i - 1] == '\r' ? i - 1 : i;
+            keepGoing = sink.onLine(CharBuffer.wrap(array, start, lineEnd - start));
+            start = i + 1;
+        }
+        if (start > 0) {
+            System.arraycopy(array, start, array, 0, end - start);
+            chars.position(end - start);
+        }
+        return keepGoing;
+    }
+
+    /**
+     * Hand out the front of a partial line that has grown long, keeping its tail
+     */
+    private boolean emitFragment(FragmentSink sink) {
+        int end = chars.position();
+        if (end < FRAGMENT_CHARS)
+            return true;
+        int cut = end - FRAGMENT_TAIL;
+        boolean keepGoing = sink.onFragment(CharBuffer.wrap(array, 0, cut));
+        System.arraycopy(array, cut, array, 0, end - cut);
+        chars.position(end - cut);
+        return keepGoing;
+    }
+
+    private void grow() {
+        char[] grown = BufferPool.allocateChars(array.length * 2);
+        allocatedBytes += 2L * grown.length;
+        System.arraycopy(array, 0, grown, 0, chars.position());
+        CharBuffer wrapped = CharBuffer.wrap(grown);
+        wrapped.position(chars.position());
+        BufferPool.release(array);
+        array = grown;
+        chars = wrapped;
+    }
+}
@@ -0,0 +1,165 @@
+package com.assistant.root.shell;
+
+import java.io.Closeable;
+import java.nio.CharBuffer;
+
+/**
+ * Growable text backed by a pooled char array. Parsers can scan it as a
+ * CharSequence (regex matchers accept one directly) and take subSequence()
+ * views without copying. Close it to hand the array back to the pool; views
+ * must not be used after that.
+ */
+public final class TextBuffer implements CharSequence, Closeable {
+    private char[] chars;
+    private int length;
+    private long allocatedBytes;
+
+    private TextBuffer(char[] chars) {
+        this.chars = chars;
+    }
+
+    public static TextBuffer obtain() {
+        return new TextBuffer(BufferPool.acquireChars(BufferPool.CHAR_BUFFER_SIZE));
+    }
+
+    public static TextBuffer obtain(int capacity) {
+        return new TextBuffer(BufferPool.acquireChars(capacity));
+    }
+
+    public TextBuffer append(char c) {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+        return this;
+    }
+
+    public TextBuffer append(CharSequence s) {
+        int n = s.length();
+        ensureCapacity(length + n);
+        if (s instanceof String) {
+            ((String) s).getChars(0, n, chars, length);
+        } else if (s instanceof CharBuffer) {
+            // Read through a duplicate so the source position is left alone
+            ((CharBuffer) s).duplicate().get(chars, length, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                chars[length + i] = s.charAt(i);
+            }
+        }
+        length += n;
+        return this;
+    }
+
+    public TextBuffer append(char[] src, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(src, offset, chars, length, count);
+        length += count;
+        return this;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        return chars[index];
+    }
+
+    /**
+     * A view of part of the buffer; no characters are copied
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + "), length " + length);
+        return new Slice(start, end - start);
+    }
+
+    /**
+     * First index of c at or after from, or -1
+     */
+    public int indexOf(char c, int from) {
+        for (int i = Math.max(0, from); i < length; i++) {
+            if (chars[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Bytes this buffer had to allocate because it outgrew its pooled array
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    @Override
+    public void close() {
+        if (chars != null) {
+            BufferPool.release(chars);
+            chars = null;
+            length = 0;
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (chars == null)
+            throw new IllegalStateException("TextBuffer already closed");
+        if (needed <= chars.length)
+            return;
+        char[] grown = BufferPool.allocateChars(Math.max(needed, chars.length * 2));
+        allocatedBytes += 2L * grown.length;
+        System.arraycopy(chars, 0, grown, 0, length);
+        BufferPool.release(chars);
+        chars = grown;
+    }
+
+    /**
+     * Window onto the parent buffer
+     */
+    private final class Slice implements CharSequence {
+        private final int offset;
+        private final int count;
+
+        Slice(int offset, int count) {
+            this.offset = offset;
+            this.count = count;
+        }
+
+        @Override
+        public int length() {
+            return count;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("index " + index + ", length " + count);
+            return chars[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > count || start > end)
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + "), length " + count);
+            return new Slice(offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, offset, count);
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.assistant.root.skills.ai;
 
+import com.assistant.root.context.ElementSummarizer;
+import com.assistant.root.context.UIElementParser;
+import com.assistant.root.shell.PriorityScheduler;
+import com.assistant.root.shell.RootMetrics;
 import com.assistant.root.skills.base.Skill;
+import com.assistant.root.utils.AppCatalog;
 import com.assistant.root.utils.CommandExecutor;
 
 /**
@@ -119,6 +124,26 @@ public class AISkill implements Skill {
             return true;
         }
 
+        // Match prompt budget commands
+        if (normalizedCommand.startsWith("prompt budget")) {
+            return true;
+        }
+
+        // Match compressed dump commands
+        if (normalizedCommand.startsWith("compressed dumps")) {
+            return true;
+        }
+
+        // Match alias removal commands
+        if (normalizedCommand.startsWith("forget alias ")) {
+            return true;
+        }
+
+        // Match root metrics commands
+        if (normalizedCommand.contains("root stats") || normalizedCommand.contains("debug root")) {
+            return true;
+        }
+
         return false;
     }
 
@@ -156,6 +181,49 @@ public class AISkill implements Skill {
             return;
         }
 
+        // Handle prompt budget commands, e.g. "prompt budget 200"
+        if (normalizedCommand.startsWith("prompt budget")) {
+            String value = normalizedCommand.substring("prompt budget".length()).trim();
+            try {
+                ElementSummarizer.setTokenBudget(Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                // Just report the current budget
+            }
+            executor.log("📝 Prompt element budget: " + ElementSummarizer.getTokenBudget() + " tokens");
+            return;
+        }
+
+        // Handle compressed dump commands, e.g. "compressed dumps on"
+        if (normalizedCommand.startsWith("compressed dumps")) {
+            String value = normalizedCommand.substring("compressed dumps".length()).trim();
+            if (value.equals("on")) {
+                UIElementParser.setCompressedDumps(true);
+            } else if (value.equals("off")) {
+                UIElementParser.setCompressedDumps(false);
+            }
+            executor.log("🗜️ Compressed UI dumps: " + (UIElementParser.isCompressedDumps() ? "on" : "off"));
+            return;
+        }
+
+        // Handle alias removal commands, e.g. "forget alias insta"
+        if (normalizedCommand.startsWith("forget alias ")) {
+            String alias = normalizedCommand.substring("forget alias ".length()).trim();
+            executor.log(AppCatalog.forgetAlias(alias) ? "🗑️ Forgot app alias \"" + alias + "\""
+                    : "No app alias \"" + alias + "\"");
+            return;
+        }
+
+        // Handle root metrics commands
+        if (normalizedCommand.contains("root stats") || normalizedCommand.contains("debug root")) {
+            if (normalizedCommand.contains("reset")) {
+                RootMetrics.reset();
+                executor.log("🗑️ Root metrics reset");
+            } else {
+                executor.log(executor.getRootShellStats());
+            }
+            return;
+        }
+
         // Check if command involves UI interaction first (fast check)
         boolean isUICommand = normalizedCommand.contains("select ") ||
                 normalizedCommand.contains("tap ") ||
@@ -170,8 +238,8 @@ public class AISkill implements Skill {
                 normalizedCommand.matches(".*\\b[A-Z][a-z]+\\b.*"); // Contains names
 
         if (isUICommand) {
-            // For UI commands, check context asynchronously
-            new Thread(() -> {
+            // For UI commands, check context asynchronously (in the caller's lane)
+            PriorityScheduler.submit(PriorityScheduler.currentLane(), () -> {
                 try {
                     String contextInfo = executor.getCurrentContextInfo();
                     executor.log("📱 Context for AI: " + contextInfo);
@@ -190,7 +258,8 @@ public class AISkill implements Skill {
                     executor.log("⚠️ Error checking context, using regular AI: " + e.getMessage());
                     executor.executeAICommand(normalizedCommand);
                 }
-            }).start();
+                return null;
+            });
         } else {
             executor.log("🧠 Non-UI command - using regular AI to generate commands...");
             executor.executeAICommand(normalizedCommand);
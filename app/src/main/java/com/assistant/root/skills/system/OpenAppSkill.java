@@ -3,6 +3,7 @@ package com.assistant.root.skills.system;
 import java.util.List;
 
 import com.assistant.root.skills.base.Skill;
+import com.assistant.root.utils.AppCatalog;
 import com.assistant.root.utils.CommandExecutor;
 
 /**
@@ -11,17 +12,6 @@ import com.assistant.root.utils.CommandExecutor;
  */
 public class OpenAppSkill implements Skill {
 
-    private static final String[] COMMON_APP_NAMES = {
-            "whatsapp", "telegram", "chrome", "browser", "firefox", "safari", "edge",
-            "youtube", "instagram", "facebook", "twitter", "tiktok", "snapchat",
-            "gmail", "outlook", "mail", "calendar", "clock", "calculator",
-            "camera", "gallery", "photos", "music", "spotify", "netflix",
-            "maps", "google maps", "waze", "uber", "settings", "contacts",
-            "phone", "messages", "sms", "dialer", "files", "file manager",
-            "notes", "notepad", "keep", "evernote", "pdf", "reader",
-            "office", "word", "excel", "powerpoint", "adobe", "photoshop"
-    };
-
     @Override
     public boolean matches(String normalizedCommand) {
         // Only match simple "open" commands (2-3 words max)
@@ -74,7 +64,9 @@ public class OpenAppSkill implements Skill {
         // Find and open the app using su command approach
         String packageName = executor.findAppPackageByName(appName);
         if (packageName != null) {
-            executor.openAppWithSu(packageName);
+            // Learned only once the app really opened
+            if (executor.openAppWithSu(packageName))
+                executor.learnAppName(appName, packageName);
             executor.log("Opening: " + appName + " (" + packageName + ")");
         } else {
             executor.log("App not found: " + appName);
@@ -95,16 +87,16 @@ public class OpenAppSkill implements Skill {
 
     private void listSomeApps(CommandExecutor executor) {
         try {
-            List<String> packages = executor.getAllInstalledPackages();
+            List<AppCatalog.App> apps = AppCatalog.launchableApps();
 
             executor.log("Some available apps:");
             int count = 0;
-            for (String packageName : packages) {
-                if (packageName.equals("android") || packageName.startsWith("com.android.")) {
+            for (AppCatalog.App app : apps) {
+                if (app.system) {
                     continue;
                 }
 
-                executor.log("  - " + packageName);
+                executor.log("  - " + app.label + " (" + app.packageName + ")");
 
                 if (++count >= 10)
                     break; // Show only first 10 apps
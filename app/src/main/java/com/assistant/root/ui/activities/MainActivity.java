@@ -22,7 +22,11 @@ import androidx.core.content.ContextCompat;
 import com.assistant.root.R;
 import com.assistant.root.services.AssistantAccessibilityService;
 import com.assistant.root.services.VoiceService;
+import com.assistant.root.shell.RootCapabilities;
+import com.assistant.root.shell.RootMetrics;
 import com.assistant.root.utils.Utils;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -53,6 +57,11 @@ public class MainActivity extends AppCompatActivity {
 
         btnStartService.setOnClickListener(v -> startVoiceService());
         btnStopService.setOnClickListener(v -> stopVoiceService());
+        // Long-press the status line to dump root metrics into the log
+        tvStatus.setOnLongClickListener(v -> {
+            addLog(RootMetrics.getReport());
+            return true;
+        });
 
         checkPermissions();
 
@@ -86,14 +95,31 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
-        // Check for root access
-        if (!Utils.isRooted()) {
-            addLog("Warning: Root access not detected.");
-            Toast.makeText(this, "Root access required for full functionality",
-                    Toast.LENGTH_LONG).show();
-        } else {
-            addLog("Root access: ✓ Detected");
-        }
+        // Check for root access in the background; the result is cached for
+        // every later root check. It is taken from the finished probe itself,
+        // since get() would block here if the cache was invalidated meanwhile
+        Futures.addCallback(RootCapabilities.probe(), new FutureCallback<RootCapabilities.Info>() {
+            @Override
+            public void onSuccess(RootCapabilities.Info root) {
+                if (!root.rooted) {
+                    warnNoRoot();
+                } else {
+                    addLog("Root access: ✓ Detected");
+                    addLog(root.toString());
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Only if the probe was cancelled
+                warnNoRoot();
+            }
+        }, ContextCompat.getMainExecutor(this));
+    }
+
+    private void warnNoRoot() {
+        addLog("Warning: Root access not detected.");
+        Toast.makeText(this, "Root access required for full functionality", Toast.LENGTH_LONG).show();
     }
 
     private void showOverlayPermissionDialog() {
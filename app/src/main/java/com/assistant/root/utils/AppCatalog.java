@@ -0,0 +1,469 @@
+package com.assistant.root.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.util.Log;
+
+import com.assistant.root.shell.PriorityScheduler;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Installed apps by package: label, launcher activity and whether it is a
+ * system app. Shared by context detection (package -> name) and app launch
+ * (name -> package -> activity), both as map lookups.
+ *
+ * The last catalog is persisted and loaded in the background on start, so
+ * lookups work long before a full PackageManager scan, which follows it;
+ * package broadcasts keep it current after that. Packages without a launcher activity are
+ * resolved the first time they are asked about.
+ */
+public class AppCatalog {
+    private static final String TAG = "AppCatalog";
+    private static final String PREFS_NAME = "app_catalog";
+    private static final String APPS_KEY = "apps";
+    private static final String ALIASES_KEY = "aliases";
+    private static final String LAUNCHES_KEY = "launches";
+
+    /**
+     * One installed app
+     */
+    public static class App {
+        public String packageName;
+        public String label;
+        /** Full class name of the launcher activity, or null if it has none */
+        public String launcherActivity;
+        public boolean system;
+
+        public App(String packageName, String label, String launcherActivity, boolean system) {
+            this.packageName = packageName;
+            this.label = label;
+            this.launcherActivity = launcherActivity;
+            this.system = system;
+        }
+    }
+
+    private static volatile Map<String, App> byPackage = new ConcurrentHashMap<>();
+    // Lower-case label -> package
+    private static volatile Map<String, String> byLabel = new ConcurrentHashMap<>();
+    // Fuzzy search and learned aliases; guarded by the class
+    private static AppIndex index = new AppIndex();
+
+    private static Context context;
+    // Set once the persisted catalog has been loaded; saving waits for it
+    private static SharedPreferences prefs;
+    private static final Gson gson = new Gson();
+    private static BroadcastReceiver receiver;
+    private static volatile boolean scanned;
+
+    private static final AtomicLong lookups = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong updates = new AtomicLong();
+    private static volatile long scanMs;
+
+    /**
+     * Listen for package changes, then load the persisted catalog and rescan
+     * in the background. Safe to call again; later calls only rescan.
+     */
+    public static synchronized void start(Context appContext) {
+        if (context == null) {
+            context = appContext.getApplicationContext();
+
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addDataScheme("package");
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context c, Intent intent) {
+                    onPackageBroadcast(intent);
+                }
+            };
+            context.registerReceiver(receiver, filter);
+        }
+        // Not in the background lane, where "open X" would wait on warmups for it.
+        // Until the load is done, lookups resolve packages one by one as before a scan
+        PriorityScheduler.submit(PriorityScheduler.Lane.NORMAL, () -> {
+            load();
+            scan();
+            return null;
+        });
+    }
+
+    /**
+     * Stop listening for package changes; lookups keep working
+     */
+    public static synchronized void stop() {
+        if (receiver != null) {
+            try {
+                context.unregisterReceiver(receiver);
+            } catch (IllegalArgumentException ignored) {
+            }
+            receiver = null;
+        }
+        context = null;
+    }
+
+    /**
+     * The app, or null if the package isn't installed or the catalog hasn't
+     * been started
+     */
+    public static App get(String packageName) {
+        if (packageName == null)
+            return null;
+        lookups.incrementAndGet();
+        App app = byPackage.get(packageName);
+        if (app == null && context != null) {
+            misses.incrementAndGet();
+            app = resolve(packageName);
+            if (app != null)
+                put(app);
+        }
+        return app;
+    }
+
+    /**
+     * The app's label, or the package name if it is not known
+     */
+    public static String label(String packageName) {
+        App app = get(packageName);
+        return app != null ? app.label : packageName;
+    }
+
+    /**
+     * Package of the app with this label, ignoring case, or null
+     */
+    public static String findByLabel(String label) {
+        if (label == null)
+            return null;
+        lookups.incrementAndGet();
+        return byLabel.get(label.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Apps whose label or package name is like the query, best first; a
+     * learned alias of the query comes before anything else
+     */
+    public static synchronized List<AppIndex.Match> search(String query, int limit) {
+        lookups.incrementAndGet();
+        return index.search(query, limit);
+    }
+
+    /**
+     * Remember that the query means this app, e.g. "insta" -> Instagram
+     */
+    public static void learnAlias(String alias, String packageName) {
+        synchronized (AppCatalog.class) {
+            String key = AppIndex.normalize(alias);
+            if (key.isEmpty() || packageName.equals(index.getAliases().get(key)))
+                return;
+            index.addAlias(key, packageName);
+        }
+        Log.d(TAG, "📱 Learned \"" + alias + "\" -> " + packageName);
+        save();
+    }
+
+    /**
+     * Count an app as opened by name, so it wins ties with apps matching a
+     * query as well, e.g. Instagram over Instacart for "insta"
+     */
+    public static void noteLaunch(String packageName) {
+        synchronized (AppCatalog.class) {
+            index.noteLaunch(packageName);
+        }
+        save();
+    }
+
+    /**
+     * Drop a learned alias, e.g. one learned from a launch that opened the
+     * wrong app. False if the query wasn't an alias.
+     */
+    public static boolean forgetAlias(String alias) {
+        synchronized (AppCatalog.class) {
+            if (!index.removeAlias(alias))
+                return false;
+        }
+        Log.d(TAG, "📱 Forgot \"" + alias + "\"");
+        save();
+        return true;
+    }
+
+    /**
+     * Full launcher activity class of the package, or null
+     */
+    public static String launcherActivity(String packageName) {
+        App app = get(packageName);
+        return app != null ? app.launcherActivity : null;
+    }
+
+    /**
+     * All known apps with a launcher activity, sorted by label
+     */
+    public static List<App> launchableApps() {
+        List<App> apps = new ArrayList<>();
+        for (App app : byPackage.values()) {
+            if (app.launcherActivity != null)
+                apps.add(app);
+        }
+        apps.sort((a, b) -> a.label.compareToIgnoreCase(b.label));
+        return apps;
+    }
+
+    public static boolean isLoaded() {
+        return scanned;
+    }
+
+    public static String getStats() {
+        return "App catalog: " + byPackage.size() + " apps" + (scanned ? ", scanned in " + scanMs + "ms"
+                : ", not scanned yet") + ", " + aliasCount() + " aliases (" + lookups.get() + " lookups, " + misses.get() + " misses, "
+                + updates.get() + " package updates)";
+    }
+
+    /**
+     * Replace the catalog with every app that has a launcher activity
+     */
+    private static void scan() {
+        Context ctx = context;
+        if (ctx == null)
+            return;
+        long start = System.currentTimeMillis();
+        PackageManager pm = ctx.getPackageManager();
+        Intent launcher = new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_LAUNCHER);
+        List<ResolveInfo> activities;
+        try {
+            activities = pm.queryIntentActivities(launcher, 0);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "App scan failed: " + e.getMessage());
+            return;
+        }
+
+        Map<String, App> packages = new ConcurrentHashMap<>();
+        Map<String, String> labels = new ConcurrentHashMap<>();
+        AppIndex search = new AppIndex();
+        for (ResolveInfo info : activities) {
+            if (info.activityInfo == null || packages.containsKey(info.activityInfo.packageName))
+                continue;
+            App app = fromActivity(pm, info);
+            packages.put(app.packageName, app);
+            index(packages, labels, app);
+            search.add(app.packageName, app.label);
+        }
+        synchronized (AppCatalog.class) {
+            for (Map.Entry<String, String> alias : index.getAliases().entrySet()) {
+                search.addAlias(alias.getKey(), alias.getValue());
+            }
+            for (Map.Entry<String, Integer> launched : index.getLaunches().entrySet()) {
+                search.setLaunches(launched.getKey(), launched.getValue());
+            }
+            byPackage = packages;
+            byLabel = labels;
+            index = search;
+        }
+        scanMs = System.currentTimeMillis() - start;
+        scanned = true;
+        save();
+        Log.d(TAG, "📱 Catalogued " + packages.size() + " apps in " + scanMs + "ms");
+    }
+
+    private static void onPackageBroadcast(Intent intent) {
+        Uri data = intent.getData();
+        String packageName = data != null ? data.getSchemeSpecificPart() : null;
+        if (packageName == null)
+            return;
+        String action = intent.getAction();
+        // An update sends REMOVED with EXTRA_REPLACING, then ADDED and REPLACED
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(action) && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false))
+            return;
+        updates.incrementAndGet();
+
+        PriorityScheduler.submit(PriorityScheduler.Lane.BACKGROUND, () -> {
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+                remove(packageName);
+                Log.d(TAG, "📱 Removed " + packageName);
+            } else {
+                App app = resolve(packageName);
+                if (app != null) {
+                    put(app);
+                    Log.d(TAG, "📱 Updated " + packageName + " (" + app.label + ")");
+                } else {
+                    remove(packageName);
+                }
+            }
+            save();
+            return null;
+        });
+    }
+
+    /**
+     * Look one package up in PackageManager, or null if it isn't installed
+     */
+    private static App resolve(String packageName) {
+        Context ctx = context;
+        if (ctx == null)
+            return null;
+        PackageManager pm = ctx.getPackageManager();
+        try {
+            Intent launcher = new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_LAUNCHER)
+                    .setPackage(packageName);
+            List<ResolveInfo> activities = pm.queryIntentActivities(launcher, 0);
+            if (activities != null && !activities.isEmpty() && activities.get(0).activityInfo != null)
+                return fromActivity(pm, activities.get(0));
+
+            ApplicationInfo info = pm.getApplicationInfo(packageName, 0);
+            return new App(packageName, labelOf(pm.getApplicationLabel(info), packageName), null,
+                    (info.flags & ApplicationInfo.FLAG_SYSTEM) != 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not resolve " + packageName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static App fromActivity(PackageManager pm, ResolveInfo info) {
+        String packageName = info.activityInfo.packageName;
+        ApplicationInfo appInfo = info.activityInfo.applicationInfo;
+        CharSequence label = appInfo != null ? pm.getApplicationLabel(appInfo) : info.loadLabel(pm);
+        return new App(packageName, labelOf(label, packageName), info.activityInfo.name,
+                appInfo != null && (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0);
+    }
+
+    private static String labelOf(CharSequence label, String packageName) {
+        return label != null && label.length() > 0 ? label.toString() : packageName;
+    }
+
+    private static synchronized void put(App app) {
+        App previous = byPackage.put(app.packageName, app);
+        if (previous != null)
+            unindex(byLabel, previous);
+        index(byPackage, byLabel, app);
+        index.add(app.packageName, app.label);
+    }
+
+    private static synchronized void remove(String packageName) {
+        App previous = byPackage.remove(packageName);
+        if (previous != null)
+            unindex(byLabel, previous);
+        index.remove(packageName);
+    }
+
+    // Two apps with one label: the system app wins, since a generic name
+    // like "Settings" usually means the built-in one
+    private static void index(Map<String, App> packages, Map<String, String> labels, App app) {
+        String key = app.label.toLowerCase(Locale.ROOT);
+        String existing = labels.get(key);
+        App other = existing != null ? packages.get(existing) : null;
+        if (other == null || (app.system && !other.system))
+            labels.put(key, app.packageName);
+    }
+
+    private static void unindex(Map<String, String> labels, App app) {
+        String key = app.label.toLowerCase(Locale.ROOT);
+        if (!labels.remove(key, app.packageName))
+            return;
+        // Hand the label to another app that has it; rare enough to search for
+        for (App other : byPackage.values()) {
+            if (other.label.toLowerCase(Locale.ROOT).equals(key))
+                index(byPackage, labels, other);
+        }
+    }
+
+    /**
+     * Read the persisted catalog, once. Apps and aliases that arrived since
+     * start (package broadcasts, lookups, learned aliases) take precedence.
+     * Nothing is saved before this, so they can't overwrite the stored catalog.
+     */
+    private static void load() {
+        Context ctx = context;
+        synchronized (AppCatalog.class) {
+            if (prefs != null || ctx == null)
+                return;
+        }
+        SharedPreferences stored = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        List<App> apps = null;
+        Map<String, String> learned = null;
+        Map<String, Integer> launched = null;
+        try {
+            String json = stored.getString(APPS_KEY, null);
+            if (json != null) {
+                Type type = new TypeToken<List<App>>() {
+                }.getType();
+                apps = gson.fromJson(json, type);
+            }
+
+            String aliases = stored.getString(ALIASES_KEY, null);
+            if (aliases != null) {
+                Type type = new TypeToken<Map<String, String>>() {
+                }.getType();
+                learned = gson.fromJson(aliases, type);
+            }
+
+            String launches = stored.getString(LAUNCHES_KEY, null);
+            if (launches != null) {
+                Type type = new TypeToken<Map<String, Integer>>() {
+                }.getType();
+                launched = gson.fromJson(launches, type);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not load the app catalog: " + e.getMessage());
+        }
+
+        synchronized (AppCatalog.class) {
+            if (prefs != null)
+                return;
+            if (apps != null && !scanned) {
+                for (App app : apps) {
+                    if (byPackage.containsKey(app.packageName))
+                        continue;
+                    byPackage.put(app.packageName, app);
+                    index(byPackage, byLabel, app);
+                    index.add(app.packageName, app.label);
+                }
+                Log.d(TAG, "Loaded " + apps.size() + " catalogued apps");
+            }
+            if (learned != null) {
+                for (Map.Entry<String, String> alias : learned.entrySet()) {
+                    if (!index.getAliases().containsKey(alias.getKey()))
+                        index.addAlias(alias.getKey(), alias.getValue());
+                }
+            }
+            if (launched != null) {
+                for (Map.Entry<String, Integer> app : launched.entrySet()) {
+                    if (!index.getLaunches().containsKey(app.getKey()) && app.getValue() != null)
+                        index.setLaunches(app.getKey(), app.getValue());
+                }
+            }
+            prefs = stored;
+        }
+    }
+
+    private static synchronized void save() {
+        if (prefs == null)
+            return;
+        List<App> apps = new ArrayList<>(byPackage.values());
+        prefs.edit().putString(APPS_KEY, gson.toJson(apps))
+                .putString(ALIASES_KEY, gson.toJson(index.getAliases()))
+                .putString(LAUNCHES_KEY, gson.toJson(index.getLaunches())).apply();
+    }
+
+    private static synchronized int aliasCount() {
+        return index.getAliases().size();
+    }
+}
@@ -0,0 +1,444 @@
+package com.assistant.root.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fuzzy search over installed apps for "open X": each app is indexed by
+ * its label, the words of its label and the segments of its package name
+ * ("com.instagram.android" -> "instagram"), broken into trigrams. A query
+ * only scores the apps that share a trigram with it, by exact match,
+ * prefix, trigram overlap and, for typos, edit distance. Learned aliases
+ * ("insta" -> Instagram) are checked first. Apps that score the same are
+ * ranked by how often they were opened by name; if that doesn't settle
+ * it either, the query is ambiguous.
+ *
+ * Apps are added and removed one at a time as the catalog changes, so
+ * nothing is rebuilt per command. Not thread-safe; AppCatalog guards it.
+ */
+public class AppIndex {
+    // Scores are 0-100; a learned alias beats any match
+    private static final int ALIAS_SCORE = 1000;
+    // Below this a match is more likely noise than the app meant
+    public static final int MIN_SCORE = 45;
+    // Score, and lead over the runner-up, before a match is learned as an alias.
+    // A prefix of half the label or more scores the minimum; the margin is what
+    // a label match leads an app matching only by package segment by.
+    public static final int ALIAS_MIN_SCORE = 85;
+    public static final int ALIAS_MARGIN = 8;
+    // Package segments, and query words, that name no app
+    private static final Set<String> GENERIC_SEGMENTS = new HashSet<>(Arrays.asList("com", "org", "net", "io",
+            "android", "app", "apps", "mobile", "client", "main", "www"));
+    // One word of a longer label, so "whatsapp" prefers WhatsApp to WhatsApp Business
+    private static final double WORD_WEIGHT = 0.95;
+    // Package segments count for a little less than the label
+    private static final double SEGMENT_WEIGHT = 0.9;
+
+    /**
+     * One ranked result
+     */
+    public static class Match implements Comparable<Match> {
+        public final String packageName;
+        public final String label;
+        public final int score;
+        /** Whether the query is a learned alias of this app */
+        public final boolean alias;
+        /** Times the app was opened by name */
+        public final int launches;
+
+        Match(String packageName, String label, int score, boolean alias, int launches) {
+            this.packageName = packageName;
+            this.label = label;
+            this.score = score;
+            this.alias = alias;
+            this.launches = launches;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            if (score != other.score)
+                return Integer.compare(other.score, score);
+            if (launches != other.launches)
+                return Integer.compare(other.launches, launches);
+            return label.compareToIgnoreCase(other.label);
+        }
+
+        @Override
+        public String toString() {
+            return label + " (" + packageName + ") " + score + (alias ? " alias" : "")
+                    + (launches > 0 ? ", opened " + launches + "x" : "");
+        }
+    }
+
+    private static class Term {
+        final String text;
+        final String compact;
+        final double weight;
+        final Set<String> trigrams;
+
+        Term(String text, double weight) {
+            this.text = text;
+            this.compact = text.replace(" ", "");
+            this.weight = weight;
+            this.trigrams = trigrams(text);
+        }
+    }
+
+    private static class Entry {
+        final String packageName;
+        final String label;
+        final List<Term> terms = new ArrayList<>();
+        final Set<String> trigrams = new HashSet<>();
+
+        Entry(String packageName, String label) {
+            this.packageName = packageName;
+            this.label = label;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Trigram -> packages with a term containing it
+    private final Map<String, Set<String>> postings = new HashMap<>();
+    // Normalized alias -> package
+    private final Map<String, String> aliases = new HashMap<>();
+    // Package -> times opened by name; kept, like aliases, across a reinstall
+    private final Map<String, Integer> launches = new HashMap<>();
+
+    /**
+     * Index an app, replacing what was indexed for its package
+     */
+    public void add(String packageName, String label) {
+        remove(packageName);
+        Entry entry = new Entry(packageName, label);
+        String normalized = normalize(label);
+        Set<String> seen = new HashSet<>();
+        addTerm(entry, seen, normalized, 1.0);
+        for (String word : normalized.split(" ")) {
+            addTerm(entry, seen, word, WORD_WEIGHT);
+        }
+        for (String segment : packageName.toLowerCase(Locale.ROOT).split("[._]")) {
+            if (!GENERIC_SEGMENTS.contains(segment))
+                addTerm(entry, seen, segment, SEGMENT_WEIGHT);
+        }
+        entries.put(packageName, entry);
+        for (String trigram : entry.trigrams) {
+            Set<String> packages = postings.get(trigram);
+            if (packages == null) {
+                packages = new HashSet<>(2);
+                postings.put(trigram, packages);
+            }
+            packages.add(packageName);
+        }
+    }
+
+    /**
+     * Drop an app; its aliases stay, in case it is reinstalled
+     */
+    public void remove(String packageName) {
+        Entry entry = entries.remove(packageName);
+        if (entry == null)
+            return;
+        for (String trigram : entry.trigrams) {
+            Set<String> packages = postings.get(trigram);
+            if (packages != null) {
+                packages.remove(packageName);
+                if (packages.isEmpty())
+                    postings.remove(trigram);
+            }
+        }
+    }
+
+    /**
+     * Make a query resolve straight to the package from now on
+     */
+    public void addAlias(String alias, String packageName) {
+        String key = normalize(alias);
+        if (!key.isEmpty())
+            aliases.put(key, packageName);
+    }
+
+    /**
+     * Whether the best of these matches (best first, as search() returns
+     * them) should be learned as an alias of the query: a high score that
+     * clearly leads the runner-up. Exact labels and existing aliases
+     * resolve directly already.
+     */
+    public static boolean isWorthLearning(List<Match> matches) {
+        if (matches.isEmpty())
+            return false;
+        Match best = matches.get(0);
+        if (best.alias || best.score >= 100 || best.score < ALIAS_MIN_SCORE)
+            return false;
+        return matches.size() == 1 || best.score - matches.get(1).score >= ALIAS_MARGIN;
+    }
+
+    /**
+     * Whether the best of these matches (best first, as search() returns
+     * them) is only first by label order: the runner-up scores the same and
+     * was opened as often, so it is as likely to be the app meant
+     */
+    public static boolean isAmbiguous(List<Match> matches) {
+        if (matches.size() < 2)
+            return false;
+        Match best = matches.get(0);
+        Match next = matches.get(1);
+        return !best.alias && best.score == next.score && best.launches == next.launches;
+    }
+
+    /**
+     * Count the app as opened by name once more
+     */
+    public void noteLaunch(String packageName) {
+        Integer count = launches.get(packageName);
+        launches.put(packageName, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Set how often the app was opened by name, e.g. from a saved catalog
+     */
+    public void setLaunches(String packageName, int count) {
+        if (count > 0)
+            launches.put(packageName, count);
+    }
+
+    public Map<String, Integer> getLaunches() {
+        return Collections.unmodifiableMap(launches);
+    }
+
+    /**
+     * Stop resolving the alias; false if it wasn't one
+     */
+    public boolean removeAlias(String alias) {
+        return aliases.remove(normalize(alias)) != null;
+    }
+
+    public Map<String, String> getAliases() {
+        return Collections.unmodifiableMap(aliases);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * The best matches for a query, best first, at most limit of them and
+     * none scoring under MIN_SCORE
+     */
+    public List<Match> search(String query, int limit) {
+        List<Match> matches = new ArrayList<>();
+        String q = normalize(query);
+        if (q.isEmpty())
+            return matches;
+
+        String aliased = aliases.get(q);
+        Entry aliasEntry = aliased != null ? entries.get(aliased) : null;
+        if (aliasEntry != null)
+            matches.add(new Match(aliasEntry.packageName, aliasEntry.label, ALIAS_SCORE, true,
+                    launchesOf(aliasEntry.packageName)));
+
+        Probe whole = new Probe(q);
+        String[] words = q.split(" ");
+        Probe[] parts = new Probe[words.length > 1 ? words.length : 0];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new Probe(words[i]);
+        }
+        Set<String> candidates = new HashSet<>();
+        collectCandidates(whole, candidates);
+        for (Probe part : parts) {
+            // "app" in "whats app" would bring in half the device
+            if (!GENERIC_SEGMENTS.contains(part.text))
+                collectCandidates(part, candidates);
+        }
+
+        for (String packageName : candidates) {
+            if (aliasEntry != null && aliasEntry.packageName.equals(packageName))
+                continue;
+            Entry entry = entries.get(packageName);
+            int score = (int) Math.round(score(entry, whole, parts));
+            if (score >= MIN_SCORE)
+                matches.add(new Match(entry.packageName, entry.label, score, false, launchesOf(packageName)));
+        }
+        Collections.sort(matches);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    private int launchesOf(String packageName) {
+        Integer count = launches.get(packageName);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * The query, or one of its words, ready to compare against terms
+     */
+    private static class Probe {
+        final String text;
+        final String compact;
+        final Set<String> trigrams;
+
+        Probe(String text) {
+            this.text = text;
+            this.compact = text.replace(" ", "");
+            this.trigrams = trigrams(text);
+        }
+    }
+
+    /**
+     * Apps sharing enough trigrams with the probe to match it by prefix or
+     * within the allowed edits; each edit changes at most three trigrams, so
+     * the rest are skipped without being scored
+     */
+    private void collectCandidates(Probe probe, Set<String> candidates) {
+        int needed = Math.max(1, probe.trigrams.size() - 3 * allowedEdits(probe.text.length()) - 1);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : probe.trigrams) {
+            Set<String> packages = postings.get(trigram);
+            if (packages == null)
+                continue;
+            for (String packageName : packages) {
+                Integer count = shared.get(packageName);
+                int now = count != null ? count + 1 : 1;
+                shared.put(packageName, now);
+                if (now == needed)
+                    candidates.add(packageName);
+            }
+        }
+    }
+
+    private static double score(Entry entry, Probe whole, Probe[] parts) {
+        double best = 0;
+        for (Term term : entry.terms) {
+            best = Math.max(best, termScore(whole, term) * term.weight);
+        }
+        if (parts.length > 0) {
+            // "google maps": each word has to find a term of its own
+            double sum = 0;
+            for (Probe part : parts) {
+                double wordBest = 0;
+                for (Term term : entry.terms) {
+                    wordBest = Math.max(wordBest, termScore(part, term) * term.weight);
+                }
+                sum += wordBest;
+            }
+            best = Math.max(best, sum / parts.length * 0.95);
+        }
+        return best;
+    }
+
+    /**
+     * How well a query matches one term, 0-100
+     */
+    private static double termScore(Probe probe, Term term) {
+        String q = probe.text;
+        String t = term.text;
+        if (t.equals(q))
+            return 100;
+        // "tik tok" for "TikTok"
+        if (term.compact.equals(probe.compact))
+            return 95;
+        double score = 0;
+        if (t.startsWith(q) && q.length() >= 2)
+            score = 75 + 20.0 * q.length() / t.length();
+        else if (q.startsWith(t) && t.length() >= 3)
+            score = 50 + 30.0 * t.length() / q.length();
+
+        int shared = 0;
+        for (String trigram : probe.trigrams) {
+            if (term.trigrams.contains(trigram))
+                shared++;
+        }
+        if (shared == 0)
+            return score;
+        score = Math.max(score, 80.0 * 2 * shared / (probe.trigrams.size() + term.trigrams.size()));
+
+        // Typos: one edit in a short word, two in a longer one
+        int allowed = allowedEdits(Math.min(q.length(), t.length()));
+        if (allowed > 0 && probe.trigrams.size() - shared <= 3 * allowed) {
+            int distance = editDistance(q, t, allowed);
+            if (distance <= allowed)
+                score = Math.max(score, 75 - 10 * distance);
+        }
+        return score;
+    }
+
+    private static int allowedEdits(int length) {
+        return length < 4 ? 0 : length <= 6 ? 1 : 2;
+    }
+
+    private static void addTerm(Entry entry, Set<String> seen, String text, double weight) {
+        if (text.isEmpty() || !seen.add(text))
+            return;
+        Term term = new Term(text, weight);
+        entry.terms.add(term);
+        entry.trigrams.addAll(term.trigrams);
+    }
+
+    /**
+     * Lower-case letters and digits, words separated by single spaces
+     */
+    static String normalize(String s) {
+        if (s == null)
+            return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = Character.toLowerCase(s.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0)
+                    sb.append(' ');
+                sb.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Trigrams of the text padded with a space at each end, so short words
+     * and word starts have trigrams of their own
+     */
+    private static Set<String> trigrams(String text) {
+        String padded = " " + text + " ";
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Levenshtein distance, or anything over max once it is certain to be
+     */
+    private static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max)
+            return max + 1;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowBest = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowBest = Math.min(rowBest, current[j]);
+            }
+            if (rowBest > max)
+                return max + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
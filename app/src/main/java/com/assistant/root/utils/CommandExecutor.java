@@ -14,9 +14,6 @@ import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,8 +31,22 @@ import com.assistant.root.ai.AICommandGenerator;
 import com.assistant.root.ai.RootCommandExecutor;
 import com.assistant.root.skills.ai.AISkill;
 import com.assistant.root.cache.SmartCommandManager;
+import com.assistant.root.context.AccessibilitySnapshot;
 import com.assistant.root.context.ContextAwareCommandSystem;
+import com.assistant.root.context.ElementSummarizer;
+import com.assistant.root.context.ForegroundTracker;
 import com.assistant.root.context.HybridCommandSystem;
+import com.assistant.root.context.LiveScreenModel;
+import com.assistant.root.context.ScreenSnapshot;
+import com.assistant.root.helper.RootHelperClient;
+import com.assistant.root.shell.BufferPool;
+import com.assistant.root.shell.OutputScanners;
+import com.assistant.root.shell.PriorityScheduler;
+import com.assistant.root.shell.QueryCache;
+import com.assistant.root.shell.RootBatcher;
+import com.assistant.root.shell.RootMetrics;
+import com.assistant.root.shell.RootShell;
+import com.google.common.base.Supplier;
 
 /**
  * CommandExecutor - executes parsed commands either via root shell or Android
@@ -47,6 +58,8 @@ import com.assistant.root.context.HybridCommandSystem;
 public class CommandExecutor {
 
     private static final String TAG = "CommandExecutor";
+    // Installs and removals are rare while a command runs
+    private static final long PACKAGES_TTL_MS = 30000;
 
     private final Context context;
     private final SkillRegistry skills;
@@ -56,6 +69,21 @@ public class CommandExecutor {
     private final ContextAwareCommandSystem contextAwareSystem;
     private final HybridCommandSystem hybridSystem;
     private boolean isAIProcessing = false;
+    // The command being processed and its screen, for the skills it reaches
+    private volatile CommandScreen commandScreen;
+
+    /**
+     * One command's snapshot, matched to the command text the skills receive
+     */
+    private static final class CommandScreen {
+        final String command;
+        final Supplier<ScreenSnapshot> screen;
+
+        CommandScreen(String command, Supplier<ScreenSnapshot> screen) {
+            this.command = command;
+            this.screen = screen;
+        }
+    }
 
     // Callback interface for overlay updates
     public interface OverlayUpdateCallback {
@@ -94,6 +122,9 @@ public class CommandExecutor {
 
         // Warm up cache in background
         smartCommandManager.warmupCache();
+
+        // App names and launcher activities; persisted, rescanned in the background
+        AppCatalog.start(context);
     }
 
     /**
@@ -106,23 +137,37 @@ public class CommandExecutor {
 
         log("🔍 Processing command: " + commandText);
 
+        // One snapshot for the whole command: the context log and the AI stage share it
+        Supplier<ScreenSnapshot> screen = ScreenSnapshot.forCommand();
+        commandScreen = new CommandScreen(cmd, screen);
+
         // Show current context for every command (async to avoid blocking)
-        showContextAsync();
+        showContextAsync(screen);
 
-        boolean handled = skills.execute(cmd, this);
-        if (!handled) {
-            log("⚠️ No skill matched, using raw root execution");
-            // Fallback to raw root execution
-            executeRoot(commandText);
+        // Everything the skills start for this command runs in the interactive lane
+        try {
+            PriorityScheduler.runAs(PriorityScheduler.Lane.INTERACTIVE, () -> {
+                boolean handled = skills.execute(cmd, this);
+                if (!handled) {
+                    log("⚠️ No skill matched, using raw root execution");
+                    // Fallback to raw root execution
+                    executeRoot(commandText);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log("❌ Command failed: " + e.getMessage());
         }
     }
 
     /**
-     * Show context information asynchronously to avoid blocking the main thread
+     * Show context information asynchronously to avoid blocking the main thread.
+     * It pauses between steps while an interactive command is running.
      */
-    private void showContextAsync() {
-        new Thread(() -> {
+    private void showContextAsync(Supplier<ScreenSnapshot> screen) {
+        PriorityScheduler.submit(PriorityScheduler.Lane.BACKGROUND, () -> {
             try {
+                PriorityScheduler.yieldIfBusy();
                 log("🔍 Starting context detection...");
                 String contextInfo = getCurrentContextInfo();
                 if (contextInfo != null && !contextInfo.isEmpty()) {
@@ -131,7 +176,9 @@ public class CommandExecutor {
                     // Show available actions if in a supported app
                     if (supportsQuickCommands()) {
                         log("🎯 App supports quick commands, getting available actions...");
-                        String availableActions = getAvailableActions();
+                        PriorityScheduler.yieldIfBusy();
+                        // The snapshot the rest of this command's pipeline uses
+                        String availableActions = contextAwareSystem.getAvailableActions(screen.get());
                         if (availableActions != null && !availableActions.isEmpty()) {
                             log("🎯 Available Actions:\n" + availableActions);
                         } else {
@@ -143,11 +190,23 @@ public class CommandExecutor {
                 } else {
                     log("⚠️ Context detection returned null or empty");
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
                 log("❌ Error getting context: " + e.getMessage());
                 e.printStackTrace();
             }
-        }).start();
+            return null;
+        });
+    }
+
+    /**
+     * The snapshot of the command a skill is handling, or a new one for a
+     * command that didn't come through executeParsedCommand
+     */
+    private Supplier<ScreenSnapshot> screenFor(String command) {
+        CommandScreen current = commandScreen;
+        return current != null && current.command.equals(command) ? current.screen : ScreenSnapshot.forCommand();
     }
 
     /**
@@ -336,27 +395,32 @@ public class CommandExecutor {
      * Returns a list of package names
      */
     public List<String> getAllInstalledPackages() {
+        try {
+            List<String> packages = QueryCache.get(QueryCache.INSTALLED_PACKAGES, PACKAGES_TTL_MS,
+                    this::listInstalledPackages);
+            return new ArrayList<>(packages);
+        } catch (Exception e) {
+            log("Error getting installed packages: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private List<String> listInstalledPackages() {
         List<String> packages = new ArrayList<>();
         try {
-            Process process = Runtime.getRuntime().exec("su");
-            DataOutputStream os = new DataOutputStream(process.getOutputStream());
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            os.writeBytes("pm list packages\n");
-            os.writeBytes("exit\n");
-            os.flush();
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("package:")) {
-                    String packageName = line.substring(8); // Remove "package:" prefix
-                    packages.add(packageName);
-                }
+            List<String> fromHelper = RootHelperClient.get().listPackages();
+            if (fromHelper != null) {
+                log("Found " + fromHelper.size() + " installed packages");
+                return fromHelper;
             }
 
-            process.waitFor();
-            reader.close();
-            os.close();
+            OutputScanners.PackageEntry entry = new OutputScanners.PackageEntry();
+            RootShell.stream("pm list packages", RootShell.DEFAULT_TIMEOUT_MS, (line, stderr) -> {
+                if (!stderr && OutputScanners.scanPackage(line, entry)) {
+                    packages.add(entry.packageName());
+                }
+                return true;
+            });
 
             log("Found " + packages.size() + " installed packages");
 
@@ -364,14 +428,37 @@ public class CommandExecutor {
             log("Error getting installed packages: " + e.getMessage());
         }
 
-        return packages;
+        // An empty list means the query failed; don't cache it
+        return packages.isEmpty() ? null : packages;
     }
 
     /**
-     * Find app package by name using su command to get all packages
-     * and then matching with user input
+     * Find app package by name: the app catalog's labels first, then its
+     * fuzzy index (typos, partial names, learned aliases). Package names
+     * from su are only searched until the catalog has been scanned. Nothing
+     * is learned here; see learnAppName() once the app has opened.
      */
     public String findAppPackageByName(String appName) {
+        // An app's own label, as the launcher shows it
+        String byLabel = AppCatalog.findByLabel(appName);
+        if (byLabel != null)
+            return byLabel;
+
+        List<AppIndex.Match> matches = AppCatalog.search(appName, 2);
+        if (AppIndex.isAmbiguous(matches)) {
+            // Don't pick by label order; the user has to say which
+            log("📱 \"" + appName + "\" could be " + matches.get(0).label + " or " + matches.get(1).label
+                    + "; say the full name");
+            return null;
+        }
+        if (!matches.isEmpty()) {
+            AppIndex.Match best = matches.get(0);
+            log("📱 \"" + appName + "\" matched " + best);
+            return best.packageName;
+        }
+        if (AppCatalog.isLoaded())
+            return null;
+
         List<String> packages = getAllInstalledPackages();
         String appNameLower = appName.toLowerCase();
 
@@ -408,44 +495,69 @@ public class CommandExecutor {
     }
 
     /**
-     * Open app using su command with monkey or am start
+     * Count the app as opened by name, which breaks ties between apps that
+     * match a later query equally well, and remember appName as its alias
+     * so it resolves directly next time. Only a confident fuzzy match is
+     * learned; see AppIndex.isWorthLearning().
      */
-    public void openAppWithSu(String packageName) {
-        try {
-            Process process = Runtime.getRuntime().exec("su");
-            DataOutputStream os = new DataOutputStream(process.getOutputStream());
-
-            // Try monkey command first
-            os.writeBytes("monkey -p " + packageName + " -c android.intent.category.LAUNCHER 1\n");
-            os.writeBytes("exit\n");
-            os.flush();
+    public void learnAppName(String appName, String packageName) {
+        AppCatalog.noteLaunch(packageName);
+        List<AppIndex.Match> matches = AppCatalog.search(appName, 2);
+        if (AppIndex.isWorthLearning(matches) && matches.get(0).packageName.equals(packageName))
+            AppCatalog.learnAlias(appName, packageName);
+    }
 
-            process.waitFor();
-            os.close();
+    /**
+     * Open app using su command with monkey or am start; whether it opened
+     */
+    public boolean openAppWithSu(String packageName) {
+        // The resident helper launches through the activity manager directly
+        String component = RootHelperClient.get().launch(packageName);
+        if (component != null) {
+            log("Opened " + component + " using root helper");
+            return true;
+        }
 
+        // Try monkey command
+        RootShell.Result result = RootShell.run(
+                "monkey -p " + packageName + " -c android.intent.category.LAUNCHER 1");
+        if (monkeyStarted(result)) {
             log("Opened " + packageName + " using su monkey command");
+            return true;
+        }
 
-        } catch (Exception e) {
-            log("Error opening app with su: " + e.getMessage());
-
-            // Fallback to am start
-            try {
-                Process process = Runtime.getRuntime().exec("su");
-                DataOutputStream os = new DataOutputStream(process.getOutputStream());
-
-                os.writeBytes("am start -n " + packageName + "/.MainActivity\n");
-                os.writeBytes("exit\n");
-                os.flush();
-
-                process.waitFor();
-                os.close();
-
-                log("Opened " + packageName + " using su am start command");
+        log("Error opening app with su monkey: " + (result.isSuccess() ? result.stdout.trim() : result.getError()));
 
-            } catch (Exception e2) {
-                log("Error with am start fallback: " + e2.getMessage());
-            }
+        // Fallback to am start; -W reports whether the activity really started
+        String activity = AppCatalog.launcherActivity(packageName);
+        OutputScanners.AmStart start = new OutputScanners.AmStart();
+        result = RootShell.stream("am start -W -n " + packageName + "/" + (activity != null ? activity : ".MainActivity"),
+                RootShell.DEFAULT_TIMEOUT_MS,
+                (line, stderr) -> {
+                    OutputScanners.scanAmStartLine(line, start);
+                    return true;
+                });
+        if (!result.isSuccess()) {
+            log("Error with am start fallback: " + result.getError());
+        } else if (start.error() != null || !start.ok) {
+            log("Error with am start fallback: " + (start.error() != null ? start.error() : "no Status: ok"));
+        } else {
+            log("Opened " + packageName + " using su am start command"
+                    + (start.launchTimeMs() >= 0 ? " in " + start.launchTimeMs() + "ms" : ""));
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Whether monkey injected its launch event. It exits 0 even when it
+     * finds nothing to launch, so its own abort message is checked too.
+     */
+    private static boolean monkeyStarted(RootShell.Result result) {
+        if (!result.isSuccess())
+            return false;
+        String output = result.stdout + "\n" + result.stderr;
+        return !output.contains("No activities found") && !output.contains("monkey aborted");
     }
 
     /**
@@ -493,8 +605,9 @@ public class CommandExecutor {
         String contextInfo = contextAwareSystem.getCurrentContextInfo();
         log("📱 Current Context:\n" + contextInfo);
 
-        // Use full context-aware processing
-        contextAwareSystem.quickExecute(userInput, new ContextAwareCommandSystem.SystemCallback() {
+        // Use full context-aware processing, on the screen this command started from
+        Supplier<ScreenSnapshot> screen = screenFor(userInput);
+        contextAwareSystem.quickExecute(userInput, screen, new ContextAwareCommandSystem.SystemCallback() {
             @Override
             public void onCommandReady(String command, boolean fromCache, String contextInfo) {
                 if (fromCache) {
@@ -537,7 +650,7 @@ public class CommandExecutor {
         isAIProcessing = true;
         updateOverlay("🚀 Processing with hybrid system...");
 
-        hybridSystem.processCommand(userInput, new HybridCommandSystem.SystemCallback() {
+        hybridSystem.processCommand(userInput, screenFor(userInput), new HybridCommandSystem.SystemCallback() {
             @Override
             public void onCommandReady(String command, boolean instant, String source) {
                 log("✅ Hybrid command ready from " + source + ": " + command);
@@ -787,6 +900,19 @@ public class CommandExecutor {
         return smartCommandManager.getCacheStats();
     }
 
+    /**
+     * Get root shell pool statistics (spawns, reuse, spawn time saved) and
+     * the per-verb root metrics report
+     */
+    public String getRootShellStats() {
+        return RootShell.getStats() + "\n" + RootBatcher.getStats() + "\n" + PriorityScheduler.getStats() + "\n"
+                + QueryCache.getStats() + "\n" + RootHelperClient.get().getStats() + "\n"
+                + BufferPool.getStats() + "\n" + AccessibilitySnapshot.getStats() + "\n"
+                + LiveScreenModel.getStats() + "\n" + ForegroundTracker.getStats() + "\n"
+                + ElementSummarizer.getStats() + "\n" + AppCatalog.getStats() + "\n\n"
+                + RootMetrics.getReport();
+    }
+
     /**
      * Clear command cache
      */
@@ -2,9 +2,15 @@ package com.assistant.root.utils;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.assistant.root.helper.RootHelperClient;
+import com.assistant.root.shell.RootBatcher;
+import com.assistant.root.shell.RootCapabilities;
+import com.assistant.root.shell.RootShell;
+import com.assistant.root.shell.StreamDecoder;
+import com.assistant.root.shell.TextBuffer;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -16,24 +22,21 @@ import java.util.Locale;
 public class Utils {
 
     /**
-     * Run a command as root using `su -c` and return the output.
-     * This method swallows exceptions and returns null on failure.
+     * Run a command as root in a pooled root shell and return the output.
+     * Input commands go to the resident helper when it is running. Read-only
+     * commands share a shell round-trip with others issued at the same
+     * time; the rest run on a shell of their own.
+     * Returns null if no root shell could be obtained.
      */
     public static String runRootCommand(String command) {
-        try {
-            Process p = Runtime.getRuntime().exec(new String[] { "su", "-c", command });
-            BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            StringBuilder out = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                out.append(line).append('\n');
-            }
-            p.waitFor();
-            return out.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (RootHelperClient.get().input(command))
+            return "";
+        RootShell.Result result = RootBatcher.run(command, RootShell.DEFAULT_TIMEOUT_MS);
+        if (result.shellUnavailable) {
+            Log.w("Utils", "Root command failed: " + result.getError());
             return null;
         }
+        return result.stdout;
     }
 
     /**
@@ -42,14 +45,12 @@ public class Utils {
     public static String runCommand(String command) {
         try {
             Process p = Runtime.getRuntime().exec(command);
-            BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            StringBuilder out = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                out.append(line).append('\n');
+            // Decoded straight into a pooled buffer; the result string is the only copy
+            try (TextBuffer out = TextBuffer.obtain()) {
+                StreamDecoder.readAll(p.getInputStream(), out);
+                p.waitFor();
+                return out.toString();
             }
-            p.waitFor();
-            return out.toString();
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -57,16 +58,11 @@ public class Utils {
     }
 
     /**
-     * Quick check whether device is rooted by trying `su -c id`.
+     * Whether root is granted, from the cached capability probe.
+     * Blocks while the first probe runs, so don't call on the main thread.
      */
     public static boolean isRooted() {
-        try {
-            Process p = Runtime.getRuntime().exec(new String[] { "su", "-c", "id" });
-            int exit = p.waitFor();
-            return exit == 0;
-        } catch (Exception e) {
-            return false;
-        }
+        return RootCapabilities.isRooted();
     }
 
     public static void sleep(long ms) {
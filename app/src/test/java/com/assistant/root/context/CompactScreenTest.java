@@ -0,0 +1,172 @@
+package com.assistant.root.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * CompactScreen against the Node tree parsed from the same dump, and what
+ * each costs to hold
+ */
+public class CompactScreenTest {
+    private static final int[] SIZES = { 1000, 4000 };
+    // Screens held at once, like snapshots kept by history and diffing
+    private static final int HELD = 20;
+    private static final int TIMING_RUNS = 10;
+
+    private static volatile int sink;
+    // Where held screens live while measured, so nothing can prove them dead early
+    private static volatile List<Object> held;
+
+    @Test
+    public void sameNodesAsTree() {
+        for (int size : SIZES) {
+            String xml = SyntheticDumps.dump(size, new Random(size));
+            List<UIHierarchyParser.Node> nodes = UIHierarchyParser.parse(xml).getNodes();
+            CompactScreen screen = UIHierarchyParser.parseCompact(xml);
+
+            assertEquals(nodes.size(), screen.nodeCount());
+            for (int i = 0; i < nodes.size(); i++) {
+                UIHierarchyParser.Node node = nodes.get(i);
+                String at = size + " nodes: node " + i;
+                assertEquals(at, node.parent != null ? node.parent.id : -1, screen.parent(i));
+                assertEquals(at, node.depth, screen.depth(i));
+                assertEquals(at, node.index, screen.index(i));
+                assertEquals(at, node.resourceId, screen.resourceId(i));
+                assertEquals(at, node.className, screen.className(i));
+                assertEquals(at, node.packageName, screen.packageName(i));
+                assertEquals(at, node.text, screen.text(i));
+                assertEquals(at, node.contentDesc, screen.contentDesc(i));
+                assertEquals(at, node.clickable, screen.is(i, CompactScreen.CLICKABLE));
+                assertEquals(at, node.focusable, screen.is(i, CompactScreen.FOCUSABLE));
+                assertEquals(at, node.enabled, screen.is(i, CompactScreen.ENABLED));
+                assertEquals(at, node.left, screen.left(i));
+                assertEquals(at, node.top, screen.top(i));
+                assertEquals(at, node.right, screen.right(i));
+                assertEquals(at, node.bottom, screen.bottom(i));
+            }
+        }
+    }
+
+    @Test
+    public void sameElementsAsTree() {
+        for (int size : SIZES) {
+            String xml = SyntheticDumps.dump(size, new Random(size));
+            List<UIElementParser.UIElement> expected = UIHierarchyParser.parse(xml).getElements();
+            CompactScreen screen = UIHierarchyParser.parseCompact(xml);
+            List<UIElementParser.UIElement> actual = screen.elements();
+
+            assertEquals(expected.size(), screen.elementCount());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                UIElementParser.UIElement a = expected.get(i);
+                UIElementParser.UIElement b = actual.get(i);
+                String at = size + " nodes: element " + i;
+                assertEquals(at, a.resourceId, b.resourceId);
+                assertEquals(at, a.text, b.text);
+                assertEquals(at, a.contentDesc, b.contentDesc);
+                assertEquals(at, a.className, b.className);
+                assertEquals(at, a.centerX, b.centerX);
+                assertEquals(at, a.centerY, b.centerY);
+                assertEquals(at, a.depth, b.depth);
+                assertEquals(at, a.index, b.index);
+                assertEquals(at, a.node.id, screen.elementNode(i));
+            }
+        }
+    }
+
+    @Test
+    public void elementsAreCreatedOnce() {
+        CompactScreen screen = UIHierarchyParser.parseCompact(SyntheticDumps.dump(200, new Random(1)));
+        assertSame(screen.elements().get(3), screen.elements().get(3));
+        assertSame(screen.element(0), screen.elements().get(0));
+    }
+
+    /**
+     * Heap each form retains per screen, and parse time
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void memoryAndTiming() {
+        System.out.println("CompactScreen, " + HELD + " screens held");
+        for (int size : SIZES) {
+            String xml = SyntheticDumps.dump(size, new Random(size));
+
+            // Once unmeasured, so class loading and first-parse garbage don't count
+            retained(xml, Mode.COMPACT);
+            long treeBytes = retained(xml, Mode.TREE);
+            long listBytes = retained(xml, Mode.ELEMENTS);
+            long compactBytes = retained(xml, Mode.COMPACT);
+
+            // Warm up both before timing
+            for (int i = 0; i < TIMING_RUNS / 2; i++) {
+                sink += UIHierarchyParser.parse(xml).getElements().size();
+                sink += UIHierarchyParser.parseCompact(xml).nodeCount();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMING_RUNS; i++) {
+                sink += UIHierarchyParser.parse(xml).getElements().size();
+            }
+            double treeMs = (System.nanoTime() - start) / 1e6 / TIMING_RUNS;
+            start = System.nanoTime();
+            for (int i = 0; i < TIMING_RUNS; i++) {
+                sink += UIHierarchyParser.parseCompact(xml).nodeCount();
+            }
+            double compactMs = (System.nanoTime() - start) / 1e6 / TIMING_RUNS;
+
+            System.out.println(String.format("%d nodes: tree %dKB, elements only %dKB, compact %dKB per screen "
+                    + "(%.1fx smaller than tree); parse tree %.1fms, compact %.1fms", size, treeBytes / 1024,
+                    listBytes / 1024, compactBytes / 1024,
+                    compactBytes > 0 ? (double) treeBytes / compactBytes : 0.0, treeMs, compactMs));
+        }
+    }
+
+    private enum Mode {
+        TREE, ELEMENTS, COMPACT
+    }
+
+    /**
+     * Average heap retained per screen while HELD of them are reachable
+     */
+    private static long retained(String xml, Mode mode) {
+        held = new ArrayList<>(HELD);
+        for (int i = 0; i < HELD; i++) {
+            switch (mode) {
+                case TREE:
+                    held.add(UIHierarchyParser.parse(xml));
+                    break;
+                case ELEMENTS:
+                    held.add(UIHierarchyParser.parse(xml).getElements());
+                    break;
+                default:
+                    held.add(UIHierarchyParser.parseCompact(xml));
+            }
+        }
+        long holding = usedAfterGc();
+        held = null;
+        // Compared with the heap after letting go rather than before building:
+        // an explicit GC doesn't always free the previous round's screens at once
+        long released = usedAfterGc();
+        return Math.max(0, holding - released) / HELD;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Collect until the heap stops shrinking
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used)
+                break;
+            used = now;
+        }
+        return used;
+    }
+}
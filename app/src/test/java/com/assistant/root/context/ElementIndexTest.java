@@ -0,0 +1,246 @@
+package com.assistant.root.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ElementIndex lookups on a small screen, and against the linear
+ * UIElementParser lookups on synthetic screens of 2,000 nodes and up
+ */
+public class ElementIndexTest {
+    private static final int[] SIZES = { 2000, 5000, 10000 };
+    private static final int TIMING_ROUNDS = 20;
+
+    // Kept out of the timed loops' reach so they can't be optimised away
+    private static volatile int sink;
+
+    private static List<UIElementParser.UIElement> chatScreen() {
+        List<UIElementParser.UIElement> elements = new ArrayList<>();
+        elements.add(element("com.whatsapp:id/menu", "", "More options", "android.widget.ImageButton", 1030, 150));
+        elements.add(element("com.whatsapp:id/conversation_row", "Alice", "", "android.widget.TextView", 540, 400));
+        elements.add(element("com.whatsapp:id/conversation_row", "Alice Cooper", "", "android.widget.TextView",
+                540, 600));
+        elements.add(element("com.whatsapp:id/entry", "", "Message", "android.widget.EditText", 470, 2280));
+        elements.add(element("com.whatsapp:id/send", "", "Send", "android.widget.ImageButton", 990, 2280));
+        return elements;
+    }
+
+    private static UIElementParser.UIElement element(String id, String text, String desc, String className, int x,
+            int y) {
+        UIElementParser.UIElement el = new UIElementParser.UIElement(id, text, desc, true, x, y);
+        el.className = className;
+        return el;
+    }
+
+    @Test
+    public void lookupsOnSmallScreen() {
+        List<UIElementParser.UIElement> elements = chatScreen();
+        ElementIndex index = new ElementIndex(elements);
+
+        assertEquals(5, index.size());
+        assertSame(elements.get(1), index.findByText("alice"));
+        assertSame(elements.get(2), index.findByText("cooper"));
+        assertSame(elements.get(0), index.findByText("OPTIONS"));
+        assertSame(elements.get(2), index.findByExactText("alice cooper"));
+        assertNull(index.findByExactText("cooper"));
+        assertSame(elements.get(4), index.findByContentDesc("send"));
+        assertSame(elements.get(4), index.findByResourceId("send"));
+        assertSame(elements.get(3), index.findByIdName("entry"));
+        assertNull(index.findByIdName("ntry"));
+        assertSame(elements.get(3), index.findByClass("EditText", "AutoCompleteTextView"));
+        assertSame(elements.get(0), index.findByClass("Button"));
+        assertSame(elements.get(4), index.nearest(1000, 2300));
+        assertSame(elements.get(0), index.nearest(1080, 0));
+        assertNull(index.findByText("Bob"));
+    }
+
+    @Test
+    public void emptyScreen() {
+        ElementIndex index = new ElementIndex(new ArrayList<>());
+        assertNull(index.findByText("a"));
+        assertNull(index.findByClass("EditText"));
+        assertNull(index.nearest(10, 10));
+    }
+
+    @Test
+    public void agreesWithLinearLookups() {
+        for (int size : SIZES) {
+            Random random = new Random(size);
+            String xml = SyntheticDumps.dump(size, random);
+            List<UIElementParser.UIElement> elements = UIHierarchyParser.parse(xml).getElements();
+            Queries queries = new Queries(elements, random);
+
+            ElementIndex index = new ElementIndex(elements);
+            ElementIndex compact = new ElementIndex(UIHierarchyParser.parseCompact(xml));
+            for (String q : queries.texts) {
+                assertSame(size + " findByText(\"" + q + "\")", UIElementParser.findByText(elements, q),
+                        index.findByText(q));
+                assertSame(size + " findByContentDesc(\"" + q + "\")",
+                        UIElementParser.findByContentDesc(elements, q), index.findByContentDesc(q));
+                assertSameElement(size + " compact findByText(\"" + q + "\")",
+                        UIElementParser.findByText(elements, q), compact.findByText(q));
+            }
+            for (String id : queries.ids) {
+                assertSame(size + " findByResourceId(\"" + id + "\")", UIElementParser.findByResourceId(elements, id),
+                        index.findByResourceId(id));
+                assertSameElement(size + " compact findByResourceId(\"" + id + "\")",
+                        UIElementParser.findByResourceId(elements, id), compact.findByResourceId(id));
+            }
+            for (int[] p : queries.points) {
+                assertSame(size + " nearest(" + p[0] + "," + p[1] + ")", linearNearest(elements, p[0], p[1]),
+                        index.nearest(p[0], p[1]));
+                assertSameElement(size + " compact nearest(" + p[0] + "," + p[1] + ")",
+                        linearNearest(elements, p[0], p[1]), compact.nearest(p[0], p[1]));
+            }
+        }
+    }
+
+    /**
+     * Lookup time against linear scans
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void timing() {
+        System.out.println("ElementIndex, " + TIMING_ROUNDS + " rounds each");
+        for (int size : SIZES) {
+            Random random = new Random(size);
+            List<UIElementParser.UIElement> elements = UIHierarchyParser
+                    .parse(SyntheticDumps.dump(size, random)).getElements();
+            Queries queries = new Queries(elements, random);
+            ElementIndex index = new ElementIndex(elements);
+
+            // Warm up both before timing
+            for (int i = 0; i < TIMING_ROUNDS / 2; i++) {
+                sink += linearRound(elements, queries);
+                sink += indexRound(new ElementIndex(elements), queries);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMING_ROUNDS; i++) {
+                sink += linearRound(elements, queries);
+            }
+            double linearMs = (System.nanoTime() - start) / 1e6 / TIMING_ROUNDS;
+
+            // A fresh index each round, so its build cost is included
+            start = System.nanoTime();
+            for (int i = 0; i < TIMING_ROUNDS; i++) {
+                sink += indexRound(new ElementIndex(elements), queries);
+            }
+            double indexMs = (System.nanoTime() - start) / 1e6 / TIMING_ROUNDS;
+
+            // Lookups alone, on an index that is already built
+            start = System.nanoTime();
+            for (int i = 0; i < TIMING_ROUNDS; i++) {
+                sink += indexRound(index, queries);
+            }
+            double builtMs = (System.nanoTime() - start) / 1e6 / TIMING_ROUNDS;
+
+            System.out.println(String.format("%d nodes (%d elements, %d lookups): linear %.2fms, index %.2fms "
+                    + "with build, %.3fms built (%.0fx)", size, elements.size(), queries.lookups(), linearMs,
+                    indexMs, builtMs, builtMs > 0 ? linearMs / builtMs : 0.0));
+        }
+    }
+
+    /**
+     * Texts that are on screen, parts of them and some that aren't, id
+     * parts, and points anywhere on screen
+     */
+    private static class Queries {
+        final String[] texts = new String[16];
+        final String[] ids = { "row_7", "row_42", "send", "entry", "id/row_3" };
+        final int[][] points = new int[32][];
+
+        Queries(List<UIElementParser.UIElement> elements, Random random) {
+            for (int i = 0; i < texts.length; i++) {
+                UIElementParser.UIElement el = elements.get(random.nextInt(elements.size()));
+                String label = !el.text.isEmpty() ? el.text
+                        : !el.contentDesc.isEmpty() ? el.contentDesc : "Message 1";
+                switch (i % 4) {
+                    case 0:
+                        texts[i] = label;
+                        break;
+                    case 1:
+                        texts[i] = label.substring(label.length() / 2);
+                        break;
+                    case 2:
+                        texts[i] = "no such " + i;
+                        break;
+                    default:
+                        texts[i] = label.toLowerCase().substring(0, Math.min(2, label.length()));
+                }
+            }
+            for (int i = 0; i < points.length; i++) {
+                points[i] = new int[] { random.nextInt(1080), random.nextInt(2400) };
+            }
+        }
+
+        int lookups() {
+            return texts.length * 2 + ids.length + points.length;
+        }
+    }
+
+    private static void assertSameElement(String message, UIElementParser.UIElement expected,
+            UIElementParser.UIElement actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertEquals(message, expected.text, actual.text);
+        assertEquals(message, expected.resourceId, actual.resourceId);
+        assertEquals(message, expected.centerX, actual.centerX);
+        assertEquals(message, expected.centerY, actual.centerY);
+    }
+
+    private static int linearRound(List<UIElementParser.UIElement> elements, Queries queries) {
+        int found = 0;
+        for (String q : queries.texts) {
+            found += UIElementParser.findByText(elements, q) != null ? 1 : 0;
+            found += UIElementParser.findByContentDesc(elements, q) != null ? 1 : 0;
+        }
+        for (String id : queries.ids) {
+            found += UIElementParser.findByResourceId(elements, id) != null ? 1 : 0;
+        }
+        for (int[] p : queries.points) {
+            found += linearNearest(elements, p[0], p[1]) != null ? 1 : 0;
+        }
+        return found;
+    }
+
+    private static int indexRound(ElementIndex index, Queries queries) {
+        int found = 0;
+        for (String q : queries.texts) {
+            found += index.findByText(q) != null ? 1 : 0;
+            found += index.findByContentDesc(q) != null ? 1 : 0;
+        }
+        for (String id : queries.ids) {
+            found += index.findByResourceId(id) != null ? 1 : 0;
+        }
+        for (int[] p : queries.points) {
+            found += index.nearest(p[0], p[1]) != null ? 1 : 0;
+        }
+        return found;
+    }
+
+    private static UIElementParser.UIElement linearNearest(List<UIElementParser.UIElement> elements, int x, int y) {
+        UIElementParser.UIElement best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (UIElementParser.UIElement el : elements) {
+            long dx = el.centerX - x;
+            long dy = el.centerY - y;
+            long distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = el;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,126 @@
+package com.assistant.root.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How ScreenDiff pairs the elements of two screens: by path identity,
+ * content first and then place among elements sharing an identity
+ */
+public class ScreenDiffTest {
+    private static final int ROW_HEIGHT = 100;
+
+    /**
+     * A chat list: a toolbar button, then one clickable row per text, top
+     * to bottom, all with the same resource id
+     */
+    private static ScreenSnapshot chatList(String... rows) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?><hierarchy rotation=\"0\">")
+                .append("<node index=\"0\" text=\"\" resource-id=\"\" class=\"android.widget.FrameLayout\"")
+                .append(" package=\"com.whatsapp\" content-desc=\"\" clickable=\"false\" enabled=\"true\"")
+                .append(" bounds=\"[0,0][1080,2400]\">")
+                .append("<node index=\"0\" text=\"\" resource-id=\"com.whatsapp:id/search\"")
+                .append(" class=\"android.widget.ImageButton\" package=\"com.whatsapp\" content-desc=\"Search\"")
+                .append(" clickable=\"true\" enabled=\"true\" bounds=\"[900,0][1080,100]\" />")
+                .append("<node index=\"1\" text=\"\" resource-id=\"com.whatsapp:id/list\"")
+                .append(" class=\"androidx.recyclerview.widget.RecyclerView\" package=\"com.whatsapp\"")
+                .append(" content-desc=\"\" clickable=\"false\" enabled=\"true\" bounds=\"[0,100][1080,2400]\">");
+        for (int i = 0; i < rows.length; i++) {
+            int top = ROW_HEIGHT * (i + 1);
+            xml.append("<node index=\"").append(i).append("\" text=\"").append(rows[i])
+                    .append("\" resource-id=\"com.whatsapp:id/contact_row\" class=\"android.widget.TextView\"")
+                    .append(" package=\"com.whatsapp\" content-desc=\"\" clickable=\"true\" enabled=\"true\"")
+                    .append(" bounds=\"[0,").append(top).append("][1080,").append(top + ROW_HEIGHT).append("]\" />");
+        }
+        xml.append("</node></node></hierarchy>");
+        return ScreenSnapshot.of(UIHierarchyParser.parseCompact(xml), ScreenSnapshot.SOURCE_DUMP);
+    }
+
+    private static List<String> texts(List<UIElementParser.UIElement> elements) {
+        List<String> texts = new ArrayList<>();
+        for (UIElementParser.UIElement el : elements) {
+            texts.add(el.text);
+        }
+        return texts;
+    }
+
+    private static List<String> list(String... texts) {
+        List<String> list = new ArrayList<>();
+        for (String text : texts) {
+            list.add(text);
+        }
+        return list;
+    }
+
+    @Test
+    public void identicalScreensHaveNoChanges() {
+        ScreenDiff diff = ScreenDiff.between(chatList("Ann", "Bob", "Cat"), chatList("Ann", "Bob", "Cat"));
+        assertFalse(diff.hasChanges());
+        assertEquals(0, diff.size());
+        assertEquals("No changes\n", diff.formatForAI());
+        for (int i = 0; i < diff.matches.length; i++) {
+            assertEquals(i, diff.matches[i]);
+        }
+    }
+
+    @Test
+    public void shiftedRowKeepsItsMatch() {
+        // A new chat comes in at the top and pushes the others down
+        ScreenDiff diff = ScreenDiff.between(chatList("Ann", "Bob", "Cat"), chatList("Dan", "Ann", "Bob", "Cat"));
+
+        // Elements: 0 is the search button, rows follow
+        assertEquals(0, diff.matches[0]);
+        assertEquals(-1, diff.matches[1]);
+        assertEquals(1, diff.matches[2]);
+        assertEquals(2, diff.matches[3]);
+        assertEquals(3, diff.matches[4]);
+        assertEquals(list("Dan"), texts(diff.added));
+        assertTrue(diff.removed.isEmpty());
+        // The shifted rows moved, so they count as changed, not added and removed
+        assertEquals(list("Ann", "Bob", "Cat"), texts(diff.changed));
+    }
+
+    @Test
+    public void textChangeIsAChangeNotAddAndRemove() {
+        ScreenDiff diff = ScreenDiff.between(chatList("Ann", "Bob", "Cat"), chatList("Ann", "Bob (typing)", "Cat"));
+
+        assertEquals(2, diff.matches[2]);
+        assertEquals(list("Bob (typing)"), texts(diff.changed));
+        assertTrue(diff.added.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+        assertTrue(diff.hasChanges());
+    }
+
+    @Test
+    public void rowScrolledInIsAdded() {
+        // Scrolled down by one row: Ann leaves at the top, Dan comes in below
+        ScreenDiff diff = ScreenDiff.between(chatList("Ann", "Bob", "Cat"), chatList("Bob", "Cat", "Dan"));
+
+        assertEquals(2, diff.matches[1]);
+        assertEquals(3, diff.matches[2]);
+        assertEquals(-1, diff.matches[3]);
+        assertEquals(list("Dan"), texts(diff.added));
+        assertEquals(list("Ann"), texts(diff.removed));
+        assertEquals(list("Bob", "Cat"), texts(diff.changed));
+    }
+
+    @Test
+    public void differentIdentitiesNeverPair() {
+        ScreenDiff diff = ScreenDiff.between(ScreenSnapshot.of(UIHierarchyParser.parseCompact(
+                "<hierarchy><node index=\"0\" text=\"Ann\" resource-id=\"com.whatsapp:id/other\""
+                        + " class=\"android.widget.TextView\" package=\"com.whatsapp\" content-desc=\"\""
+                        + " clickable=\"true\" enabled=\"true\" bounds=\"[0,0][100,100]\" /></hierarchy>"),
+                ScreenSnapshot.SOURCE_DUMP), chatList("Ann"));
+
+        assertEquals(list("", "Ann"), texts(diff.added));
+        assertEquals(list("Ann"), texts(diff.removed));
+        assertTrue(diff.changed.isEmpty());
+    }
+}
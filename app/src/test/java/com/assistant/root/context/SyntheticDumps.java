@@ -0,0 +1,65 @@
+package com.assistant.root.context;
+
+import java.util.Random;
+
+/**
+ * `uiautomator dump` output shaped like busy feed and chat screens, for
+ * tests that need more nodes than a captured dump has
+ */
+class SyntheticDumps {
+    private static final String[] CLASSES = { "android.widget.FrameLayout", "android.widget.LinearLayout",
+            "android.widget.TextView", "android.widget.ImageView", "android.widget.Button",
+            "androidx.recyclerview.widget.RecyclerView", "android.view.ViewGroup" };
+
+    /**
+     * A dump with the given number of nodes, nested a few levels deep like a
+     * list of rows, with about a third of the nodes clickable
+     */
+    static String dump(int nodeCount, Random random) {
+        StringBuilder xml = new StringBuilder(nodeCount * 400);
+        xml.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?><hierarchy rotation=\"0\">");
+        int[] remaining = { nodeCount };
+        appendNode(xml, random, 0, 0, remaining, 0, 0, 1080, 2400);
+        xml.append("</hierarchy>");
+        return xml.toString();
+    }
+
+    private static void appendNode(StringBuilder xml, Random random, int index, int depth, int[] remaining,
+            int left, int top, int right, int bottom) {
+        remaining[0]--;
+        boolean clickable = random.nextInt(3) == 0;
+        String cls = CLASSES[random.nextInt(CLASSES.length)];
+        xml.append("<node index=\"").append(index).append("\" text=\"")
+                .append(random.nextInt(4) == 0 ? "Message " + random.nextInt(10000) : "")
+                .append("\" resource-id=\"")
+                .append(random.nextBoolean() ? "com.whatsapp:id/row_" + random.nextInt(50) : "")
+                .append("\" class=\"").append(cls)
+                .append("\" package=\"com.whatsapp\" content-desc=\"")
+                .append(random.nextInt(5) == 0 ? "Open chat " + random.nextInt(100) : "")
+                .append("\" checkable=\"false\" checked=\"false\" clickable=\"").append(clickable)
+                .append("\" enabled=\"true\" focusable=\"").append(clickable)
+                .append("\" focused=\"false\" scrollable=\"false\" long-clickable=\"").append(clickable)
+                .append("\" password=\"false\" selected=\"false\" bounds=\"[")
+                .append(left).append(',').append(top).append("][").append(right).append(',').append(bottom)
+                .append("]\"");
+
+        int children = depth < 6 && remaining[0] > 0 ? Math.min(remaining[0], 1 + random.nextInt(6)) : 0;
+        if (depth == 0)
+            children = Math.min(remaining[0], 40);
+        if (children == 0) {
+            xml.append(" />");
+            return;
+        }
+        xml.append('>');
+        int rowHeight = Math.max(1, (bottom - top) / children);
+        for (int i = 0; i < children && remaining[0] > 0; i++) {
+            int rowTop = top + i * rowHeight;
+            appendNode(xml, random, i, depth + 1, remaining, left, rowTop, right, rowTop + rowHeight);
+        }
+        // The root keeps adding rows until the node budget is spent
+        while (depth == 0 && remaining[0] > 0) {
+            appendNode(xml, random, children++, 1, remaining, left, top, right, bottom);
+        }
+        xml.append("</node>");
+    }
+}
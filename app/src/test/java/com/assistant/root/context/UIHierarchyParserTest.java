@@ -0,0 +1,200 @@
+package com.assistant.root.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * UIHierarchyParser on a hand-written dump, and against the regex parser
+ * it replaced on synthetic ones
+ */
+public class UIHierarchyParserTest {
+    private static final int[] SIZES = { 200, 1000, 4000 };
+    private static final int TIMING_RUNS = 10;
+    // Roughly what a pipe read delivers at a time
+    private static final int CHUNK = 4096;
+
+    private static final String DUMP = "<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>"
+            + "<hierarchy rotation=\"0\">"
+            + "<node index=\"0\" text=\"\" resource-id=\"\" class=\"android.widget.FrameLayout\" "
+            + "package=\"com.whatsapp\" content-desc=\"\" clickable=\"false\" bounds=\"[0,0][1080,2400]\">"
+            + "<node index=\"0\" text=\"Tom &amp; Jerry &quot;Chat&quot;\" resource-id=\"com.whatsapp:id/name\" "
+            + "class=\"android.widget.TextView\" package=\"com.whatsapp\" content-desc=\"\" clickable=\"true\" "
+            + "bounds=\"[0,200][1080,400]\" />"
+            + "<node index=\"1\" text='Line one&#10;two' resource-id=\"\" class=\"android.widget.EditText\" "
+            + "package=\"com.whatsapp\" content-desc=\"Message\" clickable=\"true\" focused=\"true\" "
+            + "bounds=\"[40,2200][900,2360]\" />"
+            + "<node index=\"2\" text=\"\" resource-id=\"com.whatsapp:id/send\" class=\"android.widget.ImageButton\" "
+            + "package=\"com.whatsapp\" content-desc=\"Send\" clickable=\"true\" bounds=\"[920,2200][1060,2360]\">"
+            + "<node index=\"0\" text=\"\" resource-id=\"\" class=\"android.widget.ImageView\" package=\"com.whatsapp\" "
+            + "content-desc=\"\" clickable=\"false\" bounds=\"[950,2230][1030,2330]\" />"
+            + "</node>"
+            + "</node>"
+            + "</hierarchy>";
+
+    @Test
+    public void handWrittenDump() {
+        UIHierarchyParser parser = UIHierarchyParser.parse(DUMP);
+        assertTrue(parser.isComplete());
+
+        List<UIHierarchyParser.Node> nodes = parser.getNodes();
+        assertEquals(5, nodes.size());
+        UIHierarchyParser.Node root = parser.getRoot();
+        assertSame(nodes.get(0), root);
+        assertEquals(3, root.children.size());
+        assertNull(root.parent);
+
+        UIHierarchyParser.Node icon = nodes.get(4);
+        assertEquals(2, icon.depth);
+        assertSame(nodes.get(3), icon.parent);
+        assertEquals(990, icon.centerX());
+
+        List<UIElementParser.UIElement> elements = parser.getElements();
+        assertEquals(3, elements.size());
+        UIElementParser.UIElement name = elements.get(0);
+        assertEquals("Tom & Jerry \"Chat\"", name.text);
+        assertEquals("com.whatsapp:id/name", name.resourceId);
+        assertEquals(540, name.centerX);
+        assertEquals(300, name.centerY);
+
+        UIElementParser.UIElement input = elements.get(1);
+        assertEquals("Line one\ntwo", input.text);
+        assertEquals("android.widget.EditText", input.className);
+        assertTrue(nodes.get(2).focused);
+
+        UIElementParser.UIElement send = elements.get(2);
+        assertEquals("Send", send.contentDesc);
+        assertEquals("Send", send.getIdentifier());
+        assertEquals(1, send.depth);
+        assertEquals(2, send.index);
+    }
+
+    @Test
+    public void stopsAtEndOfHierarchy() {
+        UIHierarchyParser parser = new UIHierarchyParser();
+        int end = DUMP.indexOf("</hierarchy>");
+        assertTrue(parser.feed(DUMP.substring(0, end)));
+        assertFalse(parser.isComplete());
+        // Whatever the shell prints after the dump is not read
+        assertFalse(parser.feed(DUMP.substring(end) + "UI hierchary dumped to: /dev/tty"));
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    public void chunkBoundariesDontMatter() {
+        String xml = SyntheticDumps.dump(500, new Random(7));
+        List<UIElementParser.UIElement> whole = UIHierarchyParser.parse(xml).getElements();
+        for (int chunk : new int[] { 1, 7, 64, CHUNK }) {
+            assertSameElements("chunks of " + chunk, whole, parseInChunks(xml, chunk).getElements());
+        }
+    }
+
+    @Test
+    public void agreesWithRegexParser() {
+        for (int size : SIZES) {
+            String xml = SyntheticDumps.dump(size, new Random(size));
+            List<UIElementParser.UIElement> expected = legacyParse(xml);
+            assertTrue(expected.size() > size / 5);
+            assertSameElements(size + " nodes", expected, parseInChunks(xml, CHUNK).getElements());
+        }
+    }
+
+    /**
+     * Parse time against the regex parser
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void timing() {
+        System.out.println("UIHierarchyParser, " + TIMING_RUNS + " runs each");
+        for (int size : SIZES) {
+            String xml = SyntheticDumps.dump(size, new Random(size));
+
+            // Warm up both before timing
+            legacyParse(xml);
+            parseInChunks(xml, CHUNK);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMING_RUNS; i++) {
+                legacyParse(xml);
+            }
+            double legacyMs = (System.nanoTime() - start) / 1e6 / TIMING_RUNS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < TIMING_RUNS; i++) {
+                parseInChunks(xml, CHUNK);
+            }
+            double streamMs = (System.nanoTime() - start) / 1e6 / TIMING_RUNS;
+
+            System.out.println(String.format("%d nodes (%dKB): regex %.1fms, streaming %.1fms (%.1fx)", size,
+                    xml.length() / 1024, legacyMs, streamMs, streamMs > 0 ? legacyMs / streamMs : 0.0));
+        }
+    }
+
+    private static UIHierarchyParser parseInChunks(String xml, int chunk) {
+        UIHierarchyParser parser = new UIHierarchyParser();
+        for (int offset = 0; offset < xml.length(); offset += chunk) {
+            if (!parser.feed(xml.subSequence(offset, Math.min(xml.length(), offset + chunk))))
+                break;
+        }
+        return parser;
+    }
+
+    static void assertSameElements(String message, List<UIElementParser.UIElement> expected,
+            List<UIElementParser.UIElement> actual) {
+        assertEquals(message + ": element count", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            UIElementParser.UIElement a = expected.get(i);
+            UIElementParser.UIElement b = actual.get(i);
+            String at = message + ": element " + i;
+            assertEquals(at, a.resourceId, b.resourceId);
+            assertEquals(at, a.text, b.text);
+            assertEquals(at, a.contentDesc, b.contentDesc);
+            assertEquals(at, a.centerX, b.centerX);
+            assertEquals(at, a.centerY, b.centerY);
+        }
+    }
+
+    // The regex parser UIHierarchyParser replaced
+
+    private static List<UIElementParser.UIElement> legacyParse(String xml) {
+        List<UIElementParser.UIElement> elements = new ArrayList<>();
+        Pattern nodePattern = Pattern.compile("<node([^>]+)/?>");
+        Matcher nodeMatcher = nodePattern.matcher(xml);
+
+        while (nodeMatcher.find()) {
+            String attrs = nodeMatcher.group(1);
+
+            String resourceId = legacyAttr(attrs, "resource-id");
+            String text = legacyAttr(attrs, "text");
+            String contentDesc = legacyAttr(attrs, "content-desc");
+            boolean clickable = "true".equals(legacyAttr(attrs, "clickable"));
+            String boundsStr = legacyAttr(attrs, "bounds");
+
+            if (clickable && boundsStr != null) {
+                Matcher m = Pattern.compile("\\[(\\d+),(\\d+)\\]\\[(\\d+),(\\d+)\\]").matcher(boundsStr);
+                if (m.find()) {
+                    int x = (Integer.parseInt(m.group(1)) + Integer.parseInt(m.group(3))) / 2;
+                    int y = (Integer.parseInt(m.group(2)) + Integer.parseInt(m.group(4))) / 2;
+                    elements.add(new UIElementParser.UIElement(resourceId, text, contentDesc, clickable, x, y));
+                }
+            }
+        }
+        return elements;
+    }
+
+    private static String legacyAttr(String attrs, String name) {
+        Matcher matcher = Pattern.compile(name + "=\"([^\"]*)\"").matcher(attrs);
+        return matcher.find() ? matcher.group(1) : "";
+    }
+}
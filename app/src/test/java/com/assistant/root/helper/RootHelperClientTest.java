@@ -0,0 +1,271 @@
+package com.assistant.root.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.assistant.root.shell.StreamDecoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Protocol framing between RootHelperClient and a stand-in helper that
+ * runs in-process over piped streams
+ */
+public class RootHelperClientTest {
+    private static final String APK = "/data/app/com.assistant.root-1/base.apk";
+
+    private final List<HelperProtocol.Request> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connects = new AtomicInteger();
+    private volatile boolean hangUp;
+    private RootHelperClient client;
+
+    @Before
+    public void setUp() {
+        client = new RootHelperClient(this::connect);
+    }
+
+    @After
+    public void tearDown() {
+        client.stop();
+    }
+
+    /**
+     * A connection to a stand-in helper thread answering from answer()
+     */
+    private RootHelperClient.Transport connect() throws IOException {
+        connects.incrementAndGet();
+        PipedInputStream serverIn = new PipedInputStream(64 * 1024);
+        PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+        PipedInputStream clientIn = new PipedInputStream(64 * 1024);
+        PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+
+        Thread server = new Thread(() -> {
+            try {
+                HelperProtocol.Request request;
+                while ((request = HelperProtocol.readRequest(serverIn)) != null) {
+                    received.add(request);
+                    if (hangUp)
+                        break;
+                    HelperProtocol.writeResponse(serverOut, answer(request));
+                }
+            } catch (IOException ignored) {
+            } finally {
+                try {
+                    serverOut.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }, "StandInHelper");
+        server.setDaemon(true);
+        server.start();
+
+        return new RootHelperClient.Transport() {
+            @Override
+            public InputStream getInputStream() {
+                return clientIn;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return clientOut;
+            }
+
+            @Override
+            public void close() throws IOException {
+                clientOut.close();
+                clientIn.close();
+            }
+        };
+    }
+
+    private static HelperProtocol.Response answer(HelperProtocol.Request request) {
+        switch (request.verb) {
+            case HelperProtocol.PING:
+                return HelperProtocol.Response.ok(HelperProtocol.VERSION + "\n" + APK);
+            case HelperProtocol.DUMP:
+                StringBuilder xml = new StringBuilder("<hierarchy>");
+                for (int i = 0; i < 2000; i++) {
+                    xml.append("<node text=\"Zürich ✓ ").append(i).append("\" />\n");
+                }
+                return HelperProtocol.Response.ok(xml.append("</hierarchy>").toString());
+            case HelperProtocol.TEXT:
+                return HelperProtocol.Response.ok(request.arg(0));
+            case HelperProtocol.LAUNCH:
+                return HelperProtocol.Response.error("No launcher activity for\t" + request.arg(0) + "\nat all");
+            default:
+                return HelperProtocol.Response.ok("");
+        }
+    }
+
+    @Test
+    public void pingReturnsVersionAndApk() {
+        assertEquals(HelperProtocol.VERSION + "\n" + APK, client.ping());
+        assertTrue(client.isAvailable());
+    }
+
+    @Test
+    public void largeMultiBytePayloadArrivesWhole() {
+        String dump = client.request(HelperProtocol.DUMP);
+        assertTrue(dump.startsWith("<hierarchy>"));
+        assertTrue(dump.endsWith("</hierarchy>"));
+        assertTrue(dump.contains("Zürich ✓ 1999"));
+        // The next response on the connection is still in step
+        assertEquals(HelperProtocol.VERSION + "\n" + APK, client.ping());
+    }
+
+    @Test
+    public void argumentsWithSeparatorsSurvive() {
+        String text = "tab\there\nnewline \\ backslash";
+        assertTrue(client.text(text));
+        assertEquals(text, received.get(0).arg(0));
+        assertEquals(text, client.request(HelperProtocol.TEXT, text));
+    }
+
+    @Test
+    public void errorResponseReturnsNullButKeepsConnection() {
+        assertNull(client.launch("com.example"));
+        assertTrue(client.isAvailable());
+        assertTrue(client.tap(10, 20));
+        assertEquals(1, connects.get());
+    }
+
+    @Test
+    public void requestsShareOneConnection() {
+        client.ping();
+        client.tap(1, 2);
+        client.key(4);
+        client.swipe(1, 2, 3, 4, 250);
+        assertEquals(1, connects.get());
+        assertEquals(4, received.size());
+        HelperProtocol.Request swipe = received.get(3);
+        assertEquals(HelperProtocol.SWIPE, swipe.verb);
+        assertEquals("250", swipe.arg(4));
+    }
+
+    @Test
+    public void hangUpMarksHelperUnavailable() {
+        assertTrue(client.tap(1, 1));
+        hangUp = true;
+        assertFalse(client.tap(2, 2));
+        assertFalse(client.isAvailable());
+        // Not retried straight away
+        assertNull(client.ping());
+        assertEquals(1, connects.get());
+    }
+
+    @Test
+    public void inputCommandsGoToTheHelper() {
+        assertTrue(client.input("input tap 540 1200"));
+        assertTrue(client.input("input text 'hello%sworld'"));
+        assertFalse(client.input("input keyevent KEYCODE_HOME"));
+        assertEquals(2, received.size());
+        assertEquals(HelperProtocol.TAP, received.get(0).verb);
+        assertEquals("540", received.get(0).arg(0));
+        assertEquals("1200", received.get(0).arg(1));
+        assertEquals("hello world", received.get(1).arg(0));
+    }
+
+    @Test
+    public void inputRequestMapsPlainCommandsOnly() {
+        HelperProtocol.Request swipe = RootHelperClient.inputRequest("input swipe 100 1500 100 300");
+        assertEquals(HelperProtocol.SWIPE, swipe.verb);
+        assertEquals("300", swipe.arg(4));
+        assertEquals(HelperProtocol.KEY, RootHelperClient.inputRequest(" input keyevent 66 ").verb);
+        assertEquals("a.b@c", RootHelperClient.inputRequest("input text a.b@c").arg(0));
+
+        assertNull(RootHelperClient.inputRequest("input tap 1 2; rm -rf /sdcard"));
+        assertNull(RootHelperClient.inputRequest("input tap 1"));
+        assertNull(RootHelperClient.inputRequest("input text 'it'\\''s'"));
+        assertNull(RootHelperClient.inputRequest("input text \"$(id)\""));
+        assertNull(RootHelperClient.inputRequest("input touchscreen tap 1 2"));
+        assertNull(RootHelperClient.inputRequest("am start -n a/b"));
+    }
+
+    @Test
+    public void responseFraming() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelperProtocol.writeResponse(out, HelperProtocol.Response.ok("ä\nb"));
+        HelperProtocol.writeResponse(out, HelperProtocol.Response.error("bad\targ"));
+        byte[] bytes = out.toByteArray();
+        assertEquals("OK 4\nä\nbERR bad\\targ\n", new String(bytes, StandardCharsets.UTF_8));
+
+        InputStream in = new ByteArrayInputStream(bytes);
+        assertEquals("ä\nb", HelperProtocol.readResponse(in).payload);
+        HelperProtocol.Response error = HelperProtocol.readResponse(in);
+        assertFalse(error.ok);
+        assertEquals("bad\targ", error.error);
+    }
+
+    @Test
+    public void streamedPayloadArrivesInPieces() throws IOException {
+        StringBuilder xml = new StringBuilder("<hierarchy>");
+        while (xml.length() < 100_000) {
+            xml.append("<node text=\"ä\" />");
+        }
+        xml.append("</hierarchy>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelperProtocol.writeResponse(out, HelperProtocol.Response.ok(xml + "\nend"));
+        HelperProtocol.writeResponse(out, HelperProtocol.Response.ok("next"));
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        StringBuilder joined = new StringBuilder();
+        List<String> lines = new CopyOnWriteArrayList<>();
+        int[] pieces = new int[1];
+        HelperProtocol.Response response = HelperProtocol.readResponse(in, new StreamDecoder.FragmentSink() {
+            @Override
+            public boolean onLine(CharSequence line) {
+                lines.add(joined.append(line).toString());
+                joined.setLength(0);
+                // Stop before "end"; the rest is skipped
+                return false;
+            }
+
+            @Override
+            public boolean onFragment(CharSequence fragment) {
+                pieces[0]++;
+                joined.append(fragment);
+                return true;
+            }
+        });
+        assertTrue(response.ok);
+        assertEquals("", response.payload);
+        assertEquals(xml.toString().getBytes(StandardCharsets.UTF_8).length + 4, response.length);
+        assertEquals(1, lines.size());
+        assertEquals(xml.toString(), lines.get(0));
+        assertTrue(pieces[0] > 10);
+        assertEquals("next", HelperProtocol.readResponse(in).payload);
+    }
+
+    @Test
+    public void truncatedPayloadIsAnError() throws IOException {
+        InputStream in = new ByteArrayInputStream("OK 10\nshort".getBytes(StandardCharsets.UTF_8));
+        try {
+            HelperProtocol.readResponse(in);
+            fail("Truncated payload was accepted");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void badHeaderIsAnError() throws IOException {
+        HelperProtocol.readResponse(new ByteArrayInputStream("HELLO\n".getBytes(StandardCharsets.UTF_8)));
+    }
+}
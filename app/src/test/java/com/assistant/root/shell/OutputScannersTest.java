@@ -0,0 +1,363 @@
+package com.assistant.root.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OutputScanners against output captured from devices, and against the
+ * split/regex parsing they replaced
+ */
+public class OutputScannersTest {
+    private static final int TIMING_PASSES = 20000;
+
+    // Lines in the formats printed by Android 11-14 builds (AOSP, One UI, MIUI)
+    private static final String[][] FOCUS_LINES = {
+            { "  mCurrentFocus=Window{8d3e1f2 u0 com.whatsapp/com.whatsapp.HomeActivity}",
+                    "com.whatsapp/com.whatsapp.HomeActivity" },
+            { "  mFocusedApp=ActivityRecord{5c8a0e1 u0 "
+                    + "com.android.chrome/org.chromium.chrome.browser.ChromeTabbedActivity t1204}",
+                    "com.android.chrome/org.chromium.chrome.browser.ChromeTabbedActivity" },
+            { "  mFocusedApp=AppWindowToken{9f0b2c3 token=Token{4e1d7a8 ActivityRecord{c3b2f19 u0 "
+                    + "com.google.android.youtube/"
+                    + "com.google.android.apps.youtube.app.watchwhile.WatchWhileActivity t311}}}",
+                    "com.google.android.youtube/com.google.android.apps.youtube.app.watchwhile.WatchWhileActivity" },
+            { "    mResumedActivity: ActivityRecord{1a2b3c4 u0 com.instagram.android/.activity.MainTabActivity t55}",
+                    "com.instagram.android/.activity.MainTabActivity" },
+            { "  mCurrentFocus=Window{2f4a6b1 u0 NotificationShade}", null },
+            { "  mCurrentFocus=null", null },
+            { "  mCurrentFocus=Window{71e0c5d u0 com.google.android.apps.nexuslauncher/"
+                    + "com.google.android.apps.nexuslauncher.NexusLauncherActivity}",
+                    "com.google.android.apps.nexuslauncher/"
+                            + "com.google.android.apps.nexuslauncher.NexusLauncherActivity" },
+    };
+
+    // Line, then package name and APK path (null when not listed with -f)
+    private static final String[][] PACKAGE_LINES = {
+            { "package:com.android.chrome", "com.android.chrome", null },
+            { "package:com.whatsapp", "com.whatsapp", null },
+            { "package:com.google.android.youtube", "com.google.android.youtube", null },
+            { "package:/data/app/~~Xy3kQ1b0Zx7l9yH2Lw==/com.whatsapp-AbC4dEfGh5iJ6kLmN7oP==/base.apk=com.whatsapp",
+                    "com.whatsapp", "/data/app/~~Xy3kQ1b0Zx7l9yH2Lw==/com.whatsapp-AbC4dEfGh5iJ6kLmN7oP==/base.apk" },
+            { "package:/system/priv-app/Settings/Settings.apk=com.android.settings", "com.android.settings",
+                    "/system/priv-app/Settings/Settings.apk" },
+            { "package:/product/app/Maps/Maps.apk=com.google.android.apps.maps", "com.google.android.apps.maps",
+                    "/product/app/Maps/Maps.apk" },
+            { "package:com.miui.securitycenter", "com.miui.securitycenter", null },
+    };
+
+    private static final String[] AM_START_COLD = {
+            "Starting: Intent { act=android.intent.action.MAIN cat=[android.intent.category.LAUNCHER] "
+                    + "cmp=com.whatsapp/.HomeActivity }",
+            "Status: ok",
+            "LaunchState: COLD",
+            "Activity: com.whatsapp/.HomeActivity",
+            "TotalTime: 612",
+            "WaitTime: 618",
+            "Complete",
+    };
+
+    private static final String[] AM_START_BROUGHT_TO_FRONT = {
+            "Starting: Intent { cmp=com.android.chrome/com.google.android.apps.chrome.Main }",
+            "Warning: Activity not started, its current task has been brought to the front",
+            "Status: ok",
+            "LaunchState: UNKNOWN (0)",
+            "Activity: com.android.chrome/org.chromium.chrome.browser.ChromeTabbedActivity",
+            "WaitTime: 41",
+            "Complete",
+    };
+
+    private static final String[] AM_START_MISSING = {
+            "Starting: Intent { cmp=com.example.app/.MainActivity }",
+            "Error type 3",
+            "Error: Activity class {com.example.app/com.example.app.MainActivity} does not exist.",
+    };
+
+    private static final String[][] AM_START_OUTPUTS = { AM_START_COLD, AM_START_BROUGHT_TO_FRONT,
+            AM_START_MISSING };
+
+    private static final Pattern AM_LINE = Pattern.compile("^\\s*([A-Za-z ]+?):? (.*)$");
+
+    // Results are folded in here so the timed loops can't be optimised away
+    private static volatile long sink;
+
+    @Test
+    public void focusLines() {
+        OutputScanners.Focus focus = new OutputScanners.Focus();
+        for (String[] sample : FOCUS_LINES) {
+            String expected = sample[1];
+            assertTrue(OutputScanners.isFocusLine(sample[0]));
+            assertEquals(sample[0], expected != null, OutputScanners.scanFocus(sample[0], focus));
+            assertEquals(sample[0], expected, focus.found() ? focus.packageName() + "/" + focus.activityName()
+                    : null);
+            assertEquals(sample[0], expected, legacyFocus(sample[0]));
+        }
+    }
+
+    @Test
+    public void focusPackageComparesInPlace() {
+        OutputScanners.Focus focus = new OutputScanners.Focus();
+        OutputScanners.scanFocus(FOCUS_LINES[0][0], focus);
+        assertTrue(focus.packageEquals("com.whatsapp"));
+        assertFalse(focus.packageEquals("com.whatsapp.w4b"));
+        assertFalse(focus.packageEquals(null));
+
+        OutputScanners.scanFocus(FOCUS_LINES[4][0], focus);
+        assertFalse(focus.packageEquals("com.whatsapp"));
+        assertNull(focus.packageName());
+    }
+
+    @Test
+    public void focusWithinRangeOfLargerOutput() {
+        String output = FOCUS_LINES[4][0] + "\n" + FOCUS_LINES[3][0] + "\n" + FOCUS_LINES[0][0];
+        int from = output.indexOf('\n') + 1;
+        int to = output.indexOf('\n', from);
+        OutputScanners.Focus focus = new OutputScanners.Focus();
+
+        assertFalse(OutputScanners.scanFocus(output, 0, from - 1, focus));
+        assertTrue(OutputScanners.scanFocus(output, from, to, focus));
+        assertEquals("com.instagram.android", focus.packageName());
+        assertEquals(".activity.MainTabActivity", focus.activityName());
+    }
+
+    @Test
+    public void nonFocusLines() {
+        assertFalse(OutputScanners.isFocusLine("  mLastFocus=null"));
+        assertFalse(OutputScanners.isFocusLine(""));
+        assertFalse(OutputScanners.scanFocus("", new OutputScanners.Focus()));
+    }
+
+    @Test
+    public void packageLines() {
+        OutputScanners.PackageEntry entry = new OutputScanners.PackageEntry();
+        for (String[] sample : PACKAGE_LINES) {
+            assertTrue(sample[0], OutputScanners.scanPackage(sample[0], entry));
+            assertEquals(sample[0], sample[1], entry.packageName());
+            assertEquals(sample[0], sample[2], entry.apkPath());
+            assertTrue(entry.packageEquals(sample[1]));
+            assertEquals(sample[0], sample[1], legacyPackage(sample[0]));
+        }
+    }
+
+    @Test
+    public void packageLinesWithUidAndJunk() {
+        OutputScanners.PackageEntry entry = new OutputScanners.PackageEntry();
+        assertTrue(OutputScanners.scanPackage("package:com.whatsapp uid:10187", entry));
+        assertEquals("com.whatsapp", entry.packageName());
+        assertTrue(OutputScanners.scanPackage("  package:com.android.chrome", entry));
+        assertEquals("com.android.chrome", entry.packageName());
+
+        assertFalse(OutputScanners.scanPackage("package:", entry));
+        assertFalse(entry.found());
+        assertFalse(OutputScanners.scanPackage("WARNING: linker: unused DT entry", entry));
+        assertFalse(OutputScanners.scanPackage("", entry));
+    }
+
+    @Test
+    public void amStartCold() {
+        OutputScanners.AmStart start = scanAmStart(AM_START_COLD);
+        assertTrue(start.ok);
+        assertTrue(start.coldStart);
+        assertEquals(612, start.totalTimeMs);
+        assertEquals(618, start.waitTimeMs);
+        assertEquals(-1, start.thisTimeMs);
+        assertEquals(612, start.launchTimeMs());
+        assertNull(start.error());
+        assertNull(start.warning());
+    }
+
+    @Test
+    public void amStartBroughtToFront() {
+        OutputScanners.AmStart start = scanAmStart(AM_START_BROUGHT_TO_FRONT);
+        assertTrue(start.ok);
+        assertFalse(start.coldStart);
+        assertEquals(-1, start.totalTimeMs);
+        assertEquals(41, start.launchTimeMs());
+        assertNotNull(start.warning());
+        assertNull(start.error());
+    }
+
+    @Test
+    public void amStartMissingActivity() {
+        OutputScanners.AmStart start = scanAmStart(AM_START_MISSING);
+        assertFalse(start.ok);
+        assertEquals("Error type 3", start.error());
+        assertEquals(-1, start.launchTimeMs());
+
+        // An error line wins over a later "Status: ok"
+        OutputScanners.scanAmStartLine("Status: ok", start);
+        assertFalse(start.ok);
+    }
+
+    @Test
+    public void amStartAgreesWithRegexParsing() {
+        for (String[] output : AM_START_OUTPUTS) {
+            Map<String, String> legacy = legacyAmStart(output);
+            OutputScanners.AmStart start = scanAmStart(output);
+            String legacyTotal = legacy.get("TotalTime");
+            assertEquals(output[0], "ok".equals(legacy.get("Status")) && !legacy.containsKey("Error"), start.ok);
+            assertEquals(output[0], legacyTotal != null ? Long.parseLong(legacyTotal) : -1, start.totalTimeMs);
+        }
+    }
+
+    @Test
+    public void resetClearsAmStart() {
+        OutputScanners.AmStart start = scanAmStart(AM_START_MISSING);
+        start.reset();
+        assertFalse(start.ok);
+        assertNull(start.error());
+        assertEquals(-1, start.launchTimeMs());
+    }
+
+    /**
+     * Time per line against the split/regex parsing
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void timing() {
+        // Untimed warm-up so both sides run compiled code
+        timeFocus(TIMING_PASSES / 10);
+        timePackages(TIMING_PASSES / 10);
+        timeAmStart(TIMING_PASSES / 10);
+
+        System.out.println("OutputScanners, " + TIMING_PASSES + " passes");
+        System.out.println(timeFocus(TIMING_PASSES));
+        System.out.println(timePackages(TIMING_PASSES));
+        System.out.println(timeAmStart(TIMING_PASSES));
+    }
+
+    private static String timeFocus(int passes) {
+        OutputScanners.Focus focus = new OutputScanners.Focus();
+        long total = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (String[] sample : FOCUS_LINES) {
+                String component = legacyFocus(sample[0]);
+                total += component != null ? component.length() : 0;
+            }
+        }
+        long legacyNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (String[] sample : FOCUS_LINES) {
+                if (OutputScanners.scanFocus(sample[0], focus))
+                    total += focus.packageEquals("com.whatsapp") ? 1 : 2;
+            }
+        }
+        long scannerNs = System.nanoTime() - start;
+        return format("Focus", legacyNs, scannerNs, (long) passes * FOCUS_LINES.length, total);
+    }
+
+    private static String timePackages(int passes) {
+        OutputScanners.PackageEntry entry = new OutputScanners.PackageEntry();
+        long total = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (String[] sample : PACKAGE_LINES) {
+                total += legacyPackage(sample[0]).length();
+            }
+        }
+        long legacyNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (String[] sample : PACKAGE_LINES) {
+                if (OutputScanners.scanPackage(sample[0], entry))
+                    total += entry.packageEquals("com.whatsapp") ? 1 : 2;
+            }
+        }
+        long scannerNs = System.nanoTime() - start;
+        return format("Packages", legacyNs, scannerNs, (long) passes * PACKAGE_LINES.length, total);
+    }
+
+    private static String timeAmStart(int passes) {
+        OutputScanners.AmStart result = new OutputScanners.AmStart();
+        int lines = 0;
+        for (String[] output : AM_START_OUTPUTS) {
+            lines += output.length;
+        }
+
+        long total = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (String[] output : AM_START_OUTPUTS) {
+                total += legacyAmStart(output).size();
+            }
+        }
+        long legacyNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            for (String[] output : AM_START_OUTPUTS) {
+                result.reset();
+                for (String line : output) {
+                    OutputScanners.scanAmStartLine(line, result);
+                }
+                total += result.totalTimeMs;
+            }
+        }
+        long scannerNs = System.nanoTime() - start;
+        return format("am start", legacyNs, scannerNs, (long) passes * lines, total);
+    }
+
+    private static String format(String name, long legacyNs, long scannerNs, long lines, long total) {
+        double legacyPerLine = (double) legacyNs / lines;
+        double scannerPerLine = (double) scannerNs / lines;
+        sink += total;
+        return String.format("%s: split/regex %.0fns/line, scanner %.0fns/line (%.1fx)", name, legacyPerLine,
+                scannerPerLine, scannerPerLine > 0 ? legacyPerLine / scannerPerLine : 0.0);
+    }
+
+    private static OutputScanners.AmStart scanAmStart(String[] output) {
+        OutputScanners.AmStart start = new OutputScanners.AmStart();
+        for (String line : output) {
+            OutputScanners.scanAmStartLine(line, start);
+        }
+        return start;
+    }
+
+    // The split/regex parsing the scanners replaced
+
+    private static String legacyFocus(String line) {
+        if (line == null || !line.contains("/"))
+            return null;
+        String[] parts = line.split(" ");
+        for (String part : parts) {
+            if (part.contains("/")) {
+                String[] appParts = part.split("/");
+                if (appParts.length >= 2)
+                    return appParts[0].trim() + "/" + appParts[1].replace("}", "").trim();
+            }
+        }
+        return null;
+    }
+
+    private static String legacyPackage(String line) {
+        if (!line.startsWith("package:"))
+            return null;
+        String packageName = line.substring(8);
+        String[] parts = packageName.split("=");
+        return parts[parts.length - 1];
+    }
+
+    private static Map<String, String> legacyAmStart(String[] output) {
+        Map<String, String> fields = new HashMap<>();
+        for (String line : output) {
+            Matcher m = AM_LINE.matcher(line);
+            if (m.matches())
+                fields.put(m.group(1).trim(), m.group(2).trim());
+        }
+        return fields;
+    }
+}
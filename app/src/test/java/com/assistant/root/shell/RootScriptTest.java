@@ -0,0 +1,75 @@
+package com.assistant.root.shell;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * How RootScript splits a script into steps, keeping multi-line shell
+ * constructs whole
+ */
+public class RootScriptTest {
+
+    @Test
+    public void oneStepPerLine() {
+        assertEquals(Arrays.asList("input tap 5 5", "sleep 1", "echo done"),
+                RootScript.parse("  input tap 5 5\n\n sleep 1 \r\necho done\n"));
+        assertEquals(0, RootScript.parse(null).size());
+        assertEquals(0, RootScript.parse(" \n\n").size());
+    }
+
+    @Test
+    public void loopsAndConditionalsAreOneStep() {
+        String loop = "for i in 1 2 3; do\ninput keyevent 20\nsleep 1\ndone";
+        String branch = "if [ -f /sdcard/a ]; then\nrm /sdcard/a\nelse\necho missing\nfi";
+        assertEquals(Arrays.asList("echo start", loop, branch, "echo end"),
+                RootScript.parse("echo start\n" + loop + "\n" + branch + "\necho end"));
+
+        String nested = "while true; do\nif pidof app; then\nbreak\nfi\nsleep 1\ndone";
+        assertEquals(Arrays.asList(nested), RootScript.parse(nested));
+
+        String cases = "case $x in\na) echo a;;\n*) echo other;;\nesac";
+        String group = "f() {\necho in f\n}";
+        assertEquals(Arrays.asList(cases, group, "f"), RootScript.parse(cases + "\n" + group + "\nf"));
+    }
+
+    @Test
+    public void reservedWordsOnlyCountAsCommands() {
+        assertEquals(Arrays.asList("echo done", "echo 'if' \"then\" for", "echo ${x} # if then do", "# for"),
+                RootScript.parse("echo done\necho 'if' \"then\" for\necho ${x} # if then do\n# for"));
+        assertEquals(Arrays.asList("for x in do done; do echo $x; done", "echo after"),
+                RootScript.parse("for x in do done; do echo $x; done\necho after"));
+    }
+
+    @Test
+    public void heredocBodiesAreKeptAsWritten() {
+        String heredoc = "cat > /data/local/tmp/a.sh <<'EOF'\n  if true; then\n\techo \"x\nEOF";
+        assertEquals(Arrays.asList(heredoc, "sh /data/local/tmp/a.sh"),
+                RootScript.parse(heredoc + "\nsh /data/local/tmp/a.sh"));
+
+        String stripped = "cat <<-END | sh\n\techo one\n\tEND";
+        assertEquals(Arrays.asList(stripped, "echo two"), RootScript.parse(stripped + "\necho two"));
+
+        // Here-strings have no body
+        assertEquals(Arrays.asList("grep a <<< abc", "echo b"), RootScript.parse("grep a <<< abc\necho b"));
+    }
+
+    @Test
+    public void openQuotesAndContinuationsJoinLines() {
+        assertEquals(Arrays.asList("echo 'one\n  two'", "echo three"),
+                RootScript.parse("echo 'one\n  two'\necho three"));
+        assertEquals(Arrays.asList("pm list packages \\\n-3", "echo x"),
+                RootScript.parse("pm list packages \\\n  -3\necho x"));
+        assertEquals(Arrays.asList("pidof app &&\nam force-stop app", "ps -A |\ngrep app", "sleep 1 &", "echo y"),
+                RootScript.parse("pidof app &&\nam force-stop app\nps -A |\ngrep app\nsleep 1 &\necho y"));
+        assertEquals(Arrays.asList("echo a 2>&1", "echo b"), RootScript.parse("echo a 2>&1\necho b"));
+    }
+
+    @Test
+    public void unclosedConstructRunsAsItIs() {
+        assertEquals(Arrays.asList("echo a", "if true; then\necho b"),
+                RootScript.parse("echo a\nif true; then\necho b"));
+    }
+}
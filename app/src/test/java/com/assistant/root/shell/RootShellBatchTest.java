@@ -0,0 +1,105 @@
+package com.assistant.root.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * How a batch written to one session is split back into per-command
+ * results, each read only until its own deadline. Runs against a plain
+ * `sh`, which frames commands the same way su does.
+ */
+public class RootShellBatchTest {
+    private RootShell.Session session;
+
+    @Before
+    public void startShell() throws Exception {
+        session = new RootShell.Session(1, new ProcessBuilder("sh").start());
+    }
+
+    @After
+    public void stopShell() {
+        session.kill();
+    }
+
+    private static long[] deadlines(long... timeoutsMs) {
+        long now = System.currentTimeMillis();
+        long[] deadlines = new long[timeoutsMs.length];
+        for (int i = 0; i < timeoutsMs.length; i++) {
+            deadlines[i] = now + timeoutsMs[i];
+        }
+        return deadlines;
+    }
+
+    @Test
+    public void resultsAreSplitPerCommand() throws Exception {
+        List<RootShell.Result> results = session.execAll(
+                Arrays.asList("echo one", "echo two; echo oops >&2; false", "printf three"),
+                deadlines(5000, 5000, 5000), null);
+
+        assertEquals(3, results.size());
+        assertEquals("one\n", results.get(0).stdout);
+        assertEquals(0, results.get(0).exitCode);
+        assertEquals("two\n", results.get(1).stdout);
+        assertEquals("oops\n", results.get(1).stderr);
+        assertEquals(1, results.get(1).exitCode);
+        // Output without a trailing newline still ends at the marker
+        assertEquals("three\n", results.get(2).stdout);
+        assertTrue(results.get(2).isSuccess());
+    }
+
+    @Test
+    public void timeSpentAheadCountsAgainstLaterDeadlines() throws Exception {
+        long start = System.currentTimeMillis();
+        List<RootShell.Result> results = session.execAll(
+                Arrays.asList("sleep 0.5; echo slow", "echo late", "echo after"),
+                deadlines(5000, 200, 5000), null);
+
+        assertEquals("slow\n", results.get(0).stdout);
+        // Its deadline passed while the first command ran, so it isn't waited for
+        assertTrue(results.get(1).timedOut);
+        assertFalse(results.get(1).isSuccess());
+        // The skipped command doesn't take the next one's output with it
+        assertEquals("after\n", results.get(2).stdout);
+        assertEquals(0, results.get(2).exitCode);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        // The session is clean for the next command
+        assertEquals("next\n", session.exec("echo next", 5000, null).stdout);
+    }
+
+    @Test
+    public void callersThatGaveUpAreNotWaitedFor() throws Exception {
+        SettableFuture<Object> gaveUp = SettableFuture.create();
+        gaveUp.cancel(false);
+        List<SettableFuture<Object>> callers = Arrays.asList(null, gaveUp, null);
+
+        List<RootShell.Result> results = session.execAll(
+                Arrays.asList("echo first", "echo unwanted", "echo third"),
+                deadlines(5000, 5000, 5000), callers);
+
+        assertEquals("first\n", results.get(0).stdout);
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("", results.get(1).stdout);
+        assertEquals("third\n", results.get(2).stdout);
+    }
+
+    @Test
+    public void commandEndingTheShellFailsTheRest() throws Exception {
+        List<RootShell.Result> results = session.execAll(
+                Arrays.asList("echo bye; exit 3", "echo never"), deadlines(5000, 5000), null);
+
+        assertEquals("bye\n", results.get(0).stdout);
+        assertEquals(3, results.get(0).exitCode);
+        assertTrue(results.get(1).shellUnavailable);
+    }
+}
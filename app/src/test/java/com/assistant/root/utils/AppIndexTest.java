@@ -0,0 +1,234 @@
+package com.assistant.root.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * AppIndex ranking on a phone's worth of apps, which matches are learned
+ * as aliases, and apps and aliases coming and going
+ */
+public class AppIndexTest {
+    private static final String[][] APPS = {
+            { "com.instagram.android", "Instagram" },
+            { "com.instagram.barcelona", "Threads" },
+            { "com.instacart.client", "Instacart" },
+            { "com.whatsapp", "WhatsApp" },
+            { "com.whatsapp.w4b", "WhatsApp Business" },
+            { "com.zhiliaoapp.musically", "TikTok" },
+            { "com.google.android.apps.maps", "Maps" },
+            { "com.google.android.apps.photos", "Photos" },
+            { "com.google.android.gm", "Gmail" },
+            { "com.google.android.youtube", "YouTube" },
+            { "com.spotify.music", "Spotify" },
+            { "org.telegram.messenger", "Telegram" },
+            { "com.android.chrome", "Chrome" },
+            { "com.android.settings", "Settings" } };
+    private static final int TIMING_APPS = 300;
+    private static final int TIMING_QUERIES = 2000;
+
+    private static volatile int sink;
+
+    private AppIndex index;
+
+    @Before
+    public void setUp() {
+        index = new AppIndex();
+        for (String[] app : APPS) {
+            index.add(app[0], app[1]);
+        }
+    }
+
+    private String best(String query) {
+        List<AppIndex.Match> matches = index.search(query, 3);
+        return matches.isEmpty() ? null : matches.get(0).packageName;
+    }
+
+    @Test
+    public void ranksExactLabelsFirst() {
+        assertEquals("com.whatsapp", best("whatsapp"));
+        assertEquals("com.instagram.android", best("Instagram"));
+        assertEquals("com.android.chrome", best("chrome"));
+        assertEquals(100, index.search("gmail", 1).get(0).score);
+    }
+
+    @Test
+    public void ranksPartialAndSpacedNames() {
+        assertEquals("com.whatsapp", best("whatsap"));
+        assertEquals("com.whatsapp", best("whats app"));
+        assertEquals("com.zhiliaoapp.musically", best("tik tok"));
+        assertEquals("com.google.android.apps.maps", best("google maps"));
+        assertEquals("com.google.android.youtube", best("youtub"));
+    }
+
+    @Test
+    public void ranksTypos() {
+        assertEquals("com.spotify.music", best("spotfy"));
+        assertEquals("org.telegram.messenger", best("telegarm"));
+        assertEquals("com.android.settings", best("settngs"));
+    }
+
+    @Test
+    public void nothingForUnrelatedQueries() {
+        assertTrue(index.search("zzzz", 3).isEmpty());
+        assertTrue(index.search("", 3).isEmpty());
+        assertTrue(index.search("  ", 3).isEmpty());
+    }
+
+    @Test
+    public void closeCallsAreNotLearned() {
+        // Instagram and Instacart score the same
+        List<AppIndex.Match> insta = index.search("insta", 2);
+        assertEquals(2, insta.size());
+        assertEquals(insta.get(0).score, insta.get(1).score);
+        assertFalse(AppIndex.isWorthLearning(insta));
+        // WhatsApp only just leads WhatsApp Business
+        assertFalse(AppIndex.isWorthLearning(index.search("whatsap", 2)));
+        // Typos score too low to trust
+        assertFalse(AppIndex.isWorthLearning(index.search("spotfy", 2)));
+        // Exact labels resolve directly already
+        assertFalse(AppIndex.isWorthLearning(index.search("chrome", 2)));
+        assertFalse(AppIndex.isWorthLearning(index.search("zzzz", 2)));
+    }
+
+    @Test
+    public void clearWinnersAreLearned() {
+        assertTrue(AppIndex.isWorthLearning(index.search("tik tok", 2)));
+        assertTrue(AppIndex.isWorthLearning(index.search("youtub", 2)));
+        assertTrue(AppIndex.isWorthLearning(index.search("google maps", 2)));
+    }
+
+    @Test
+    public void tiesAreBrokenByLaunchesOrLeftOpen() {
+        // Instagram and Instacart score the same; neither wins by label order
+        assertTrue(AppIndex.isAmbiguous(index.search("insta", 2)));
+
+        index.noteLaunch("com.instagram.android");
+        List<AppIndex.Match> insta = index.search("insta", 2);
+        assertFalse(AppIndex.isAmbiguous(insta));
+        assertEquals("com.instagram.android", insta.get(0).packageName);
+        assertEquals(1, insta.get(0).launches);
+
+        // A better score still beats launches
+        index.noteLaunch("com.instacart.client");
+        index.noteLaunch("com.instacart.client");
+        assertEquals("com.instagram.android", best("instagram"));
+        assertEquals("com.instacart.client", best("insta"));
+        assertFalse(AppIndex.isAmbiguous(index.search("instagram", 2)));
+    }
+
+    @Test
+    public void instaIsLearnedAsInstagram() {
+        // Without Instacart, "insta" is a clear prefix of Instagram; Threads
+        // only matches through its package name
+        index.remove("com.instacart.client");
+        List<AppIndex.Match> matches = index.search("insta", 2);
+        assertEquals("com.instagram.android", matches.get(0).packageName);
+        assertEquals("com.instagram.barcelona", matches.get(1).packageName);
+        assertFalse(AppIndex.isAmbiguous(matches));
+        assertTrue(AppIndex.isWorthLearning(matches));
+
+        // What OpenAppSkill does once Instagram has opened
+        index.noteLaunch("com.instagram.android");
+        index.addAlias("insta", matches.get(0).packageName);
+
+        // Installing Instacart later doesn't take the name back
+        index.add("com.instacart.client", "Instacart");
+        List<AppIndex.Match> again = index.search("insta", 2);
+        assertEquals("com.instagram.android", again.get(0).packageName);
+        assertTrue(again.get(0).alias);
+        assertFalse(AppIndex.isAmbiguous(again));
+        assertFalse(AppIndex.isWorthLearning(again));
+    }
+
+    @Test
+    public void aliasesComeFirstUntilRemoved() {
+        index.addAlias("Insta", "com.instagram.android");
+        List<AppIndex.Match> matches = index.search("insta", 3);
+        assertEquals("com.instagram.android", matches.get(0).packageName);
+        assertTrue(matches.get(0).alias);
+        // Listed once, as the alias
+        for (int i = 1; i < matches.size(); i++) {
+            assertFalse("com.instagram.android".equals(matches.get(i).packageName));
+        }
+        assertFalse(AppIndex.isWorthLearning(matches));
+        assertEquals("com.instagram.android", index.getAliases().get("insta"));
+
+        assertTrue(index.removeAlias(" INSTA "));
+        assertFalse(index.removeAlias("insta"));
+        assertTrue(index.getAliases().isEmpty());
+        assertFalse(index.search("insta", 3).get(0).alias);
+    }
+
+    @Test
+    public void aliasOfRemovedAppIsKeptForReinstall() {
+        index.addAlias("gram", "com.instagram.android");
+        index.remove("com.instagram.android");
+        assertFalse("com.instagram.android".equals(best("gram")));
+        assertEquals("com.instagram.android", index.getAliases().get("gram"));
+
+        index.add("com.instagram.android", "Instagram");
+        assertTrue(index.search("gram", 1).get(0).alias);
+    }
+
+    @Test
+    public void appsAddedAndRemovedOneAtATime() {
+        assertEquals(APPS.length, index.size());
+        assertEquals(null, best("signal"));
+
+        index.add("org.thoughtcrime.securesms", "Signal");
+        assertEquals(APPS.length + 1, index.size());
+        assertEquals("org.thoughtcrime.securesms", best("signal"));
+
+        index.remove("org.thoughtcrime.securesms");
+        index.remove("org.thoughtcrime.securesms");
+        assertEquals(APPS.length, index.size());
+        assertEquals(null, best("signal"));
+
+        // Re-adding a package replaces what was indexed for it
+        index.add("com.spotify.music", "Spotify Lite");
+        assertEquals(APPS.length, index.size());
+        assertEquals("com.spotify.music", best("spotify lite"));
+        index.add("com.spotify.music", "Music");
+        assertEquals(null, best("lite"));
+    }
+
+    /**
+     * Search time on a crowded device
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void timing() {
+        Random random = new Random(3);
+        for (int i = 0; i < TIMING_APPS; i++) {
+            index.add("com.vendor" + i + ".app" + random.nextInt(1000), "App " + randomWord(random) + " " + i);
+        }
+        String[] queries = { "insta", "whatsap", "tik tok", "google maps", "spotfy", "telegarm", "zzzz", "settngs" };
+
+        for (int i = 0; i < TIMING_QUERIES / 2; i++) {
+            sink += index.search(queries[i % queries.length], 2).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMING_QUERIES; i++) {
+            sink += index.search(queries[i % queries.length], 2).size();
+        }
+        double us = (System.nanoTime() - start) / 1e3 / TIMING_QUERIES;
+        System.out.println(String.format("AppIndex, %d apps: %.1fus per search", index.size(), us));
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 4 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}